@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Circuit benchmark.
+ * Parses, analyzes and steps some of the bundled circuits: lrc and
+ * filt-lopass are linear, amp-invert and opamp have op-amps, 555square
+ * and counter switch transistors and logic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircuitBenchmark {
+    @Param({"lrc.txt", "filt-lopass.txt", "amp-invert.txt", "opamp.txt",
+            "555square.txt", "counter.txt"})
+    String circuit;
+
+    @Param({"false", "true"})
+    boolean sparseSolver;
+
+    String text;
+    Simulator sim;
+
+    @Setup
+    public void setup() throws IOException {
+        text = readCircuit(circuit);
+        sim = newSimulator();
+        // get past the start-up transient
+        sim.step(1000);
+    }
+
+    static String readCircuit(String name) throws IOException {
+        InputStream in = CircuitBenchmark.class.getClassLoader()
+            .getResourceAsStream("circuits/" + name);
+        if (in == null) {
+            throw new IOException("no circuit " + name);
+        }
+        ByteArrayOutputStream ba = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            ba.write(buf, 0, n);
+        }
+        in.close();
+        return new String(ba.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    Simulator newSimulator() {
+        Simulator s = new Simulator();
+        s.random = new Random(1);
+        s.sparseSolver = sparseSolver;
+        CircuitReader.read(s, text);
+        return s;
+    }
+
+    @Benchmark
+    public Simulator readSetup() {
+        Simulator s = new Simulator();
+        CircuitReader.read(s, text);
+        return s;
+    }
+
+    @Benchmark
+    public Simulator analyzeCircuit() {
+        sim.analyzeCircuit();
+        return sim;
+    }
+
+    // one time step, including its Newton iterations.  If the circuit
+    // stops, start it again so the numbers stay meaningful.
+    @Benchmark
+    public double step() {
+        if (!sim.step()) {
+            sim = newSimulator();
+        }
+        return sim.t;
+    }
+}
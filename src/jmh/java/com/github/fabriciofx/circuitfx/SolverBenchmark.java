@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Solver benchmark.
+ * Factors and solves random matrices shaped like circuit matrices: a
+ * few off-diagonal entries per row and a dominant diagonal.  The seed
+ * is fixed, so every run sees the same matrices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolverBenchmark {
+    @Param({"8", "32", "128", "512"})
+    int size;
+
+    Simulator sim = new Simulator();
+    DenseMatrix orig, dense, work;
+    SparseMatrix sparse;
+    SparseLU lu = new SparseLU();
+    int[] permute;
+    double[] rightSide, b;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(1);
+        orig = new DenseMatrix(size);
+        int i, j;
+        for (i = 0; i != size; i++) {
+            double sum = 0;
+            for (j = 0; j != 4; j++) {
+                int c = r.nextInt(size);
+                double x = r.nextDouble() * 2 - 1;
+                if (c != i) {
+                    orig.add(i, c, x);
+                    sum += Math.abs(x);
+                }
+            }
+            orig.add(i, i, sum + 1);
+        }
+        dense = new DenseMatrix(size);
+        work = new DenseMatrix(size);
+        permute = new int[size];
+        rightSide = new double[size];
+        b = new double[size];
+        for (i = 0; i != size; i++) {
+            rightSide[i] = r.nextDouble();
+        }
+        sparse = new SparseMatrix(orig);
+        lu.analyze(sparse);
+        lu.factor(sparse);
+        dense.copy(orig);
+        sim.lu_factor(dense, size, permute);
+    }
+
+    // lu_factor works in place, so this includes copying the matrix
+    @Benchmark
+    public DenseMatrix denseFactor() {
+        work.copy(orig);
+        sim.lu_factor(work, size, permute);
+        return work;
+    }
+
+    @Benchmark
+    public double[] denseSolve() {
+        System.arraycopy(rightSide, 0, b, 0, size);
+        sim.lu_solve(dense, size, permute, b);
+        return b;
+    }
+
+    // factorization with pivot search, as after a change in the pattern
+    @Benchmark
+    public boolean sparseFactor() {
+        return lu.factor(sparse);
+    }
+
+    // factorization reusing the pivots, as in a Newton iteration
+    @Benchmark
+    public boolean sparseRefactor() {
+        return lu.refactor(sparse);
+    }
+
+    @Benchmark
+    public double[] sparseSolve() {
+        System.arraycopy(rightSide, 0, b, 0, size);
+        lu.solve(b);
+        return b;
+    }
+}
@@ -105,7 +105,7 @@ class AMElm extends CircuitElm {
         drawWaveform(g, point2);
         drawPosts(g);
         curcount = updateDotCount(-current, curcount);
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, lead1, curcount);
         }
     }
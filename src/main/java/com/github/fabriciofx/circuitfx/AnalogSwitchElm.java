@@ -96,6 +96,10 @@ class AnalogSwitchElm extends CircuitElm {
         return true;
     }
 
+    int getMatrixState() {
+        return open ? 1 : 0;
+    }
+
     void stamp() {
         sim.stampNonLinear(nodes[0]);
         sim.stampNonLinear(nodes[1]);
@@ -111,15 +115,15 @@ class AnalogSwitchElm extends CircuitElm {
     }
 
     void drag(int xx, int yy) {
-        xx = sim.snapGrid(xx);
-        yy = sim.snapGrid(yy);
+        xx = snapGrid(xx);
+        yy = snapGrid(yy);
         if (abs(x - xx) < abs(y - yy)) {
             xx = x;
         } else {
             yy = y;
         }
         int q1 = abs(x - xx) + abs(y - yy);
-        int q2 = (q1 / 2) % sim.gridSize;
+        int q2 = (q1 / 2) % gridSize();
         if (q2 != 0) {
             return;
         }
@@ -136,6 +140,18 @@ class AnalogSwitchElm extends CircuitElm {
         return (n == 0) ? point1 : (n == 1) ? point2 : point3;
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(open);
+        s.save(resistance);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        open = s.restoreBoolean();
+        resistance = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "analog switch";
         arr[1] = open ? "open" : "closed";
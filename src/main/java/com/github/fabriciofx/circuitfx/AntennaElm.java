@@ -67,4 +67,14 @@ class AntennaElm extends RailElm {
     int getShortcut() {
         return 0;
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(fmphase);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        fmphase = s.restore();
+    }
 }
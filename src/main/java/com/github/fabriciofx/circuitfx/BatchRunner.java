@@ -0,0 +1,267 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch runner.
+ * Simulates a set of circuit files without a display and writes the
+ * waveforms seen by their probes (probe, output and logic output
+ * elements) to one CSV file per circuit.  Each circuit gets its own
+ * Simulator, and the circuits run in parallel.
+ *
+ *   java -cp circuitfx.jar com.github.fabriciofx.circuitfx.BatchRunner
+ *       [-t time] [-n steps] [-i interval] [-a] [-o dir] [-j threads]
+ *       file|dir ...
+ *
+ * Each circuit runs until it reaches the simulated time or the step
+ * count, whichever comes first.  The bundled circuits' time steps range
+ * from picoseconds to microseconds, so the step count is the better
+ * limit when running all of them.  -a turns on adaptive time steps.
+ * The CSV files are named after the circuit files, so circuits with
+ * the same name in different directories have to be run separately.
+ */
+public class BatchRunner {
+    double simTime = Double.MAX_VALUE;
+    int maxSteps = 10000;
+    boolean adaptive;
+    double interval;
+    File outDir = new File(".");
+    int threads = Runtime.getRuntime().availableProcessors();
+    List<File> files = new ArrayList<File>();
+    // the files by the name of their CSV file, which must be unique
+    HashMap<String, File> outNames = new HashMap<String, File>();
+
+    public static void main(String[] args) {
+        BatchRunner br = new BatchRunner();
+        try {
+            br.parseArgs(args);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: BatchRunner [-t time] [-n steps] " +
+                "[-i interval] [-a] [-o dir] [-j threads] file|dir ...");
+            System.exit(2);
+        }
+        System.exit(br.run() ? 0 : 1);
+    }
+
+    void parseArgs(String[] args) {
+        int i;
+        for (i = 0; i != args.length; i++) {
+            String a = args[i];
+            if (a.equals("-a")) {
+                adaptive = true;
+                continue;
+            }
+            if (a.startsWith("-") && i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value for " + a);
+            }
+            if (a.equals("-t")) {
+                simTime = Double.parseDouble(args[++i]);
+            } else if (a.equals("-n")) {
+                maxSteps = Integer.parseInt(args[++i]);
+            } else if (a.equals("-i")) {
+                interval = Double.parseDouble(args[++i]);
+            } else if (a.equals("-o")) {
+                outDir = new File(args[++i]);
+            } else if (a.equals("-j")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (a.startsWith("-")) {
+                throw new IllegalArgumentException("unknown option " + a);
+            } else {
+                addFile(new File(a));
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("no circuit files given");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("bad thread count " + threads);
+        }
+    }
+
+    // add a circuit file, or all the .txt files in a directory
+    void addFile(File f) {
+        if (!f.isDirectory()) {
+            addCircuit(f);
+            return;
+        }
+        File[] list = f.listFiles();
+        if (list == null) {
+            throw new IllegalArgumentException("can't read directory " + f);
+        }
+        Arrays.sort(list);
+        int i;
+        for (i = 0; i != list.length; i++) {
+            if (list[i].isFile() && list[i].getName().endsWith(".txt")) {
+                addCircuit(list[i]);
+            }
+        }
+    }
+
+    // the CSV files all go in outDir, so two circuits with the same name
+    // would write the same one
+    void addCircuit(File f) {
+        File other = outNames.put(getOutputName(f), f);
+        if (other != null) {
+            throw new IllegalArgumentException(f + " and " + other +
+                " would both be written to " + getOutputName(f));
+        }
+        files.add(f);
+    }
+
+    // the name of the CSV file for circuit file f
+    static String getOutputName(File f) {
+        String name = f.getName();
+        if (name.endsWith(".txt")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return name + ".csv";
+    }
+
+    // run all the circuits, printing one result line for each in the
+    // order they were given.  Returns false if any of them failed.
+    boolean run() {
+        long t0 = System.currentTimeMillis();
+        outDir.mkdirs();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        int i;
+        for (i = 0; i != files.size(); i++) {
+            final File f = files.get(i);
+            results.add(pool.submit(new Callable<String>() {
+                public String call() {
+                    return runFile(f);
+                }
+            }));
+        }
+        boolean ok = true;
+        for (i = 0; i != results.size(); i++) {
+            String s;
+            try {
+                s = results.get(i).get();
+            } catch (Exception e) {
+                s = "failed: " + e;
+            }
+            if (!s.startsWith("ok")) {
+                ok = false;
+            }
+            System.out.println(files.get(i).getName() + ": " + s);
+        }
+        pool.shutdown();
+        System.out.println(files.size() + " circuits in " +
+            (System.currentTimeMillis() - t0) + " ms");
+        return ok;
+    }
+
+    // the elements whose voltages are recorded
+    static Vector<CircuitElm> getProbes(Simulator sim) {
+        Vector<CircuitElm> probes = new Vector<CircuitElm>();
+        int i;
+        for (i = 0; i != sim.elmList.size(); i++) {
+            CircuitElm ce = sim.getElm(i);
+            if (ce instanceof ProbeElm || ce instanceof OutputElm ||
+                ce instanceof LogicOutputElm) {
+                probes.addElement(ce);
+            }
+        }
+        return probes;
+    }
+
+    // simulate one circuit and write its waveforms; returns a one-line
+    // result
+    String runFile(File f) {
+        long t0 = System.currentTimeMillis();
+        Simulator sim = new Simulator();
+        try {
+            String text = new String(Files.readAllBytes(f.toPath()),
+                StandardCharsets.UTF_8);
+            CircuitReader.read(sim, text);
+            sim.setAdaptiveTimeStep(adaptive);
+        } catch (IOException e) {
+            return "failed: " + e;
+        }
+        Vector<CircuitElm> probes = getProbes(sim);
+        int i;
+        File out = new File(outDir, getOutputName(f));
+        int steps = 0;
+        try {
+            Writer w = new OutputStreamWriter(new FileOutputStream(out),
+                StandardCharsets.UTF_8);
+            try {
+                StringBuilder sb = new StringBuilder("t");
+                for (i = 0; i != probes.size(); i++) {
+                    CircuitElm ce = probes.elementAt(i);
+                    sb.append(',').append(ce.getClass().getSimpleName())
+                        .append('@').append(ce.x).append(':').append(ce.y);
+                }
+                sb.append('\n');
+                w.write(sb.toString());
+                double nextSample = 0;
+                while (sim.t < simTime && steps < maxSteps && sim.step()) {
+                    steps++;
+                    if (sim.t < nextSample) {
+                        continue;
+                    }
+                    nextSample = sim.t + interval;
+                    sb.setLength(0);
+                    sb.append(sim.t);
+                    for (i = 0; i != probes.size(); i++) {
+                        sb.append(',')
+                            .append(probes.elementAt(i).getVoltageDiff());
+                    }
+                    sb.append('\n');
+                    w.write(sb.toString());
+                }
+            } finally {
+                w.close();
+            }
+        } catch (IOException e) {
+            return "failed: " + e;
+        } catch (RuntimeException e) {
+            return "failed at t=" + sim.t + ": " + e;
+        }
+        String s = (sim.stopMessage != null) ?
+            "stopped at t=" + sim.t + ": " + sim.stopMessage :
+            (sim.elmList.size() == 0) ? "ok, empty circuit" : "ok";
+        return s + " (" + steps + " steps, " + probes.size() + " probes, " +
+            (System.currentTimeMillis() - t0) + " ms)";
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.concurrent.Future;
+
+/**
+ * Factors the blocks of a block diagonal circuit matrix (see
+ * Simulator.findBlocks()) on several threads.  The blocks are split into
+ * slices of consecutive blocks with about the same amount of work, one
+ * slice per thread.  Each block is factored on its own, in its own part
+ * of the matrix, so the factors are the same as when the blocks are
+ * factored one after the other.
+ */
+class BlockFactorer {
+    class Slice implements Runnable {
+        int start, end;
+        boolean ok;
+
+        Slice(int s, int n) {
+            start = s;
+            end = n;
+        }
+
+        public void run() {
+            int k;
+            ok = true;
+            for (k = start; k != end && ok; k++) {
+                ok = sim.lu_factor_block(matrix, k, permute);
+            }
+        }
+    }
+
+    Simulator sim;
+    Slice[] slices;
+    Future<?>[] futures;
+    // what run() is factoring
+    DenseMatrix matrix;
+    int[] permute;
+
+    // split the blocks of m, as far as possible, into as many slices as
+    // there are threads
+    BlockFactorer(Simulator s, DenseMatrix m, int threads) {
+        sim = s;
+        int blocks = m.getBlockCount();
+        threads = Math.min(threads, blocks);
+        slices = new Slice[threads];
+        futures = new Future<?>[threads];
+        double total = getWork(m);
+        double work = 0;
+        int i, k = 0;
+        for (i = 0; i != threads; i++) {
+            int start = k;
+            // take blocks until this slice has its share of the work,
+            // leaving at least one for each slice after it
+            while (k < blocks - (threads - 1 - i) &&
+                   (k == start || work < total * (i + 1) / threads)) {
+                work += getBlockWork(m, k++);
+            }
+            if (i == threads - 1) {
+                k = blocks;
+            }
+            slices[i] = new Slice(start, k);
+        }
+    }
+
+    // multiply-adds it takes to factor block k of m, roughly
+    static double getBlockWork(DenseMatrix m, int k) {
+        double n = m.getBlockSize(k);
+        return n * n * n / 3;
+    }
+
+    static double getWork(DenseMatrix m) {
+        double w = 0;
+        int k;
+        for (k = 0; k != m.getBlockCount(); k++) {
+            w += getBlockWork(m, k);
+        }
+        return w;
+    }
+
+    // factor the blocks of m, which has the blocks the slices were made
+    // for, keeping the row interchanges in ipvt as lu_factor() does.
+    // Returns false if a block is singular.
+    boolean run(DenseMatrix m, int[] ipvt) {
+        matrix = m;
+        permute = ipvt;
+        ElementEvaluator.runSlices(slices, futures);
+        matrix = null;
+        permute = null;
+        int i;
+        for (i = 0; i != slices.length; i++) {
+            if (!slices[i].ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -93,6 +93,11 @@ class CC2Elm extends ChipElm {
         return 1;
     }
 
+    // the pins are not all ideal inputs and outputs
+    boolean knowsPostCurrents() {
+        return false;
+    }
+
     int getDumpType() {
         return 179;
     }
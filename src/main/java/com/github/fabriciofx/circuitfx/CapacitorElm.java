@@ -94,7 +94,7 @@ class CapacitorElm extends CircuitElm {
         drawThickLine(g, point1, lead1);
         setPowerColor(g, false);
         drawThickLine(g, plate1[0], plate1[1]);
-        if (sim.powerCheckItem.getState()) {
+        if (app.powerCheckItem.getState()) {
             g.setColor(Color.gray);
         }
         // draw second lead and plate
@@ -103,12 +103,12 @@ class CapacitorElm extends CircuitElm {
         setPowerColor(g, false);
         drawThickLine(g, plate2[0], plate2[1]);
         updateDotCount();
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, lead1, curcount);
             drawDots(g, point2, lead2, -curcount);
         }
         drawPosts(g);
-        if (sim.showValuesCheckItem.getState()) {
+        if (app.showValuesCheckItem.getState()) {
             String s = getShortUnitText(capacitance, "F");
             drawValues(g, s, hs);
         }
@@ -152,6 +152,46 @@ class CapacitorElm extends CircuitElm {
         sim.stampCurrentSource(nodes[0], nodes[1], curSourceValue);
     }
 
+    int getStateCount() {
+        return 1;
+    }
+
+    double getState(int n) {
+        return voltdiff;
+    }
+
+    int getStateOrder() {
+        return isTrapezoidal() ? 2 : 1;
+    }
+
+    boolean fitsStateSpace() {
+        return true;
+    }
+
+    int getCompanionCount() {
+        return 1;
+    }
+
+    double getCompanion(int n) {
+        return curSourceValue;
+    }
+
+    void setCompanion(int n, double x) {
+        curSourceValue = x;
+    }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(voltdiff);
+        s.save(curSourceValue);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        voltdiff = s.restore();
+        curSourceValue = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "capacitor";
         getBasicInfo(arr);
@@ -54,7 +54,7 @@ abstract class ChipElm extends CircuitElm {
         }
         noDiagonal = true;
         setupPins();
-        setSize(sim.smallGridCheckItem.getState() ? 1 : 2);
+        setSize(app != null && app.smallGridCheckItem.getState() ? 1 : 2);
     }
 
     public ChipElm(
@@ -109,7 +109,7 @@ abstract class ChipElm extends CircuitElm {
             p.curcount = updateDotCount(p.current, p.curcount);
             drawDots(g, b, a, p.curcount);
             if (p.bubble) {
-                g.setColor(sim.printableCheckItem.getState() ?
+                g.setColor(app.printableCheckItem.getState() ?
                                Color.white : Color.black);
                 drawThickCircle(g, p.bubbleX, p.bubbleY, 1);
                 g.setColor(lightGrayColor);
@@ -136,19 +136,19 @@ abstract class ChipElm extends CircuitElm {
     }
 
     void drag(int xx, int yy) {
-        yy = sim.snapGrid(yy);
+        yy = snapGrid(yy);
         if (xx < x) {
             xx = x;
             yy = y;
         } else {
             y = y2 = yy;
-            x2 = sim.snapGrid(xx);
+            x2 = snapGrid(xx);
         }
         setPoints();
     }
 
     void setPoints() {
-        if (x2 - x > sizeX * cspc2 && this == sim.dragElm) {
+        if (x2 - x > sizeX * cspc2 && app != null && this == app.dragElm) {
             setSize(2);
         }
         int hs = cspc;
@@ -212,7 +212,54 @@ abstract class ChipElm extends CircuitElm {
     void execute() {
     }
 
-    void doStep() {
+    // chips whose execute() depends on nothing but the input levels and
+    // their own state override this to return true
+    boolean isLogic() {
+        return false;
+    }
+
+    // the levels of the outputs
+    int getSwitchState() {
+        int i, s = 0;
+        for (i = 0; i != getPostCount(); i++) {
+            if (pins[i].output) {
+                s = s * 31 + (pins[i].value ? 1 : 0);
+            }
+        }
+        return s;
+    }
+
+    // the state of a clocked chip: the levels of its outputs, one bit
+    // each, then the level of its clock when it last ran
+    int getLogicState() {
+        int i, s = 0, b = 0;
+        for (i = 0; i != getPostCount(); i++) {
+            if (pins[i].output) {
+                s |= (pins[i].value ? 1 : 0) << b++;
+            }
+        }
+        return s | (lastClock ? 1 : 0) << b;
+    }
+
+    void setLogicState(int s) {
+        int i, b = 0;
+        for (i = 0; i != getPostCount(); i++) {
+            if (pins[i].output) {
+                pins[i].value = ((s >> b++) & 1) != 0;
+            }
+        }
+        lastClock = ((s >> b) & 1) != 0;
+    }
+
+    int getLogicSource(int n) {
+        return pins[n].output ? pins[n].voltSource : -1;
+    }
+
+    double getLogicOutput(int n) {
+        return pins[n].value ? 5 : 0;
+    }
+
+    boolean evaluateLogic() {
         int i;
         for (i = 0; i != getPostCount(); i++) {
             Pin p = pins[i];
@@ -221,6 +268,12 @@ abstract class ChipElm extends CircuitElm {
             }
         }
         execute();
+        return false;
+    }
+
+    void doStep() {
+        int i;
+        evaluateLogic();
         for (i = 0; i != getPostCount(); i++) {
             Pin p = pins[i];
             if (p.output) {
@@ -241,6 +294,26 @@ abstract class ChipElm extends CircuitElm {
         lastClock = false;
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        int i;
+        for (i = 0; i != getPostCount(); i++) {
+            s.save(pins[i].value);
+            s.save(pins[i].current);
+        }
+        s.save(lastClock);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        int i;
+        for (i = 0; i != getPostCount(); i++) {
+            pins[i].value = s.restoreBoolean();
+            pins[i].current = s.restore();
+        }
+        lastClock = s.restoreBoolean();
+    }
+
     String dump() {
         int t = getDumpType();
         String s = super.dump();
@@ -289,6 +362,14 @@ abstract class ChipElm extends CircuitElm {
         }
     }
 
+    double getCurrentIntoNode(int n) {
+        return pins[n].output ? pins[n].current : 0;
+    }
+
+    boolean knowsPostCurrents() {
+        return true;
+    }
+
     String getChipName() {
         return "chip";
     }
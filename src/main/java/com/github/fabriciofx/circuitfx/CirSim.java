@@ -68,7 +68,6 @@ import java.lang.reflect.Constructor;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.util.Random;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -79,7 +78,8 @@ import java.util.Vector;
  */
 public class CirSim extends Frame
     implements ComponentListener, ActionListener, AdjustmentListener,
-    MouseMotionListener, MouseListener, ItemListener, KeyListener {
+    MouseMotionListener, MouseListener, ItemListener, KeyListener,
+    CircuitReader.Display {
     public static final int sourceRadius = 7;
     public static final double freqMult = 3.14159265 * 2 * 4;
     static final double pi = 3.14159265358979323846;
@@ -104,9 +104,9 @@ public class CirSim extends Frame
     static String ohmString = "ohm";
     public boolean useFrame;
     Thread engine = null;
+    Simulator sim = new Simulator();
     Dimension winSize;
     Image dbimage;
-    Random random;
     Label titleLabel;
     Button resetButton;
     Button dumpMatrixButton;
@@ -163,40 +163,24 @@ public class CirSim extends Frame
     Rectangle selectedArea;
     int gridSize, gridMask, gridRound;
     boolean dragging;
-    boolean analyzeFlag;
-    boolean dumpMatrix;
     boolean useBufferedImage;
     boolean isMac;
     String ctrlMetaKey;
-    double t;
     int pause = 10;
     int scopeSelected = -1;
     int menuScope = -1;
     int hintType = -1, hintItem1, hintItem2;
-    String stopMessage;
-    double timeStep;
-    Vector<CircuitElm> elmList;
     //    Vector setupList;
-    CircuitElm dragElm, menuElm, mouseElm, stopElm;
+    CircuitElm dragElm, menuElm, mouseElm;
     boolean didSwitch = false;
     int mousePost = -1;
     CircuitElm plotXElm, plotYElm;
     int draggingPost;
     SwitchElm heldSwitchElm;
-    double[][] circuitMatrix;
-    double[] circuitRightSide;
-    double[] origRightSide;
-    double[][] origMatrix;
-    RowInfo[] circuitRowInfo;
-    int[] circuitPermute;
-    boolean circuitNonLinear;
-    int voltageSourceCount;
-    int circuitMatrixSize, circuitMatrixFullSize;
-    boolean circuitNeedsMap;
     int scopeCount;
     Scope[] scopes;
     int[] scopeColCount;
-    Class[] dumpTypes, shortcuts;
+    Class[] shortcuts;
     String clipboard;
     Rectangle circuitArea;
     int circuitBottom;
@@ -212,10 +196,6 @@ public class CirSim extends Frame
     int frames = 0;
     int steps = 0;
     int framerate = 0, steprate = 0;
-    Vector<CircuitNode> nodeList;
-    CircuitElm[] voltageSources;
-    boolean converged;
-    int subIterations;
 
     CirSim(Circuit a) {
         super("Circuit Simulator v1.6i");
@@ -227,14 +207,6 @@ public class CirSim extends Frame
         return "Circuit by Paul Falstad";
     }
 
-    int getrand(int x) {
-        int q = random.nextInt();
-        if (q < 0) {
-            q = -q;
-        }
-        return q % x;
-    }
-
     public void init() {
         String euroResistor = null;
         String useFrameStr = null;
@@ -298,15 +270,7 @@ public class CirSim extends Frame
             ohmString = "\u03a9";
             useBufferedImage = true;
         }
-        dumpTypes = new Class[300];
         shortcuts = new Class[127];
-        // these characters are reserved
-        dumpTypes['o'] = Scope.class;
-        dumpTypes['h'] = Scope.class;
-        dumpTypes['$'] = Scope.class;
-        dumpTypes['%'] = Scope.class;
-        dumpTypes['?'] = Scope.class;
-        dumpTypes['B'] = Scope.class;
         main.setLayout(new CircuitLayout());
         cv = new CircuitCanvas(this);
         cv.addComponentListener(this);
@@ -606,13 +570,12 @@ public class CirSim extends Frame
             main.add(titleLabel);
         }
         setGrid();
-        elmList = new Vector<CircuitElm>();
+        sim.elmList = new Vector<CircuitElm>();
         undoStack = new Vector<String>();
         redoStack = new Vector<String>();
         scopes = new Scope[20];
         scopeColCount = new int[20];
         scopeCount = 0;
-        random = new Random();
         cv.setBackground(Color.black);
         cv.setForeground(Color.lightGray);
         elmMenu = new PopupMenu();
@@ -630,7 +593,7 @@ public class CirSim extends Frame
         }
         if (startCircuitText != null) {
             readSetup(startCircuitText);
-        } else if (stopMessage == null && startCircuit != null) {
+        } else if (sim.stopMessage == null && startCircuit != null) {
             readSetupFile(startCircuit, startLabel);
         } else {
             readSetup(null, 0, false);
@@ -768,13 +731,14 @@ public class CirSim extends Frame
                 return;
             }
         }
+        // circuits are read with CircuitReader's table, so an element
+        // missing from it could be added but not loaded
         Class dclass = elm.getDumpClass();
-        if (dumpTypes[t] != null && dumpTypes[t] != dclass) {
-            System.out.println("dump type conflict: " + c + " " +
-                                   dumpTypes[t]);
+        Class[] dumpTypes = CircuitReader.getDumpTypes();
+        if (t >= dumpTypes.length || dumpTypes[t] != dclass) {
+            System.out.println("not in CircuitReader.ELEMENTS: " + c);
             return;
         }
-        dumpTypes[t] = dclass;
         Class sclass = elm.getClass();
         if (elm.needsShortcut() && shortcuts[s] != null &&
             shortcuts[s] != sclass) {
@@ -796,7 +760,7 @@ public class CirSim extends Frame
         circuitArea = new Rectangle(0, 0, winSize.width, winSize.height - h);
         int i;
         int minx = 1000, maxx = 0, miny = 1000, maxy = 0;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             // centered text causes problems when trying to center the circuit,
             // so we special-case it here
@@ -816,7 +780,7 @@ public class CirSim extends Frame
         if (dy + miny < 0) {
             dy = gridMask & (-miny);
         }
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             ce.move(dx, dy);
         }
@@ -851,16 +815,16 @@ public class CirSim extends Frame
         if (winSize == null || winSize.width == 0) {
             return;
         }
-        if (analyzeFlag) {
+        if (sim.analyzeFlag) {
             analyzeCircuit();
-            analyzeFlag = false;
+            sim.analyzeFlag = false;
         }
         if (editDialog != null && editDialog.elm instanceof CircuitElm) {
             mouseElm = (CircuitElm) (editDialog.elm);
         }
         realMouseElm = mouseElm;
         if (mouseElm == null) {
-            mouseElm = stopElm;
+            mouseElm = sim.stopElm;
         }
         setupScopes();
         Graphics2D g = null; // hausen: changed to Graphics2D
@@ -885,7 +849,7 @@ public class CirSim extends Frame
                 runCircuit();
             } catch (Exception e) {
                 e.printStackTrace();
-                analyzeFlag = true;
+                sim.analyzeFlag = true;
                 cv.repaint();
                 return;
             }
@@ -915,7 +879,7 @@ public class CirSim extends Frame
         CircuitElm.powerMult = Math.exp(powerBar.getValue() / 4.762 - 7);
         int i;
         Font oldfont = g.getFont();
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             if (powerCheckItem.getState()) {
                 g.setColor(Color.gray);
             }
@@ -925,41 +889,39 @@ public class CirSim extends Frame
             tempMouseMode == MODE_DRAG_COLUMN ||
             tempMouseMode == MODE_DRAG_POST ||
             tempMouseMode == MODE_DRAG_SELECTED) {
-            for (i = 0; i != elmList.size(); i++) {
+            for (i = 0; i != sim.elmList.size(); i++) {
                 CircuitElm ce = getElm(i);
                 ce.drawPost(g, ce.x, ce.y);
                 ce.drawPost(g, ce.x2, ce.y2);
             }
         }
         int badnodes = 0;
-        // find bad connections, nodes not connected to other elements which
+        // find bad connections, posts not connected to other elements which
         // intersect other elements' bounding boxes
         // debugged by hausen: nullPointerException
-        if (nodeList != null) {
-            for (i = 0; i != nodeList.size(); i++) {
-                CircuitNode cn = getCircuitNode(i);
-                if (!cn.internal && cn.links.size() == 1) {
-                    int bb = 0, j;
-                    CircuitNodeLink cnl = cn.links.elementAt(0);
-                    for (
-                        j = 0; j != elmList.size(); j++
-                    ) { // TODO: (hausen) see if this change does not break
-                        // stuff
-                        CircuitElm ce = getElm(j);
-                        if (ce instanceof GraphicElm) {
-                            continue;
-                        }
-                        if (cnl.elm != ce &&
-                            getElm(j).boundingBox.contains(cn.x, cn.y)) {
-                            bb++;
-                        }
+        if (sim.lonePosts != null) {
+            for (i = 0; i != sim.lonePosts.length; i++) {
+                CircuitNodeLink cnl = sim.lonePosts[i];
+                Point pt = cnl.elm.getPost(cnl.num);
+                int bb = 0, j;
+                for (
+                    j = 0; j != sim.elmList.size(); j++
+                ) { // TODO: (hausen) see if this change does not break
+                    // stuff
+                    CircuitElm ce = getElm(j);
+                    if (ce instanceof GraphicElm) {
+                        continue;
                     }
-                    if (bb > 0) {
-                        g.setColor(Color.red);
-                        g.fillOval(cn.x - 3, cn.y - 3, 7, 7);
-                        badnodes++;
+                    if (cnl.elm != ce &&
+                        getElm(j).boundingBox.contains(pt.x, pt.y)) {
+                        bb++;
                     }
                 }
+                if (bb > 0) {
+                    g.setColor(Color.red);
+                    g.fillOval(pt.x - 3, pt.y - 3, 7, 7);
+                    badnodes++;
+                }
             }
         }
         if (dragElm != null &&
@@ -968,15 +930,15 @@ public class CirSim extends Frame
         }
         g.setFont(oldfont);
         int ct = scopeCount;
-        if (stopMessage != null) {
+        if (sim.stopMessage != null) {
             ct = 0;
         }
         for (i = 0; i != ct; i++) {
             scopes[i].draw(g);
         }
         g.setColor(CircuitElm.whiteColor);
-        if (stopMessage != null) {
-            g.drawString(stopMessage, 10, circuitArea.height);
+        if (sim.stopMessage != null) {
+            g.drawString(sim.stopMessage, 10, circuitArea.height);
         } else {
             if (circuitBottom == 0) {
                 calcCircuitBottom();
@@ -994,7 +956,7 @@ public class CirSim extends Frame
                 }
             } else {
                 CircuitElm.showFormat.setMinimumFractionDigits(2);
-                info[0] = "t = " + CircuitElm.getUnitText(t, "s");
+                info[0] = "t = " + CircuitElm.getUnitText(sim.t, "s");
                 CircuitElm.showFormat.setMinimumFractionDigits(0);
             }
             if (hintType != -1) {
@@ -1042,7 +1004,7 @@ public class CirSim extends Frame
         mouseElm = realMouseElm;
         frames++;
         realg.drawImage(dbimage, 0, 0, this);
-        if (!stoppedCheck.getState() && circuitMatrix != null) {
+        if (!stoppedCheck.getState() && sim.circuitMatrix != null) {
             // Limit to 50 fps (thanks to Jurgen Klotzer for this)
             long delay =
                 1000 / 50 - (System.currentTimeMillis() - lastFrameTime);
@@ -1217,13 +1179,13 @@ public class CirSim extends Frame
 
     public void toggleSwitch(int n) {
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             if (ce instanceof SwitchElm) {
                 n--;
                 if (n == 0) {
                     ((SwitchElm) ce).toggle();
-                    analyzeFlag = true;
+                    sim.elementChanged(ce);
                     cv.repaint();
                     return;
                 }
@@ -1232,430 +1194,41 @@ public class CirSim extends Frame
     }
 
     void needAnalyze() {
-        analyzeFlag = true;
+        sim.analyzeFlag = true;
         cv.repaint();
     }
 
-    public CircuitNode getCircuitNode(int n) {
-        if (n >= nodeList.size()) {
-            return null;
+    // something in the edit dialog changed; restamp the circuit if
+    // that's enough
+    void elementChanged(Editable e) {
+        if (e instanceof CircuitElm) {
+            sim.elementChanged((CircuitElm) e);
+        } else {
+            sim.analyzeFlag = true;
         }
-        return nodeList.elementAt(n);
+        cv.repaint();
+    }
+
+    public CircuitNode getCircuitNode(int n) {
+        return sim.getCircuitNode(n);
     }
 
     public CircuitElm getElm(int n) {
-        if (n >= elmList.size()) {
-            return null;
-        }
-        return elmList.elementAt(n);
+        return sim.getElm(n);
     }
 
     void analyzeCircuit() {
         calcCircuitBottom();
-        if (elmList.isEmpty()) {
-            return;
-        }
-        stopMessage = null;
-        stopElm = null;
-        int i, j;
-        int vscount = 0;
-        nodeList = new Vector<CircuitNode>();
-        boolean gotGround = false;
-        boolean gotRail = false;
-        CircuitElm volt = null;
-        //System.out.println("ac1");
-        // look for voltage or ground element
-        for (i = 0; i != elmList.size(); i++) {
-            CircuitElm ce = getElm(i);
-            if (ce instanceof GroundElm) {
-                gotGround = true;
-                break;
-            }
-            if (ce instanceof RailElm) {
-                gotRail = true;
-            }
-            if (volt == null && ce instanceof VoltageElm) {
-                volt = ce;
-            }
-        }
-        // if no ground, and no rails, then the voltage elm's first terminal
-        // is ground
-        if (!gotGround && volt != null && !gotRail) {
-            CircuitNode cn = new CircuitNode();
-            Point pt = volt.getPost(0);
-            cn.x = pt.x;
-            cn.y = pt.y;
-            nodeList.addElement(cn);
-        } else {
-            // otherwise allocate extra node for ground
-            CircuitNode cn = new CircuitNode();
-            cn.x = cn.y = -1;
-            nodeList.addElement(cn);
-        }
-        // allocate nodes and voltage sources
-        for (i = 0; i != elmList.size(); i++) {
-            CircuitElm ce = getElm(i);
-            int inodes = ce.getInternalNodeCount();
-            int ivs = ce.getVoltageSourceCount();
-            int posts = ce.getPostCount();
-            // allocate a node for each post and match posts to nodes
-            for (j = 0; j != posts; j++) {
-                Point pt = ce.getPost(j);
-                int k;
-                for (k = 0; k != nodeList.size(); k++) {
-                    CircuitNode cn = getCircuitNode(k);
-                    if (pt.x == cn.x && pt.y == cn.y) {
-                        break;
-                    }
-                }
-                if (k == nodeList.size()) {
-                    CircuitNode cn = new CircuitNode();
-                    cn.x = pt.x;
-                    cn.y = pt.y;
-                    CircuitNodeLink cnl = new CircuitNodeLink();
-                    cnl.num = j;
-                    cnl.elm = ce;
-                    cn.links.addElement(cnl);
-                    ce.setNode(j, nodeList.size());
-                    nodeList.addElement(cn);
-                } else {
-                    CircuitNodeLink cnl = new CircuitNodeLink();
-                    cnl.num = j;
-                    cnl.elm = ce;
-                    getCircuitNode(k).links.addElement(cnl);
-                    ce.setNode(j, k);
-                    // if it's the ground node, make sure the node voltage is 0,
-                    // cause it may not get set later
-                    if (k == 0) {
-                        ce.setNodeVoltage(j, 0);
-                    }
-                }
-            }
-            for (j = 0; j != inodes; j++) {
-                CircuitNode cn = new CircuitNode();
-                cn.x = cn.y = -1;
-                cn.internal = true;
-                CircuitNodeLink cnl = new CircuitNodeLink();
-                cnl.num = j + posts;
-                cnl.elm = ce;
-                cn.links.addElement(cnl);
-                ce.setNode(cnl.num, nodeList.size());
-                nodeList.addElement(cn);
-            }
-            vscount += ivs;
-        }
-        voltageSources = new CircuitElm[vscount];
-        vscount = 0;
-        circuitNonLinear = false;
-        // determine if circuit is nonlinear
-        for (i = 0; i != elmList.size(); i++) {
-            CircuitElm ce = getElm(i);
-            if (ce.nonLinear()) {
-                circuitNonLinear = true;
-            }
-            int ivs = ce.getVoltageSourceCount();
-            for (j = 0; j != ivs; j++) {
-                voltageSources[vscount] = ce;
-                ce.setVoltageSource(j, vscount++);
-            }
-        }
-        voltageSourceCount = vscount;
-        int matrixSize = nodeList.size() - 1 + vscount;
-        circuitMatrix = new double[matrixSize][matrixSize];
-        circuitRightSide = new double[matrixSize];
-        origMatrix = new double[matrixSize][matrixSize];
-        origRightSide = new double[matrixSize];
-        circuitMatrixSize = circuitMatrixFullSize = matrixSize;
-        circuitRowInfo = new RowInfo[matrixSize];
-        circuitPermute = new int[matrixSize];
-        int vs = 0;
-        for (i = 0; i != matrixSize; i++) {
-            circuitRowInfo[i] = new RowInfo();
-        }
-        circuitNeedsMap = false;
-        // stamp linear circuit elements
-        for (i = 0; i != elmList.size(); i++) {
-            CircuitElm ce = getElm(i);
-            ce.stamp();
-        }
-        //System.out.println("ac4");
-        // determine nodes that are unconnected
-        boolean[] closure = new boolean[nodeList.size()];
-        boolean[] tempclosure = new boolean[nodeList.size()];
-        boolean changed = true;
-        closure[0] = true;
-        while (changed) {
-            changed = false;
-            for (i = 0; i != elmList.size(); i++) {
-                CircuitElm ce = getElm(i);
-                // loop through all ce's nodes to see if they are connected
-                // to other nodes not in closure
-                for (j = 0; j < ce.getPostCount(); j++) {
-                    if (!closure[ce.getNode(j)]) {
-                        if (ce.hasGroundConnection(j)) {
-                            closure[ce.getNode(j)] = changed = true;
-                        }
-                        continue;
-                    }
-                    int k;
-                    for (k = 0; k != ce.getPostCount(); k++) {
-                        if (j == k) {
-                            continue;
-                        }
-                        int kn = ce.getNode(k);
-                        if (ce.getConnection(j, k) && !closure[kn]) {
-                            closure[kn] = true;
-                            changed = true;
-                        }
-                    }
-                }
-            }
-            if (changed) {
-                continue;
-            }
-            // connect unconnected nodes
-            for (i = 0; i != nodeList.size(); i++) {
-                if (!closure[i] && !getCircuitNode(i).internal) {
-                    System.out.println("node " + i + " unconnected");
-                    stampResistor(0, i, 1e8);
-                    closure[i] = true;
-                    changed = true;
-                    break;
-                }
-            }
-        }
-        for (i = 0; i != elmList.size(); i++) {
-            CircuitElm ce = getElm(i);
-            // look for inductors with no current path
-            if (ce instanceof InductorElm) {
-                FindPathInfo fpi = new FindPathInfo(FindPathInfo.INDUCT, ce,
-                                                    ce.getNode(1)
-                );
-                // first try findPath with maximum depth of 5, to avoid
-                // slowdowns
-                if (!fpi.findPath(ce.getNode(0), 5) &&
-                    !fpi.findPath(ce.getNode(0))) {
-                    System.out.println(ce + " no path");
-                    ce.reset();
-                }
-            }
-            // look for current sources with no current path
-            if (ce instanceof CurrentElm) {
-                FindPathInfo fpi = new FindPathInfo(FindPathInfo.INDUCT, ce,
-                                                    ce.getNode(1)
-                );
-                if (!fpi.findPath(ce.getNode(0))) {
-                    stop("No path for current source!", ce);
-                    return;
-                }
-            }
-            // look for voltage source loops
-            if ((ce instanceof VoltageElm && ce.getPostCount() == 2) ||
-                ce instanceof WireElm) {
-                FindPathInfo fpi = new FindPathInfo(FindPathInfo.VOLTAGE, ce,
-                                                    ce.getNode(1)
-                );
-                if (fpi.findPath(ce.getNode(0))) {
-                    stop("Voltage source/wire loop with no resistance!", ce);
-                    return;
-                }
-            }
-            // look for shorted caps, or caps w/ voltage but no R
-            if (ce instanceof CapacitorElm) {
-                FindPathInfo fpi = new FindPathInfo(FindPathInfo.SHORT, ce,
-                                                    ce.getNode(1)
-                );
-                if (fpi.findPath(ce.getNode(0))) {
-                    System.out.println(ce + " shorted");
-                    ce.reset();
-                } else {
-                    fpi = new FindPathInfo(
-                        FindPathInfo.CAP_V,
-                        ce,
-                        ce.getNode(1)
-                    );
-                    if (fpi.findPath(ce.getNode(0))) {
-                        stop("Capacitor loop with no resistance!", ce);
-                        return;
-                    }
-                }
-            }
-        }
-        // simplify the matrix; this speeds things up quite a bit
-        for (i = 0; i != matrixSize; i++) {
-            int qm = -1, qp = -1;
-            double qv = 0;
-            RowInfo re = circuitRowInfo[i];
-            if (re.lsChanges || re.dropRow || re.rsChanges) {
-                continue;
-            }
-            double rsadd = 0;
-            // look for rows that can be removed
-            for (j = 0; j != matrixSize; j++) {
-                double q = circuitMatrix[i][j];
-                if (circuitRowInfo[j].type == RowInfo.ROW_CONST) {
-                    // keep a running total of const values that have been
-                    // removed already
-                    rsadd -= circuitRowInfo[j].value * q;
-                    continue;
-                }
-                if (q == 0) {
-                    continue;
-                }
-                if (qp == -1) {
-                    qp = j;
-                    qv = q;
-                    continue;
-                }
-                if (qm == -1 && q == -qv) {
-                    qm = j;
-                    continue;
-                }
-                break;
-            }
-            if (j == matrixSize) {
-                if (qp == -1) {
-                    stop("Matrix error", null);
-                    return;
-                }
-                RowInfo elt = circuitRowInfo[qp];
-                if (qm == -1) {
-                    // we found a row with only one nonzero entry; that value
-                    // is a constant
-                    int k;
-                    for (k = 0; elt.type == RowInfo.ROW_EQUAL && k < 100; k++) {
-                        // follow the chain
-                        qp = elt.nodeEq;
-                        elt = circuitRowInfo[qp];
-                    }
-                    if (elt.type == RowInfo.ROW_EQUAL) {
-                        // break equal chains
-                        elt.type = RowInfo.ROW_NORMAL;
-                        continue;
-                    }
-                    if (elt.type != RowInfo.ROW_NORMAL) {
-                        System.out.println(
-                            "type already " + elt.type + " for " + qp + "!");
-                        continue;
-                    }
-                    elt.type = RowInfo.ROW_CONST;
-                    elt.value = (circuitRightSide[i] + rsadd) / qv;
-                    circuitRowInfo[i].dropRow = true;
-                    i = -1; // start over from scratch
-                } else if (circuitRightSide[i] + rsadd == 0) {
-                    // we found a row with only two nonzero entries, and one
-                    // is the negative of the other; the values are equal
-                    if (elt.type != RowInfo.ROW_NORMAL) {
-                        //System.out.println("swapping");
-                        int qq = qm;
-                        qm = qp;
-                        qp = qq;
-                        elt = circuitRowInfo[qp];
-                        if (elt.type != RowInfo.ROW_NORMAL) {
-                            // we should follow the chain here, but this
-                            // hardly ever happens so it's not worth worrying
-                            // about
-                            System.out.println("swap failed");
-                            continue;
-                        }
-                    }
-                    elt.type = RowInfo.ROW_EQUAL;
-                    elt.nodeEq = qm;
-                    circuitRowInfo[i].dropRow = true;
-                    //System.out.println(qp + " = " + qm);
-                }
-            }
-        }
-        // find size of new matrix
-        int nn = 0;
-        for (i = 0; i != matrixSize; i++) {
-            RowInfo elt = circuitRowInfo[i];
-            if (elt.type == RowInfo.ROW_NORMAL) {
-                elt.mapCol = nn++;
-                //System.out.println("col " + i + " maps to " + elt.mapCol);
-                continue;
-            }
-            if (elt.type == RowInfo.ROW_EQUAL) {
-                RowInfo e2 = null;
-                // resolve chains of equality; 100 max steps to avoid loops
-                for (j = 0; j != 100; j++) {
-                    e2 = circuitRowInfo[elt.nodeEq];
-                    if (e2.type != RowInfo.ROW_EQUAL) {
-                        break;
-                    }
-                    if (i == e2.nodeEq) {
-                        break;
-                    }
-                    elt.nodeEq = e2.nodeEq;
-                }
-            }
-            if (elt.type == RowInfo.ROW_CONST) {
-                elt.mapCol = -1;
-            }
-        }
-        for (i = 0; i != matrixSize; i++) {
-            RowInfo elt = circuitRowInfo[i];
-            if (elt.type == RowInfo.ROW_EQUAL) {
-                RowInfo e2 = circuitRowInfo[elt.nodeEq];
-                if (e2.type == RowInfo.ROW_CONST) {
-                    // if something is equal to a const, it's a const
-                    elt.type = e2.type;
-                    elt.value = e2.value;
-                    elt.mapCol = -1;
-                } else {
-                    elt.mapCol = e2.mapCol;
-                }
-            }
-        }
-        // make the new, simplified matrix
-        int newsize = nn;
-        double[][] newmatx = new double[newsize][newsize];
-        double[] newrs = new double[newsize];
-        int ii = 0;
-        for (i = 0; i != matrixSize; i++) {
-            RowInfo rri = circuitRowInfo[i];
-            if (rri.dropRow) {
-                rri.mapRow = -1;
-                continue;
-            }
-            newrs[ii] = circuitRightSide[i];
-            rri.mapRow = ii;
-            for (j = 0; j != matrixSize; j++) {
-                RowInfo ri = circuitRowInfo[j];
-                if (ri.type == RowInfo.ROW_CONST) {
-                    newrs[ii] -= ri.value * circuitMatrix[i][j];
-                } else {
-                    newmatx[ii][ri.mapCol] += circuitMatrix[i][j];
-                }
-            }
-            ii++;
-        }
-        circuitMatrix = newmatx;
-        circuitRightSide = newrs;
-        matrixSize = circuitMatrixSize = newsize;
-        for (i = 0; i != matrixSize; i++) {
-            origRightSide[i] = circuitRightSide[i];
-        }
-        for (i = 0; i != matrixSize; i++) {
-            for (j = 0; j != matrixSize; j++) {
-                origMatrix[i][j] = circuitMatrix[i][j];
-            }
-        }
-        circuitNeedsMap = true;
-        // if a matrix is linear, we can do the lu_factor here instead of
-        // needing to do it every frame
-        if (!circuitNonLinear) {
-            if (!lu_factor(circuitMatrix, circuitMatrixSize, circuitPermute)) {
-                stop("Singular matrix!", null);
-                return;
-            }
+        sim.analyzeCircuit();
+        if (sim.stopMessage != null) {
+            stopped();
         }
     }
 
     void calcCircuitBottom() {
         int i;
         circuitBottom = 0;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             Rectangle rect = getElm(i).boundingBox;
             int bottom = rect.height + rect.y;
             if (bottom > circuitBottom) {
@@ -1665,133 +1238,14 @@ public class CirSim extends Frame
     }
 
     void stop(String s, CircuitElm ce) {
-        stopMessage = s;
-        circuitMatrix = null;
-        stopElm = ce;
-        stoppedCheck.setState(true);
-        analyzeFlag = false;
-        cv.repaint();
+        sim.stop(s, ce);
+        stopped();
     }
 
-    // control voltage source vs with voltage from n1 to n2 (must
-    // also call stampVoltageSource())
-    void stampVCVS(int n1, int n2, double coef, int vs) {
-        int vn = nodeList.size() + vs;
-        stampMatrix(vn, n1, coef);
-        stampMatrix(vn, n2, -coef);
-    }
-
-    // stamp independent voltage source #vs, from n1 to n2, amount v
-    void stampVoltageSource(int n1, int n2, int vs, double v) {
-        int vn = nodeList.size() + vs;
-        stampMatrix(vn, n1, -1);
-        stampMatrix(vn, n2, 1);
-        stampRightSide(vn, v);
-        stampMatrix(n1, vn, 1);
-        stampMatrix(n2, vn, -1);
-    }
-
-    // use this if the amount of voltage is going to be updated in doStep()
-    void stampVoltageSource(int n1, int n2, int vs) {
-        int vn = nodeList.size() + vs;
-        stampMatrix(vn, n1, -1);
-        stampMatrix(vn, n2, 1);
-        stampRightSide(vn);
-        stampMatrix(n1, vn, 1);
-        stampMatrix(n2, vn, -1);
-    }
-
-    void updateVoltageSource(int n1, int n2, int vs, double v) {
-        int vn = nodeList.size() + vs;
-        stampRightSide(vn, v);
-    }
-
-    void stampResistor(int n1, int n2, double r) {
-        double r0 = 1 / r;
-        if (Double.isNaN(r0) || Double.isInfinite(r0)) {
-            System.out.print("bad resistance " + r + " " + r0 + "\n");
-            int a = 0;
-            a /= a;
-        }
-        stampMatrix(n1, n1, r0);
-        stampMatrix(n2, n2, r0);
-        stampMatrix(n1, n2, -r0);
-        stampMatrix(n2, n1, -r0);
-    }
-
-    void stampConductance(int n1, int n2, double r0) {
-        stampMatrix(n1, n1, r0);
-        stampMatrix(n2, n2, r0);
-        stampMatrix(n1, n2, -r0);
-        stampMatrix(n2, n1, -r0);
-    }
-
-    // current from cn1 to cn2 is equal to voltage from vn1 to 2, divided by g
-    void stampVCCurrentSource(int cn1, int cn2, int vn1, int vn2, double g) {
-        stampMatrix(cn1, vn1, g);
-        stampMatrix(cn2, vn2, g);
-        stampMatrix(cn1, vn2, -g);
-        stampMatrix(cn2, vn1, -g);
-    }
-
-    void stampCurrentSource(int n1, int n2, double i) {
-        stampRightSide(n1, -i);
-        stampRightSide(n2, i);
-    }
-
-    // stamp a current source from n1 to n2 depending on current through vs
-    void stampCCCS(int n1, int n2, int vs, double gain) {
-        int vn = nodeList.size() + vs;
-        stampMatrix(n1, vn, gain);
-        stampMatrix(n2, vn, -gain);
-    }
-
-    // stamp value x in row i, column j, meaning that a voltage change
-    // of dv in node j will increase the current into node i by x dv.
-    // (Unless i or j is a voltage source node.)
-    void stampMatrix(int i, int j, double x) {
-        if (i > 0 && j > 0) {
-            if (circuitNeedsMap) {
-                i = circuitRowInfo[i - 1].mapRow;
-                RowInfo ri = circuitRowInfo[j - 1];
-                if (ri.type == RowInfo.ROW_CONST) {
-                    circuitRightSide[i] -= x * ri.value;
-                    return;
-                }
-                j = ri.mapCol;
-            } else {
-                i--;
-                j--;
-            }
-            circuitMatrix[i][j] += x;
-        }
-    }
-
-    // stamp value x on the right side of row i, representing an
-    // independent current source flowing into node i
-    void stampRightSide(int i, double x) {
-        if (i > 0) {
-            if (circuitNeedsMap) {
-                i = circuitRowInfo[i - 1].mapRow;
-            } else {
-                i--;
-            }
-            circuitRightSide[i] += x;
-        }
-    }
-
-    // indicate that the value on the right side of row i changes in doStep()
-    void stampRightSide(int i) {
-        if (i > 0) {
-            circuitRowInfo[i - 1].rsChanges = true;
-        }
-    }
-
-    // indicate that the values on the left side of row i change in doStep()
-    void stampNonLinear(int i) {
-        if (i > 0) {
-            circuitRowInfo[i - 1].lsChanges = true;
-        }
+    // show that the simulator stopped, and why
+    void stopped() {
+        stoppedCheck.setState(true);
+        cv.repaint();
     }
 
     double getIterCount() {
@@ -1802,13 +1256,11 @@ public class CirSim extends Frame
     }
 
     void runCircuit() {
-        if (circuitMatrix == null || elmList.size() == 0) {
-            circuitMatrix = null;
+        if (sim.circuitMatrix == null || sim.elmList.size() == 0) {
+            sim.circuitMatrix = null;
             return;
         }
         int iter;
-        boolean debugprint = dumpMatrix;
-        dumpMatrix = false;
         long steprate = (long) (160 * getIterCount());
         long tm = System.currentTimeMillis();
         long lit = lastIterTime;
@@ -1816,104 +1268,14 @@ public class CirSim extends Frame
             return;
         }
         for (iter = 1; ; iter++) {
-            int i, j, k, subiter;
-            for (i = 0; i != elmList.size(); i++) {
-                CircuitElm ce = getElm(i);
-                ce.startIteration();
-            }
+            int i;
             steps++;
-            final int subiterCount = 5000;
-            for (subiter = 0; subiter != subiterCount; subiter++) {
-                converged = true;
-                subIterations = subiter;
-                for (i = 0; i != circuitMatrixSize; i++) {
-                    circuitRightSide[i] = origRightSide[i];
-                }
-                if (circuitNonLinear) {
-                    for (i = 0; i != circuitMatrixSize; i++) {
-                        for (j = 0; j != circuitMatrixSize; j++) {
-                            circuitMatrix[i][j] = origMatrix[i][j];
-                        }
-                    }
-                }
-                for (i = 0; i != elmList.size(); i++) {
-                    CircuitElm ce = getElm(i);
-                    ce.doStep();
-                }
-                if (stopMessage != null) {
-                    return;
-                }
-                boolean printit = debugprint;
-                debugprint = false;
-                for (j = 0; j != circuitMatrixSize; j++) {
-                    for (i = 0; i != circuitMatrixSize; i++) {
-                        double x = circuitMatrix[i][j];
-                        if (Double.isNaN(x) || Double.isInfinite(x)) {
-                            stop("nan/infinite matrix!", null);
-                            return;
-                        }
-                    }
-                }
-                if (printit) {
-                    for (j = 0; j != circuitMatrixSize; j++) {
-                        for (i = 0; i != circuitMatrixSize; i++) {
-                            System.out.print(circuitMatrix[j][i] + ",");
-                        }
-                        System.out.print("  " + circuitRightSide[j] + "\n");
-                    }
-                    System.out.print("\n");
-                }
-                if (circuitNonLinear) {
-                    if (converged && subiter > 0) {
-                        break;
-                    }
-                    if (!lu_factor(circuitMatrix, circuitMatrixSize,
-                                   circuitPermute
-                    )) {
-                        stop("Singular matrix!", null);
-                        return;
-                    }
+            if (!sim.step()) {
+                if (sim.stopMessage != null) {
+                    stopped();
                 }
-                lu_solve(circuitMatrix, circuitMatrixSize, circuitPermute,
-                         circuitRightSide
-                );
-                for (j = 0; j != circuitMatrixFullSize; j++) {
-                    RowInfo ri = circuitRowInfo[j];
-                    double res = 0;
-                    if (ri.type == RowInfo.ROW_CONST) {
-                        res = ri.value;
-                    } else {
-                        res = circuitRightSide[ri.mapCol];
-                    }
-                    if (Double.isNaN(res)) {
-                        converged = false;
-                        break;
-                    }
-                    if (j < nodeList.size() - 1) {
-                        CircuitNode cn = getCircuitNode(j + 1);
-                        for (k = 0; k != cn.links.size(); k++) {
-                            CircuitNodeLink cnl = (CircuitNodeLink)
-                                cn.links.elementAt(k);
-                            cnl.elm.setNodeVoltage(cnl.num, res);
-                        }
-                    } else {
-                        int ji = j - (nodeList.size() - 1);
-                        voltageSources[ji].setCurrent(ji, res);
-                    }
-                }
-                if (!circuitNonLinear) {
-                    break;
-                }
-            }
-            if (subiter > 5) {
-                System.out.print(
-                    "converged after " + subiter + " iterations\n");
-            }
-            if (subiter == subiterCount) {
-                stop("Convergence failed!", null);
                 break;
             }
-            t += timeStep;
             for (i = 0; i != scopeCount; i++) {
                 scopes[i].timeStep();
             }
@@ -1961,19 +1323,19 @@ public class CirSim extends Frame
             // on IE, drawImage() stops working inexplicably every once in
             // a while.  Recreating it fixes the problem, so we do that here.
             dbimage = main.createImage(winSize.width, winSize.height);
-            for (i = 0; i != elmList.size(); i++) {
+            for (i = 0; i != sim.elmList.size(); i++) {
                 getElm(i).reset();
             }
             for (i = 0; i != scopeCount; i++) {
                 scopes[i].resetGraph();
             }
-            analyzeFlag = true;
-            t = 0;
+            sim.analyzeFlag = true;
+            sim.t = 0;
             stoppedCheck.setState(false);
             cv.repaint();
         }
         if (e.getSource() == dumpMatrixButton) {
-            dumpMatrix = true;
+            sim.dumpMatrix = true;
         }
         if (e.getSource() == exportItem) {
             doExport(false);
@@ -2181,10 +1543,10 @@ public class CirSim extends Frame
         f |= (showValuesCheckItem.getState()) ? 0 : 16;
         // 32 = linear scale in afilter
         String dump = "$ " + f + " " +
-            timeStep + " " + getIterCount() + " " +
+            sim.timeStep + " " + getIterCount() + " " +
             currentBar.getValue() + " " + CircuitElm.voltageRange + " " +
             powerBar.getValue() + "\n";
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             dump += getElm(i).dump() + "\n";
         }
         for (i = 0; i != scopeCount; i++) {
@@ -2308,7 +1670,7 @@ public class CirSim extends Frame
     }
 
     void readSetupFile(String str, String title) {
-        t = 0;
+        sim.t = 0;
         System.out.println(str);
         try {
             URL url = new URL(getCodeBase() + "circuits/" + str);
@@ -2331,13 +1693,13 @@ public class CirSim extends Frame
     void readSetup(byte[] b, int len, boolean retain) {
         int i;
         if (!retain) {
-            for (i = 0; i != elmList.size(); i++) {
+            for (i = 0; i != sim.elmList.size(); i++) {
                 CircuitElm ce = getElm(i);
                 ce.delete();
             }
-            elmList.removeAllElements();
+            sim.elmList.removeAllElements();
             hintType = -1;
-            timeStep = 5e-6;
+            sim.timeStep = 5e-6;
             dotsCheckItem.setState(false);
             smallGridCheckItem.setState(false);
             powerCheckItem.setState(false);
@@ -2351,86 +1713,8 @@ public class CirSim extends Frame
             scopeCount = 0;
         }
         cv.repaint();
-        int p;
-        for (p = 0; p < len; ) {
-            int l;
-            int linelen = 0;
-            for (l = 0; l != len - p; l++) {
-                if (b[l + p] == '\n' || b[l + p] == '\r') {
-                    linelen = l++;
-                    if (l + p < b.length && b[l + p] == '\n') {
-                        l++;
-                    }
-                    break;
-                }
-            }
-            String line = new String(b, p, linelen);
-            StringTokenizer st = new StringTokenizer(line);
-            while (st.hasMoreTokens()) {
-                String type = st.nextToken();
-                int tint = type.charAt(0);
-                try {
-                    if (tint == 'o') {
-                        Scope sc = new Scope(this);
-                        sc.position = scopeCount;
-                        sc.undump(st);
-                        scopes[scopeCount++] = sc;
-                        break;
-                    }
-                    if (tint == 'h') {
-                        readHint(st);
-                        break;
-                    }
-                    if (tint == '$') {
-                        readOptions(st);
-                        break;
-                    }
-                    if (tint == '%' || tint == '?' || tint == 'B') {
-                        // ignore afilter-specific stuff
-                        break;
-                    }
-                    if (tint >= '0' && tint <= '9') {
-                        tint = new Integer(type).intValue();
-                    }
-                    int x1 = new Integer(st.nextToken()).intValue();
-                    int y1 = new Integer(st.nextToken()).intValue();
-                    int x2 = new Integer(st.nextToken()).intValue();
-                    int y2 = new Integer(st.nextToken()).intValue();
-                    int f = new Integer(st.nextToken()).intValue();
-                    CircuitElm ce = null;
-                    Class cls = dumpTypes[tint];
-                    if (cls == null) {
-                        System.out.println("unrecognized dump type: " + type);
-                        break;
-                    }
-                    // find element class
-                    Class[] carr = new Class[6];
-                    carr[0] = carr[1] = carr[2] = carr[3] = carr[4] =
-                        int.class;
-                    carr[5] = StringTokenizer.class;
-                    Constructor cstr = null;
-                    cstr = cls.getConstructor(carr);
-                    // invoke constructor with starting coordinates
-                    Object[] oarr = new Object[6];
-                    oarr[0] = new Integer(x1);
-                    oarr[1] = new Integer(y1);
-                    oarr[2] = new Integer(x2);
-                    oarr[3] = new Integer(y2);
-                    oarr[4] = new Integer(f);
-                    oarr[5] = st;
-                    ce = (CircuitElm) cstr.newInstance(oarr);
-                    ce.setPoints();
-                    elmList.addElement(ce);
-                } catch (java.lang.reflect.InvocationTargetException ee) {
-                    ee.getTargetException().printStackTrace();
-                    break;
-                } catch (Exception ee) {
-                    ee.printStackTrace();
-                    break;
-                }
-                break;
-            }
-            p += l;
+        if (b != null) {
+            CircuitReader.read(sim, new String(b, 0, len), this);
         }
         enableItems();
         if (!retain) {
@@ -2439,6 +1723,20 @@ public class CirSim extends Frame
         needAnalyze();
     }
 
+    // the lines of a setup that CircuitReader leaves to the display
+    public void readDisplay(int type, StringTokenizer st) {
+        if (type == 'o') {
+            Scope sc = new Scope(this);
+            sc.position = scopeCount;
+            sc.undump(st);
+            scopes[scopeCount++] = sc;
+        } else if (type == 'h') {
+            readHint(st);
+        } else if (type == '$') {
+            readOptions(st);
+        }
+    }
+
     void readHint(StringTokenizer st) {
         hintType = new Integer(st.nextToken()).intValue();
         hintItem1 = new Integer(st.nextToken()).intValue();
@@ -2452,7 +1750,7 @@ public class CirSim extends Frame
         voltsCheckItem.setState((flags & 4) == 0);
         powerCheckItem.setState((flags & 8) == 8);
         showValuesCheckItem.setState((flags & 16) == 0);
-        timeStep = new Double(st.nextToken()).doubleValue();
+        sim.timeStep = new Double(st.nextToken()).doubleValue();
         double sp = new Double(st.nextToken()).doubleValue();
         int sp2 = (int) (Math.log(10 * sp) * 24 + 61.5);
         speedBar.setValue(sp2);
@@ -2478,14 +1776,15 @@ public class CirSim extends Frame
         if (se.momentary) {
             heldSwitchElm = se;
         }
-        needAnalyze();
+        sim.elementChanged(se);
+        cv.repaint();
         return true;
     }
 
     int locateElm(CircuitElm elm) {
         int i;
-        for (i = 0; i != elmList.size(); i++) {
-            if (elm == elmList.elementAt(i)) {
+        for (i = 0; i != sim.elmList.size(); i++) {
+            if (elm == sim.elmList.elementAt(i)) {
                 return i;
             }
         }
@@ -2558,7 +1857,7 @@ public class CirSim extends Frame
             return;
         }
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             ce.move(dx, dy);
         }
@@ -2571,7 +1870,7 @@ public class CirSim extends Frame
             return;
         }
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             if (ce.y == dragY) {
                 ce.movePoint(0, 0, dy);
@@ -2589,7 +1888,7 @@ public class CirSim extends Frame
             return;
         }
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             if (ce.x == dragX) {
                 ce.movePoint(0, dx, 0);
@@ -2608,13 +1907,13 @@ public class CirSim extends Frame
         }
         // snap grid, unless we're only dragging text elements
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             if (ce.isSelected() && !(ce instanceof GraphicElm)) {
                 break;
             }
         }
-        if (i != elmList.size()) {
+        if (i != sim.elmList.size()) {
             x = snapGrid(x);
             y = snapGrid(y);
         }
@@ -2629,14 +1928,14 @@ public class CirSim extends Frame
         }
         boolean allowed = true;
         // check if moves are allowed
-        for (i = 0; allowed && i != elmList.size(); i++) {
+        for (i = 0; allowed && i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             if (ce.isSelected() && !ce.allowMove(dx, dy)) {
                 allowed = false;
             }
         }
         if (allowed) {
-            for (i = 0; i != elmList.size(); i++) {
+            for (i = 0; i != sim.elmList.size(); i++) {
                 CircuitElm ce = getElm(i);
                 if (ce.isSelected()) {
                     ce.move(dx, dy);
@@ -2673,7 +1972,7 @@ public class CirSim extends Frame
         int y2 = max(y, initDragY);
         selectedArea = new Rectangle(x1, y1, x2 - x1, y2 - y1);
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             ce.selectRect(selectedArea);
         }
@@ -2681,7 +1980,7 @@ public class CirSim extends Frame
 
     void setSelectedElm(CircuitElm cs) {
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             ce.setSelected(ce == cs);
         }
@@ -2691,10 +1990,10 @@ public class CirSim extends Frame
     void removeZeroLengthElements() {
         int i;
         boolean changed = false;
-        for (i = elmList.size() - 1; i >= 0; i--) {
+        for (i = sim.elmList.size() - 1; i >= 0; i--) {
             CircuitElm ce = getElm(i);
             if (ce.x == ce.x2 && ce.y == ce.y2) {
-                elmList.removeElementAt(i);
+                sim.elmList.removeElementAt(i);
                 ce.delete();
                 changed = true;
             }
@@ -2718,7 +2017,7 @@ public class CirSim extends Frame
         plotXElm = plotYElm = null;
         int bestDist = 100000;
         int bestArea = 100000;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             if (ce.boundingBox.contains(x, y)) {
                 int j;
@@ -2756,7 +2055,7 @@ public class CirSim extends Frame
             }
             // the mouse pointer was not in any of the bounding boxes, but we
             // might still be close to a post
-            for (i = 0; i != elmList.size(); i++) {
+            for (i = 0; i != sim.elmList.size(); i++) {
                 CircuitElm ce = getElm(i);
                 int j;
                 int jn = ce.getPostCount();
@@ -2955,15 +2254,16 @@ public class CirSim extends Frame
         boolean circuitChanged = false;
         if (heldSwitchElm != null) {
             heldSwitchElm.mouseUp();
+            sim.elementChanged(heldSwitchElm);
             heldSwitchElm = null;
-            circuitChanged = true;
+            cv.repaint();
         }
         if (dragElm != null) {
             // if the element is zero size then don't create it
             if (dragElm.x == dragElm.x2 && dragElm.y == dragElm.y2) {
                 dragElm.delete();
             } else {
-                elmList.addElement(dragElm);
+                sim.elmList.addElement(dragElm);
                 circuitChanged = true;
             }
             dragElm = null;
@@ -3108,12 +2408,12 @@ public class CirSim extends Frame
         pushUndo();
         setMenuSelection();
         clipboard = "";
-        for (i = elmList.size() - 1; i >= 0; i--) {
+        for (i = sim.elmList.size() - 1; i >= 0; i--) {
             CircuitElm ce = getElm(i);
             if (ce.isSelected()) {
                 clipboard += ce.dump() + "\n";
                 ce.delete();
-                elmList.removeElementAt(i);
+                sim.elmList.removeElementAt(i);
             }
         }
         enablePaste();
@@ -3125,20 +2425,20 @@ public class CirSim extends Frame
         pushUndo();
         setMenuSelection();
         boolean hasDeleted = false;
-        for (i = elmList.size() - 1; i >= 0; i--) {
+        for (i = sim.elmList.size() - 1; i >= 0; i--) {
             CircuitElm ce = getElm(i);
             if (ce.isSelected()) {
                 ce.delete();
-                elmList.removeElementAt(i);
+                sim.elmList.removeElementAt(i);
                 hasDeleted = true;
             }
         }
         if (!hasDeleted) {
-            for (i = elmList.size() - 1; i >= 0; i--) {
+            for (i = sim.elmList.size() - 1; i >= 0; i--) {
                 CircuitElm ce = getElm(i);
                 if (ce == mouseElm) {
                     ce.delete();
-                    elmList.removeElementAt(i);
+                    sim.elmList.removeElementAt(i);
                     hasDeleted = true;
                     mouseElm = null;
                     break;
@@ -3154,7 +2454,7 @@ public class CirSim extends Frame
         int i;
         clipboard = "";
         setMenuSelection();
-        for (i = elmList.size() - 1; i >= 0; i--) {
+        for (i = sim.elmList.size() - 1; i >= 0; i--) {
             CircuitElm ce = getElm(i);
             if (ce.isSelected()) {
                 clipboard += ce.dump() + "\n";
@@ -3172,7 +2472,7 @@ public class CirSim extends Frame
         clearSelection();
         int i;
         Rectangle oldbb = null;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             Rectangle bb = ce.getBoundingBox();
             if (oldbb != null) {
@@ -3181,11 +2481,11 @@ public class CirSim extends Frame
                 oldbb = bb;
             }
         }
-        int oldsz = elmList.size();
+        int oldsz = sim.elmList.size();
         readSetup(clipboard, true);
         // select new items
         Rectangle newbb = null;
-        for (i = oldsz; i != elmList.size(); i++) {
+        for (i = oldsz; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             ce.setSelected(true);
             Rectangle bb = ce.getBoundingBox();
@@ -3205,7 +2505,7 @@ public class CirSim extends Frame
             } else {
                 dy = snapGrid(oldbb.y + oldbb.height - newbb.y + gridSize);
             }
-            for (i = oldsz; i != elmList.size(); i++) {
+            for (i = oldsz; i != sim.elmList.size(); i++) {
                 CircuitElm ce = getElm(i);
                 ce.move(dx, dy);
             }
@@ -3217,7 +2517,7 @@ public class CirSim extends Frame
 
     void clearSelection() {
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             ce.setSelected(false);
         }
@@ -3225,7 +2525,7 @@ public class CirSim extends Frame
 
     void doSelectAll() {
         int i;
-        for (i = 0; i != elmList.size(); i++) {
+        for (i = 0; i != sim.elmList.size(); i++) {
             CircuitElm ce = getElm(i);
             ce.setSelected(true);
         }
@@ -3262,228 +2562,4 @@ public class CirSim extends Frame
         }
         tempMouseMode = mouseMode;
     }
-
-    // factors a matrix into upper and lower triangular matrices by
-    // gaussian elimination.  On entry, a[0..n-1][0..n-1] is the
-    // matrix to be factored.  ipvt[] returns an integer vector of pivot
-    // indices, used in the lu_solve() routine.
-    boolean lu_factor(double[][] a, int n, int[] ipvt) {
-        double[] scaleFactors;
-        int i, j, k;
-        scaleFactors = new double[n];
-        // divide each row by its largest element, keeping track of the
-        // scaling factors
-        for (i = 0; i != n; i++) {
-            double largest = 0;
-            for (j = 0; j != n; j++) {
-                double x = Math.abs(a[i][j]);
-                if (x > largest) {
-                    largest = x;
-                }
-            }
-            // if all zeros, it's a singular matrix
-            if (largest == 0) {
-                return false;
-            }
-            scaleFactors[i] = 1.0 / largest;
-        }
-        // use Crout's method; loop through the columns
-        for (j = 0; j != n; j++) {
-            // calculate upper triangular elements for this column
-            for (i = 0; i != j; i++) {
-                double q = a[i][j];
-                for (k = 0; k != i; k++) {
-                    q -= a[i][k] * a[k][j];
-                }
-                a[i][j] = q;
-            }
-            // calculate lower triangular elements for this column
-            double largest = 0;
-            int largestRow = -1;
-            for (i = j; i != n; i++) {
-                double q = a[i][j];
-                for (k = 0; k != j; k++) {
-                    q -= a[i][k] * a[k][j];
-                }
-                a[i][j] = q;
-                double x = Math.abs(q);
-                if (x >= largest) {
-                    largest = x;
-                    largestRow = i;
-                }
-            }
-            // pivoting
-            if (j != largestRow) {
-                double x;
-                for (k = 0; k != n; k++) {
-                    x = a[largestRow][k];
-                    a[largestRow][k] = a[j][k];
-                    a[j][k] = x;
-                }
-                scaleFactors[largestRow] = scaleFactors[j];
-            }
-            // keep track of row interchanges
-            ipvt[j] = largestRow;
-            // avoid zeros
-            if (a[j][j] == 0.0) {
-                System.out.println("avoided zero");
-                a[j][j] = 1e-18;
-            }
-            if (j != n - 1) {
-                double mult = 1.0 / a[j][j];
-                for (i = j + 1; i != n; i++) {
-                    a[i][j] *= mult;
-                }
-            }
-        }
-        return true;
-    }
-
-    // Solves the set of n linear equations using a LU factorization
-    // previously performed by lu_factor.  On input, b[0..n-1] is the right
-    // hand side of the equations, and on output, contains the solution.
-    void lu_solve(double[][] a, int n, int[] ipvt, double[] b) {
-        int i;
-        // find first nonzero b element
-        for (i = 0; i != n; i++) {
-            int row = ipvt[i];
-            double swap = b[row];
-            b[row] = b[i];
-            b[i] = swap;
-            if (swap != 0) {
-                break;
-            }
-        }
-        int bi = i++;
-        for (; i < n; i++) {
-            int row = ipvt[i];
-            int j;
-            double tot = b[row];
-            b[row] = b[i];
-            // forward substitution using the lower triangular matrix
-            for (j = bi; j < i; j++) {
-                tot -= a[i][j] * b[j];
-            }
-            b[i] = tot;
-        }
-        for (i = n - 1; i >= 0; i--) {
-            double tot = b[i];
-            // back-substitution using the upper triangular matrix
-            int j;
-            for (j = i + 1; j != n; j++) {
-                tot -= a[i][j] * b[j];
-            }
-            b[i] = tot / a[i][i];
-        }
-    }
-
-    class FindPathInfo {
-        static final int INDUCT = 1;
-        static final int VOLTAGE = 2;
-        static final int SHORT = 3;
-        static final int CAP_V = 4;
-        boolean[] used;
-        int dest;
-        CircuitElm firstElm;
-        int type;
-
-        FindPathInfo(int t, CircuitElm e, int d) {
-            dest = d;
-            type = t;
-            firstElm = e;
-            used = new boolean[nodeList.size()];
-        }
-
-        boolean findPath(int n1) {
-            return findPath(n1, -1);
-        }
-
-        boolean findPath(int n1, int depth) {
-            if (n1 == dest) {
-                return true;
-            }
-            if (depth-- == 0) {
-                return false;
-            }
-            if (used[n1]) {
-                return false;
-            }
-            used[n1] = true;
-            int i;
-            for (i = 0; i != elmList.size(); i++) {
-                CircuitElm ce = getElm(i);
-                if (ce == firstElm) {
-                    continue;
-                }
-                if (type == INDUCT) {
-                    if (ce instanceof CurrentElm) {
-                        continue;
-                    }
-                }
-                if (type == VOLTAGE) {
-                    if (!(ce.isWire() || ce instanceof VoltageElm)) {
-                        continue;
-                    }
-                }
-                if (type == SHORT && !ce.isWire()) {
-                    continue;
-                }
-                if (type == CAP_V) {
-                    if (!(ce.isWire() || ce instanceof CapacitorElm ||
-                        ce instanceof VoltageElm)) {
-                        continue;
-                    }
-                }
-                if (n1 == 0) {
-                    // look for posts which have a ground connection;
-                    // our path can go through ground
-                    int j;
-                    for (j = 0; j != ce.getPostCount(); j++) {
-                        if (ce.hasGroundConnection(j) &&
-                            findPath(ce.getNode(j), depth)) {
-                            used[n1] = false;
-                            return true;
-                        }
-                    }
-                }
-                int j;
-                for (j = 0; j != ce.getPostCount(); j++) {
-                    if (ce.getNode(j) == n1) {
-                        break;
-                    }
-                }
-                if (j == ce.getPostCount()) {
-                    continue;
-                }
-                if (ce.hasGroundConnection(j) && findPath(0, depth)) {
-                    used[n1] = false;
-                    return true;
-                }
-                if (type == INDUCT && ce instanceof InductorElm) {
-                    double c = ce.getCurrent();
-                    if (j == 0) {
-                        c = -c;
-                    }
-                    if (Math.abs(c - firstElm.getCurrent()) > 1e-10) {
-                        continue;
-                    }
-                }
-                int k;
-                for (k = 0; k != ce.getPostCount(); k++) {
-                    if (j == k) {
-                        continue;
-                    }
-                    if (ce.getConnection(j, k) && findPath(
-                        ce.getNode(k),
-                        depth
-                    )) {
-                        used[n1] = false;
-                        return true;
-                    }
-                }
-            }
-            used[n1] = false;
-            return false;
-        }
-    }
 }
@@ -41,7 +41,7 @@ public abstract class CircuitElm implements Editable {
     static Color[] colorScale;
     static double currentMult, powerMult;
     static Point ps1, ps2;
-    static CirSim sim;
+    static CirSim app;
     static Color whiteColor, selectColor, lightGrayColor;
     static Font unitsFont;
     public boolean selected;
@@ -59,6 +59,9 @@ public abstract class CircuitElm implements Editable {
     double current, curcount;
     Rectangle boundingBox;
     boolean noDiagonal;
+    // the simulator running this element.  Elements made in the editor
+    // start out in its simulator; analyzeCircuit() claims the rest
+    Simulator sim = (app == null) ? null : app.sim;
 
     CircuitElm(int xx, int yy) {
         x = x2 = xx;
@@ -80,7 +83,7 @@ public abstract class CircuitElm implements Editable {
 
     static void initClass(CirSim s) {
         unitsFont = new Font("SansSerif", 0, 10);
-        sim = s;
+        app = s;
         colorScale = new Color[colorScaleCount];
         int i;
         for (i = 0; i != colorScaleCount; i++) {
@@ -106,6 +109,16 @@ public abstract class CircuitElm implements Editable {
         noCommaFormat.setGroupingUsed(false);
     }
 
+    // the editor's grid spacing, or the default one when there is no
+    // editor (the layout of some elements depends on it)
+    static int gridSize() {
+        return (app == null) ? 16 : app.gridSize;
+    }
+
+    static int snapGrid(int x) {
+        return (app == null) ? (x + 7) & ~15 : app.snapGrid(x);
+    }
+
     static void drawThickLine(Graphics g, int x, int y, int x2, int y2) {
         g.drawLine(x, y, x2, y2);
         g.drawLine(x + 1, y, x2 + 1, y2);
@@ -290,6 +303,73 @@ public abstract class CircuitElm implements Editable {
         return current;
     }
 
+    // the current flowing out of this element into the node at post n,
+    // which the currents of merged wires are worked out from.  With two
+    // posts, current flows through from post 0 to post 1, and with one
+    // it flows out of the post.
+    double getCurrentIntoNode(int n) {
+        if (n == 0 && getPostCount() == 2) {
+            return -current;
+        }
+        return current;
+    }
+
+    // true if getCurrentIntoNode() is right for all the posts; elements
+    // with more than two override both
+    boolean knowsPostCurrents() {
+        return getPostCount() <= 2;
+    }
+
+    // true for digital elements whose outputs are ideal voltage sources
+    // set from the logic levels at their inputs, and which draw no
+    // current there.  With Simulator.logicEvents these are only run
+    // when an input changes level (see LogicQueue).
+    boolean isLogic() {
+        return false;
+    }
+
+    // the voltage source driving post n of a logic element, or -1 if
+    // the post is an input
+    int getLogicSource(int n) {
+        return -1;
+    }
+
+    // the voltage the last evaluateLogic() put out at post n
+    double getLogicOutput(int n) {
+        return 0;
+    }
+
+    // work out the outputs of a logic element from its inputs; returns
+    // true if it has to run again on the next step even if no input
+    // changes, as with slew-limited or timed outputs
+    boolean evaluateLogic() {
+        return false;
+    }
+
+    // true for a logic element whose outputs only depend on the levels
+    // at its inputs, not on what they were before or on the time, so
+    // LogicEngine can work out what it does from its truth table
+    boolean isCombinational() {
+        return false;
+    }
+
+    // for a clocked logic element (a flip-flop, counter or latch) whose
+    // outputs only depend on a few bits of state, which only depend on
+    // the levels at its inputs and on what the state was before: the
+    // number of those bits.  LogicEngine works out what it does from its
+    // truth table, reading and setting the state with getLogicState()
+    // and setLogicState().
+    int getStateBits() {
+        return 0;
+    }
+
+    int getLogicState() {
+        return 0;
+    }
+
+    void setLogicState(int s) {
+    }
+
     void doStep() {
     }
 
@@ -311,6 +391,58 @@ public abstract class CircuitElm implements Editable {
     void calculateCurrent() {
     }
 
+    // the values this element integrates over time (a capacitor's
+    // voltage, an inductor's current), which the adaptive time step
+    // watches, and the order of the integration: 2 for trapezoidal, 1 for
+    // backward euler
+    int getStateCount() {
+        return 0;
+    }
+
+    double getState(int n) {
+        return 0;
+    }
+
+    int getStateOrder() {
+        return 2;
+    }
+
+    // save the values the element carries from one step to the next, and
+    // put them back, so the adaptive time step can take a step again
+    // (see StepState).  The node voltages and the current are saved
+    // here; elements that keep more between steps save that too.
+    void saveStep(StepState s) {
+        s.save(volts);
+        s.save(current);
+    }
+
+    void restoreStep(StepState s) {
+        s.restore(volts);
+        current = s.restore();
+    }
+
+    // true if the element can be part of a linear circuit's state-space
+    // form (see StateSpace): it is linear, and what it stamps in doStep()
+    // is a function of the time and of its companion sources alone, not
+    // of its voltages
+    boolean fitsStateSpace() {
+        return false;
+    }
+
+    // the current sources of the element's companion model, which
+    // startIteration() works out from its voltages and their values in
+    // the last step, and doStep() stamps
+    int getCompanionCount() {
+        return 0;
+    }
+
+    double getCompanion(int n) {
+        return 0;
+    }
+
+    void setCompanion(int n, double x) {
+    }
+
     void setPoints() {
         dx = x2 - x;
         dy = y2 - y;
@@ -391,8 +523,8 @@ public abstract class CircuitElm implements Editable {
     }
 
     void drawDots(Graphics g, Point pa, Point pb, double pos) {
-        if (sim.stoppedCheck.getState() || pos == 0 ||
-            !sim.dotsCheckItem.getState()) {
+        if (app.stoppedCheck.getState() || pos == 0 ||
+            !app.dotsCheckItem.getState()) {
             return;
         }
         int dx = pb.x - pa.x;
@@ -453,8 +585,8 @@ public abstract class CircuitElm implements Editable {
     }
 
     void drag(int xx, int yy) {
-        xx = sim.snapGrid(xx);
-        yy = sim.snapGrid(yy);
+        xx = snapGrid(xx);
+        yy = snapGrid(yy);
         if (noDiagonal) {
             if (Math.abs(x - xx) < Math.abs(y - yy)) {
                 xx = x;
@@ -546,6 +678,38 @@ public abstract class CircuitElm implements Editable {
         return false;
     }
 
+    // for an element whose matrix entries only take a few sets of values
+    // (a spark gap that's either on or off), which set it stamped last,
+    // so the factors of each combination can be cached; -1 if they can
+    // take any value.  For a linear element, this must be all that
+    // changes its entries when it's passed to Simulator.elementChanged().
+    int getMatrixState() {
+        return -1;
+    }
+
+    // the discrete state the element is to be in for the next step (the
+    // level of a gate or a comparator, whether a switch conducts), or -1
+    // if it has none.  An adaptive step longer than the circuit's own in
+    // which it changed is taken again with the circuit's own step, so
+    // the element switches about as close to its threshold as it does
+    // with a fixed step.
+    int getSwitchState() {
+        return getMatrixState();
+    }
+
+    // true for an element that can do the expensive part of doStep()
+    // (evaluating its model) in evaluate() first
+    boolean canEvaluate() {
+        return false;
+    }
+
+    // evaluate the model at the present voltages, for the doStep() that
+    // follows to stamp.  Simulator.evaluateElements() runs this for many
+    // elements at once on several threads, so it may only read settings
+    // of the simulator and only change this element.
+    void evaluate() {
+    }
+
     int getPostCount() {
         return 2;
     }
@@ -559,12 +723,12 @@ public abstract class CircuitElm implements Editable {
     }
 
     void drawPost(Graphics g, int x0, int y0, int n) {
-        if (sim.dragElm == null && !needsHighlight() &&
+        if (app.dragElm == null && !needsHighlight() &&
             sim.getCircuitNode(n).links.size() == 2) {
             return;
         }
-        if (sim.mouseMode == CirSim.MODE_DRAG_ROW ||
-            sim.mouseMode == CirSim.MODE_DRAG_COLUMN) {
+        if (app.mouseMode == CirSim.MODE_DRAG_ROW ||
+            app.mouseMode == CirSim.MODE_DRAG_COLUMN) {
             return;
         }
         drawPost(g, x0, y0);
@@ -694,7 +858,7 @@ public abstract class CircuitElm implements Editable {
     }
 
     double updateDotCount(double cur, double cc) {
-        if (sim.stoppedCheck.getState()) {
+        if (app.stoppedCheck.getState()) {
             return cc;
         }
         double cadd = cur * currentMult;
@@ -704,7 +868,7 @@ public abstract class CircuitElm implements Editable {
 
     void doDots(Graphics g) {
         updateDotCount();
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, point2, curcount);
         }
     }
@@ -729,8 +893,8 @@ public abstract class CircuitElm implements Editable {
             g.setColor(selectColor);
             return;
         }
-        if (!sim.voltsCheckItem.getState()) {
-            if (!sim.powerCheckItem
+        if (!app.voltsCheckItem.getState()) {
+            if (!app.powerCheckItem
                 .getState()) // && !conductanceCheckItem.getState())
             {
                 g.setColor(whiteColor);
@@ -749,7 +913,7 @@ public abstract class CircuitElm implements Editable {
     }
 
     void setPowerColor(Graphics g, boolean yellow) {
-        if (!sim.powerCheckItem.getState()) {
+        if (!app.powerCheckItem.getState()) {
             return;
         }
         setPowerColor(g, getPower());
@@ -821,7 +985,7 @@ public abstract class CircuitElm implements Editable {
     }
 
     boolean needsHighlight() {
-        return sim.mouseElm == this || selected;
+        return app.mouseElm == this || selected;
     }
 
     boolean isSelected() {
@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.StringTokenizer;
+
+/**
+ * Circuit reader.
+ * Loads a circuit from the text format CirSim reads and writes into a
+ * Simulator.  Only the elements and the time step matter to the
+ * simulation; the scopes, hints and display options are handed to a
+ * Display if there is one (CirSim), and skipped otherwise.  This is the
+ * only parser of the format, and ELEMENTS the only table of the element
+ * classes it knows, so the editor and the batch tools read the same
+ * circuits.
+ */
+class CircuitReader {
+    // reads the lines about how a circuit is shown
+    interface Display {
+        // line type is 'o' (a scope), 'h' (a hint) or '$' (the options,
+        // which include the time step)
+        void readDisplay(int type, StringTokenizer st);
+    }
+
+    // the element classes, in the same order as CirSim's menus
+    static final Class[] ELEMENTS = {
+        WireElm.class, ResistorElm.class, CapacitorElm.class, InductorElm.class,
+        SwitchElm.class, PushSwitchElm.class, Switch2Elm.class, PotElm.class,
+        TransformerElm.class, TappedTransformerElm.class, TransLineElm.class,
+        RelayElm.class, MemristorElm.class, SparkGapElm.class, GroundElm.class,
+        DCVoltageElm.class, ACVoltageElm.class, RailElm.class, ACRailElm.class,
+        SquareRailElm.class, OutputElm.class, LogicInputElm.class,
+        LogicOutputElm.class, ClockElm.class, SweepElm.class, VarRailElm.class,
+        AntennaElm.class, AMElm.class, FMElm.class, CurrentElm.class,
+        LEDElm.class, LampElm.class, LEDMatrixElm.class, DiodeElm.class,
+        ZenerElm.class, NTransistorElm.class, PTransistorElm.class,
+        OpAmpElm.class, OpAmpSwapElm.class, NMosfetElm.class, PMosfetElm.class,
+        NJfetElm.class, PJfetElm.class, AnalogSwitchElm.class,
+        AnalogSwitch2Elm.class, TriStateElm.class, SchmittElm.class,
+        InvertingSchmittElm.class, SCRElm.class, TunnelDiodeElm.class,
+        TriodeElm.class, CC2Elm.class, CC2NegElm.class, InverterElm.class,
+        NandGateElm.class, NorGateElm.class, AndGateElm.class, OrGateElm.class,
+        XorGateElm.class, DFlipFlopElm.class, JKFlipFlopElm.class,
+        TFlipFlopElm.class, SevenSegElm.class, SevenSegDecoderElm.class,
+        MultiplexerElm.class, DeMultiplexerElm.class, SipoShiftElm.class,
+        PisoShiftElm.class, PhaseCompElm.class, CounterElm.class,
+        DecadeElm.class, TimerElm.class, DACElm.class, ADCElm.class,
+        LatchElm.class, SRAMElm.class, SeqGenElm.class, VCOElm.class,
+        FullAdderElm.class, HalfAdderElm.class, MonostableElm.class,
+        TextElm.class, BoxElm.class, ProbeElm.class
+    };
+    static Class[] dumpTypes;
+
+    // line types that aren't elements
+    static final String RESERVED_TYPES = "oh$%?B";
+
+    // map dump types to element classes.  Built once and then only read,
+    // so simulators on different threads can share it.
+    static synchronized Class[] getDumpTypes() {
+        if (dumpTypes != null) {
+            return dumpTypes;
+        }
+        Class[] types = new Class[300];
+        int i;
+        for (i = 0; i != ELEMENTS.length; i++) {
+            try {
+                Constructor cstr =
+                    ELEMENTS[i].getConstructor(int.class, int.class);
+                CircuitElm elm = (CircuitElm) cstr.newInstance(0, 0);
+                int t = elm.getDumpType();
+                Class dclass = elm.getDumpClass();
+                if (t == 0) {
+                    System.out.println("no dump type: " + ELEMENTS[i]);
+                } else if (RESERVED_TYPES.indexOf(t) >= 0 ||
+                           (types[t] != null && types[t] != dclass)) {
+                    System.out.println("dump type conflict: " +
+                                       ELEMENTS[i] + " " + types[t]);
+                } else {
+                    types[t] = dclass;
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        dumpTypes = types;
+        return dumpTypes;
+    }
+
+    // replace sim's circuit with the one described by text
+    static void read(Simulator sim, String text) {
+        sim.elmList.removeAllElements();
+        sim.setTimeStep(5e-6);
+        sim.t = 0;
+        sim.stopMessage = null;
+        sim.stopElm = null;
+        sim.analyzeFlag = true;
+        read(sim, text, null);
+    }
+
+    // add the elements described by text to sim, and hand the lines
+    // about the display to display, if not null.  Lines that can't be
+    // read are reported and skipped.
+    static void read(Simulator sim, String text, Display display) {
+        Class[] types = getDumpTypes();
+        StringTokenizer lines = new StringTokenizer(text, "\r\n");
+        while (lines.hasMoreTokens()) {
+            StringTokenizer st = new StringTokenizer(lines.nextToken());
+            if (!st.hasMoreTokens()) {
+                continue;
+            }
+            String type = st.nextToken();
+            int tint = type.charAt(0);
+            try {
+                if (display != null &&
+                    (tint == 'o' || tint == 'h' || tint == '$')) {
+                    display.readDisplay(tint, st);
+                    continue;
+                }
+                if (tint == '$') {
+                    st.nextToken(); // display flags
+                    sim.setTimeStep(Double.parseDouble(st.nextToken()));
+                    continue;
+                }
+                if (RESERVED_TYPES.indexOf(tint) >= 0) {
+                    // scopes, hints and afilter-specific stuff
+                    continue;
+                }
+                if (tint >= '0' && tint <= '9') {
+                    tint = Integer.parseInt(type);
+                }
+                int x1 = Integer.parseInt(st.nextToken());
+                int y1 = Integer.parseInt(st.nextToken());
+                int x2 = Integer.parseInt(st.nextToken());
+                int y2 = Integer.parseInt(st.nextToken());
+                int f = Integer.parseInt(st.nextToken());
+                Class cls = (tint < types.length) ? types[tint] : null;
+                if (cls == null) {
+                    System.out.println("unrecognized dump type: " + type);
+                    continue;
+                }
+                Constructor cstr = cls.getConstructor(int.class, int.class,
+                    int.class, int.class, int.class, StringTokenizer.class);
+                CircuitElm ce =
+                    (CircuitElm) cstr.newInstance(x1, y1, x2, y2, f, st);
+                ce.setPoints();
+                sim.addElement(ce);
+            } catch (InvocationTargetException ee) {
+                ee.getTargetException().printStackTrace();
+            } catch (Exception ee) {
+                ee.printStackTrace();
+            }
+        }
+    }
+}
@@ -167,6 +167,14 @@ class CounterElm extends ChipElm {
         lastClock = pins[0].value;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    int getStateBits() {
+        return bits + 1;
+    }
+
     int getDumpType() {
         return 164;
     }
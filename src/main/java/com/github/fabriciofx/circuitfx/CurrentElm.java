@@ -78,7 +78,7 @@ class CurrentElm extends CircuitElm {
         g.fillPolygon(arrow);
         setBbox(point1, point2, cr);
         doDots(g);
-        if (sim.showValuesCheckItem.getState()) {
+        if (app.showValuesCheckItem.getState()) {
             String s = getShortUnitText(currentValue, "A");
             if (dx == 0 || dy == 0) {
                 drawValues(g, s, cr);
@@ -108,6 +108,10 @@ class CurrentElm extends CircuitElm {
         getBasicInfo(arr);
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     double getVoltageDiff() {
         return volts[1] - volts[0];
     }
@@ -106,6 +106,14 @@ class DFlipFlopElm extends ChipElm {
         lastClock = pins[3].value;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    int getStateBits() {
+        return 3;
+    }
+
     int getDumpType() {
         return 155;
     }
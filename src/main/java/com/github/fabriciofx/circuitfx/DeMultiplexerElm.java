@@ -87,6 +87,14 @@ class DeMultiplexerElm extends ChipElm {
         pins[selectedvalue].value = pins[6].value;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    boolean isCombinational() {
+        return true;
+    }
+
     int getDumpType() {
         return 185;
     }
@@ -93,6 +93,14 @@ class DecadeElm extends ChipElm {
         lastClock = pins[0].value;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    int getStateBits() {
+        return bits + 1;
+    }
+
     int getDumpType() {
         return 163;
     }
@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2021 Fabricio Barros Cabral
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * Square dense matrix stored row by row in a single array, so entry
+ * (i, j) is values[i * size + j].  Whole matrices can be copied or
+ * cleared with one bulk operation, and the storage is reused when the
+ * matrix is resized to something that still fits.
+ *
+ * A matrix can also be block diagonal (see resize(int, int[])): then
+ * only the square blocks on its diagonal are stored, one after the
+ * other and each row by row, and every entry outside them is 0.
+ */
+class DenseMatrix {
+    int size;
+    double[] values;
+    // number of values in use
+    int count;
+    // the rows and columns of block k are blockStart[k] to
+    // blockStart[k + 1] - 1, its entries start at values[blockOffset[k]],
+    // and rowBlock[i] is the block of row i.  Null if there is one block.
+    int[] blockStart, blockOffset, rowBlock;
+    // set when add() was given an entry outside the blocks; it's dropped
+    boolean outside;
+
+    DenseMatrix(int n) {
+        size = n;
+        count = n * n;
+        values = new double[count];
+    }
+
+    // returns an n by n zero matrix, reusing m's storage if possible
+    static DenseMatrix reuse(DenseMatrix m, int n) {
+        if (m == null) {
+            return new DenseMatrix(n);
+        }
+        m.resize(n);
+        return m;
+    }
+
+    // returns an n by n zero matrix made of the blocks in starts (see
+    // resize(int, int[])), reusing m's storage if possible
+    static DenseMatrix reuse(DenseMatrix m, int n, int[] starts) {
+        if (m == null) {
+            m = new DenseMatrix(0);
+        }
+        m.resize(n, starts);
+        return m;
+    }
+
+    // makes this an n by n zero matrix
+    void resize(int n) {
+        resize(n, null);
+    }
+
+    // makes this an n by n zero matrix made of the blocks in starts (see
+    // blockStart), or of one block if that's null
+    void resize(int n, int[] starts) {
+        size = n;
+        blockStart = starts;
+        if (starts == null) {
+            blockOffset = rowBlock = null;
+            count = n * n;
+        } else {
+            int k, i;
+            int blocks = starts.length - 1;
+            blockOffset = new int[blocks];
+            rowBlock = new int[n];
+            count = 0;
+            for (k = 0; k != blocks; k++) {
+                int b = starts[k + 1] - starts[k];
+                blockOffset[k] = count;
+                count += b * b;
+                for (i = starts[k]; i != starts[k + 1]; i++) {
+                    rowBlock[i] = k;
+                }
+            }
+        }
+        if (values.length < count) {
+            values = new double[count];
+        } else {
+            clear();
+        }
+    }
+
+    void clear() {
+        Arrays.fill(values, 0, count, 0);
+        outside = false;
+    }
+
+    // copy m, which must have the same size and blocks, into this matrix
+    void copy(DenseMatrix m) {
+        System.arraycopy(m.values, 0, values, 0, count);
+    }
+
+    int getBlockCount() {
+        return (blockStart == null) ? 1 : blockStart.length - 1;
+    }
+
+    // first row and column of block k
+    int getBlockStart(int k) {
+        return (blockStart == null) ? 0 : blockStart[k];
+    }
+
+    int getBlockSize(int k) {
+        return (blockStart == null) ? size :
+            blockStart[k + 1] - blockStart[k];
+    }
+
+    // where block k's entries start in values
+    int getBlockOffset(int k) {
+        return (blockStart == null) ? 0 : blockOffset[k];
+    }
+
+    // index of entry (i, j) in values, or -1 if it's outside the blocks
+    int index(int i, int j) {
+        if (blockStart == null) {
+            return i * size + j;
+        }
+        int k = rowBlock[i];
+        int s = blockStart[k];
+        if (j < s || j >= blockStart[k + 1]) {
+            return -1;
+        }
+        return blockOffset[k] + (i - s) * (blockStart[k + 1] - s) + j - s;
+    }
+
+    double get(int i, int j) {
+        int x = index(i, j);
+        return (x < 0) ? 0 : values[x];
+    }
+
+    void add(int i, int j, double x) {
+        int k = index(i, j);
+        if (k < 0) {
+            outside = true;
+            return;
+        }
+        values[k] += x;
+    }
+}
@@ -63,6 +63,22 @@ class DiacElm extends CircuitElm {
         return true;
     }
 
+    int getMatrixState() {
+        return state ? 1 : 0;
+    }
+
+    // state as startIteration() will find it
+    int getSwitchState() {
+        boolean s = state;
+        if (Math.abs(current) < holdcurrent) {
+            s = false;
+        }
+        if (Math.abs(volts[0] - volts[1]) > breakdown) {
+            s = true;
+        }
+        return s ? 1 : 0;
+    }
+
     int getDumpType() {
         return 203;
     }
@@ -123,12 +139,22 @@ class DiacElm extends CircuitElm {
         sim.stampNonLinear(nodes[1]);
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(state);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        state = s.restoreBoolean();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "spark gap";
         getBasicInfo(arr);
         arr[3] = state ? "on" : "off";
-        arr[4] = "Ron = " + getUnitText(onresistance, sim.ohmString);
-        arr[5] = "Roff = " + getUnitText(offresistance, sim.ohmString);
+        arr[4] = "Ron = " + getUnitText(onresistance, app.ohmString);
+        arr[5] = "Roff = " + getUnitText(offresistance, app.ohmString);
         arr[6] = "Vbrkdn = " + getUnitText(breakdown, "V");
         arr[7] = "Ihold = " + getUnitText(holdcurrent, "A");
     }
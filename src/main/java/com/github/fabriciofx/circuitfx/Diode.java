@@ -26,17 +26,28 @@ package com.github.fabriciofx.circuitfx;
 class Diode {
     public double leakage = 1e-14; // was 1e-9;
     int[] nodes;
-    CirSim sim;
+    CircuitElm elm; // the element this belongs to
     double vt, vdcoef, fwdrop, zvoltage, zoffset;
     double lastvoltdiff;
     double vcrit;
+    // the conductance and current source of the linearization at
+    // lastvoltdiff and the gmin in it; geq is 0 until there is one
+    double geq, nc, lastgmin;
+    // where the conductance goes in the matrix (see
+    // Simulator.getStampTargets()), and the analysis that was for
+    int[] targets = new int[4];
+    int targetGeneration;
+    // set by evaluate() for the doStep() after it: whether it was run,
+    // and whether the voltage moved too much to have converged
+    boolean evaluated, unconverged;
 
-    Diode(CirSim s) {
-        sim = s;
+    Diode(CircuitElm e) {
+        elm = e;
         nodes = new int[2];
     }
 
     void setup(double fw, double zv) {
+        geq = 0;
         fwdrop = fw;
         zvoltage = zv;
         vdcoef = Math.log(1 / leakage + 1) / fwdrop;
@@ -54,7 +65,8 @@ class Diode {
     }
 
     void reset() {
-        lastvoltdiff = 0;
+        lastvoltdiff = geq = 0;
+        evaluated = false;
     }
 
     double limitStep(double vnew, double vold) {
@@ -81,7 +93,7 @@ class Diode {
                 // (1/vt = slope of load line)
                 vnew = vt * Math.log(vnew / vt);
             }
-            sim.converged = false;
+            unconverged = true;
         } else if (vnew < 0 && zoffset != 0) {
             // for Zener breakdown, use the same logic but translate the values
             vnew = -vnew - zoffset;
@@ -99,7 +111,7 @@ class Diode {
                 } else {
                     vnew = vt * Math.log(vnew / vt);
                 }
-                sim.converged = false;
+                unconverged = true;
             }
             vnew = -(vnew + zoffset);
         }
@@ -109,15 +121,44 @@ class Diode {
     void stamp(int n0, int n1) {
         nodes[0] = n0;
         nodes[1] = n1;
-        sim.stampNonLinear(nodes[0]);
-        sim.stampNonLinear(nodes[1]);
+        elm.sim.stampNonLinear(nodes[0]);
+        elm.sim.stampNonLinear(nodes[1]);
     }
 
     void doStep(double voltdiff) {
+        if (!evaluated) {
+            evaluate(voltdiff);
+        }
+        evaluated = false;
+        if (unconverged) {
+            elm.sim.converged = false;
+        }
+        stampLinearization();
+    }
+
+    // compute the linearization at voltdiff for doStep() to stamp
+    void evaluate(double voltdiff) {
+        evaluated = true;
         // used to have .1 here, but needed .01 for peak detector
-        if (Math.abs(voltdiff - lastvoltdiff) > .01) {
-            sim.converged = false;
+        unconverged = Math.abs(voltdiff - lastvoltdiff) > .01;
+        double gmin = 0;
+        int subIterations = elm.sim.subIterations;
+        if (subIterations > 100) {
+            // if we have trouble converging, put a conductance in parallel
+            // with the junction, as transistors do.  Gradually increase
+            // the conductance value for each iteration.
+            gmin = Math.exp(-9 * Math.log(10) * (1 - subIterations / 3000.));
+            if (gmin > .1) {
+                gmin = .1;
+            }
+        }
+        // if the voltage has hardly moved, the last linearization is as
+        // good, so keep it instead of computing the exponentials
+        if (geq != 0 && gmin == lastgmin &&
+            Math.abs(voltdiff - lastvoltdiff) < elm.sim.bypassTolerance) {
+            return;
         }
+        lastgmin = gmin;
         voltdiff = limitStep(voltdiff, lastvoltdiff);
         lastvoltdiff = voltdiff;
         if (voltdiff >= 0 || zvoltage == 0) {
@@ -127,10 +168,9 @@ class Diode {
             if (voltdiff < 0) {
                 eval = 1;
             }
-            double geq = vdcoef * leakage * eval;
-            double nc = (eval - 1) * leakage - geq * voltdiff;
-            sim.stampConductance(nodes[0], nodes[1], geq);
-            sim.stampCurrentSource(nodes[0], nodes[1], nc);
+            geq = vdcoef * leakage * eval;
+            nc = (eval - 1) * leakage - geq * voltdiff;
+            geq += gmin;
         } else {
             // Zener diode
             /*
@@ -139,20 +179,32 @@ class Diode {
              * geq is I'(Vd)
              * nc is I(Vd) + I'(Vd)*(-Vd)
              */
-            double geq = leakage * vdcoef * (
+            geq = leakage * vdcoef * (
                 Math.exp(voltdiff * vdcoef) + Math.exp(
                     (-voltdiff - zoffset) * vdcoef)
             );
-            double nc = leakage * (
+            nc = leakage * (
                 Math.exp(voltdiff * vdcoef)
                     - Math.exp((-voltdiff - zoffset) * vdcoef)
                     - 1
             ) + geq * (-voltdiff);
-            sim.stampConductance(nodes[0], nodes[1], geq);
-            sim.stampCurrentSource(nodes[0], nodes[1], nc);
+            geq += gmin;
         }
     }
 
+    void stampLinearization() {
+        Simulator sim = elm.sim;
+        if (targetGeneration != sim.stampGeneration) {
+            targetGeneration = sim.stampGeneration;
+            sim.getStampTargets(nodes, 2, targets);
+        }
+        sim.stampTarget(targets[0], geq);
+        sim.stampTarget(targets[3], geq);
+        sim.stampTarget(targets[1], -geq);
+        sim.stampTarget(targets[2], -geq);
+        sim.stampCurrentSource(nodes[0], nodes[1], nc);
+    }
+
     double calculateCurrent(double voltdiff) {
         if (voltdiff >= 0 || zvoltage == 0) {
             return leakage * (Math.exp(voltdiff * vdcoef) - 1);
@@ -163,4 +215,20 @@ class Diode {
                 - 1
         );
     }
+
+    // the linearization is carried from one step to the next, so it is
+    // saved with the element's step (see CircuitElm.saveStep())
+    void saveStep(StepState s) {
+        s.save(lastvoltdiff);
+        s.save(geq);
+        s.save(nc);
+        s.save(lastgmin);
+    }
+
+    void restoreStep(StepState s) {
+        lastvoltdiff = s.restore();
+        geq = s.restore();
+        nc = s.restore();
+        lastgmin = s.restore();
+    }
 }
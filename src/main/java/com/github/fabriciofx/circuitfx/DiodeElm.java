@@ -39,7 +39,7 @@ class DiodeElm extends CircuitElm {
 
     public DiodeElm(int xx, int yy) {
         super(xx, yy);
-        diode = new Diode(sim);
+        diode = new Diode(this);
         fwdrop = defaultdrop;
         zvoltage = 0;
         setup();
@@ -50,7 +50,7 @@ class DiodeElm extends CircuitElm {
         StringTokenizer st
     ) {
         super(xa, ya, xb, yb, f);
-        diode = new Diode(sim);
+        diode = new Diode(this);
         fwdrop = defaultdrop;
         zvoltage = 0;
         if ((f & FLAG_FWDROP) > 0) {
@@ -118,6 +118,14 @@ class DiodeElm extends CircuitElm {
         diode.stamp(nodes[0], nodes[1]);
     }
 
+    boolean canEvaluate() {
+        return true;
+    }
+
+    void evaluate() {
+        diode.evaluate(volts[0] - volts[1]);
+    }
+
     void doStep() {
         diode.doStep(volts[0] - volts[1]);
     }
@@ -126,6 +134,16 @@ class DiodeElm extends CircuitElm {
         current = diode.calculateCurrent(volts[0] - volts[1]);
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        diode.saveStep(s);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        diode.restoreStep(s);
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "diode";
         arr[1] = "I = " + getCurrentText(getCurrent());
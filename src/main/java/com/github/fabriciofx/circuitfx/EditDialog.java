@@ -207,7 +207,7 @@ class EditDialog extends Dialog
                 setBar(ei);
             }
         }
-        cframe.needAnalyze();
+        cframe.elementChanged(elm);
     }
 
     public void actionPerformed(ActionEvent e) {
@@ -226,7 +226,7 @@ class EditDialog extends Dialog
                 if (ei.text == null) {
                     setBar(ei);
                 }
-                cframe.needAnalyze();
+                cframe.elementChanged(elm);
             }
         }
         if (e.getSource() == okButton) {
@@ -255,7 +255,7 @@ class EditDialog extends Dialog
                 ei.value = Math.round(ei.value / ei.minval) * ei.minval;
                 elm.setEditValue(i, ei);
                 ei.textf.setText(unitString(ei));
-                cframe.needAnalyze();
+                cframe.elementChanged(elm);
             }
         }
     }
@@ -271,7 +271,7 @@ class EditDialog extends Dialog
                 if (ei.newDialog) {
                     changed = true;
                 }
-                cframe.needAnalyze();
+                cframe.elementChanged(elm);
             }
         }
         if (changed) {
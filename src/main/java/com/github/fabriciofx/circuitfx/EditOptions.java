@@ -23,31 +23,48 @@
  */
 package com.github.fabriciofx.circuitfx;
 
+import java.awt.Checkbox;
+
 class EditOptions implements Editable {
-    CirSim sim;
+    CirSim app;
 
     public EditOptions(CirSim s) {
-        sim = s;
+        app = s;
     }
 
     public EditInfo getEditInfo(int n) {
         if (n == 0) {
-            return new EditInfo("Time step size (s)", sim.timeStep, 0, 0);
+            return new EditInfo("Time step size (s)", app.sim.timeStep, 0, 0);
         }
         if (n == 1) {
             return new EditInfo("Range for voltage color (V)",
                                 CircuitElm.voltageRange, 0, 0
             );
         }
+        if (n == 2) {
+            EditInfo ei = new EditInfo("", 0, -1, -1);
+            ei.checkbox = new Checkbox("Sparse Matrix Solver",
+                                       app.sim.sparseSolver
+            );
+            return ei;
+        }
         return null;
     }
 
     public void setEditValue(int n, EditInfo ei) {
         if (n == 0 && ei.value > 0) {
-            sim.timeStep = ei.value;
+            app.sim.timeStep = ei.value;
         }
         if (n == 1 && ei.value > 0) {
             CircuitElm.voltageRange = ei.value;
         }
+        if (n == 2) {
+            boolean sparse = ei.checkbox.getState();
+            // the solver is picked when the circuit is analyzed
+            if (sparse != app.sim.sparseSolver) {
+                app.sim.sparseSolver = sparse;
+                app.needAnalyze();
+            }
+        }
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs CircuitElm.evaluate() for the elements of a large nonlinear
+ * circuit on several threads.  The elements are split into one slice of
+ * consecutive elements per thread, and each evaluate() only changes its
+ * own element, so what they compute doesn't depend on the number of
+ * threads or on the order the slices run in.  The stamping is still done
+ * by doStep(), one element after the other in the usual order, so the
+ * matrix comes out the same bit for bit.
+ */
+class ElementEvaluator {
+    // the worker threads, shared by all simulators and by BlockFactorer.
+    // They're daemons, so they don't keep the program alive.
+    static ExecutorService pool;
+
+    static class Slice implements Runnable {
+        CircuitElm[] elms;
+        int start, end;
+
+        Slice(CircuitElm[] e, int s, int n) {
+            elms = e;
+            start = s;
+            end = n;
+        }
+
+        public void run() {
+            int i;
+            for (i = start; i != end; i++) {
+                elms[i].evaluate();
+            }
+        }
+    }
+
+    Slice[] slices;
+    Future<?>[] futures;
+
+    ElementEvaluator(CircuitElm[] elms, int threads) {
+        slices = new Slice[threads];
+        futures = new Future<?>[threads];
+        int i;
+        long n = elms.length;
+        for (i = 0; i != threads; i++) {
+            slices[i] = new Slice(elms, (int) (n * i / threads),
+                (int) (n * (i + 1) / threads));
+        }
+    }
+
+    static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simulator worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    // evaluate all the elements; the calling thread does the first slice
+    void run() {
+        runSlices(slices, futures);
+    }
+
+    // run the slices on the pool, with the calling thread doing the first
+    // one, and wait for all of them.  If one failed, its exception is
+    // thrown again once they're done.
+    static void runSlices(Runnable[] slices, Future<?>[] futures) {
+        ExecutorService p = getPool();
+        int i;
+        for (i = 1; i != slices.length; i++) {
+            futures[i] = p.submit(slices[i]);
+        }
+        slices[0].run();
+        // wait for every slice, even if interrupted, so none of them is
+        // still running when its results are used
+        boolean interrupted = false;
+        Throwable failure = null;
+        for (i = 1; i != slices.length; i++) {
+            while (true) {
+                try {
+                    futures[i].get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    break;
+                }
+            }
+            futures[i] = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+}
@@ -113,7 +113,7 @@ class FMElm extends CircuitElm {
         drawWaveform(g, point2);
         drawPosts(g);
         curcount = updateDotCount(-current, curcount);
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, lead1, curcount);
         }
     }
@@ -151,6 +151,18 @@ class FMElm extends CircuitElm {
         return -getVoltageDiff() * current;
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lasttime);
+        s.save(funcx);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lasttime = s.restore();
+        funcx = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "FM Source";
         arr[1] = "I = " + getCurrentText(getCurrent());
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * Factorizations of a piecewise linear circuit's matrix, by the states
+ * of the elements that make it piecewise linear.  A circuit with a spark
+ * gap, say, has one matrix while the gap is off and another while it
+ * conducts, so once both have been factored, switching between them is
+ * only a lookup.  Entries are kept most recently used first, and the
+ * least recently used one is dropped (and its storage reused) when the
+ * cache is full.
+ */
+class FactorCache {
+    static class Entry {
+        int[] key;
+        // dense factors and row permutation, from lu_factor()
+        DenseMatrix matrix;
+        int[] permute;
+        // or the sparse factors
+        SparseLU lu;
+    }
+
+    Entry[] entries;
+    int count;
+
+    FactorCache(int n) {
+        entries = new Entry[n];
+    }
+
+    // returns the entry for key, or null if there isn't one
+    Entry find(int[] key) {
+        int i;
+        for (i = 0; i != count; i++) {
+            if (Arrays.equals(entries[i].key, key)) {
+                return moveToFront(i);
+            }
+        }
+        return null;
+    }
+
+    // returns a new entry for key, which the caller fills in
+    Entry add(int[] key) {
+        Entry e;
+        if (count == entries.length) {
+            e = entries[count - 1];
+        } else {
+            e = new Entry();
+            entries[count++] = e;
+        }
+        e.key = key.clone();
+        return moveToFront(count - 1);
+    }
+
+    Entry moveToFront(int i) {
+        Entry e = entries[i];
+        System.arraycopy(entries, 0, entries, 1, i);
+        entries[0] = e;
+        return e;
+    }
+
+    void clear() {
+        Arrays.fill(entries, null);
+        count = 0;
+    }
+}
@@ -73,6 +73,14 @@ class FullAdderElm extends ChipElm {
             (pins[3].value && pins[4].value);
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    boolean isCombinational() {
+        return true;
+    }
+
     int getDumpType() {
         return 196;
     }
@@ -43,7 +43,7 @@ abstract class GateElm extends CircuitElm {
         super(xx, yy);
         noDiagonal = true;
         inputCount = 2;
-        setSize(sim.smallGridCheckItem.getState() ? 1 : 2);
+        setSize(app != null && app.smallGridCheckItem.getState() ? 1 : 2);
     }
 
     public GateElm(
@@ -75,7 +75,7 @@ abstract class GateElm extends CircuitElm {
 
     void setPoints() {
         super.setPoints();
-        if (dn > 150 && this == sim.dragElm) {
+        if (dn > 150 && app != null && this == app.dragElm) {
             setSize(2);
         }
         int hs = gheight;
@@ -144,6 +144,16 @@ abstract class GateElm extends CircuitElm {
 
     abstract String getGateName();
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lastOutput);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lastOutput = s.restoreBoolean();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = getGateName();
         arr[1] = "Vout = " + getVoltageText(volts[inputCount]);
@@ -160,17 +170,50 @@ abstract class GateElm extends CircuitElm {
 
     abstract boolean calcFunction();
 
-    void doStep() {
-        int i;
+    boolean isLogic() {
+        return true;
+    }
+
+    int getSwitchState() {
+        return lastOutput ? 1 : 0;
+    }
+
+    int getLogicSource(int n) {
+        return n == inputCount ? voltSource : -1;
+    }
+
+    double getLogicOutput(int n) {
+        return lastOutput ? 5 : 0;
+    }
+
+    boolean isCombinational() {
+        return true;
+    }
+
+    boolean evaluateLogic() {
         boolean f = calcFunction();
         if (isInverting()) {
             f = !f;
         }
         lastOutput = f;
-        double res = f ? 5 : 0;
+        return false;
+    }
+
+    void doStep() {
+        evaluateLogic();
+        double res = lastOutput ? 5 : 0;
         sim.updateVoltageSource(0, nodes[inputCount], voltSource, res);
     }
 
+    // the inputs draw nothing; the output current is the source's
+    double getCurrentIntoNode(int n) {
+        return n == inputCount ? current : 0;
+    }
+
+    boolean knowsPostCurrents() {
+        return true;
+    }
+
     public EditInfo getEditInfo(int n) {
         if (n == 0) {
             return new EditInfo("# of Inputs", inputCount, 1, 8).
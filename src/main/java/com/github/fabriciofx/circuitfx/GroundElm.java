@@ -66,10 +66,18 @@ class GroundElm extends CircuitElm {
         current = -c;
     }
 
+    double getCurrentIntoNode(int n) {
+        return -current;
+    }
+
     void stamp() {
         sim.stampVoltageSource(0, nodes[0], voltSource, 0);
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     double getVoltageDiff() {
         return 0;
     }
@@ -70,6 +70,14 @@ class HalfAdderElm extends ChipElm {
         pins[1].value = pins[2].value && pins[3].value;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    boolean isCombinational() {
+        return true;
+    }
+
     int getDumpType() {
         return 195;
     }
@@ -27,13 +27,13 @@ class Inductor {
     public static final int FLAG_BACK_EULER = 2;
     int[] nodes;
     int flags;
-    CirSim sim;
+    CircuitElm elm; // the element this belongs to
     double inductance;
     double compResistance, current;
     double curSourceValue;
 
-    Inductor(CirSim s) {
-        sim = s;
+    Inductor(CircuitElm e) {
+        elm = e;
         nodes = new int[2];
     }
 
@@ -60,14 +60,14 @@ class Inductor {
         nodes[0] = n0;
         nodes[1] = n1;
         if (isTrapezoidal()) {
-            compResistance = 2 * inductance / sim.timeStep;
+            compResistance = 2 * inductance / elm.sim.timeStep;
         } else // backward euler
         {
-            compResistance = inductance / sim.timeStep;
+            compResistance = inductance / elm.sim.timeStep;
         }
-        sim.stampResistor(nodes[0], nodes[1], compResistance);
-        sim.stampRightSide(nodes[0]);
-        sim.stampRightSide(nodes[1]);
+        elm.sim.stampResistor(nodes[0], nodes[1], compResistance);
+        elm.sim.stampRightSide(nodes[0]);
+        elm.sim.stampRightSide(nodes[1]);
     }
 
     boolean nonLinear() {
@@ -93,7 +93,23 @@ class Inductor {
         return current;
     }
 
+    int getStateOrder() {
+        return isTrapezoidal() ? 2 : 1;
+    }
+
     void doStep(double voltdiff) {
-        sim.stampCurrentSource(nodes[0], nodes[1], curSourceValue);
+        elm.sim.stampCurrentSource(nodes[0], nodes[1], curSourceValue);
+    }
+
+    // the companion model is carried from one step to the next, so it is
+    // saved with the element's step (see CircuitElm.saveStep())
+    void saveStep(StepState s) {
+        s.save(current);
+        s.save(curSourceValue);
+    }
+
+    void restoreStep(StepState s) {
+        current = s.restore();
+        curSourceValue = s.restore();
     }
 }
@@ -33,7 +33,7 @@ class InductorElm extends CircuitElm {
 
     public InductorElm(int xx, int yy) {
         super(xx, yy);
-        ind = new Inductor(sim);
+        ind = new Inductor(this);
         inductance = 1;
         ind.setup(inductance, current, flags);
     }
@@ -43,7 +43,7 @@ class InductorElm extends CircuitElm {
         StringTokenizer st
     ) {
         super(xa, ya, xb, yb, f);
-        ind = new Inductor(sim);
+        ind = new Inductor(this);
         inductance = new Double(st.nextToken()).doubleValue();
         current = new Double(st.nextToken()).doubleValue();
         ind.setup(inductance, current, flags);
@@ -71,7 +71,7 @@ class InductorElm extends CircuitElm {
         draw2Leads(g);
         setPowerColor(g, false);
         drawCoil(g, 8, lead1, lead2, v1, v2);
-        if (sim.showValuesCheckItem.getState()) {
+        if (app.showValuesCheckItem.getState()) {
             String s = getShortUnitText(inductance, "H");
             drawValues(g, s, hs);
         }
@@ -106,6 +106,44 @@ class InductorElm extends CircuitElm {
         ind.doStep(voltdiff);
     }
 
+    int getStateCount() {
+        return 1;
+    }
+
+    double getState(int n) {
+        return ind.current;
+    }
+
+    int getStateOrder() {
+        return ind.getStateOrder();
+    }
+
+    boolean fitsStateSpace() {
+        return true;
+    }
+
+    int getCompanionCount() {
+        return 1;
+    }
+
+    double getCompanion(int n) {
+        return ind.curSourceValue;
+    }
+
+    void setCompanion(int n, double x) {
+        ind.curSourceValue = x;
+    }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        ind.saveStep(s);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        ind.restoreStep(s);
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "inductor";
         getBasicInfo(arr);
@@ -30,6 +30,7 @@ import java.util.StringTokenizer;
 
 class InverterElm extends CircuitElm {
     double slewRate; // V/ns
+    double lastOutput;
     Polygon gatePoly;
     Point pcircle;
 
@@ -95,18 +96,58 @@ class InverterElm extends CircuitElm {
         sim.stampVoltageSource(0, nodes[1], voltSource);
     }
 
-    void doStep() {
+    boolean isLogic() {
+        return true;
+    }
+
+    int getSwitchState() {
+        return lastOutput > 2.5 ? 1 : 0;
+    }
+
+    int getLogicSource(int n) {
+        return n == 1 ? voltSource : -1;
+    }
+
+    double getLogicOutput(int n) {
+        return lastOutput;
+    }
+
+    boolean isCombinational() {
+        return true;
+    }
+
+    // runs again until the output has slewed all the way
+    boolean evaluateLogic() {
         double v0 = volts[1];
         double out = volts[0] > 2.5 ? 0 : 5;
         double maxStep = slewRate * sim.timeStep * 1e9;
-        out = Math.max(Math.min(v0 + maxStep, out), v0 - maxStep);
-        sim.updateVoltageSource(0, nodes[1], voltSource, out);
+        lastOutput = Math.max(Math.min(v0 + maxStep, out), v0 - maxStep);
+        return lastOutput != out;
+    }
+
+    void doStep() {
+        evaluateLogic();
+        sim.updateVoltageSource(0, nodes[1], voltSource, lastOutput);
+    }
+
+    double getCurrentIntoNode(int n) {
+        return n == 1 ? current : 0;
     }
 
     double getVoltageDiff() {
         return volts[0];
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lastOutput);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lastOutput = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "inverter";
         arr[1] = "Vi = " + getVoltageText(volts[0]);
@@ -161,10 +161,29 @@ class InvertingSchmittElm extends CircuitElm {
         sim.updateVoltageSource(0, nodes[1], voltSource, out);
     }
 
+    // the input draws nothing
+    double getCurrentIntoNode(int n) {
+        return n == 1 ? current : 0;
+    }
+
     double getVoltageDiff() {
         return volts[0];
     }
 
+    int getSwitchState() {
+        return state ? 1 : 0;
+    }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(state);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        state = s.restoreBoolean();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "InvertingSchmitt";
         arr[1] = "Vi = " + getVoltageText(volts[0]);
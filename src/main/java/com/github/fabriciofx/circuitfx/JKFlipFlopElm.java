@@ -100,6 +100,14 @@ class JKFlipFlopElm extends ChipElm {
         }
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    int getStateBits() {
+        return 3;
+    }
+
     int getDumpType() {
         return 156;
     }
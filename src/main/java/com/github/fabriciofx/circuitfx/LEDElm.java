@@ -71,7 +71,7 @@ class LEDElm extends DiodeElm {
     }
 
     void draw(Graphics g) {
-        if (needsHighlight() || this == sim.dragElm) {
+        if (needsHighlight() || this == app.dragElm) {
             super.draw(g);
             return;
         }
@@ -161,6 +161,10 @@ class LEDMatrixElm extends ChipElm {
         return 0;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
     int getDumpType() {
         return 207;
     }
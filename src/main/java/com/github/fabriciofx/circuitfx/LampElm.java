@@ -134,7 +134,7 @@ class LampElm extends CircuitElm {
         setVoltageColor(g, (v1 + v2) * .5);
         drawThickLine(g, filament[0], filament[1]);
         updateDotCount();
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, lead1, curcount);
             double cc = curcount + (dn - 16) / 2;
             drawDots(g, lead1, filament[0], cc);
@@ -181,10 +181,22 @@ class LampElm extends CircuitElm {
         sim.stampResistor(nodes[0], nodes[1], resistance);
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(temp);
+        s.save(resistance);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        temp = s.restore();
+        resistance = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "lamp";
         getBasicInfo(arr);
-        arr[3] = "R = " + getUnitText(resistance, sim.ohmString);
+        arr[3] = "R = " + getUnitText(resistance, app.ohmString);
         arr[4] = "P = " + getUnitText(getPower(), "W");
         arr[5] = "T = " + ((int) temp) + " K";
     }
@@ -82,8 +82,37 @@ class LatchElm extends ChipElm {
         return bits * 2 + 1;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    // the latch keeps the level of its load pin rather than lastClock
+    int getStateBits() {
+        return bits + 1;
+    }
+
+    int getLogicState() {
+        return (super.getLogicState() & ~(1 << bits)) |
+            (lastLoad ? 1 : 0) << bits;
+    }
+
+    void setLogicState(int s) {
+        super.setLogicState(s);
+        lastLoad = ((s >> bits) & 1) != 0;
+    }
+
     int getDumpType() {
         return 168;
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lastLoad);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lastLoad = s.restoreBoolean();
+    }
 }
 
@@ -0,0 +1,898 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Logic engine.
+ * Compiles a circuit made only of logic (gates, inverters, adders,
+ * multiplexers, decoders, flip-flops, counters and latches between logic
+ * inputs and outputs) into a list of instructions on 64-bit words, which
+ * works out the outputs for 64 input vectors at once, one per bit, with
+ * no matrix.
+ * The elements are put in order so each comes after the ones driving its
+ * inputs, and each is compiled from its own truth table (found by running
+ * it on every combination of its inputs), split on one input at a time
+ * into ANDs, XORs and multiplexers of the rest.  Inverted values cost
+ * nothing, since every operand can be complemented.
+ * <p>
+ * The results are the levels the circuit settles at, which is what the
+ * simulator shows once the inputs have stayed put for as many steps as
+ * the logic is deep.  getTruthTable() runs every combination of the
+ * inputs, and with -c the command line checks it against the simulator.
+ * <p>
+ * The flip-flops (D, JK, T), counters and latches are clocked elements:
+ * each has a few bits of state (see CircuitElm.getStateBits()), kept in a
+ * word per bit, so each of the 64 vectors has a state of its own.  Their
+ * outputs are compiled from their state alone, and their next state from
+ * their inputs and their state, found by running them on every
+ * combination of the two.  run() takes the logic through a pass, then
+ * updates the state words, and so on until no state changes, which is
+ * how far the simulator gets once the inputs have stayed put, and what a
+ * clock edge passed along a chain of flip-flops needs.  The state is kept
+ * from one run() to the next, so a clock is a logic input set high in one
+ * run() and low in the next.
+ * <p>
+ * Shift registers, sequence generators and anything else whose state
+ * isn't told by getStateBits() are rejected, as is a feedback loop
+ * between gates, since there is no level to settle at without knowing
+ * the order the inputs change in.  A loop through a clocked element is
+ * fine.
+ *
+ *   java -cp circuitfx.jar com.github.fabriciofx.circuitfx.LogicEngine
+ *       [-c] [-n steps] [-o file.csv] circuit.txt
+ */
+public class LogicEngine {
+    // each instruction is an op and three operands, and puts its result
+    // in the next value slot.  An operand is a literal: slot * 2, plus 1
+    // for the complement.  Slot 0 is always 0, and slots 1 to inputCount
+    // hold the inputs, then come the state slots.
+    static final int OP_AND = 0;
+    static final int OP_XOR = 1;
+    static final int OP_MUX = 2; // a ? b : c
+    static final int OP_SIZE = 4;
+    int[] code = new int[OP_SIZE * 64];
+    int codeCount;
+    int inputCount, outputCount;
+    // the literal of each output
+    int[] outputs;
+    // state slots follow the inputs, stateCount of them for seqCount
+    // clocked elements.  The literal of each one's next value, its value
+    // when the circuit was compiled, and its words for run(), which keep
+    // the state of each vector between calls.
+    int stateCount, seqCount;
+    int[] nextState;
+    int[] initState;
+    long[] state;
+    int stateWords;
+    // positions of the logic inputs and outputs in the circuit, and the
+    // depth of the logic
+    int[] inputElms, outputElms;
+    String[] inputNames, outputNames;
+    int levelCount;
+    // ANDs and XORs already compiled, by operands
+    HashMap<Long, Integer> ops = new HashMap<Long, Integer>();
+    // truth tables of up to 6 inputs already compiled for the element
+    // being compiled, by number of inputs
+    HashMap<Long, Integer>[] tables;
+    // values for run(): words per slot, slot after slot
+    long[] values;
+
+    // compile the circuit of sim, analyzing it first if that's due
+    @SuppressWarnings("unchecked")
+    public LogicEngine(Simulator sim) {
+        if (sim.elmList.isEmpty()) {
+            throw new IllegalArgumentException("the circuit is empty");
+        }
+        if (sim.analyzeFlag || sim.circuitMatrix == null) {
+            sim.analyzeCircuit();
+            sim.analyzeFlag = false;
+        }
+        if (sim.stopMessage != null) {
+            throw new IllegalArgumentException(sim.stopMessage);
+        }
+        int nodeCount = sim.nodeList.size();
+        int elmCount = sim.elmList.size();
+        int i, j;
+        // wires that weren't merged still join two nodes
+        DisjointSets nets = new DisjointSets(nodeCount);
+        boolean[] gate = new boolean[elmCount];
+        boolean[] seq = new boolean[elmCount];
+        for (i = 0; i != elmCount; i++) {
+            CircuitElm ce = sim.getElm(i);
+            if (ce instanceof LogicInputElm) {
+                inputCount++;
+            } else if (ce instanceof LogicOutputElm) {
+                outputCount++;
+            } else if (ce instanceof WireElm) {
+                if (!((WireElm) ce).merged) {
+                    nets.union(ce.getNode(0), ce.getNode(1));
+                }
+            } else if (ce.isCombinational()) {
+                gate[i] = true;
+            } else if (ce.getStateBits() != 0) {
+                seq[i] = true;
+                seqCount++;
+                stateCount += ce.getStateBits();
+            } else if (ce.isLogic() && getOutputPosts(ce).length != 0) {
+                throw new IllegalArgumentException("element " + i + " (" +
+                    ce.getClass().getSimpleName() +
+                    ") is sequential logic, which is not supported");
+            } else if (ce.getPostCount() != 0 && !ce.isLogic() &&
+                !(ce instanceof GroundElm)) {
+                throw new IllegalArgumentException("element " + i + " (" +
+                    ce.getClass().getSimpleName() +
+                    ") is not combinational logic");
+            }
+        }
+        // what drives each net: -1 for nothing (it's low), the element
+        // for a gate or clocked element, or -2 - n for input n
+        int[] driver = new int[nodeCount];
+        Arrays.fill(driver, -1);
+        inputElms = new int[inputCount];
+        outputElms = new int[outputCount];
+        inputNames = new String[inputCount];
+        outputNames = new String[outputCount];
+        int in = 0, out = 0;
+        for (i = 0; i != elmCount; i++) {
+            CircuitElm ce = sim.getElm(i);
+            String name = ce.getClass().getSimpleName() + i;
+            if (ce instanceof LogicOutputElm) {
+                outputNames[out] = name;
+                outputElms[out++] = i;
+                continue;
+            }
+            int[] posts;
+            if (ce instanceof LogicInputElm) {
+                inputNames[in] = name;
+                inputElms[in] = i;
+                posts = new int[] { 0 };
+            } else if (gate[i] || seq[i]) {
+                posts = getOutputPosts(ce);
+            } else {
+                continue;
+            }
+            for (j = 0; j != posts.length; j++) {
+                int net = nets.find(ce.getNode(posts[j]));
+                if (net == nets.find(0) || driver[net] != -1) {
+                    throw new IllegalArgumentException("element " + i +
+                        " (" + ce.getClass().getSimpleName() +
+                        ") drives a node that's already driven");
+                }
+                driver[net] = (ce instanceof LogicInputElm) ? -2 - in : i;
+            }
+            if (ce instanceof LogicInputElm) {
+                in++;
+            }
+        }
+        // order the gates so that each comes after the gates driving its
+        // inputs (Kahn's algorithm), compiling each as it comes up.  The
+        // clocked elements break the chains, as their outputs only
+        // change between passes.
+        int[] waiting = new int[elmCount];
+        int[] level = new int[elmCount];
+        int[] queue = new int[elmCount];
+        int qhead = 0, qtail = 0, gates = 0;
+        // the gates each gate drives, users[k] for k from userStart[e]
+        int[] userStart = new int[elmCount + 1];
+        for (i = 0; i != elmCount; i++) {
+            if (!gate[i]) {
+                continue;
+            }
+            gates++;
+            int[] posts = getInputPosts(sim.getElm(i));
+            for (j = 0; j != posts.length; j++) {
+                int d = driver[nets.find(sim.getElm(i).getNode(posts[j]))];
+                if (d >= 0 && gate[d]) {
+                    waiting[i]++;
+                    userStart[d + 1]++;
+                }
+            }
+            if (waiting[i] == 0) {
+                queue[qtail++] = i;
+            }
+        }
+        for (i = 0; i != elmCount; i++) {
+            userStart[i + 1] += userStart[i];
+        }
+        int[] users = new int[userStart[elmCount]];
+        int[] fill = new int[elmCount];
+        for (i = 0; i != elmCount; i++) {
+            if (!gate[i]) {
+                continue;
+            }
+            int[] posts = getInputPosts(sim.getElm(i));
+            for (j = 0; j != posts.length; j++) {
+                int d = driver[nets.find(sim.getElm(i).getNode(posts[j]))];
+                if (d >= 0 && gate[d]) {
+                    users[userStart[d] + fill[d]++] = i;
+                }
+            }
+        }
+        // the literal of each net, once it's known
+        int[] netLit = new int[nodeCount];
+        for (i = 0; i != nodeCount; i++) {
+            int d = driver[i];
+            netLit[i] = (d < -1) ? (-1 - d) * 2 : 0;
+        }
+        tables = new HashMap[7];
+        for (i = 0; i != 7; i++) {
+            tables[i] = new HashMap<Long, Integer>();
+        }
+        // the outputs of the clocked elements only depend on their state,
+        // so they're known before any gate
+        int[] stateSlot = new int[elmCount];
+        int slot = inputCount + 1;
+        initState = new int[stateCount];
+        nextState = new int[stateCount];
+        for (i = 0; i != elmCount; i++) {
+            if (seq[i]) {
+                stateSlot[i] = slot;
+                compileOutputs(sim, i, slot, nets, netLit);
+                slot += sim.getElm(i).getStateBits();
+            }
+        }
+        while (qhead != qtail) {
+            int e = queue[qhead++];
+            gates--;
+            compileElm(sim, e, nets, netLit);
+            levelCount = Math.max(levelCount, level[e] + 1);
+            for (j = userStart[e]; j != userStart[e + 1]; j++) {
+                int u = users[j];
+                level[u] = Math.max(level[u], level[e] + 1);
+                if (--waiting[u] == 0) {
+                    queue[qtail++] = u;
+                }
+            }
+        }
+        if (gates != 0) {
+            throw new IllegalArgumentException(
+                "the logic has a feedback loop");
+        }
+        for (i = 0; i != elmCount; i++) {
+            if (seq[i]) {
+                compileState(sim, i, stateSlot[i], nets, netLit);
+            }
+        }
+        outputs = new int[outputCount];
+        for (i = 0; i != outputCount; i++) {
+            CircuitElm ce = sim.getElm(outputElms[i]);
+            outputs[i] = netLit[nets.find(ce.getNode(0))];
+        }
+        ops = null;
+        tables = null;
+    }
+
+    static int[] getOutputPosts(CircuitElm ce) {
+        return getPosts(ce, true);
+    }
+
+    static int[] getInputPosts(CircuitElm ce) {
+        return getPosts(ce, false);
+    }
+
+    static int[] getPosts(CircuitElm ce, boolean outputs) {
+        int n = 0, j;
+        int[] posts = new int[ce.getPostCount()];
+        for (j = 0; j != posts.length; j++) {
+            if ((ce.getLogicSource(j) >= 0) == outputs) {
+                posts[n++] = j;
+            }
+        }
+        return Arrays.copyOf(posts, n);
+    }
+
+    // find the truth table of element e by setting its inputs to every
+    // combination of levels, and compile it
+    void compileElm(Simulator sim, int e, DisjointSets nets, int[] netLit) {
+        CircuitElm ce = sim.getElm(e);
+        int[] ins = getInputPosts(ce);
+        int[] outs = getOutputPosts(ce);
+        int n = ins.length;
+        int i, j, k;
+        if (n > 16) {
+            throw new IllegalArgumentException("element " + e +
+                " has too many inputs");
+        }
+        int[] vars = new int[n];
+        for (j = 0; j != n; j++) {
+            vars[j] = netLit[nets.find(ce.getNode(ins[j]))];
+        }
+        int rows = 1 << n;
+        long[][] tt = new long[outs.length][(rows + 63) / 64];
+        double[] saved = ce.volts.clone();
+        for (i = 0; i != rows; i++) {
+            for (j = 0; j != n; j++) {
+                ce.volts[ins[j]] = ((i >> j) & 1) != 0 ? 5 : 0;
+            }
+            // an inverter's output slews, so let it get there
+            for (k = 0; k != 1000; k++) {
+                boolean again = ce.evaluateLogic();
+                for (j = 0; j != outs.length; j++) {
+                    ce.volts[outs[j]] = ce.getLogicOutput(outs[j]);
+                }
+                if (!again) {
+                    break;
+                }
+            }
+            if (k == 1000) {
+                throw new IllegalArgumentException("element " + e +
+                    " does not settle");
+            }
+            for (j = 0; j != outs.length; j++) {
+                if (ce.getLogicOutput(outs[j]) > 2.5) {
+                    tt[j][i >> 6] |= 1L << (i & 63);
+                }
+            }
+        }
+        System.arraycopy(saved, 0, ce.volts, 0, saved.length);
+        ce.evaluateLogic();
+        for (i = 0; i != 7; i++) {
+            tables[i].clear();
+        }
+        for (j = 0; j != outs.length; j++) {
+            netLit[nets.find(ce.getNode(outs[j]))] =
+                compileTable(tt[j], 0, n, vars);
+        }
+    }
+
+    // compile the outputs of clocked element e, whose state is in the
+    // slots from slot on, from its output levels in every state
+    void compileOutputs(Simulator sim, int e, int slot, DisjointSets nets,
+        int[] netLit) {
+        CircuitElm ce = sim.getElm(e);
+        int[] outs = getOutputPosts(ce);
+        int n = ce.getStateBits();
+        int i, j;
+        if (n > 16) {
+            throw new IllegalArgumentException("element " + e +
+                " has too much state");
+        }
+        int[] vars = new int[n];
+        int s0 = ce.getLogicState();
+        for (j = 0; j != n; j++) {
+            vars[j] = (slot + j) * 2;
+            initState[slot - inputCount - 1 + j] = (s0 >> j) & 1;
+        }
+        int rows = 1 << n;
+        long[][] tt = new long[outs.length][(rows + 63) / 64];
+        for (i = 0; i != rows; i++) {
+            ce.setLogicState(i);
+            for (j = 0; j != outs.length; j++) {
+                if (ce.getLogicOutput(outs[j]) > 2.5) {
+                    tt[j][i >> 6] |= 1L << (i & 63);
+                }
+            }
+        }
+        ce.setLogicState(s0);
+        for (i = 0; i != 7; i++) {
+            tables[i].clear();
+        }
+        for (j = 0; j != outs.length; j++) {
+            netLit[nets.find(ce.getNode(outs[j]))] =
+                compileTable(tt[j], 0, n, vars);
+        }
+    }
+
+    // compile the next state of clocked element e, whose state is in the
+    // slots from slot on, by running it once from every state with every
+    // combination of levels at its inputs
+    void compileState(Simulator sim, int e, int slot, DisjointSets nets,
+        int[] netLit) {
+        CircuitElm ce = sim.getElm(e);
+        int[] ins = getInputPosts(ce);
+        int m = ins.length;
+        int bits = ce.getStateBits();
+        int n = m + bits;
+        int i, j;
+        if (n > 16) {
+            throw new IllegalArgumentException("element " + e +
+                " has too many inputs");
+        }
+        int[] vars = new int[n];
+        for (j = 0; j != m; j++) {
+            vars[j] = netLit[nets.find(ce.getNode(ins[j]))];
+        }
+        for (j = 0; j != bits; j++) {
+            vars[m + j] = (slot + j) * 2;
+        }
+        int rows = 1 << n;
+        long[][] tt = new long[bits][(rows + 63) / 64];
+        double[] saved = ce.volts.clone();
+        int s0 = ce.getLogicState();
+        for (i = 0; i != rows; i++) {
+            for (j = 0; j != m; j++) {
+                ce.volts[ins[j]] = ((i >> j) & 1) != 0 ? 5 : 0;
+            }
+            ce.setLogicState(i >> m);
+            ce.evaluateLogic();
+            int s = ce.getLogicState();
+            for (j = 0; j != bits; j++) {
+                if (((s >> j) & 1) != 0) {
+                    tt[j][i >> 6] |= 1L << (i & 63);
+                }
+            }
+        }
+        System.arraycopy(saved, 0, ce.volts, 0, saved.length);
+        ce.setLogicState(s0);
+        for (i = 0; i != 7; i++) {
+            tables[i].clear();
+        }
+        for (j = 0; j != bits; j++) {
+            nextState[slot - inputCount - 1 + j] =
+                compileTable(tt[j], 0, n, vars);
+        }
+    }
+
+    // the literal for the function of vars[0] to vars[n - 1] whose truth
+    // table is bits off to off + 2^n - 1 of tt (bit i being the value
+    // when bit j of i gives vars[j]).  It's vars[n - 1] ? (the top half)
+    // : (the bottom half), with the halves compiled the same way.
+    int compileTable(long[] tt, int off, int n, int[] vars) {
+        if (n <= 6) {
+            long bits = tt[off >> 6];
+            if (n < 6) {
+                bits = (bits >>> (off & 63)) & ((1L << (1 << n)) - 1);
+            }
+            return compileBits(bits, n, vars);
+        }
+        int half = 1 << (n - 1);
+        int lo = compileTable(tt, off, n - 1, vars);
+        int hi = compileTable(tt, off + half, n - 1, vars);
+        return mux(vars[n - 1], hi, lo);
+    }
+
+    int compileBits(long bits, int n, int[] vars) {
+        long all = (n == 6) ? -1 : (1L << (1 << n)) - 1;
+        if (bits == 0) {
+            return 0;
+        }
+        if (bits == all) {
+            return 1;
+        }
+        Integer lit = tables[n].get(bits);
+        if (lit != null) {
+            return lit;
+        }
+        lit = tables[n].get(~bits & all);
+        if (lit != null) {
+            return lit ^ 1;
+        }
+        int half = 1 << (n - 1);
+        int lo = compileBits(bits & ((1L << half) - 1), n - 1, vars);
+        int hi = compileBits(bits >>> half, n - 1, vars);
+        int r = mux(vars[n - 1], hi, lo);
+        tables[n].put(bits, r);
+        return r;
+    }
+
+    // s ? a : b, simplified where possible
+    int mux(int s, int a, int b) {
+        if (s < 2 || a == b) {
+            return (s == 1) ? a : b;
+        }
+        if (a == (b ^ 1)) {
+            return xor(s, b);
+        }
+        if (b == 0) {
+            return and(s, a);
+        }
+        if (b == 1) {
+            return and(s, a ^ 1) ^ 1;
+        }
+        if (a == 0) {
+            return and(s ^ 1, b);
+        }
+        if (a == 1) {
+            return and(s ^ 1, b ^ 1) ^ 1;
+        }
+        if ((s & 1) != 0) {
+            return emit(OP_MUX, s ^ 1, b, a);
+        }
+        return emit(OP_MUX, s, a, b);
+    }
+
+    int and(int a, int b) {
+        if (a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        if (a == 0 || a == (b ^ 1)) {
+            return 0;
+        }
+        if (a == 1 || a == b) {
+            return b;
+        }
+        return share(OP_AND, a, b);
+    }
+
+    int xor(int a, int b) {
+        int c = (a ^ b) & 1;
+        a &= ~1;
+        b &= ~1;
+        if (a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        if (a == b) {
+            return c;
+        }
+        if (a == 0) {
+            return b ^ c;
+        }
+        return share(OP_XOR, a, b) ^ c;
+    }
+
+    // an AND or XOR, reusing one that was already compiled
+    int share(int op, int a, int b) {
+        long key = ((long) op << 62) | ((long) a << 31) | b;
+        Integer lit = ops.get(key);
+        if (lit == null) {
+            lit = emit(op, a, b, 0);
+            ops.put(key, lit);
+        }
+        return lit;
+    }
+
+    int emit(int op, int a, int b, int c) {
+        if (codeCount * OP_SIZE == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        int p = codeCount * OP_SIZE;
+        code[p] = op;
+        code[p + 1] = a;
+        code[p + 2] = b;
+        code[p + 3] = c;
+        codeCount++;
+        return (inputCount + stateCount + codeCount) * 2;
+    }
+
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    public int getInstructionCount() {
+        return codeCount;
+    }
+
+    // the longest chain of elements from an input to an output
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    // bits of state of the clocked elements, and how many of them there are
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int getClockedCount() {
+        return seqCount;
+    }
+
+    // put the clocked elements back in the state they were in when the
+    // circuit was compiled, for every vector
+    public void reset() {
+        state = null;
+    }
+
+    // work out the outputs for words * 64 input vectors.  Bit b of
+    // in[i * words + w] is input i of vector w * 64 + b, and the outputs
+    // are put in out the same way.  Each vector takes the clocked
+    // elements from the state the last run() left it in; if words is not
+    // what it was then, they start over from where reset() puts them.
+    public void run(long[] in, long[] out, int words) {
+        int slots = inputCount + stateCount + codeCount + 1;
+        if (values == null || values.length < slots * words) {
+            values = new long[slots * words];
+        }
+        long[] v = values;
+        int i, k, w;
+        if (state == null || stateWords != words) {
+            state = new long[stateCount * words];
+            stateWords = words;
+            for (k = 0; k != stateCount; k++) {
+                Arrays.fill(state, k * words, (k + 1) * words,
+                    initState[k] != 0 ? -1 : 0);
+            }
+        }
+        for (w = 0; w != words; w++) {
+            v[w] = 0;
+        }
+        System.arraycopy(in, 0, v, words, inputCount * words);
+        // a pass, then the new state, until nothing changes.  A clock edge
+        // can only go down a chain of clocked elements, one per pass, so
+        // if it's still going after that the state is oscillating.
+        int pass;
+        for (pass = 0;; pass++) {
+            System.arraycopy(state, 0, v, (inputCount + 1) * words,
+                stateCount * words);
+            runCode(v, words);
+            boolean changed = false;
+            for (k = 0; k != stateCount; k++) {
+                int s = nextState[k];
+                int si = (s >> 1) * words;
+                long sm = -(s & 1);
+                for (w = 0; w != words; w++) {
+                    long x = v[si + w] ^ sm;
+                    if (x != state[k * words + w]) {
+                        state[k * words + w] = x;
+                        changed = true;
+                    }
+                }
+            }
+            if (!changed) {
+                break;
+            }
+            if (pass == seqCount) {
+                throw new IllegalStateException(
+                    "the logic does not settle");
+            }
+        }
+        for (i = 0; i != outputCount; i++) {
+            int o = outputs[i];
+            int oi = (o >> 1) * words;
+            long om = -(o & 1);
+            for (w = 0; w != words; w++) {
+                out[i * words + w] = v[oi + w] ^ om;
+            }
+        }
+    }
+
+    // run the instructions once on the values in v
+    void runCode(long[] v, int words) {
+        int i, w;
+        int d = (inputCount + stateCount + 1) * words;
+        int end = codeCount * OP_SIZE;
+        for (i = 0; i != end; i += OP_SIZE, d += words) {
+            int a = code[i + 1], b = code[i + 2], c = code[i + 3];
+            int ai = (a >> 1) * words, bi = (b >> 1) * words;
+            long am = -(a & 1), bm = -(b & 1);
+            switch (code[i]) {
+                case OP_AND:
+                    for (w = 0; w != words; w++) {
+                        v[d + w] = (v[ai + w] ^ am) & (v[bi + w] ^ bm);
+                    }
+                    break;
+                case OP_XOR:
+                    for (w = 0; w != words; w++) {
+                        v[d + w] = v[ai + w] ^ am ^ v[bi + w] ^ bm;
+                    }
+                    break;
+                default:
+                    int ci = (c >> 1) * words;
+                    long cm = -(c & 1);
+                    for (w = 0; w != words; w++) {
+                        long s = v[ai + w] ^ am;
+                        v[d + w] = (s & (v[bi + w] ^ bm)) |
+                            (~s & (v[ci + w] ^ cm));
+                    }
+                    break;
+            }
+        }
+    }
+
+    // the outputs for every combination of the inputs: bit b of
+    // table[o][w] is output o when bit i of w * 64 + b gives input i.
+    // The clocked elements start each combination from where reset()
+    // puts them, and are left there.
+    public long[][] getTruthTable() {
+        if (inputCount > 30) {
+            throw new IllegalArgumentException("too many inputs");
+        }
+        long rows = 1L << inputCount;
+        int tableWords = (int) ((rows + 63) / 64);
+        long[][] table = new long[outputCount][tableWords];
+        // the low six inputs repeat in every word, the others are the
+        // bits of the word number
+        final long[] pattern = {
+            0xaaaaaaaaaaaaaaaaL, 0xccccccccccccccccL, 0xf0f0f0f0f0f0f0f0L,
+            0xff00ff00ff00ff00L, 0xffff0000ffff0000L, 0xffffffff00000000L
+        };
+        int words = Math.min(tableWords, 256);
+        long[] in = new long[inputCount * words];
+        long[] out = new long[outputCount * words];
+        int i, w, start;
+        for (start = 0; start < tableWords; start += words) {
+            for (i = 0; i != inputCount; i++) {
+                for (w = 0; w != words; w++) {
+                    in[i * words + w] = (i < 6) ? pattern[i] :
+                        (((start + w) >> (i - 6)) & 1) != 0 ? -1 : 0;
+                }
+            }
+            reset();
+            run(in, out, words);
+            for (i = 0; i != outputCount; i++) {
+                System.arraycopy(out, i * words, table[i], start, words);
+            }
+        }
+        reset();
+        if (rows < 64) {
+            for (i = 0; i != outputCount; i++) {
+                table[i][0] &= (1L << rows) - 1;
+            }
+        }
+        return table;
+    }
+
+    // write the truth table, one row per combination of the inputs
+    void writeTruthTable(Writer w, long[][] table) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int i;
+        for (i = 0; i != inputCount; i++) {
+            sb.append(inputNames[i]).append(',');
+        }
+        for (i = 0; i != outputCount; i++) {
+            sb.append(outputNames[i]).append(i + 1 < outputCount ? ',' : '\n');
+        }
+        w.write(sb.toString());
+        long m, rows = 1L << inputCount;
+        for (m = 0; m != rows; m++) {
+            sb.setLength(0);
+            for (i = 0; i != inputCount; i++) {
+                sb.append((m >> i) & 1).append(',');
+            }
+            for (i = 0; i != outputCount; i++) {
+                sb.append((table[i][(int) (m >> 6)] >> (m & 63)) & 1)
+                    .append(i + 1 < outputCount ? ',' : '\n');
+            }
+            w.write(sb.toString());
+        }
+    }
+
+    // run every combination of the inputs through the simulator, steps
+    // steps each, and count the outputs that differ from the table.  With
+    // clocked elements, the state carries over from one combination to
+    // the next, so the outputs are compared with those of run() on the
+    // same combinations in the same order instead.  As the inputs count
+    // up, input 0 makes a clock going high every other combination.
+    int check(String text, long[][] table, int steps, PrintWriter log) {
+        Simulator sim = new Simulator();
+        CircuitReader.read(sim, text);
+        long m, rows = 1L << inputCount;
+        int i, errors = 0;
+        long[] in = new long[inputCount];
+        long[] out = new long[outputCount];
+        reset();
+        for (m = 0; m != rows; m++) {
+            if (stateCount != 0) {
+                for (i = 0; i != inputCount; i++) {
+                    in[i] = ((m >> i) & 1) != 0 ? -1 : 0;
+                }
+                run(in, out, 1);
+            }
+            for (i = 0; i != inputCount; i++) {
+                LogicInputElm li = (LogicInputElm) sim.getElm(inputElms[i]);
+                li.position = (int) ((m >> i) & 1);
+                sim.elementChanged(li);
+            }
+            if (!sim.step(steps)) {
+                throw new IllegalArgumentException("simulation stopped: " +
+                    sim.stopMessage);
+            }
+            for (i = 0; i != outputCount; i++) {
+                boolean sv = sim.getElm(outputElms[i]).volts[0] > 2.5;
+                boolean tv = (stateCount != 0) ? (out[i] & 1) != 0 :
+                    ((table[i][(int) (m >> 6)] >> (m & 63)) & 1) != 0;
+                if (sv != tv) {
+                    if (errors++ < 10) {
+                        log.println("inputs " + Long.toBinaryString(m) +
+                            ": " + outputNames[i] + " is " + (sv ? 1 : 0) +
+                            " in the simulator");
+                    }
+                }
+            }
+        }
+        return errors;
+    }
+
+    public static void main(String[] args) {
+        String file = null, out = null;
+        boolean check = false;
+        int steps = 0;
+        LogicEngine le = null;
+        String text = null;
+        try {
+            int i;
+            for (i = 0; i != args.length; i++) {
+                String a = args[i];
+                if (a.equals("-c")) {
+                    check = true;
+                } else if (a.equals("-n") && i + 1 != args.length) {
+                    steps = Integer.parseInt(args[++i]);
+                } else if (a.equals("-o") && i + 1 != args.length) {
+                    out = args[++i];
+                } else if (a.startsWith("-") || file != null) {
+                    throw new IllegalArgumentException("unexpected " + a);
+                } else {
+                    file = a;
+                }
+            }
+            if (file == null) {
+                throw new IllegalArgumentException("no circuit file given");
+            }
+            text = new String(Files.readAllBytes(new File(file).toPath()),
+                StandardCharsets.UTF_8);
+            Simulator sim = new Simulator();
+            CircuitReader.read(sim, text);
+            le = new LogicEngine(sim);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: LogicEngine [-c] [-n steps] " +
+                "[-o file.csv] circuit.txt");
+            System.err.println("  the circuit must be logic only: " +
+                "gates, flip-flops, counters and latches");
+            System.exit(2);
+        }
+        PrintWriter log = new PrintWriter(System.out, true);
+        log.println(le.inputCount + " inputs, " + le.outputCount +
+            " outputs, " + le.codeCount + " instructions, " +
+            le.levelCount + " levels, " + le.stateCount + " state bits");
+        int errors = 0;
+        try {
+            long t0 = System.nanoTime();
+            long[][] table = le.getTruthTable();
+            log.println("truth table: " + (System.nanoTime() - t0) / 1000 +
+                " us");
+            if (out != null) {
+                Writer w = new OutputStreamWriter(new FileOutputStream(out),
+                    StandardCharsets.UTF_8);
+                try {
+                    le.writeTruthTable(w, table);
+                } finally {
+                    w.close();
+                }
+            }
+            if (check) {
+                // the outputs settle after a step per level and per
+                // clocked element; give the inverters some time to slew
+                // as well
+                if (steps == 0) {
+                    steps = (le.levelCount + le.seqCount) * 2 + 10;
+                }
+                errors = le.check(text, table, steps, log);
+                log.println(errors + " outputs differ from the simulator");
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        System.exit(errors == 0 ? 0 : 1);
+    }
+}
@@ -102,12 +102,32 @@ class LogicInputElm extends SwitchElm {
         current = -c;
     }
 
-    void stamp() {
+    double getCurrentIntoNode(int n) {
+        return -current;
+    }
+
+    double getOutputVoltage() {
         double v = (position == 0) ? loV : hiV;
         if (isTernary()) {
             v = position * 2.5;
         }
-        sim.stampVoltageSource(0, nodes[0], voltSource, v);
+        return v;
+    }
+
+    void stamp() {
+        sim.stampVoltageSource(0, nodes[0], voltSource, getOutputVoltage());
+    }
+
+    boolean isLogic() {
+        return true;
+    }
+
+    int getLogicSource(int n) {
+        return voltSource;
+    }
+
+    double getLogicOutput(int n) {
+        return getOutputVoltage();
     }
 
     int getVoltageSourceCount() {
@@ -111,6 +111,15 @@ class LogicOutputElm extends CircuitElm {
         }
     }
 
+    // without the pull-down it only reads the level
+    boolean isLogic() {
+        return !needsPullDown();
+    }
+
+    double getCurrentIntoNode(int n) {
+        return needsPullDown() ? -volts[0] / 1e6 : 0;
+    }
+
     double getVoltageDiff() {
         return volts[0];
     }
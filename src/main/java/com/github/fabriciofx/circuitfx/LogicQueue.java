@@ -0,0 +1,299 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * Runs the logic elements of a circuit (see CircuitElm.isLogic()) only
+ * on the steps after one of their inputs crossed the 2.5V threshold, or
+ * after they asked to run again, instead of on every iteration.
+ * <p>
+ * A node that only logic element posts and merged wires are on, with
+ * one output driving it, is a digital node.  Its voltage is whatever
+ * that output put out last, so nothing needs solving for it: the
+ * output's voltage source is marked as fixed before the matrix is
+ * simplified, which then takes the node and the source out of the
+ * matrix, and the voltage is set on the node's posts here when it
+ * changes.  Outputs onto the other nodes stay voltage sources, stamped
+ * with the value their element last put out.
+ */
+class LogicQueue {
+    Simulator sim;
+    CircuitElm[] elms;
+    // the outputs of elms[e] are outStart[e] to outStart[e + 1] - 1:
+    // post outPost[o] on node outNode[o], driven by voltage source
+    // outSource[o].  outWatch[o] is the watched node of a digital
+    // output, or -1.
+    int[] outStart, outPost, outNode, outSource, outWatch;
+    boolean[] outDigital;
+    double[] outValue;
+    // the outputs onto other nodes whose value is stamped every
+    // iteration (a logic input's is stamped with the circuit)
+    int[] stampedOutputs;
+    boolean[] digitalNode;
+    // the nodes logic inputs are on, the level each was last at, where
+    // to read it, and the elements on it, readers[k] for k from
+    // readStart[w] to readStart[w + 1]; analogWatch lists the ones the
+    // matrix solves for, which checkInputs() looks at
+    int[] watchNode;
+    boolean[] watchLevel;
+    CircuitElm[] watchElm;
+    int[] watchPost;
+    int[] readStart, readers;
+    int[] analogWatch;
+    // the elements to run on the next step, flagged in queued
+    int[] queue, running;
+    int queueCount;
+    boolean[] queued;
+    // steps left on which all the elements run
+    int fullRuns;
+
+    // call after the elements have stamped, before the matrix is
+    // simplified
+    LogicQueue(Simulator s) {
+        sim = s;
+        int nodeCount = sim.nodeList.size();
+        int vsBase = nodeCount - 1;
+        int i, j;
+        // find the outputs on each node, and the nodes anything else is on
+        int[] drivers = new int[nodeCount];
+        int[] readCount = new int[nodeCount];
+        boolean[] analog = new boolean[nodeCount];
+        int elmCount = 0, outCount = 0;
+        for (i = 0; i != sim.elmList.size(); i++) {
+            CircuitElm ce = sim.getElm(i);
+            int posts = ce.getPostCount();
+            if (ce.isLogic()) {
+                elmCount++;
+                for (j = 0; j != posts; j++) {
+                    int node = ce.getNode(j);
+                    if (ce.getLogicSource(j) >= 0) {
+                        drivers[node]++;
+                        outCount++;
+                    } else {
+                        readCount[node]++;
+                    }
+                }
+            } else if (!(ce instanceof WireElm && ((WireElm) ce).merged)) {
+                for (j = 0; j != posts; j++) {
+                    analog[ce.getNode(j)] = true;
+                }
+            }
+        }
+        digitalNode = new boolean[nodeCount];
+        for (i = 1; i != nodeCount; i++) {
+            digitalNode[i] = drivers[i] == 1 && !analog[i];
+        }
+        // number the watched nodes
+        int[] nodeWatch = new int[nodeCount];
+        Arrays.fill(nodeWatch, -1);
+        int watchCount = 0, readCountAll = 0, analogCount = 0;
+        for (i = 1; i != nodeCount; i++) {
+            if (readCount[i] > 0) {
+                nodeWatch[i] = watchCount++;
+                readCountAll += readCount[i];
+                if (!digitalNode[i]) {
+                    analogCount++;
+                }
+            }
+        }
+        watchNode = new int[watchCount];
+        watchLevel = new boolean[watchCount];
+        watchElm = new CircuitElm[watchCount];
+        watchPost = new int[watchCount];
+        readStart = new int[watchCount + 1];
+        readers = new int[readCountAll];
+        analogWatch = new int[analogCount];
+        analogCount = 0;
+        for (i = 1; i != nodeCount; i++) {
+            int w = nodeWatch[i];
+            if (w < 0) {
+                continue;
+            }
+            watchNode[w] = i;
+            readStart[w + 1] = readStart[w] + readCount[i];
+            readCount[i] = 0;
+            if (!digitalNode[i]) {
+                analogWatch[analogCount++] = w;
+            }
+        }
+        elms = new CircuitElm[elmCount];
+        outStart = new int[elmCount + 1];
+        outPost = new int[outCount];
+        outNode = new int[outCount];
+        outSource = new int[outCount];
+        outWatch = new int[outCount];
+        outDigital = new boolean[outCount];
+        outValue = new double[outCount];
+        int[] stamped = new int[outCount];
+        int stampedCount = 0;
+        int e = 0, o = 0;
+        for (i = 0; i != sim.elmList.size(); i++) {
+            CircuitElm ce = sim.getElm(i);
+            if (!ce.isLogic()) {
+                continue;
+            }
+            for (j = 0; j != ce.getPostCount(); j++) {
+                int node = ce.getNode(j);
+                int vs = ce.getLogicSource(j);
+                if (vs < 0) {
+                    int w = nodeWatch[node];
+                    if (w < 0) {
+                        continue;
+                    }
+                    if (readCount[node] == 0) {
+                        watchElm[w] = ce;
+                        watchPost[w] = j;
+                        watchLevel[w] = ce.volts[j] > 2.5;
+                    }
+                    readers[readStart[w] + readCount[node]++] = e;
+                    continue;
+                }
+                outPost[o] = j;
+                outNode[o] = node;
+                outSource[o] = vs;
+                outWatch[o] = nodeWatch[node];
+                outValue[o] = Double.NaN;
+                RowInfo ri = sim.circuitRowInfo[vsBase + vs];
+                if (digitalNode[node]) {
+                    // the source is fixed, so the node gets simplified
+                    // away, and it supplies no current
+                    outDigital[o] = true;
+                    ri.rsChanges = false;
+                    ce.setCurrent(vs, 0);
+                } else if (ri.rsChanges) {
+                    stamped[stampedCount++] = o;
+                }
+                o++;
+            }
+            elms[e++] = ce;
+            outStart[e] = o;
+        }
+        stampedOutputs = Arrays.copyOf(stamped, stampedCount);
+        queue = new int[elmCount];
+        running = new int[elmCount];
+        queued = new boolean[elmCount];
+        // the levels the inputs were seen at are only known after all
+        // the elements have run, and the digital nodes have been set
+        fullRuns = 2;
+    }
+
+    // run all the elements on the next step, after the circuit changed
+    void scheduleAll() {
+        fullRuns = Math.max(fullRuns, 1);
+    }
+
+    void schedule(int e) {
+        if (!queued[e]) {
+            queued[e] = true;
+            queue[queueCount++] = e;
+        }
+    }
+
+    // a watched node is at a new level; its readers run on the next step
+    void setLevel(int w, boolean level) {
+        if (watchLevel[w] == level) {
+            return;
+        }
+        watchLevel[w] = level;
+        int k;
+        for (k = readStart[w]; k != readStart[w + 1]; k++) {
+            schedule(readers[k]);
+        }
+    }
+
+    // run the elements queued for this step, before the iterations.
+    // They all see the voltages of the last step, and then the outputs
+    // that changed are set on the digital nodes.
+    void run() {
+        int i, o;
+        int[] q = running;
+        running = queue;
+        queue = q;
+        int count = queueCount;
+        queueCount = 0;
+        for (i = 0; i != count; i++) {
+            queued[running[i]] = false;
+        }
+        if (fullRuns > 0) {
+            fullRuns--;
+            count = elms.length;
+            for (i = 0; i != count; i++) {
+                running[i] = i;
+            }
+        }
+        for (i = 0; i != count; i++) {
+            int e = running[i];
+            if (elms[e].evaluateLogic()) {
+                schedule(e);
+            }
+        }
+        for (i = 0; i != count; i++) {
+            int e = running[i];
+            CircuitElm ce = elms[e];
+            for (o = outStart[e]; o != outStart[e + 1]; o++) {
+                double v = ce.getLogicOutput(outPost[o]);
+                if (v == outValue[o]) {
+                    continue;
+                }
+                outValue[o] = v;
+                if (outDigital[o]) {
+                    setNodeVoltage(outNode[o], v);
+                    if (outWatch[o] >= 0) {
+                        setLevel(outWatch[o], v > 2.5);
+                    }
+                }
+            }
+        }
+    }
+
+    void setNodeVoltage(int node, double v) {
+        CircuitNode cn = sim.getCircuitNode(node);
+        int k;
+        for (k = 0; k != cn.links.size(); k++) {
+            CircuitNodeLink cnl = cn.links.elementAt(k);
+            cnl.elm.setNodeVoltage(cnl.num, v);
+        }
+    }
+
+    // stamp the outputs onto nodes the matrix solves for, every iteration
+    void stampOutputs() {
+        int i;
+        for (i = 0; i != stampedOutputs.length; i++) {
+            int o = stampedOutputs[i];
+            sim.updateVoltageSource(0, outNode[o], outSource[o], outValue[o]);
+        }
+    }
+
+    // after the step converged, queue the readers of the solved nodes
+    // that crossed the threshold
+    void checkInputs() {
+        int i;
+        for (i = 0; i != analogWatch.length; i++) {
+            int w = analogWatch[i];
+            setLevel(w, watchElm[w].volts[watchPost[w]] > 2.5);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * Sherman-Morrison-Woodbury update of a factored matrix.  If a matrix A
+ * differs from a base matrix B, whose factors are at hand, in only k
+ * rows, then A = B + U V^T, where the columns of U are the unit vectors
+ * of those rows and the rows of V^T are the differences.  So
+ * A^-1 b = y - Z (I + V^T Z)^-1 V^T y, with y = B^-1 b and Z = B^-1 U.
+ * Setting up takes k solves with B and the LU of a k by k matrix, and
+ * each solve then takes one solve with B and O(n k) more work.
+ */
+class LowRankUpdate {
+    Simulator sim;
+    int size, rank;
+    // the rows that differ from the base, and the differences, as
+    // sparse rows: row j's are diffCols/diffVals[diffStart[j] ..
+    // diffStart[j + 1] - 1]
+    int[] rows;
+    int[] diffStart, diffCols;
+    double[] diffVals;
+    // column j of B^-1 U, at z[j * size]
+    double[] z;
+    // I + V^T Z, factored
+    DenseMatrix small;
+    int[] smallPermute;
+    double[] w;
+
+    LowRankUpdate(Simulator s, int n, int k, int[] r, int[] ds, int[] dc,
+                  double[] dv) {
+        sim = s;
+        size = n;
+        rank = k;
+        rows = r;
+        diffStart = ds;
+        diffCols = dc;
+        diffVals = dv;
+        w = new double[k];
+    }
+
+    // computes Z and factors I + V^T Z; returns false if that's singular,
+    // which means the update can't be used
+    boolean init() {
+        int i, j, p;
+        z = new double[rank * size];
+        double[] col = new double[size];
+        for (j = 0; j != rank; j++) {
+            Arrays.fill(col, 0);
+            col[rows[j]] = 1;
+            sim.solveBase(col);
+            System.arraycopy(col, 0, z, j * size, size);
+        }
+        small = new DenseMatrix(rank);
+        smallPermute = new int[rank];
+        // the largest sum of magnitudes an entry is added up from
+        double largest = 0;
+        for (i = 0; i != rank; i++) {
+            for (j = 0; j != rank; j++) {
+                double q = (i == j) ? 1 : 0;
+                double m = q;
+                int zj = j * size;
+                for (p = diffStart[i]; p != diffStart[i + 1]; p++) {
+                    double d = diffVals[p] * z[zj + diffCols[p]];
+                    q += d;
+                    m += Math.abs(d);
+                }
+                small.values[i * rank + j] = q;
+                largest = Math.max(largest, m);
+            }
+        }
+        if (!sim.lu_factor(small, rank, smallPermute)) {
+            return false;
+        }
+        // a pivot that is tiny next to the terms it came from means the
+        // updated matrix is (nearly) singular, or the update would lose
+        // too much accuracy.  (Next to the entries themselves, a 1 by 1
+        // pivot would never look tiny.)
+        for (i = 0; i != rank; i++) {
+            if (Math.abs(small.values[i * rank + i]) < largest * 1e-12) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // turns y = B^-1 b into A^-1 b
+    void correct(double[] y) {
+        int i, j, p;
+        for (j = 0; j != rank; j++) {
+            double q = 0;
+            for (p = diffStart[j]; p != diffStart[j + 1]; p++) {
+                q += diffVals[p] * y[diffCols[p]];
+            }
+            w[j] = q;
+        }
+        sim.lu_solve(small, rank, smallPermute, w);
+        for (j = 0; j != rank; j++) {
+            double q = w[j];
+            if (q == 0) {
+                continue;
+            }
+            int zj = j * size;
+            for (i = 0; i != size; i++) {
+                y[i] -= z[zj + i] * q;
+            }
+        }
+    }
+}
@@ -136,10 +136,22 @@ class MemristorElm extends CircuitElm {
         sim.stampResistor(nodes[0], nodes[1], resistance);
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(dopeWidth);
+        s.save(resistance);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        dopeWidth = s.restore();
+        resistance = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "memristor";
         getBasicInfo(arr);
-        arr[3] = "R = " + getUnitText(resistance, sim.ohmString);
+        arr[3] = "R = " + getUnitText(resistance, app.ohmString);
         arr[4] = "P = " + getUnitText(getPower(), "W");
     }
 
@@ -148,7 +160,7 @@ class MemristorElm extends CircuitElm {
     }
 
     String getScopeUnits(int x) {
-        return (x == 2) ? sim.ohmString : (x == 1) ? "W" : "V";
+        return (x == 2) ? app.ohmString : (x == 1) ? "W" : "V";
     }
 
     public EditInfo getEditInfo(int n) {
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2021 Fabricio Barros Cabral
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * Fill-reducing ordering for the sparse solver.  This is a plain minimum
+ * degree ordering on the pattern of A+A' (the same idea as AMD, without
+ * the approximate degrees and supervariables, which our circuits are too
+ * small to need).
+ */
+class MinimumDegree {
+    static int[] order(SparseMatrix a) {
+        int n = a.size;
+        int[][] adj = new int[n][];
+        int[] len = new int[n];
+        int i, k, p, s;
+        // build the symmetric adjacency lists, without the diagonal
+        for (s = 0; s != a.count; s++) {
+            if (a.rows[s] != a.cols[s]) {
+                len[a.rows[s]]++;
+                len[a.cols[s]]++;
+            }
+        }
+        for (i = 0; i != n; i++) {
+            adj[i] = new int[len[i]];
+            len[i] = 0;
+        }
+        for (s = 0; s != a.count; s++) {
+            int r = a.rows[s];
+            int c = a.cols[s];
+            if (r != c) {
+                adj[r][len[r]++] = c;
+                adj[c][len[c]++] = r;
+            }
+        }
+        int[] mark = new int[n];
+        int stamp = 0;
+        for (i = 0; i != n; i++) {
+            stamp++;
+            mark[i] = stamp;
+            int l = 0;
+            for (p = 0; p != len[i]; p++) {
+                int j = adj[i][p];
+                if (mark[j] != stamp) {
+                    mark[j] = stamp;
+                    adj[i][l++] = j;
+                }
+            }
+            len[i] = l;
+        }
+        // nodes are kept in doubly linked lists, one for each degree
+        int[] head = new int[n];
+        int[] next = new int[n];
+        int[] prev = new int[n];
+        for (i = 0; i != n; i++) {
+            head[i] = -1;
+        }
+        for (i = 0; i != n; i++) {
+            link(head, next, prev, i, len[i]);
+        }
+        boolean[] done = new boolean[n];
+        int[] order = new int[n];
+        int[] nb = new int[n];
+        int mindeg = 0;
+        for (k = 0; k != n; k++) {
+            while (head[mindeg] == -1) {
+                mindeg++;
+            }
+            int v = head[mindeg];
+            unlink(head, next, prev, v, mindeg);
+            done[v] = true;
+            order[k] = v;
+            // eliminating v makes its remaining neighbors a clique
+            int nbc = 0;
+            for (p = 0; p != len[v]; p++) {
+                if (!done[adj[v][p]]) {
+                    nb[nbc++] = adj[v][p];
+                }
+            }
+            for (p = 0; p != nbc; p++) {
+                int u = nb[p];
+                int[] au = adj[u];
+                int olddeg = len[u];
+                stamp++;
+                mark[u] = stamp;
+                int l = 0;
+                int q;
+                for (q = 0; q != olddeg; q++) {
+                    int w = au[q];
+                    if (!done[w] && mark[w] != stamp) {
+                        mark[w] = stamp;
+                        au[l++] = w;
+                    }
+                }
+                for (q = 0; q != nbc; q++) {
+                    int w = nb[q];
+                    if (mark[w] != stamp) {
+                        mark[w] = stamp;
+                        if (l == au.length) {
+                            au = Arrays.copyOf(au, l * 2 + 4);
+                        }
+                        au[l++] = w;
+                    }
+                }
+                adj[u] = au;
+                len[u] = l;
+                unlink(head, next, prev, u, olddeg);
+                link(head, next, prev, u, l);
+                if (l < mindeg) {
+                    mindeg = l;
+                }
+            }
+            adj[v] = null;
+            len[v] = 0;
+        }
+        return order;
+    }
+
+    static void link(int[] head, int[] next, int[] prev, int i, int d) {
+        next[i] = head[d];
+        prev[i] = -1;
+        if (head[d] != -1) {
+            prev[head[d]] = i;
+        }
+        head[d] = i;
+    }
+
+    static void unlink(int[] head, int[] next, int[] prev, int i, int d) {
+        if (prev[i] != -1) {
+            next[prev[i]] = next[i];
+        } else {
+            head[d] = next[i];
+        }
+        if (next[i] != -1) {
+            prev[next[i]] = prev[i];
+        }
+    }
+}
@@ -92,6 +92,16 @@ class MonostableElm extends ChipElm {
         return super.dump() + " " + retriggerable + " " + delay;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    // the output times out without any input changing
+    boolean evaluateLogic() {
+        super.evaluateLogic();
+        return triggered;
+    }
+
     int getDumpType() {
         return 194;
     }
@@ -118,4 +128,18 @@ class MonostableElm extends ChipElm {
         }
         super.setEditValue(n, ei);
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(prevInputValue);
+        s.save(triggered);
+        s.save(lastRisingEdge);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        prevInputValue = s.restoreBoolean();
+        triggered = s.restoreBoolean();
+        lastRisingEdge = s.restore();
+    }
 }
@@ -43,10 +43,23 @@ class MosfetElm extends CircuitElm {
     Point[] gate;
     Point pcircle;
     Polygon arrowPoly;
-    double lastv1, lastv2;
+    double lastv0, lastv1, lastv2;
+    double[] vs = new double[3]; // limited node voltages, used by doStep()
     double ids;
     int mode = 0;
     double gm = 0;
+    // the rest of the linearization at lastv0..lastv2; gds is 0 until
+    // there is one
+    double gds, rs;
+    int source, drain;
+    // where the stamps between the nodes go in the matrix (see
+    // Simulator.getStampTargets()), and the analysis that was for
+    int[] targets = new int[9];
+    int targetGeneration;
+    // set by evaluate() for the doStep() after it: whether it was run,
+    // whether the voltages moved too much to have converged, and
+    // whether a JFET ended up reverse biased
+    boolean evaluated, unconverged, reverseBiased;
 
     MosfetElm(int xx, int yy, boolean pnpflag) {
         super(xx, yy);
@@ -87,7 +100,9 @@ class MosfetElm extends CircuitElm {
     }
 
     void reset() {
-        lastv1 = lastv2 = volts[0] = volts[1] = volts[2] = curcount = 0;
+        lastv0 = lastv1 = lastv2 = volts[0] = volts[1] = volts[2] = 0;
+        curcount = gds = 0;
+        evaluated = false;
     }
 
     String dump() {
@@ -123,7 +138,7 @@ class MosfetElm extends CircuitElm {
             setVoltageColor(g, pnp == 1 ? volts[1] : volts[2]);
             g.fillPolygon(arrowPoly);
         }
-        if (sim.powerCheckItem.getState()) {
+        if (app.powerCheckItem.getState()) {
             g.setColor(Color.gray);
         }
         setVoltageColor(g, volts[0]);
@@ -138,7 +153,7 @@ class MosfetElm extends CircuitElm {
             g.setFont(unitsFont);
             drawCenteredText(g, s, x2 + 2, y2, false);
         }
-        if ((needsHighlight() || sim.dragElm == this) && dy == 0) {
+        if ((needsHighlight() || app.dragElm == this) && dy == 0) {
             g.setColor(Color.white);
             g.setFont(unitsFont);
             int ds = sign(dx);
@@ -216,8 +231,36 @@ class MosfetElm extends CircuitElm {
         sim.stampNonLinear(nodes[2]);
     }
 
+    boolean canEvaluate() {
+        return true;
+    }
+
     void doStep() {
-        double[] vs = new double[3];
+        if (!evaluated) {
+            evaluate();
+        }
+        evaluated = false;
+        if (unconverged) {
+            sim.converged = false;
+        }
+        if (reverseBiased) {
+            sim.stop("JFET is reverse biased!", this);
+            return;
+        }
+        stampLinearization();
+    }
+
+    void evaluate() {
+        evaluated = true;
+        unconverged = reverseBiased = false;
+        // if the terminal voltages have hardly moved, the last
+        // linearization is as good, so keep it
+        if (gds != 0 &&
+            Math.abs(volts[0] - lastv0) < sim.bypassTolerance &&
+            Math.abs(volts[1] - lastv1) < sim.bypassTolerance &&
+            Math.abs(volts[2] - lastv2) < sim.bypassTolerance) {
+            return;
+        }
         vs[0] = volts[0];
         vs[1] = volts[1];
         vs[2] = volts[2];
@@ -233,8 +276,8 @@ class MosfetElm extends CircuitElm {
         if (vs[2] < lastv2 - .5) {
             vs[2] = lastv2 - .5;
         }
-        int source = 1;
-        int drain = 2;
+        source = 1;
+        drain = 2;
         if (pnp * vs[1] > pnp * vs[2]) {
             source = 2;
             drain = 1;
@@ -242,10 +285,9 @@ class MosfetElm extends CircuitElm {
         int gate = 0;
         double vgs = vs[gate] - vs[source];
         double vds = vs[drain] - vs[source];
-        if (Math.abs(lastv1 - vs[1]) > .01 ||
-            Math.abs(lastv2 - vs[2]) > .01) {
-            sim.converged = false;
-        }
+        unconverged = Math.abs(lastv1 - vs[1]) > .01 ||
+            Math.abs(lastv2 - vs[2]) > .01;
+        lastv0 = vs[0];
         lastv1 = vs[1];
         lastv2 = vs[2];
         double realvgs = vgs;
@@ -254,51 +296,73 @@ class MosfetElm extends CircuitElm {
         vds *= pnp;
         ids = 0;
         gm = 0;
-        double Gds = 0;
+        gds = 0;
         double beta = getBeta();
         if (vgs > .5 && this instanceof JfetElm) {
-            sim.stop("JFET is reverse biased!", this);
+            reverseBiased = true;
             return;
         }
         if (vgs < vt) {
             // should be all zero, but that causes a singular matrix,
             // so instead we treat it as a large resistor
-            Gds = 1e-8;
-            ids = vds * Gds;
+            gds = 1e-8;
+            ids = vds * gds;
             mode = 0;
         } else if (vds < vgs - vt) {
             // linear
             ids = beta * ((vgs - vt) * vds - vds * vds * .5);
             gm = beta * vds;
-            Gds = beta * (vgs - vds - vt);
+            gds = beta * (vgs - vds - vt);
             mode = 1;
         } else {
             // saturation; Gds = 0
             gm = beta * (vgs - vt);
             // use very small Gds to avoid nonconvergence
-            Gds = 1e-8;
+            gds = 1e-8;
             ids =
-                .5 * beta * (vgs - vt) * (vgs - vt) + (vds - (vgs - vt)) * Gds;
+                .5 * beta * (vgs - vt) * (vgs - vt) + (vds - (vgs - vt)) * gds;
             mode = 2;
         }
-        double rs = -pnp * ids + Gds * realvds + gm * realvgs;
+        rs = -pnp * ids + gds * realvds + gm * realvgs;
         //System.out.println("M " + vds + " " + vgs + " " + ids + " " + gm +
         // " "+ Gds + " " + volts[0] + " " + volts[1] + " " + volts[2] + " " +
         // source + " " + rs + " " + this);
-        sim.stampMatrix(nodes[drain], nodes[drain], Gds);
-        sim.stampMatrix(nodes[drain], nodes[source], -Gds - gm);
-        sim.stampMatrix(nodes[drain], nodes[gate], gm);
-        sim.stampMatrix(nodes[source], nodes[drain], -Gds);
-        sim.stampMatrix(nodes[source], nodes[source], Gds + gm);
-        sim.stampMatrix(nodes[source], nodes[gate], -gm);
-        sim.stampRightSide(nodes[drain], rs);
-        sim.stampRightSide(nodes[source], -rs);
         if (source == 2 && pnp == 1 ||
             source == 1 && pnp == -1) {
             ids = -ids;
         }
     }
 
+    void stampLinearization() {
+        int gate = 0;
+        if (targetGeneration != sim.stampGeneration) {
+            targetGeneration = sim.stampGeneration;
+            sim.getStampTargets(nodes, 3, targets);
+        }
+        int d = drain * 3;
+        int s = source * 3;
+        sim.stampTarget(targets[d + drain], gds);
+        sim.stampTarget(targets[d + source], -gds - gm);
+        sim.stampTarget(targets[d + gate], gm);
+        sim.stampTarget(targets[s + drain], -gds);
+        sim.stampTarget(targets[s + source], gds + gm);
+        sim.stampTarget(targets[s + gate], -gm);
+        sim.stampRightSide(nodes[drain], rs);
+        sim.stampRightSide(nodes[source], -rs);
+    }
+
+    double getCurrentIntoNode(int n) {
+        // ids flows in at the drain (post 2) and out at the source
+        if (n == 0) {
+            return 0;
+        }
+        return (n == 1) ? ids : -ids;
+    }
+
+    boolean knowsPostCurrents() {
+        return true;
+    }
+
     void getFetInfo(String[] arr, String n) {
         arr[0] = ((pnp == -1) ? "p-" : "n-") + n;
         arr[0] += " (Vt = " + getVoltageText(pnp * vt) + ")";
@@ -311,6 +375,34 @@ class MosfetElm extends CircuitElm {
         arr[5] = "gm = " + getUnitText(gm, "A/V");
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lastv0);
+        s.save(lastv1);
+        s.save(lastv2);
+        s.save(ids);
+        s.save(gm);
+        s.save(gds);
+        s.save(rs);
+        s.save(mode);
+        s.save(source);
+        s.save(drain);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lastv0 = s.restore();
+        lastv1 = s.restore();
+        lastv2 = s.restore();
+        ids = s.restore();
+        gm = s.restore();
+        gds = s.restore();
+        rs = s.restore();
+        mode = s.restoreInt();
+        source = s.restoreInt();
+        drain = s.restoreInt();
+    }
+
     void getInfo(String[] arr) {
         getFetInfo(arr, "MOSFET");
     }
@@ -342,6 +434,7 @@ class MosfetElm extends CircuitElm {
     public void setEditValue(int n, EditInfo ei) {
         if (n == 0) {
             vt = pnp * ei.value;
+            gds = 0;
         }
         if (n == 1) {
             flags = (ei.checkbox.getState()) ? (flags | FLAG_DIGITAL) :
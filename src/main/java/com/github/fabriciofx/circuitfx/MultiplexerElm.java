@@ -81,6 +81,14 @@ class MultiplexerElm extends ChipElm {
         pins[6].value = pins[selectedvalue].value;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    boolean isCombinational() {
+        return true;
+    }
+
     int getDumpType() {
         return 184;
     }
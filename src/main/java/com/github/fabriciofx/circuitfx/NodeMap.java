@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * Map from post coordinates to node numbers.  Each (x, y) pair is packed
+ * into a single long and kept in an open addressing table, so looking up
+ * the node at a post takes constant time and doesn't box anything.
+ */
+class NodeMap {
+    static final int EMPTY = -1;
+    long[] keys;
+    int[] nodes;
+    int count;
+
+    NodeMap(int n) {
+        int cap = 16;
+        while (cap < n * 2) {
+            cap <<= 1;
+        }
+        keys = new long[cap];
+        nodes = new int[cap];
+        Arrays.fill(nodes, EMPTY);
+    }
+
+    static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    static int hash(long k, int mask) {
+        k *= 0x9E3779B97F4A7C15L;
+        return (int) (k ^ (k >>> 32)) & mask;
+    }
+
+    // returns the node at (x, y), or EMPTY if there isn't one
+    int get(int x, int y) {
+        long k = key(x, y);
+        int mask = keys.length - 1;
+        for (int i = hash(k, mask);; i = (i + 1) & mask) {
+            if (nodes[i] == EMPTY) {
+                return EMPTY;
+            }
+            if (keys[i] == k) {
+                return nodes[i];
+            }
+        }
+    }
+
+    // maps (x, y) to node n, replacing any earlier mapping
+    void put(int x, int y, int n) {
+        if ((count + 1) * 2 > keys.length) {
+            grow();
+        }
+        long k = key(x, y);
+        int mask = keys.length - 1;
+        int i = hash(k, mask);
+        while (nodes[i] != EMPTY && keys[i] != k) {
+            i = (i + 1) & mask;
+        }
+        if (nodes[i] == EMPTY) {
+            count++;
+        }
+        keys[i] = k;
+        nodes[i] = n;
+    }
+
+    void clear() {
+        Arrays.fill(nodes, EMPTY);
+        count = 0;
+    }
+
+    void grow() {
+        long[] oldKeys = keys;
+        int[] oldNodes = nodes;
+        keys = new long[oldKeys.length * 2];
+        nodes = new int[oldKeys.length * 2];
+        Arrays.fill(nodes, EMPTY);
+        int mask = keys.length - 1;
+        for (int j = 0; j != oldKeys.length; j++) {
+            if (oldNodes[j] == EMPTY) {
+                continue;
+            }
+            int i = hash(oldKeys[j], mask);
+            while (nodes[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            nodes[i] = oldNodes[j];
+        }
+    }
+}
@@ -47,7 +47,7 @@ class OpAmpElm extends CircuitElm {
         maxOut = 15;
         minOut = -15;
         gbw = 1e6;
-        setSize(sim.smallGridCheckItem.getState() ? 1 : 2);
+        setSize(app != null && app.smallGridCheckItem.getState() ? 1 : 2);
         setGain();
     }
 
@@ -118,7 +118,7 @@ class OpAmpElm extends CircuitElm {
 
     void setPoints() {
         super.setPoints();
-        if (dn > 150 && this == sim.dragElm) {
+        if (dn > 150 && app != null && this == app.dragElm) {
             setSize(2);
         }
         int ww = opwidth;
@@ -154,6 +154,16 @@ class OpAmpElm extends CircuitElm {
         return 1;
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lastvd);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lastvd = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "op-amp";
         arr[1] = "V+ = " + getVoltageText(volts[1]);
@@ -58,16 +58,16 @@ class OutputElm extends CircuitElm {
     }
 
     void draw(Graphics g) {
-        boolean selected = (needsHighlight() || sim.plotYElm == this);
+        boolean selected = (needsHighlight() || app.plotYElm == this);
         Font f = new Font("SansSerif", selected ? Font.BOLD : 0, 14);
         g.setFont(f);
         g.setColor(selected ? selectColor : whiteColor);
         String s = (flags & FLAG_VALUE) != 0 ? getVoltageText(volts[0]) : "out";
         FontMetrics fm = g.getFontMetrics();
-        if (this == sim.plotXElm) {
+        if (this == app.plotXElm) {
             s = "X";
         }
-        if (this == sim.plotYElm) {
+        if (this == app.plotYElm) {
             s = "Y";
         }
         interpPoint(
@@ -86,6 +86,10 @@ class OutputElm extends CircuitElm {
         drawPosts(g);
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     double getVoltageDiff() {
         return volts[0];
     }
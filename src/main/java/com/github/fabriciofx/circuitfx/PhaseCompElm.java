@@ -57,6 +57,11 @@ class PhaseCompElm extends ChipElm {
         return true;
     }
 
+    int getMatrixState() {
+        // whether the output is driven
+        return (ff1 || ff2) ? 1 : 0;
+    }
+
     void stamp() {
         int vn = sim.nodeList.size() + pins[2].voltSource;
         sim.stampNonLinear(vn);
@@ -96,8 +101,25 @@ class PhaseCompElm extends ChipElm {
         return 1;
     }
 
+    // the pins are not all ideal inputs and outputs
+    boolean knowsPostCurrents() {
+        return false;
+    }
+
     int getDumpType() {
         return 161;
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(ff1);
+        s.save(ff2);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        ff1 = s.restoreBoolean();
+        ff2 = s.restoreBoolean();
+    }
 }
 
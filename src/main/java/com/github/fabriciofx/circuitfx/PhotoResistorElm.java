@@ -71,16 +71,19 @@ class PhotoResistorElm extends CircuitElm {
     }
 
     void createSlider() {
-        sim.main.add(label = new Label("Light Level", Label.CENTER));
+        if (app == null) {
+            return;
+        }
+        app.main.add(label = new Label("Light Level", Label.CENTER));
         int value = 50;
-        sim.main.add(slider = new Scrollbar(
+        app.main.add(slider = new Scrollbar(
             Scrollbar.HORIZONTAL,
             value,
             1,
             0,
             101
         ));
-        sim.main.validate();
+        app.main.validate();
     }
 
     void setPoints() {
@@ -91,8 +94,8 @@ class PhotoResistorElm extends CircuitElm {
     }
 
     void delete() {
-        sim.main.remove(label);
-        sim.main.remove(slider);
+        app.main.remove(label);
+        app.main.remove(slider);
     }
 
     void draw(Graphics g) {
@@ -131,9 +134,9 @@ class PhotoResistorElm extends CircuitElm {
         // FIXME
         arr[0] = "spark gap";
         getBasicInfo(arr);
-        arr[3] = "R = " + getUnitText(resistance, sim.ohmString);
-        arr[4] = "Ron = " + getUnitText(minresistance, sim.ohmString);
-        arr[5] = "Roff = " + getUnitText(maxresistance, sim.ohmString);
+        arr[3] = "R = " + getUnitText(resistance, app.ohmString);
+        arr[4] = "Ron = " + getUnitText(minresistance, app.ohmString);
+        arr[5] = "Roff = " + getUnitText(maxresistance, app.ohmString);
     }
 
     public EditInfo getEditInfo(int n) {
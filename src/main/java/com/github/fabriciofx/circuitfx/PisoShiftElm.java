@@ -124,7 +124,25 @@ class PisoShiftElm extends ChipElm {
         }
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
     int getDumpType() {
         return 186;
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(data);
+        s.save(clockstate);
+        s.save(modestate);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        data = (short) s.restoreInt();
+        clockstate = s.restoreBoolean();
+        modestate = s.restoreBoolean();
+    }
 }
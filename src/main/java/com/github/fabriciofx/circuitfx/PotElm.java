@@ -86,50 +86,57 @@ class PotElm extends CircuitElm implements AdjustmentListener {
     }
 
     void createSlider() {
-        sim.main.add(label = new Label(sliderText, Label.CENTER));
         int value = (int) (position * 100);
-        sim.main.add(slider = new Scrollbar(
+        if (app == null) {
+            // no editor, so no slider; use the position it would give
+            position = value * .0099 + .005;
+            return;
+        }
+        app.main.add(label = new Label(sliderText, Label.CENTER));
+        app.main.add(slider = new Scrollbar(
             Scrollbar.HORIZONTAL,
             value,
             1,
             0,
             101
         ));
-        sim.main.validate();
+        app.main.validate();
         slider.addAdjustmentListener(this);
     }
 
     public void adjustmentValueChanged(AdjustmentEvent e) {
-        sim.analyzeFlag = true;
         setPoints();
+        sim.elementChanged(this);
     }
 
     void delete() {
-        sim.main.remove(label);
-        sim.main.remove(slider);
+        app.main.remove(label);
+        app.main.remove(slider);
     }
 
     void setPoints() {
         super.setPoints();
         int offset = 0;
         if (abs(dx) > abs(dy)) {
-            dx = sim.snapGrid(dx / 2) * 2;
+            dx = snapGrid(dx / 2) * 2;
             point2.x = x2 = point1.x + dx;
             offset = (dx < 0) ? dy : -dy;
             point2.y = point1.y;
         } else {
-            dy = sim.snapGrid(dy / 2) * 2;
+            dy = snapGrid(dy / 2) * 2;
             point2.y = y2 = point1.y + dy;
             offset = (dy > 0) ? dx : -dx;
             point2.x = point1.x;
         }
         if (offset == 0) {
-            offset = sim.gridSize;
+            offset = gridSize();
         }
         dn = distance(point1, point2);
         int bodyLen = 32;
         calcLeads(bodyLen);
-        position = slider.getValue() * .0099 + .005;
+        if (slider != null) {
+            position = slider.getValue() * .0099 + .005;
+        }
         int soff = (int) ((position - .5) * bodyLen);
         post3 = interpPoint(point1, point2, .5, offset);
         corner2 = interpPoint(point1, point2, soff / dn + .5, offset);
@@ -149,7 +156,7 @@ class PotElm extends CircuitElm implements AdjustmentListener {
         int segments = 16;
         int i;
         int ox = 0;
-        int hs = sim.euroResistorCheckItem.getState() ? 6 : 8;
+        int hs = app.euroResistorCheckItem.getState() ? 6 : 8;
         double v1 = volts[0];
         double v2 = volts[1];
         double v3 = volts[2];
@@ -158,7 +165,7 @@ class PotElm extends CircuitElm implements AdjustmentListener {
         setPowerColor(g, true);
         double segf = 1. / segments;
         int divide = (int) (segments * position);
-        if (!sim.euroResistorCheckItem.getState()) {
+        if (!app.euroResistorCheckItem.getState()) {
             // draw zigzag
             for (i = 0; i != segments; i++) {
                 int nx = 0;
@@ -210,7 +217,7 @@ class PotElm extends CircuitElm implements AdjustmentListener {
         curcount1 = updateDotCount(current1, curcount1);
         curcount2 = updateDotCount(current2, curcount2);
         curcount3 = updateDotCount(current3, curcount3);
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, midpoint, curcount1);
             drawDots(g, point2, midpoint, curcount2);
             drawDots(g, post3, corner2, curcount3);
@@ -234,11 +241,15 @@ class PotElm extends CircuitElm implements AdjustmentListener {
         sim.stampResistor(nodes[2], nodes[1], resistance2);
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "potentiometer";
         arr[1] = "Vd = " + getVoltageDText(getVoltageDiff());
-        arr[2] = "R1 = " + getUnitText(resistance1, sim.ohmString);
-        arr[3] = "R2 = " + getUnitText(resistance2, sim.ohmString);
+        arr[2] = "R1 = " + getUnitText(resistance1, app.ohmString);
+        arr[3] = "R2 = " + getUnitText(resistance2, app.ohmString);
         arr[4] = "I1 = " + getCurrentDText(current1);
         arr[5] = "I2 = " + getCurrentDText(current2);
     }
@@ -62,8 +62,8 @@ class ProbeElm extends CircuitElm {
     void draw(Graphics g) {
         int hs = 8;
         setBbox(point1, point2, hs);
-        boolean selected = (needsHighlight() || sim.plotYElm == this);
-        double len = (selected || sim.dragElm == this) ? 16 : dn - 32;
+        boolean selected = (needsHighlight() || app.plotYElm == this);
+        double len = (selected || app.dragElm == this) ? 16 : dn - 32;
         calcLeads((int) len);
         setVoltageColor(g, volts[0]);
         if (selected) {
@@ -77,10 +77,10 @@ class ProbeElm extends CircuitElm {
         drawThickLine(g, lead2, point2);
         Font f = new Font("SansSerif", Font.BOLD, 14);
         g.setFont(f);
-        if (this == sim.plotXElm) {
+        if (this == app.plotXElm) {
             drawCenteredText(g, "X", center.x, center.y, true);
         }
-        if (this == sim.plotYElm) {
+        if (this == app.plotYElm) {
             drawCenteredText(g, "Y", center.x, center.y, true);
         }
         if (mustShowVoltage()) {
@@ -94,6 +94,10 @@ class ProbeElm extends CircuitElm {
         return (flags & FLAG_SHOWVOLTAGE) != 0;
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "scope probe";
         arr[1] = "Vd = " + getVoltageText(getVoltageDiff());
@@ -88,7 +88,7 @@ class RailElm extends VoltageElm {
         }
         drawPosts(g);
         curcount = updateDotCount(-current, curcount);
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, lead1, curcount);
         }
     }
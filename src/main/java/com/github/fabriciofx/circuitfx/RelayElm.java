@@ -63,7 +63,7 @@ class RelayElm extends CircuitElm {
 
     public RelayElm(int xx, int yy) {
         super(xx, yy);
-        ind = new Inductor(sim);
+        ind = new Inductor(this);
         inductance = .2;
         ind.setup(inductance, 0, Inductor.FLAG_BACK_EULER);
         noDiagonal = true;
@@ -89,7 +89,7 @@ class RelayElm extends CircuitElm {
         onCurrent = new Double(st.nextToken()).doubleValue();
         coilR = new Double(st.nextToken()).doubleValue();
         noDiagonal = true;
-        ind = new Inductor(sim);
+        ind = new Inductor(this);
         ind.setup(inductance, coilCurrent, Inductor.FLAG_BACK_EULER);
         setupPoles();
     }
@@ -303,6 +303,10 @@ class RelayElm extends CircuitElm {
         return true;
     }
 
+    int getMatrixState() {
+        return i_position;
+    }
+
     void doStep() {
         double voltdiff = volts[nCoil1] - volts[nCoil3];
         ind.doStep(voltdiff);
@@ -334,6 +338,36 @@ class RelayElm extends CircuitElm {
         }
     }
 
+    int getStateCount() {
+        return 1;
+    }
+
+    double getState(int n) {
+        return coilCurrent;
+    }
+
+    int getStateOrder() {
+        return ind.getStateOrder();
+    }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        ind.saveStep(s);
+        s.save(coilCurrent);
+        s.save(switchCurrent);
+        s.save(d_position);
+        s.save(i_position);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        ind.restoreStep(s);
+        coilCurrent = s.restore();
+        s.restore(switchCurrent);
+        d_position = s.restore();
+        i_position = s.restoreInt();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = i_position == 0 ? "relay (off)" :
             i_position == 1 ? "relay (on)" : "relay";
@@ -63,14 +63,14 @@ class ResistorElm extends CircuitElm {
         int segments = 16;
         int i;
         int ox = 0;
-        int hs = sim.euroResistorCheckItem.getState() ? 6 : 8;
+        int hs = app.euroResistorCheckItem.getState() ? 6 : 8;
         double v1 = volts[0];
         double v2 = volts[1];
         setBbox(point1, point2, hs);
         draw2Leads(g);
         setPowerColor(g, true);
         double segf = 1. / segments;
-        if (!sim.euroResistorCheckItem.getState()) {
+        if (!app.euroResistorCheckItem.getState()) {
             // draw zigzag
             for (i = 0; i != segments; i++) {
                 int nx = 0;
@@ -108,7 +108,7 @@ class ResistorElm extends CircuitElm {
             interpPoint2(lead1, lead2, ps1, ps2, 1, hs);
             drawThickLine(g, ps1, ps2);
         }
-        if (sim.showValuesCheckItem.getState()) {
+        if (app.showValuesCheckItem.getState()) {
             String s = getShortUnitText(resistance, "");
             drawValues(g, s, hs);
         }
@@ -124,10 +124,14 @@ class ResistorElm extends CircuitElm {
         sim.stampResistor(nodes[0], nodes[1], resistance);
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "resistor";
         getBasicInfo(arr);
-        arr[3] = "R = " + getUnitText(resistance, sim.ohmString);
+        arr[3] = "R = " + getUnitText(resistance, app.ohmString);
         arr[4] = "P = " + getUnitText(getPower(), "W");
     }
 
@@ -221,4 +221,20 @@ class SRAMElm extends ChipElm {
     int getDumpType() {
         return 204;
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        int i;
+        for (i = 0; i != data.length; i++) {
+            s.save(data[i]);
+        }
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        int i;
+        for (i = 0; i != data.length; i++) {
+            data[i] = (short) s.restoreInt();
+        }
+    }
 }
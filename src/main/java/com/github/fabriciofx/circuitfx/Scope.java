@@ -62,12 +62,12 @@ class Scope {
     int[] pixels;
     int draw_ox, draw_oy;
     float[] dpixels;
-    CirSim sim;
+    CirSim app;
 
     Scope(CirSim s) {
         rect = new Rectangle();
         reset();
-        sim = s;
+        app = s;
     }
 
     void showCurrent(boolean b) {
@@ -255,7 +255,7 @@ class Scope {
         if (pixels == null || dpixels == null) {
             return;
         }
-        int col = (sim.printableCheckItem.getState()) ? 0xFFFFFFFF : 0;
+        int col = (app.printableCheckItem.getState()) ? 0xFFFFFFFF : 0;
         for (i = 0; i != pixels.length; i++) {
             pixels[i] = col;
         }
@@ -296,7 +296,7 @@ class Scope {
             return;
         }
         int i;
-        int col = (sim.printableCheckItem.getState()) ? 0xFFFFFFFF : 0;
+        int col = (app.printableCheckItem.getState()) ? 0xFFFFFFFF : 0;
         for (i = 0; i != pixels.length; i++) {
             pixels[i] = col;
         }
@@ -312,7 +312,7 @@ class Scope {
         double realMinI = 1e8;
         int curColor = 0xFFFFFF00;
         int voltColor = (value > 0) ? 0xFFFFFFFF : 0xFF00FF00;
-        if (sim.scopeSelected == -1 && elm == sim.mouseElm) {
+        if (app.scopeSelected == -1 && elm == app.mouseElm) {
             curColor = voltColor = 0xFF00FFFF;
         }
         int ipa = ptr + scopePointCount - rect.width;
@@ -363,12 +363,12 @@ class Scope {
             }
         }
         gridStep = 1e-15;
-        double ts = sim.timeStep * speed;
+        double ts = app.sim.timeStep * speed;
         while (gridStep < ts * 5) {
             gridStep *= 10;
         }
-        double tstart = sim.t - sim.timeStep * speed * rect.width;
-        double tx = sim.t - (sim.t % gridStep);
+        double tstart = app.sim.t - app.sim.timeStep * speed * rect.width;
+        double tx = app.sim.t - (app.sim.t % gridStep);
         int first = 1;
         for (ll = 0; ; ll++) {
             double tl = tx - gridStep * ll;
@@ -523,7 +523,7 @@ class Scope {
             avperiod /= periodct;
             avperiod2 /= periodct;
             double periodstd = Math.sqrt(avperiod2 - avperiod * avperiod);
-            freq = 1 / (avperiod * sim.timeStep * speed);
+            freq = 1 / (avperiod * app.sim.timeStep * speed);
             // don't show freq if standard deviation is too great
             if (periodct < 1 || periodstd > 2) {
                 freq = 0;
@@ -597,28 +597,28 @@ class Scope {
             return null;
         }
         if (elm instanceof TransistorElm) {
-            sim.scopeIbMenuItem.setState(value == VAL_IB);
-            sim.scopeIcMenuItem.setState(value == VAL_IC);
-            sim.scopeIeMenuItem.setState(value == VAL_IE);
-            sim.scopeVbeMenuItem.setState(value == VAL_VBE);
-            sim.scopeVbcMenuItem.setState(value == VAL_VBC);
-            sim.scopeVceMenuItem.setState(value == VAL_VCE && ivalue != VAL_IC);
-            sim.scopeVceIcMenuItem.setState(
+            app.scopeIbMenuItem.setState(value == VAL_IB);
+            app.scopeIcMenuItem.setState(value == VAL_IC);
+            app.scopeIeMenuItem.setState(value == VAL_IE);
+            app.scopeVbeMenuItem.setState(value == VAL_VBE);
+            app.scopeVbcMenuItem.setState(value == VAL_VBC);
+            app.scopeVceMenuItem.setState(value == VAL_VCE && ivalue != VAL_IC);
+            app.scopeVceIcMenuItem.setState(
                 value == VAL_VCE && ivalue == VAL_IC);
-            return sim.transScopeMenu;
+            return app.transScopeMenu;
         } else {
-            sim.scopeVMenuItem.setState(showV && value == 0);
-            sim.scopeIMenuItem.setState(showI && value == 0);
-            sim.scopeMaxMenuItem.setState(showMax);
-            sim.scopeMinMenuItem.setState(showMin);
-            sim.scopeFreqMenuItem.setState(showFreq);
-            sim.scopePowerMenuItem.setState(value == VAL_POWER);
-            sim.scopeVIMenuItem.setState(plot2d && !plotXY);
-            sim.scopeXYMenuItem.setState(plotXY);
-            sim.scopeSelectYMenuItem.setEnabled(plotXY);
-            sim.scopeResistMenuItem.setState(value == VAL_R);
-            sim.scopeResistMenuItem.setEnabled(elm instanceof MemristorElm);
-            return sim.scopeMenu;
+            app.scopeVMenuItem.setState(showV && value == 0);
+            app.scopeIMenuItem.setState(showI && value == 0);
+            app.scopeMaxMenuItem.setState(showMax);
+            app.scopeMinMenuItem.setState(showMin);
+            app.scopeFreqMenuItem.setState(showFreq);
+            app.scopePowerMenuItem.setState(value == VAL_POWER);
+            app.scopeVIMenuItem.setState(plot2d && !plotXY);
+            app.scopeXYMenuItem.setState(plotXY);
+            app.scopeSelectYMenuItem.setEnabled(plotXY);
+            app.scopeResistMenuItem.setState(value == VAL_R);
+            app.scopeResistMenuItem.setEnabled(elm instanceof MemristorElm);
+            return app.scopeMenu;
         }
     }
 
@@ -637,11 +637,11 @@ class Scope {
             (lockScale ? 16 : 0) | (plot2d ? 64 : 0) |
             (plotXY ? 128 : 0) | (showMin ? 256 : 0);
         flags |= FLAG_YELM; // yelm present
-        int eno = sim.locateElm(elm);
+        int eno = app.locateElm(elm);
         if (eno < 0) {
             return null;
         }
-        int yno = yElm == null ? -1 : sim.locateElm(yElm);
+        int yno = yElm == null ? -1 : app.locateElm(yElm);
         String x = "o " + eno + " " +
             speed + " " + value + " " + flags + " " +
             minMaxV + " " + minMaxI + " " + position + " " + yno;
@@ -657,7 +657,7 @@ class Scope {
         if (e == -1) {
             return;
         }
-        elm = sim.getElm(e);
+        elm = app.getElm(e);
         speed = new Integer(st.nextToken()).intValue();
         value = new Integer(st.nextToken()).intValue();
         int flags = new Integer(st.nextToken()).intValue();
@@ -677,7 +677,7 @@ class Scope {
             if ((flags & FLAG_YELM) != 0) {
                 ye = new Integer(st.nextToken()).intValue();
                 if (ye != -1) {
-                    yElm = sim.getElm(ye);
+                    yElm = app.getElm(ye);
                 }
             }
             while (st.hasMoreTokens()) {
@@ -706,7 +706,7 @@ class Scope {
         if (w == 0 || h == 0) {
             return;
         }
-        if (sim.useBufferedImage) {
+        if (app.useBufferedImage) {
             try {
                 Class biclass = Class.forName("java.awt.image.BufferedImage");
                 Class dbiclass = Class.forName("java.awt.image.DataBufferInt");
@@ -735,87 +735,87 @@ class Scope {
             imageSource = new MemoryImageSource(w, h, pixels, 0, w);
             imageSource.setAnimated(true);
             imageSource.setFullBufferUpdates(true);
-            image = sim.cv.createImage(imageSource);
+            image = app.cv.createImage(imageSource);
         }
         dpixels = new float[w * h];
         draw_ox = draw_oy = -1;
     }
 
     void handleMenu(ItemEvent e, Object mi) {
-        if (mi == sim.scopeVMenuItem) {
-            showVoltage(sim.scopeVMenuItem.getState());
+        if (mi == app.scopeVMenuItem) {
+            showVoltage(app.scopeVMenuItem.getState());
         }
-        if (mi == sim.scopeIMenuItem) {
-            showCurrent(sim.scopeIMenuItem.getState());
+        if (mi == app.scopeIMenuItem) {
+            showCurrent(app.scopeIMenuItem.getState());
         }
-        if (mi == sim.scopeMaxMenuItem) {
-            showMax(sim.scopeMaxMenuItem.getState());
+        if (mi == app.scopeMaxMenuItem) {
+            showMax(app.scopeMaxMenuItem.getState());
         }
-        if (mi == sim.scopeMinMenuItem) {
-            showMin(sim.scopeMinMenuItem.getState());
+        if (mi == app.scopeMinMenuItem) {
+            showMin(app.scopeMinMenuItem.getState());
         }
-        if (mi == sim.scopeFreqMenuItem) {
-            showFreq(sim.scopeFreqMenuItem.getState());
+        if (mi == app.scopeFreqMenuItem) {
+            showFreq(app.scopeFreqMenuItem.getState());
         }
-        if (mi == sim.scopePowerMenuItem) {
+        if (mi == app.scopePowerMenuItem) {
             setValue(VAL_POWER);
         }
-        if (mi == sim.scopeIbMenuItem) {
+        if (mi == app.scopeIbMenuItem) {
             setValue(VAL_IB);
         }
-        if (mi == sim.scopeIcMenuItem) {
+        if (mi == app.scopeIcMenuItem) {
             setValue(VAL_IC);
         }
-        if (mi == sim.scopeIeMenuItem) {
+        if (mi == app.scopeIeMenuItem) {
             setValue(VAL_IE);
         }
-        if (mi == sim.scopeVbeMenuItem) {
+        if (mi == app.scopeVbeMenuItem) {
             setValue(VAL_VBE);
         }
-        if (mi == sim.scopeVbcMenuItem) {
+        if (mi == app.scopeVbcMenuItem) {
             setValue(VAL_VBC);
         }
-        if (mi == sim.scopeVceMenuItem) {
+        if (mi == app.scopeVceMenuItem) {
             setValue(VAL_VCE);
         }
-        if (mi == sim.scopeVceIcMenuItem) {
+        if (mi == app.scopeVceIcMenuItem) {
             plot2d = true;
             plotXY = false;
             value = VAL_VCE;
             ivalue = VAL_IC;
             resetGraph();
         }
-        if (mi == sim.scopeVIMenuItem) {
-            plot2d = sim.scopeVIMenuItem.getState();
+        if (mi == app.scopeVIMenuItem) {
+            plot2d = app.scopeVIMenuItem.getState();
             plotXY = false;
             resetGraph();
         }
-        if (mi == sim.scopeXYMenuItem) {
-            plotXY = plot2d = sim.scopeXYMenuItem.getState();
+        if (mi == app.scopeXYMenuItem) {
+            plotXY = plot2d = app.scopeXYMenuItem.getState();
             if (yElm == null) {
                 selectY();
             }
             resetGraph();
         }
-        if (mi == sim.scopeResistMenuItem) {
+        if (mi == app.scopeResistMenuItem) {
             setValue(VAL_R);
         }
     }
 
     void select() {
-        sim.mouseElm = elm;
+        app.mouseElm = elm;
         if (plotXY) {
-            sim.plotXElm = elm;
-            sim.plotYElm = yElm;
+            app.plotXElm = elm;
+            app.plotYElm = yElm;
         }
     }
 
     void selectY() {
-        int e = yElm == null ? -1 : sim.locateElm(yElm);
+        int e = yElm == null ? -1 : app.locateElm(yElm);
         int firstE = e;
         while (true) {
-            for (e++; e < sim.elmList.size(); e++) {
-                CircuitElm ce = sim.getElm(e);
+            for (e++; e < app.sim.elmList.size(); e++) {
+                CircuitElm ce = app.getElm(e);
                 if ((ce instanceof OutputElm || ce instanceof ProbeElm) &&
                     ce != elm) {
                     yElm = ce;
@@ -112,6 +112,16 @@ class SeqGenElm extends ChipElm {
         }
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    // a one-shot sequence steps on by time, not by the clock
+    boolean evaluateLogic() {
+        super.evaluateLogic();
+        return oneshot;
+    }
+
     int getDumpType() {
         return 188;
     }
@@ -245,4 +255,20 @@ class SeqGenElm extends ChipElm {
             }
         }
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(data);
+        s.save(position);
+        s.save(lastchangetime);
+        s.save(clockstate);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        data = (short) s.restoreInt();
+        position = (byte) s.restoreInt();
+        lastchangetime = s.restore();
+        clockstate = s.restoreBoolean();
+    }
 }
@@ -115,6 +115,14 @@ class SevenSegDecoderElm extends ChipElm {
         }
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    boolean isCombinational() {
+        return true;
+    }
+
     int getDumpType() {
         return 197;
     }
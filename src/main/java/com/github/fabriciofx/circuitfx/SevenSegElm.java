@@ -82,7 +82,7 @@ class SevenSegElm extends ChipElm {
 
     void setColor(Graphics g, int p) {
         g.setColor(pins[p].value ? Color.red :
-                       sim.printableCheckItem.getState() ? Color.white :
+                       app.printableCheckItem.getState() ? Color.white :
                            darkred);
     }
 
@@ -94,6 +94,10 @@ class SevenSegElm extends ChipElm {
         return 0;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
     int getDumpType() {
         return 157;
     }
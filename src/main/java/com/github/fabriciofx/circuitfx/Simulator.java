@@ -0,0 +1,2806 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulator.
+ * Holds a circuit's elements and its modified nodal analysis state, and
+ * advances it in time.  It doesn't need a display: CirSim drives one of
+ * these from its paint cycle, but it can also be run on its own with
+ * step() or runUntil(), as fast as the CPU allows.
+ */
+public class Simulator {
+    Vector<CircuitElm> elmList = new Vector<CircuitElm>();
+    Vector<CircuitNode> nodeList;
+    // node at each post location, kept after analysis for later edits
+    NodeMap nodeMap;
+    // the location of post j of element i is postPoint[postStart[i] +
+    // j], and locations joined by merged wires share the node of their
+    // root in pointParent (see mergeWires())
+    int[] postStart, postPoint, pointParent;
+    // merged wires, in the order calcWireCurrents() can work out their
+    // currents: that of mergedWires[i] is the sum of the currents into
+    // the node at its post mergedWirePosts[i] from the posts
+    // wireNeighborPosts[k] of wireNeighbors[k], for k from
+    // wireNeighborStart[i] to wireNeighborStart[i + 1]
+    WireElm[] mergedWires;
+    int[] mergedWirePosts;
+    int[] wireNeighborStart;
+    CircuitElm[] wireNeighbors;
+    int[] wireNeighborPosts;
+    // when cleared, every wire keeps its voltage source and its own
+    // nodes, as before wires were merged
+    boolean wireMerging = true;
+    // posts with no other post at their location, which the editor
+    // shows as bad connections if they are over another element
+    CircuitNodeLink[] lonePosts;
+    CircuitElm[] voltageSources;
+    DenseMatrix circuitMatrix;
+    double[] circuitRightSide;
+    double[] origRightSide;
+    DenseMatrix origMatrix;
+    SparseMatrix circuitSparse;
+    SparseLU sparseLU;
+    boolean sparseSolver;
+    RowInfo[] circuitRowInfo;
+    // circuitRowInfo flattened for stamping: row (or node) i stamps row
+    // stampRow[i] of the simplified matrix and column stampCol[i], which
+    // are -1 for a row simplified away and a constant column
+    int[] stampRow, stampCol;
+    // while analyzeCircuit() stamps the full matrix, before it's
+    // simplified, the stamps are only listed here (row, column and value
+    // of each, in order), so the simplification can read the matrix in
+    // time that grows with its nonzeros rather than its size squared
+    int[] fullStampRows, fullStampCols;
+    double[] fullStampValues;
+    int fullStampCount;
+    // different for each analysis (of any simulator), so elements know
+    // when the targets they got from getStampTarget() are out of date.
+    // Simulators may be analyzed on several threads (BatchRunner), so the
+    // counter is atomic
+    static final AtomicInteger lastStampGeneration = new AtomicInteger();
+    int stampGeneration;
+    // rows and values of the constant columns getStampTarget() handed out
+    int[] constRows;
+    double[] constValues;
+    int constCount;
+    int[] circuitPermute;
+    boolean circuitNonLinear;
+    int voltageSourceCount;
+    int circuitMatrixSize, circuitMatrixFullSize;
+    boolean circuitNeedsMap;
+    boolean analyzeFlag;
+    // when a linear circuit is restamped and only a few rows of its
+    // matrix change (a switch toggles, say), the old factors are kept and
+    // solves are corrected by a low-rank update instead of factoring
+    // again.  restampMatrix holds the new dense matrix for comparison.
+    LowRankUpdate lowRankUpdate;
+    int maxUpdateRank = 16;
+    DenseMatrix restampMatrix;
+    // set when elements changed in ways restampCircuit() can handle
+    boolean restampFlag;
+    // factors of a piecewise linear circuit's matrix, by the matrix
+    // states of keyElms.  It's cleared when the circuit is restamped,
+    // unless all that changed were states in the key (a switch toggled).
+    FactorCache factorCache;
+    int maxCachedFactors = 8;
+    CircuitElm[] keyElms;
+    int[] factorKey;
+    boolean unkeyedChange;
+    boolean dumpMatrix;
+    boolean converged;
+    // a nonlinear device whose controlling voltages moved less than this
+    // since its last linearization stamps that one again
+    double bypassTolerance = 1e-6;
+    // evaluates the nonlinear elements on several threads before they
+    // stamp, for a circuit with at least minParallelElms of them; null
+    // when they evaluate in doStep() as usual
+    ElementEvaluator evaluator;
+    int evalThreads = Runtime.getRuntime().availableProcessors();
+    int minParallelElms = 500;
+    // factors the blocks of a dense matrix that splits into blocks (see
+    // findBlocks()) on evalThreads threads, when that's at least
+    // minParallelWork multiply-adds; null when they're factored in turn
+    BlockFactorer blockFactorer;
+    int minParallelWork = 1000000;
+    // event-driven logic: the logic elements only run when one of their
+    // inputs changes level, and the nets only they are on are left out
+    // of the matrix (see LogicQueue).  It's off by default, since they
+    // then run once per step instead of every iteration, which a
+    // nonlinear circuit can tell.
+    boolean logicEvents;
+    LogicQueue logicQueue;
+    // what step() runs each iteration: the elements, less those
+    // logicQueue runs, and the rows of the full matrix whose results it
+    // hands out, less those of the nets logicQueue sets
+    CircuitElm[] stepElms;
+    int[] solvedRows;
+    // state-space mode: a linear time-invariant circuit is run by
+    // step(int) and runUntil() as a recurrence on the companion sources
+    // of its capacitors and inductors (see StateSpace), with a full step
+    // at the start and end.  It's off by default, since the elements'
+    // voltages and currents are only there after the full steps.
+    boolean stateSpaceMode;
+    StateSpace stateSpace;
+    // set when the circuit was found not to fit one
+    boolean noStateSpace;
+    int subIterations;
+    double t;
+    double timeStep = 5e-6;
+    // adaptive time step mode: the time step moves in powers of two
+    // between baseTimeStep / 2^maxStepLevel and baseTimeStep *
+    // 2^maxStepLevel, following the local truncation error of the
+    // values the capacitors and inductors integrate.  A step whose error
+    // is over tolerance is rolled back (see saveStep()) and taken again
+    // with a smaller one.
+    boolean adaptiveTimeStep;
+    double baseTimeStep = 5e-6;
+    int stepLevel;
+    int maxStepLevel = 10;
+    boolean canAdaptStep;
+    double lteRelTol = 1e-3, lteAbsTol = 1e-6;
+    CircuitElm[] stateElms;
+    int[] stateNums;
+    int stateCount;
+    VoltageElm[] breakElms;
+    // the state of the circuit before the step being taken, and the
+    // switch states of stepElms then
+    StepState savedStep = new StepState();
+    int[] switchStates;
+    // the last four accepted time points, newest first, and the state
+    // values at those times (four per state)
+    double[] timeHistory = new double[4];
+    double[] stateHistory;
+    // the largest magnitude each state has had, which the tolerance is
+    // relative to, so it doesn't get tight as a wave crosses zero
+    double[] statePeaks;
+    int historyCount;
+    boolean lastBreak;
+    boolean[] unconnectedNodes;
+    // elements on each node, for path searches: node n's entries run from
+    // nodeElmStart[n] to nodeElmStart[n + 1], each with the element's
+    // first post on that node.  groundElms/groundPosts list the posts
+    // with a ground connection.
+    int[] nodeElmStart;
+    CircuitElm[] nodeElms;
+    int[] nodeElmPosts;
+    CircuitElm[] groundElms;
+    int[] groundPosts;
+    String stopMessage;
+    CircuitElm stopElm;
+    Random random = new Random();
+
+    public CircuitNode getCircuitNode(int n) {
+        if (n >= nodeList.size()) {
+            return null;
+        }
+        return nodeList.elementAt(n);
+    }
+
+    public CircuitElm getElm(int n) {
+        if (n >= elmList.size()) {
+            return null;
+        }
+        return elmList.elementAt(n);
+    }
+
+    int getrand(int x) {
+        int q = random.nextInt();
+        if (q < 0) {
+            q = -q;
+        }
+        return q % x;
+    }
+
+    void analyzeCircuit() {
+        int i, j;
+        restampFlag = false;
+        lowRankUpdate = null;
+        evaluator = null;
+        stateSpace = null;
+        noStateSpace = false;
+        blockFactorer = null;
+        logicQueue = null;
+        for (i = 0; i != elmList.size(); i++) {
+            getElm(i).sim = this;
+        }
+        if (elmList.isEmpty()) {
+            return;
+        }
+        stopMessage = null;
+        stopElm = null;
+        circuitSparse = null;
+        int vscount = 0;
+        nodeList = new Vector<CircuitNode>();
+        boolean gotGround = false;
+        boolean gotRail = false;
+        CircuitElm volt = null;
+        //System.out.println("ac1");
+        // look for voltage or ground element
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (ce instanceof GroundElm) {
+                gotGround = true;
+                break;
+            }
+            if (ce instanceof RailElm) {
+                gotRail = true;
+            }
+            if (volt == null && ce instanceof VoltageElm) {
+                volt = ce;
+            }
+        }
+        // if no ground, and no rails, then the voltage elm's first terminal
+        // is ground
+        if (!gotGround && volt != null && !gotRail) {
+            CircuitNode cn = new CircuitNode();
+            cn.x = volt.getPost(0).x;
+            cn.y = volt.getPost(0).y;
+            nodeList.addElement(cn);
+        } else {
+            // otherwise allocate extra node for ground
+            CircuitNode cn = new CircuitNode();
+            cn.x = cn.y = -1;
+            nodeList.addElement(cn);
+        }
+        if (nodeMap == null) {
+            nodeMap = new NodeMap(elmList.size() * 2);
+        } else {
+            nodeMap.clear();
+        }
+        nodeMap.put(getCircuitNode(0).x, getCircuitNode(0).y, 0);
+        mergeWires();
+        // node of the root location of each wire net
+        int[] pointNode = new int[pointParent.length];
+        Arrays.fill(pointNode, NodeMap.EMPTY);
+        // allocate nodes and voltage sources
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            int inodes = ce.getInternalNodeCount();
+            int ivs = ce.getVoltageSourceCount();
+            int posts = ce.getPostCount();
+            // allocate a node for each wire net and match posts to nodes
+            for (j = 0; j != posts; j++) {
+                int px = ce.getPost(j).x;
+                int py = ce.getPost(j).y;
+                int r = findPoint(postPoint[postStart[i] + j]);
+                int k = pointNode[r];
+                if (k == NodeMap.EMPTY) {
+                    // the ground node is mapped before its net is
+                    k = pointNode[r] = nodeMap.get(px, py);
+                }
+                if (k == NodeMap.EMPTY) {
+                    CircuitNode cn = new CircuitNode();
+                    cn.x = px;
+                    cn.y = py;
+                    CircuitNodeLink cnl = new CircuitNodeLink();
+                    cnl.num = j;
+                    cnl.elm = ce;
+                    cn.links.addElement(cnl);
+                    pointNode[r] = nodeList.size();
+                    nodeMap.put(px, py, nodeList.size());
+                    ce.setNode(j, nodeList.size());
+                    nodeList.addElement(cn);
+                } else {
+                    CircuitNodeLink cnl = new CircuitNodeLink();
+                    cnl.num = j;
+                    cnl.elm = ce;
+                    getCircuitNode(k).links.addElement(cnl);
+                    nodeMap.put(px, py, k);
+                    ce.setNode(j, k);
+                    // if it's the ground node, make sure the node voltage is 0,
+                    // cause it may not get set later.  It's set directly,
+                    // as setNodeVoltage() would also work out currents and
+                    // capacitor voltages from the other posts' old values
+                    if (k == 0) {
+                        ce.volts[j] = 0;
+                    }
+                }
+            }
+            for (j = 0; j != inodes; j++) {
+                CircuitNode cn = new CircuitNode();
+                cn.x = cn.y = -1;
+                cn.internal = true;
+                CircuitNodeLink cnl = new CircuitNodeLink();
+                cnl.num = j + posts;
+                cnl.elm = ce;
+                cn.links.addElement(cnl);
+                ce.setNode(cnl.num, nodeList.size());
+                nodeList.addElement(cn);
+            }
+            vscount += ivs;
+        }
+        voltageSources = new CircuitElm[vscount];
+        vscount = 0;
+        circuitNonLinear = false;
+        // determine if circuit is nonlinear
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (ce.nonLinear()) {
+                circuitNonLinear = true;
+            }
+            int ivs = ce.getVoltageSourceCount();
+            for (j = 0; j != ivs; j++) {
+                voltageSources[vscount] = ce;
+                ce.setVoltageSource(j, vscount++);
+            }
+        }
+        voltageSourceCount = vscount;
+        int matrixSize = nodeList.size() - 1 + vscount;
+        fullStampRows = new int[16];
+        fullStampCols = new int[16];
+        fullStampValues = new double[16];
+        fullStampCount = 0;
+        circuitRightSide = new double[matrixSize];
+        origRightSide = new double[matrixSize];
+        circuitMatrixSize = circuitMatrixFullSize = matrixSize;
+        circuitRowInfo = new RowInfo[matrixSize];
+        circuitPermute = new int[matrixSize];
+        int vs = 0;
+        for (i = 0; i != matrixSize; i++) {
+            circuitRowInfo[i] = new RowInfo();
+        }
+        circuitNeedsMap = false;
+        // stamp linear circuit elements
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            ce.stamp();
+        }
+        if (logicEvents) {
+            logicQueue = new LogicQueue(this);
+        }
+        //System.out.println("ac4");
+        // determine nodes that are unconnected, and tie them to ground
+        unconnectedNodes = findUnconnectedNodes();
+        for (i = 0; i != nodeList.size(); i++) {
+            if (unconnectedNodes[i]) {
+                System.out.println("node " + i + " unconnected");
+                stampResistor(0, i, 1e8);
+            }
+        }
+        buildNodeElms();
+        if (!checkPaths()) {
+            return;
+        }
+        // simplify the matrix; this speeds things up quite a bit.  rows
+        // with a single entry fix a value as a constant, and rows with
+        // two opposite entries make two values equal.  the rows are
+        // kept in sparse form, and whenever a value becomes constant the
+        // rows using it are queued to be looked at again, so the work
+        // grows with the number of nonzeros rather than the matrix size.
+        int[] rowStart = new int[matrixSize + 1];
+        int[] rowCols = getFullRows(rowStart);
+        int nnz = rowStart[matrixSize];
+        double[] rowVals = Arrays.copyOf(fullStampValues, nnz);
+        fullStampRows = fullStampCols = null;
+        fullStampValues = null;
+        int[] colStart = new int[matrixSize + 1];
+        for (i = 0; i != nnz; i++) {
+            colStart[rowCols[i] + 1]++;
+        }
+        for (i = 0; i != matrixSize; i++) {
+            colStart[i + 1] += colStart[i];
+        }
+        int[] colRows = new int[nnz];
+        int[] colFill = new int[matrixSize];
+        for (i = 0; i != matrixSize; i++) {
+            for (j = rowStart[i]; j != rowStart[i + 1]; j++) {
+                int c = rowCols[j];
+                colRows[colStart[c] + colFill[c]++] = i;
+            }
+        }
+        int[] queue = new int[matrixSize];
+        boolean[] queued = new boolean[matrixSize];
+        int qhead = 0, qcount = 0;
+        for (i = 0; i != matrixSize; i++) {
+            queue[qcount++] = i;
+            queued[i] = true;
+        }
+        while (qcount > 0) {
+            i = queue[qhead];
+            qhead = (qhead + 1) % matrixSize;
+            qcount--;
+            queued[i] = false;
+            int qm = -1, qp = -1;
+            double qv = 0;
+            RowInfo re = circuitRowInfo[i];
+            if (re.lsChanges || re.dropRow || re.rsChanges) {
+                continue;
+            }
+            double rsadd = 0;
+            // look for rows that can be removed
+            for (j = rowStart[i]; j != rowStart[i + 1]; j++) {
+                int c = rowCols[j];
+                double q = rowVals[j];
+                if (circuitRowInfo[c].type == RowInfo.ROW_CONST) {
+                    // keep a running total of const values that have been
+                    // removed already
+                    rsadd -= circuitRowInfo[c].value * q;
+                    continue;
+                }
+                if (qp == -1) {
+                    qp = c;
+                    qv = q;
+                    continue;
+                }
+                if (qm == -1 && q == -qv) {
+                    qm = c;
+                    continue;
+                }
+                break;
+            }
+            if (j != rowStart[i + 1]) {
+                continue;
+            }
+            if (qp == -1) {
+                stop("Matrix error", null);
+                return;
+            }
+            RowInfo elt = circuitRowInfo[qp];
+            if (qm == -1) {
+                // we found a row with only one nonzero entry; that value
+                // is a constant
+                int k;
+                for (k = 0; elt.type == RowInfo.ROW_EQUAL && k < 100; k++) {
+                    // follow the chain
+                    qp = elt.nodeEq;
+                    elt = circuitRowInfo[qp];
+                }
+                if (elt.type == RowInfo.ROW_EQUAL) {
+                    // break equal chains.  elt now ends the chain, so
+                    // this row can make it a constant, and the rows
+                    // that found it already equal to something may now
+                    // make it equal; look at them again, as starting
+                    // over from the first row used to.  (Rows only stay
+                    // behind when their values' types keep them there,
+                    // and those only change when a value becomes
+                    // constant or a chain is broken, which both queue
+                    // the rows using it.)
+                    elt.type = RowInfo.ROW_NORMAL;
+                    queue[(qhead + qcount++) % matrixSize] = i;
+                    queued[i] = true;
+                    for (k = colStart[qp]; k != colStart[qp + 1]; k++) {
+                        int r = colRows[k];
+                        if (!queued[r] && !circuitRowInfo[r].dropRow) {
+                            queue[(qhead + qcount++) % matrixSize] = r;
+                            queued[r] = true;
+                        }
+                    }
+                    continue;
+                }
+                if (elt.type != RowInfo.ROW_NORMAL) {
+                    System.out.println(
+                        "type already " + elt.type + " for " + qp + "!");
+                    continue;
+                }
+                elt.type = RowInfo.ROW_CONST;
+                elt.value = (circuitRightSide[i] + rsadd) / qv;
+                re.dropRow = true;
+                // rows using this value may now be simpler
+                for (k = colStart[qp]; k != colStart[qp + 1]; k++) {
+                    int r = colRows[k];
+                    if (!queued[r] && !circuitRowInfo[r].dropRow) {
+                        queue[(qhead + qcount++) % matrixSize] = r;
+                        queued[r] = true;
+                    }
+                }
+            } else if (circuitRightSide[i] + rsadd == 0) {
+                // we found a row with only two nonzero entries, and one
+                // is the negative of the other; the values are equal
+                if (elt.type != RowInfo.ROW_NORMAL) {
+                    //System.out.println("swapping");
+                    int qq = qm;
+                    qm = qp;
+                    qp = qq;
+                    elt = circuitRowInfo[qp];
+                    if (elt.type != RowInfo.ROW_NORMAL) {
+                        // we should follow the chain here, but this
+                        // hardly ever happens so it's not worth worrying
+                        // about
+                        System.out.println("swap failed");
+                        continue;
+                    }
+                }
+                elt.type = RowInfo.ROW_EQUAL;
+                elt.nodeEq = qm;
+                re.dropRow = true;
+                //System.out.println(qp + " = " + qm);
+            }
+        }
+        // find size of new matrix
+        int nn = 0;
+        for (i = 0; i != matrixSize; i++) {
+            RowInfo elt = circuitRowInfo[i];
+            if (elt.type == RowInfo.ROW_NORMAL) {
+                elt.mapCol = nn++;
+                //System.out.println("col " + i + " maps to " + elt.mapCol);
+                continue;
+            }
+            if (elt.type == RowInfo.ROW_EQUAL) {
+                RowInfo e2 = null;
+                // resolve chains of equality; 100 max steps to avoid loops
+                for (j = 0; j != 100; j++) {
+                    e2 = circuitRowInfo[elt.nodeEq];
+                    if (e2.type != RowInfo.ROW_EQUAL) {
+                        break;
+                    }
+                    if (i == e2.nodeEq) {
+                        break;
+                    }
+                    elt.nodeEq = e2.nodeEq;
+                }
+            }
+            if (elt.type == RowInfo.ROW_CONST) {
+                elt.mapCol = -1;
+            }
+        }
+        for (i = 0; i != matrixSize; i++) {
+            RowInfo elt = circuitRowInfo[i];
+            if (elt.type == RowInfo.ROW_EQUAL) {
+                RowInfo e2 = circuitRowInfo[elt.nodeEq];
+                if (e2.type == RowInfo.ROW_CONST) {
+                    // if something is equal to a const, it's a const
+                    elt.type = e2.type;
+                    elt.value = e2.value;
+                    elt.mapCol = -1;
+                } else {
+                    elt.mapCol = e2.mapCol;
+                }
+            }
+        }
+        int nr = 0;
+        for (i = 0; i != matrixSize; i++) {
+            RowInfo rri = circuitRowInfo[i];
+            rri.mapRow = rri.dropRow ? -1 : nr++;
+        }
+        // the dense solver does the blocks of a matrix that splits into
+        // them one at a time.  The sparse one needn't, as its ordering
+        // keeps the fill in the blocks anyway.
+        int[] blocks = null;
+        if (!sparseSolver && nr == nn) {
+            blocks = findBlocks(rowStart, rowCols, nn);
+        }
+        // make the new, simplified matrix; it's built in origMatrix and
+        // then copied back into circuitMatrix, reusing their storage
+        int newsize = nn;
+        DenseMatrix newmatx = origMatrix = DenseMatrix.reuse(origMatrix,
+                                                             newsize, blocks);
+        double[] newrs = new double[newsize];
+        for (i = 0; i != matrixSize; i++) {
+            RowInfo rri = circuitRowInfo[i];
+            if (rri.dropRow) {
+                continue;
+            }
+            int ii = rri.mapRow;
+            newrs[ii] = circuitRightSide[i];
+            for (j = rowStart[i]; j != rowStart[i + 1]; j++) {
+                RowInfo ci = circuitRowInfo[rowCols[j]];
+                double q = rowVals[j];
+                if (ci.type == RowInfo.ROW_CONST) {
+                    newrs[ii] -= ci.value * q;
+                } else {
+                    newmatx.add(ii, ci.mapCol, q);
+                }
+            }
+        }
+        circuitMatrix = DenseMatrix.reuse(circuitMatrix, newsize, blocks);
+        circuitMatrix.copy(newmatx);
+        findBlockFactorer();
+        circuitRightSide = newrs;
+        matrixSize = circuitMatrixSize = newsize;
+        for (i = 0; i != matrixSize; i++) {
+            origRightSide[i] = circuitRightSide[i];
+        }
+        circuitNeedsMap = true;
+        int fullSize = circuitMatrixFullSize;
+        stampRow = new int[fullSize + 1];
+        stampCol = new int[fullSize + 1];
+        stampRow[0] = stampCol[0] = -1;
+        for (i = 0; i != fullSize; i++) {
+            RowInfo ri = circuitRowInfo[i];
+            stampRow[i + 1] = ri.mapRow;
+            stampCol[i + 1] = (ri.type == RowInfo.ROW_CONST) ? -1 : ri.mapCol;
+        }
+        stampGeneration = lastStampGeneration.incrementAndGet();
+        constRows = new int[16];
+        constValues = new double[16];
+        constCount = 0;
+        // with the sparse solver, elements stamp into circuitSparse from
+        // now on, and origMatrix is kept in it too
+        if (sparseSolver) {
+            circuitSparse = new SparseMatrix(circuitMatrix);
+            // the pattern must also hold whatever nonlinear elements
+            // stamp in doStep(), so the symbolic analysis can be done
+            // once here instead of every iteration.  Only the columns
+            // they touch change, so the solver can keep the rest factored.
+            boolean[] changing = new boolean[circuitMatrixSize];
+            for (i = 0; i != elmList.size(); i++) {
+                CircuitElm ce = getElm(i);
+                if (ce.nonLinear()) {
+                    reserveEntries(ce, changing);
+                }
+            }
+            circuitSparse.saveOriginal();
+            if (sparseLU == null) {
+                sparseLU = new SparseLU();
+            }
+            sparseLU.analyze(circuitSparse, changing);
+        }
+        // if a matrix is linear, we can do the lu_factor here instead of
+        // needing to do it every frame
+        if (!circuitNonLinear) {
+            if (!factorCircuit()) {
+                stop("Singular matrix!", null);
+                return;
+            }
+        }
+        findStates();
+        findMatrixStates();
+        findEvaluator();
+        findStepElms();
+    }
+
+    // find the elements and rows step() goes through.  Without
+    // logicEvents that's all of them; with it, the logic elements, the
+    // rows of the digital nodes and those of the sources driving them
+    // are left to logicQueue, and the merged wires on digital nodes
+    // carry no current.
+    void findStepElms() {
+        int fullSize = circuitMatrixFullSize;
+        int i, count = 0;
+        stepElms = new CircuitElm[elmList.size()];
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (logicQueue == null || !ce.isLogic()) {
+                stepElms[count++] = ce;
+            }
+        }
+        stepElms = Arrays.copyOf(stepElms, count);
+        boolean[] skip = new boolean[fullSize];
+        if (logicQueue != null) {
+            LogicQueue lq = logicQueue;
+            for (i = 0; i != lq.outNode.length; i++) {
+                if (lq.outDigital[i]) {
+                    skip[lq.outNode[i] - 1] = true;
+                    skip[nodeList.size() - 1 + lq.outSource[i]] = true;
+                }
+            }
+            removeMergedWires(lq.digitalNode);
+        }
+        solvedRows = new int[fullSize];
+        count = 0;
+        for (i = 0; i != fullSize; i++) {
+            if (!skip[i]) {
+                solvedRows[count++] = i;
+            }
+        }
+        solvedRows = Arrays.copyOf(solvedRows, count);
+    }
+
+    // take the merged wires on the given nodes out of calcWireCurrents(),
+    // with no current
+    void removeMergedWires(boolean[] nodes) {
+        int i, j, n = 0, k = 0;
+        for (i = 0; i != mergedWires.length; i++) {
+            WireElm we = mergedWires[i];
+            if (nodes[we.getNode(0)]) {
+                we.setCurrent(0, 0);
+                continue;
+            }
+            int start = wireNeighborStart[i];
+            int end = wireNeighborStart[i + 1];
+            mergedWires[n] = we;
+            mergedWirePosts[n] = mergedWirePosts[i];
+            wireNeighborStart[n] = k;
+            for (j = start; j != end; j++) {
+                wireNeighbors[k] = wireNeighbors[j];
+                wireNeighborPosts[k++] = wireNeighborPosts[j];
+            }
+            n++;
+        }
+        wireNeighborStart[n] = k;
+        mergedWires = Arrays.copyOf(mergedWires, n);
+    }
+
+    // list a stamp of the full matrix (see fullStampRows)
+    void addFullStamp(int i, int j, double x) {
+        int n = fullStampCount;
+        if (n == fullStampRows.length) {
+            fullStampRows = Arrays.copyOf(fullStampRows, n * 2);
+            fullStampCols = Arrays.copyOf(fullStampCols, n * 2);
+            fullStampValues = Arrays.copyOf(fullStampValues, n * 2);
+        }
+        fullStampRows[n] = i;
+        fullStampCols[n] = j;
+        fullStampValues[n] = x;
+        fullStampCount = n + 1;
+    }
+
+    // the nonzeros of the full matrix from its stamps: row i's are
+    // rowStart[i] to rowStart[i + 1] of the returned columns, in column
+    // order, with their values at the same place in fullStampValues.
+    // Two stable counting sorts (by column, then by row) put the stamps
+    // of an entry next to each other in the order they were made, so
+    // they add up just as they did in a dense matrix, and entries that
+    // add up to 0 are left out as they would be from one.
+    int[] getFullRows(int[] rowStart) {
+        int n = circuitMatrixFullSize;
+        int count = fullStampCount;
+        int i;
+        int[] start = new int[n + 1];
+        for (i = 0; i != count; i++) {
+            start[fullStampCols[i] + 1]++;
+        }
+        for (i = 0; i != n; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] byCol = new int[count];
+        for (i = 0; i != count; i++) {
+            byCol[start[fullStampCols[i]]++] = i;
+        }
+        Arrays.fill(start, 0);
+        for (i = 0; i != count; i++) {
+            start[fullStampRows[i] + 1]++;
+        }
+        for (i = 0; i != n; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] sorted = new int[count];
+        for (i = 0; i != count; i++) {
+            int s = byCol[i];
+            sorted[start[fullStampRows[s]]++] = s;
+        }
+        // start[r] is now the end of row r; add up the stamps of each
+        // entry
+        int[] cols = new int[count];
+        double[] values = new double[count];
+        int nz = 0, k = 0;
+        for (i = 0; i != n; i++) {
+            rowStart[i] = nz;
+            while (k != start[i]) {
+                int c = fullStampCols[sorted[k]];
+                double q = 0;
+                while (k != start[i] && fullStampCols[sorted[k]] == c) {
+                    q += fullStampValues[sorted[k++]];
+                }
+                if (q != 0) {
+                    cols[nz] = c;
+                    values[nz++] = q;
+                }
+            }
+        }
+        rowStart[n] = nz;
+        fullStampValues = values;
+        return cols;
+    }
+
+    // split the simplified matrix into blocks that share no rows or
+    // columns, like the parts of a circuit that only meet at ground, or
+    // that are only joined through logic (a gate's output is a voltage
+    // source set from what its inputs read, so it stamps nothing between
+    // them).  mapRow and mapCol, which number the rows and columns in
+    // order, are changed so that each block's are consecutive, and the
+    // first row of each block is returned, followed by n; or null if
+    // it's all one block.  The entries nonlinear elements may stamp in
+    // doStep() count as if they were there already.
+    int[] findBlocks(int[] rowStart, int[] rowCols, int n) {
+        int fullSize = circuitMatrixFullSize;
+        int i, j, k;
+        // the rows are 0 to n - 1 and the columns n to 2n - 1
+        DisjointSets sets = new DisjointSets(n * 2);
+        for (i = 0; i != fullSize; i++) {
+            RowInfo ri = circuitRowInfo[i];
+            if (ri.dropRow) {
+                continue;
+            }
+            for (j = rowStart[i]; j != rowStart[i + 1]; j++) {
+                RowInfo ci = circuitRowInfo[rowCols[j]];
+                if (ci.type != RowInfo.ROW_CONST) {
+                    sets.union(ri.mapRow, n + ci.mapCol);
+                }
+            }
+        }
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (!ce.nonLinear()) {
+                continue;
+            }
+            int[] rows = getMatrixRows(ce);
+            int first = -1;
+            for (j = 0; j != rows.length; j++) {
+                if (rows[j] == 0) {
+                    continue;
+                }
+                RowInfo ri = circuitRowInfo[rows[j] - 1];
+                int row = ri.dropRow ? -1 : ri.mapRow;
+                int col = (ri.type == RowInfo.ROW_CONST) ? -1 : n + ri.mapCol;
+                if (first < 0) {
+                    first = (row >= 0) ? row : col;
+                }
+                if (row >= 0) {
+                    sets.union(first, row);
+                }
+                if (col >= 0) {
+                    sets.union(first, col);
+                }
+            }
+        }
+        // number the blocks in the order of their first columns
+        int[] rootBlock = new int[n * 2];
+        Arrays.fill(rootBlock, -1);
+        int[] colBlock = new int[n];
+        int[] rowBlock = new int[n];
+        int[] colCount = new int[n];
+        int[] rowCount = new int[n];
+        int count = 0;
+        for (j = 0; j != n; j++) {
+            int r = sets.find(n + j);
+            if (rootBlock[r] < 0) {
+                rootBlock[r] = count++;
+            }
+            colBlock[j] = rootBlock[r];
+            colCount[colBlock[j]]++;
+        }
+        if (count < 2) {
+            return null;
+        }
+        for (i = 0; i != n; i++) {
+            rowBlock[i] = rootBlock[sets.find(i)];
+            if (rowBlock[i] < 0) {
+                return null;
+            }
+            rowCount[rowBlock[i]]++;
+        }
+        // a block with more rows than columns, or fewer, is singular; the
+        // whole matrix is left as it is, to fail as usual
+        int[] starts = new int[count + 1];
+        for (k = 0; k != count; k++) {
+            if (rowCount[k] != colCount[k]) {
+                return null;
+            }
+            starts[k + 1] = starts[k] + colCount[k];
+        }
+        int[] newCol = new int[n];
+        int[] newRow = new int[n];
+        Arrays.fill(colCount, 0);
+        Arrays.fill(rowCount, 0);
+        for (j = 0; j != n; j++) {
+            k = colBlock[j];
+            newCol[j] = starts[k] + colCount[k]++;
+        }
+        for (i = 0; i != n; i++) {
+            k = rowBlock[i];
+            newRow[i] = starts[k] + rowCount[k]++;
+        }
+        for (i = 0; i != fullSize; i++) {
+            RowInfo ri = circuitRowInfo[i];
+            if (!ri.dropRow) {
+                ri.mapRow = newRow[ri.mapRow];
+            }
+            if (ri.type != RowInfo.ROW_CONST) {
+                ri.mapCol = newCol[ri.mapCol];
+            }
+        }
+        return starts;
+    }
+
+    // factor the blocks of the circuit matrix on several threads if there
+    // are enough of them, and they're big enough, to be worth it
+    void findBlockFactorer() {
+        if (evalThreads < 2 || circuitMatrix.getBlockCount() < 2) {
+            return;
+        }
+        if (BlockFactorer.getWork(circuitMatrix) < minParallelWork) {
+            return;
+        }
+        blockFactorer = new BlockFactorer(this, circuitMatrix, evalThreads);
+    }
+
+    // split the evaluation of the elements' models off onto several
+    // threads if there are enough of them to be worth it
+    void findEvaluator() {
+        int i;
+        if (evalThreads < 2) {
+            return;
+        }
+        CircuitElm[] elms = new CircuitElm[elmList.size()];
+        int n = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (ce.canEvaluate()) {
+                elms[n++] = ce;
+            }
+        }
+        if (n < minParallelElms || n < evalThreads) {
+            return;
+        }
+        evaluator = new ElementEvaluator(Arrays.copyOf(elms, n), evalThreads);
+    }
+
+    // number the post locations and merge the ones joined by wires, so
+    // the wires add no nodes or voltage sources to the matrix.  A merged
+    // wire's current is worked out after each step from the currents of
+    // the other elements at one of its ends (see calcWireCurrents()), so
+    // a wire only merges once all of those are known: elements that
+    // knowPostCurrents(), wires merged before it and wires that keep
+    // their voltage source.  When no wire left can merge (a chain of
+    // wires between two chips, or a loop of wires), the first one left
+    // keeps its source, which makes its current known.
+    void mergeWires() {
+        int i, j;
+        int elms = elmList.size();
+        postStart = new int[elms + 1];
+        for (i = 0; i != elms; i++) {
+            postStart[i + 1] = postStart[i] + getElm(i).getPostCount();
+        }
+        int posts = postStart[elms];
+        postPoint = new int[posts];
+        int[] postElm = new int[posts];
+        NodeMap points = new NodeMap(posts);
+        int pointCount = 0;
+        int wireCount = 0;
+        for (i = 0; i != elms; i++) {
+            CircuitElm ce = getElm(i);
+            if (ce instanceof WireElm) {
+                ((WireElm) ce).merged = false;
+                wireCount++;
+            }
+            for (j = postStart[i]; j != postStart[i + 1]; j++) {
+                int px = ce.getPost(j - postStart[i]).x;
+                int py = ce.getPost(j - postStart[i]).y;
+                int p = points.get(px, py);
+                if (p == NodeMap.EMPTY) {
+                    p = pointCount++;
+                    points.put(px, py, p);
+                }
+                postPoint[j] = p;
+                postElm[j] = i;
+            }
+        }
+        // the posts at each location, and how many of them are wires not
+        // merged or kept yet or elements with unknown currents
+        int[] pointStart = new int[pointCount + 1];
+        int[] blockers = new int[pointCount];
+        for (i = 0; i != posts; i++) {
+            pointStart[postPoint[i] + 1]++;
+            CircuitElm ce = getElm(postElm[i]);
+            if (ce instanceof WireElm || !ce.knowsPostCurrents()) {
+                blockers[postPoint[i]]++;
+            }
+        }
+        for (i = 0; i != pointCount; i++) {
+            pointStart[i + 1] += pointStart[i];
+        }
+        int[] pointPosts = new int[posts];
+        int[] fill = new int[pointCount];
+        for (i = 0; i != posts; i++) {
+            int p = postPoint[i];
+            pointPosts[pointStart[p] + fill[p]++] = i;
+        }
+        pointParent = new int[pointCount];
+        for (i = 0; i != pointCount; i++) {
+            pointParent[i] = i;
+        }
+        int lone = 0;
+        for (i = 0; i != pointCount; i++) {
+            if (pointStart[i + 1] - pointStart[i] == 1) {
+                lone++;
+            }
+        }
+        lonePosts = new CircuitNodeLink[lone];
+        lone = 0;
+        for (i = 0; i != pointCount; i++) {
+            if (pointStart[i + 1] - pointStart[i] == 1) {
+                int post = pointPosts[pointStart[i]];
+                CircuitNodeLink cnl = new CircuitNodeLink();
+                cnl.elm = getElm(postElm[post]);
+                cnl.num = post - postStart[postElm[post]];
+                lonePosts[lone++] = cnl;
+            }
+        }
+        // work through the wires, looking at a wire again whenever a
+        // blocker at one of its ends goes away
+        int[] wires = new int[wireCount];
+        int[] queue = new int[wireCount];
+        boolean[] queued = new boolean[elms];
+        boolean[] done = new boolean[elms];
+        wireCount = 0;
+        for (i = 0; i != elms; i++) {
+            if (getElm(i) instanceof WireElm) {
+                wires[wireCount] = i;
+                queue[wireCount++] = i;
+                queued[i] = true;
+            }
+        }
+        mergedWires = new WireElm[wireCount];
+        mergedWirePosts = new int[wireCount];
+        int[] mergedPosts = new int[wireCount];
+        int merged = 0, neighbors = 0;
+        int qhead = 0, qcount = wireCount, next = 0;
+        while (true) {
+            int w;
+            boolean keep = !wireMerging;
+            if (qcount > 0) {
+                w = queue[qhead];
+                qhead = (qhead + 1) % wireCount;
+                qcount--;
+                queued[w] = false;
+                if (done[w]) {
+                    continue;
+                }
+            } else {
+                while (next != wireCount && done[wires[next]]) {
+                    next++;
+                }
+                if (next == wireCount) {
+                    break;
+                }
+                // nothing can merge; this one keeps its source
+                w = wires[next];
+                keep = true;
+            }
+            int a = postPoint[postStart[w]];
+            int b = postPoint[postStart[w] + 1];
+            if (!keep) {
+                int post;
+                if (a != b && blockers[a] == 1) {
+                    post = 0;
+                } else if (a != b && blockers[b] == 1) {
+                    post = 1;
+                } else {
+                    continue;
+                }
+                WireElm we = (WireElm) getElm(w);
+                we.merged = true;
+                mergedWires[merged] = we;
+                mergedWirePosts[merged] = post;
+                mergedPosts[merged++] = postStart[w] + post;
+                int p = (post == 0) ? a : b;
+                neighbors += pointStart[p + 1] - pointStart[p] - 1;
+                int ra = findPoint(a);
+                int rb = findPoint(b);
+                pointParent[Math.max(ra, rb)] = Math.min(ra, rb);
+            }
+            done[w] = true;
+            blockers[a]--;
+            blockers[b]--;
+            for (j = 0; j != 2; j++) {
+                int p = (j == 0) ? a : b;
+                for (i = pointStart[p]; i != pointStart[p + 1]; i++) {
+                    int e = postElm[pointPosts[i]];
+                    if (!done[e] && !queued[e] &&
+                        getElm(e) instanceof WireElm) {
+                        queue[(qhead + qcount++) % wireCount] = e;
+                        queued[e] = true;
+                    }
+                }
+            }
+        }
+        mergedWires = Arrays.copyOf(mergedWires, merged);
+        wireNeighborStart = new int[merged + 1];
+        wireNeighbors = new CircuitElm[neighbors];
+        wireNeighborPosts = new int[neighbors];
+        neighbors = 0;
+        for (i = 0; i != merged; i++) {
+            int own = mergedPosts[i];
+            int p = postPoint[own];
+            for (j = pointStart[p]; j != pointStart[p + 1]; j++) {
+                int post = pointPosts[j];
+                if (post != own) {
+                    wireNeighbors[neighbors] = getElm(postElm[post]);
+                    wireNeighborPosts[neighbors++] =
+                        post - postStart[postElm[post]];
+                }
+            }
+            wireNeighborStart[i + 1] = neighbors;
+        }
+    }
+
+    // the root of location p's wire net
+    int findPoint(int p) {
+        while (pointParent[p] != p) {
+            p = pointParent[p] = pointParent[pointParent[p]];
+        }
+        return p;
+    }
+
+    // set the currents of the merged wires, from the currents of their
+    // neighbors
+    void calcWireCurrents() {
+        int i, j;
+        for (i = 0; i != mergedWires.length; i++) {
+            double cur = 0;
+            for (j = wireNeighborStart[i]; j != wireNeighborStart[i + 1];
+                 j++) {
+                cur += wireNeighbors[j].getCurrentIntoNode(
+                    wireNeighborPosts[j]);
+            }
+            mergedWires[i].setCurrent(0, (mergedWirePosts[i] == 0) ? cur :
+                -cur);
+        }
+    }
+
+    // set up the factor cache if the circuit is piecewise linear, that
+    // is, if the matrix entries of each nonlinear element only take a
+    // few sets of values
+    void findMatrixStates() {
+        int i;
+        factorCache = null;
+        unkeyedChange = false;
+        if (!circuitNonLinear || maxCachedFactors == 0) {
+            return;
+        }
+        CircuitElm[] elms = new CircuitElm[elmList.size()];
+        int n = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (ce.getMatrixState() >= 0) {
+                elms[n++] = ce;
+            } else if (ce.nonLinear()) {
+                return;
+            }
+        }
+        keyElms = Arrays.copyOf(elms, n);
+        factorKey = new int[n];
+        factorCache = new FactorCache(maxCachedFactors);
+    }
+
+    // collect the values the elements integrate over time, for the
+    // adaptive time step.  Transmission lines are delay lines a fixed
+    // number of steps long, so circuits with them keep a fixed step.
+    void findStates() {
+        int i, j;
+        canAdaptStep = true;
+        stateCount = 0;
+        int breaks = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (ce instanceof TransLineElm) {
+                canAdaptStep = false;
+            }
+            if (ce instanceof VoltageElm) {
+                breaks++;
+            }
+            stateCount += ce.getStateCount();
+        }
+        breakElms = new VoltageElm[breaks];
+        breaks = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (ce instanceof VoltageElm) {
+                breakElms[breaks++] = (VoltageElm) ce;
+            }
+        }
+        stateElms = new CircuitElm[stateCount];
+        stateNums = new int[stateCount];
+        stateHistory = new double[stateCount * 4];
+        statePeaks = new double[stateCount];
+        historyCount = 0;
+        int k = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            for (j = 0; j != ce.getStateCount(); j++) {
+                stateElms[k] = ce;
+                stateNums[k++] = j;
+            }
+        }
+    }
+
+    // stamp all the elements again into the simplified matrix, keeping
+    // the nodes, rows and simplification found by analyzeCircuit().
+    // When the time step changes, only the values of the companion
+    // models change, and they are all in rows that were kept, so this
+    // gives the same matrix analyzeCircuit() would.
+    void restampCircuit() {
+        int i;
+        stateSpace = null;
+        noStateSpace = false;
+        if (factorCache != null && unkeyedChange) {
+            factorCache.clear();
+        }
+        unkeyedChange = false;
+        // a linear circuit's factors are kept while the new matrix is
+        // stamped, in case it only differs from theirs in a few rows
+        boolean keep = !circuitNonLinear;
+        DenseMatrix factors = circuitMatrix;
+        if (circuitSparse != null) {
+            for (i = 0; i != circuitSparse.count; i++) {
+                circuitSparse.values[i] = 0;
+            }
+        } else if (keep) {
+            restampMatrix = DenseMatrix.reuse(restampMatrix,
+                                              circuitMatrixSize,
+                                              factors.blockStart);
+            circuitMatrix = restampMatrix;
+        } else {
+            circuitMatrix.clear();
+        }
+        for (i = 0; i != circuitMatrixSize; i++) {
+            circuitRightSide[i] = 0;
+        }
+        for (i = 0; i != unconnectedNodes.length; i++) {
+            if (unconnectedNodes[i]) {
+                stampResistor(0, i, 1e8);
+            }
+        }
+        for (i = 0; i != elmList.size(); i++) {
+            getElm(i).stamp();
+        }
+        if (circuitSparse == null && circuitMatrix.outside) {
+            // something now joins blocks of the matrix that were apart
+            analyzeCircuit();
+            return;
+        }
+        for (i = 0; i != circuitMatrixSize; i++) {
+            origRightSide[i] = circuitRightSide[i];
+        }
+        if (keep) {
+            circuitMatrix = factors;
+            if (updateFactors()) {
+                return;
+            }
+            if (circuitSparse == null) {
+                circuitMatrix.copy(restampMatrix);
+            }
+        }
+        lowRankUpdate = null;
+        if (circuitSparse != null) {
+            circuitSparse.saveOriginal();
+            // the values of the columns refactor() keeps have changed
+            sparseLU.factored = -1;
+        } else {
+            origMatrix.copy(circuitMatrix);
+        }
+        if (!circuitNonLinear) {
+            if (!factorCircuit()) {
+                stop("Singular matrix!", null);
+            }
+        }
+    }
+
+    // compare the matrix restampCircuit() just stamped with the one the
+    // current factors belong to (still in origMatrix, or the saved
+    // values of circuitSparse), and if only a few rows differ, set up a
+    // low-rank update of those factors instead of factoring again.
+    // Returns false if the matrix needs factoring.
+    boolean updateFactors() {
+        int n = circuitMatrixSize;
+        int i, j;
+        // differences as (row, col, value) triples
+        int count = 0;
+        int[] drows = new int[16];
+        int[] dcols = new int[16];
+        double[] dvals = new double[16];
+        int[] rowCount = new int[n];
+        int rank = 0;
+        int maxRank = Math.min(maxUpdateRank, (n - 1) / 2);
+        if (circuitSparse != null) {
+            SparseMatrix a = circuitSparse;
+            for (i = 0; i != a.count; i++) {
+                double d = a.values[i];
+                if (i < a.origCount) {
+                    d -= a.origValues[i];
+                }
+                if (d == 0) {
+                    continue;
+                }
+                if (count == drows.length) {
+                    drows = Arrays.copyOf(drows, count * 2);
+                    dcols = Arrays.copyOf(dcols, count * 2);
+                    dvals = Arrays.copyOf(dvals, count * 2);
+                }
+                drows[count] = a.rows[i];
+                dcols[count] = a.cols[i];
+                dvals[count++] = d;
+                if (rowCount[a.rows[i]]++ == 0 && ++rank > maxRank) {
+                    return false;
+                }
+            }
+        } else {
+            DenseMatrix m = restampMatrix;
+            double[] a = m.values;
+            double[] b = origMatrix.values;
+            int blk;
+            for (blk = 0; blk != m.getBlockCount(); blk++) {
+                int s = m.getBlockStart(blk);
+                int bs = m.getBlockSize(blk);
+                int off = m.getBlockOffset(blk);
+                for (i = 0; i != bs * bs; i++) {
+                    double d = a[off + i] - b[off + i];
+                    if (d == 0) {
+                        continue;
+                    }
+                    if (count == drows.length) {
+                        drows = Arrays.copyOf(drows, count * 2);
+                        dcols = Arrays.copyOf(dcols, count * 2);
+                        dvals = Arrays.copyOf(dvals, count * 2);
+                    }
+                    int r = s + i / bs;
+                    drows[count] = r;
+                    dcols[count] = s + i % bs;
+                    dvals[count++] = d;
+                    if (rowCount[r]++ == 0 && ++rank > maxRank) {
+                        return false;
+                    }
+                }
+            }
+        }
+        if (rank == 0) {
+            lowRankUpdate = null;
+            return true;
+        }
+        // group the differences by row
+        int[] rows = new int[rank];
+        int[] rowIndex = new int[n];
+        int[] start = new int[rank + 1];
+        int k = 0;
+        for (i = 0; i != n; i++) {
+            if (rowCount[i] > 0) {
+                rowIndex[i] = k;
+                rows[k++] = i;
+                start[k] = start[k - 1] + rowCount[i];
+            }
+        }
+        int[] cols = new int[count];
+        double[] vals = new double[count];
+        int[] fill = new int[rank];
+        for (i = 0; i != count; i++) {
+            k = rowIndex[drows[i]];
+            j = start[k] + fill[k]++;
+            cols[j] = dcols[i];
+            vals[j] = dvals[i];
+        }
+        LowRankUpdate u = new LowRankUpdate(this, n, rank, rows, start,
+                                            cols, vals);
+        lowRankUpdate = null;
+        if (!u.init()) {
+            return false;
+        }
+        // the update loses accuracy when the change is large for what the
+        // old factors can resolve, so try it on a known answer first, and
+        // factor after all if it doesn't come back close enough
+        double[] x = new double[n];
+        double[] b = new double[n];
+        for (i = 0; i != n; i++) {
+            x[i] = 1 + i % 3;
+        }
+        multiplyRestamped(x, b);
+        solveBase(b);
+        u.correct(b);
+        for (i = 0; i != n; i++) {
+            if (Math.abs(b[i] - x[i]) > 1e-9) {
+                return false;
+            }
+        }
+        lowRankUpdate = u;
+        return true;
+    }
+
+    // multiply x by the matrix restampCircuit() just stamped
+    void multiplyRestamped(double[] x, double[] b) {
+        int i, j;
+        Arrays.fill(b, 0);
+        if (circuitSparse != null) {
+            SparseMatrix a = circuitSparse;
+            for (i = 0; i != a.count; i++) {
+                b[a.rows[i]] += a.values[i] * x[a.cols[i]];
+            }
+            return;
+        }
+        DenseMatrix m = restampMatrix;
+        int blk;
+        for (blk = 0; blk != m.getBlockCount(); blk++) {
+            int s = m.getBlockStart(blk);
+            int bs = m.getBlockSize(blk);
+            int off = m.getBlockOffset(blk);
+            for (i = 0; i != bs; i++) {
+                double q = 0;
+                for (j = 0; j != bs; j++) {
+                    q += m.values[off + i * bs + j] * x[s + j];
+                }
+                b[s + i] = q;
+            }
+        }
+    }
+
+    // call after changing an element's value or switch position.  If
+    // the element still has the nodes and voltage sources the circuit
+    // was analyzed with, the next step only restamps the matrix instead
+    // of analyzing the circuit again.
+    public void elementChanged(CircuitElm ce) {
+        if (!analyzeFlag && canRestamp(ce)) {
+            restampFlag = true;
+            if (ce.nonLinear() || ce.getMatrixState() < 0) {
+                unkeyedChange = true;
+            }
+        } else {
+            analyzeFlag = true;
+        }
+    }
+
+    // true if a change to ce can be handled by reanalyzeCircuit(): its
+    // posts are on the nodes they were analyzed on, it has as many
+    // voltage sources, and none of its rows were simplified away (what
+    // was stamped in those decided how the matrix was simplified)
+    boolean canRestamp(CircuitElm ce) {
+        if (circuitMatrix == null || !circuitNeedsMap) {
+            return false;
+        }
+        if (ce.nonLinear() && !circuitNonLinear) {
+            return false;
+        }
+        int posts = ce.getPostCount();
+        int n = posts + ce.getInternalNodeCount();
+        int i;
+        for (i = 0; i != n; i++) {
+            int node = ce.getNode(i);
+            if (i < posts) {
+                if (nodeMap.get(ce.getPost(i).x, ce.getPost(i).y) != node) {
+                    return false;
+                }
+            }
+            if (node > 0 && circuitRowInfo[node - 1].dropRow) {
+                return false;
+            }
+        }
+        int vs = 0;
+        for (i = 0; i != voltageSourceCount; i++) {
+            if (voltageSources[i] == ce) {
+                vs++;
+                int row = nodeList.size() - 1 + i;
+                if (circuitRowInfo[row].dropRow) {
+                    return false;
+                }
+            }
+        }
+        return vs == ce.getVoltageSourceCount();
+    }
+
+    // handle element changes without a full analysis: node numbering,
+    // voltage sources and the matrix simplification stay, the
+    // connectivity checks are redone and the matrix is restamped.  If
+    // the change floated or grounded part of the circuit, the circuit is
+    // analyzed again after all.
+    void reanalyzeCircuit() {
+        restampFlag = false;
+        stopMessage = null;
+        stopElm = null;
+        boolean[] unconnected = findUnconnectedNodes();
+        if (!Arrays.equals(unconnected, unconnectedNodes)) {
+            analyzeCircuit();
+            return;
+        }
+        buildNodeElms();
+        if (!checkPaths()) {
+            return;
+        }
+        if (logicQueue != null) {
+            logicQueue.scheduleAll();
+        }
+        restampCircuit();
+    }
+
+    // add to the sparse pattern every entry that an element could stamp,
+    // that is, every pair of its nodes and voltage source rows, and flag
+    // the columns of those entries in cols
+    void reserveEntries(CircuitElm ce, boolean[] cols) {
+        int[] rows = getMatrixRows(ce);
+        int i, j, k = rows.length;
+        for (i = 0; i != k; i++) {
+            if (rows[i] == 0) {
+                continue;
+            }
+            int r = circuitRowInfo[rows[i] - 1].mapRow;
+            if (r < 0) {
+                continue;
+            }
+            for (j = 0; j != k; j++) {
+                if (rows[j] == 0) {
+                    continue;
+                }
+                RowInfo ri = circuitRowInfo[rows[j] - 1];
+                if (ri.type != RowInfo.ROW_CONST) {
+                    circuitSparse.slot(r, ri.mapCol);
+                    cols[ri.mapCol] = true;
+                }
+            }
+        }
+    }
+
+    // the rows of ce's nodes and voltage sources, numbered as for
+    // stampMatrix(), so 0 is ground
+    int[] getMatrixRows(CircuitElm ce) {
+        int n = ce.getPostCount() + ce.getInternalNodeCount();
+        int[] rows = new int[n + ce.getVoltageSourceCount()];
+        int i, k = 0;
+        for (i = 0; i != n; i++) {
+            rows[k++] = ce.getNode(i);
+        }
+        for (i = 0; i != voltageSourceCount && k != rows.length; i++) {
+            if (voltageSources[i] == ce) {
+                rows[k++] = nodeList.size() + i;
+            }
+        }
+        return rows;
+    }
+
+    // factor the circuit matrix using the selected solver.  The sparse
+    // solver reuses the ordering and pivots of the last factorization
+    // whenever it can, so Newton iterations only redo the arithmetic.
+    boolean factorCircuit() {
+        if (circuitSparse != null) {
+            return sparseLU.refactor(circuitSparse);
+        }
+        if (blockFactorer != null) {
+            return blockFactorer.run(circuitMatrix, circuitPermute);
+        }
+        return lu_factor(circuitMatrix, circuitMatrixSize, circuitPermute);
+    }
+
+    // factor the matrix of a nonlinear circuit, or if it's piecewise
+    // linear and its elements have been in these states before, reuse
+    // the factors from then
+    boolean factorNonLinear() {
+        if (factorCache == null) {
+            return factorCircuit();
+        }
+        int n = circuitMatrixSize;
+        int i;
+        for (i = 0; i != keyElms.length; i++) {
+            factorKey[i] = keyElms[i].getMatrixState();
+        }
+        FactorCache.Entry e = factorCache.find(factorKey);
+        // the entries keep their own copies of the factors, since
+        // restampCircuit() and refactor() change the working ones
+        if (e != null) {
+            if (circuitSparse != null) {
+                sparseLU.copyFrom(e.lu);
+            } else {
+                circuitMatrix.copy(e.matrix);
+                System.arraycopy(e.permute, 0, circuitPermute, 0, n);
+            }
+            return true;
+        }
+        if (!factorCircuit()) {
+            return false;
+        }
+        e = factorCache.add(factorKey);
+        if (circuitSparse != null) {
+            if (e.lu == null) {
+                e.lu = new SparseLU();
+            }
+            e.lu.copyFrom(sparseLU);
+        } else {
+            e.matrix = DenseMatrix.reuse(e.matrix, n,
+                                         circuitMatrix.blockStart);
+            e.matrix.copy(circuitMatrix);
+            e.permute = circuitPermute.clone();
+        }
+        return true;
+    }
+
+    // solve the circuit matrix factored by factorCircuit(), corrected by
+    // the low-rank update if there is one; the solution is left in
+    // circuitRightSide
+    void solveCircuit() {
+        solveBase(circuitRightSide);
+        if (lowRankUpdate != null) {
+            lowRankUpdate.correct(circuitRightSide);
+        }
+    }
+
+    // solve with the factors from factorCircuit() alone
+    void solveBase(double[] b) {
+        if (circuitSparse != null) {
+            sparseLU.solve(b);
+            return;
+        }
+        lu_solve(circuitMatrix, circuitMatrixSize, circuitPermute, b);
+    }
+
+    void stop(String s, CircuitElm ce) {
+        stopMessage = s;
+        circuitMatrix = null;
+        stopElm = ce;
+        analyzeFlag = false;
+    }
+
+    // control voltage source vs with voltage from n1 to n2 (must
+    // also call stampVoltageSource())
+    void stampVCVS(int n1, int n2, double coef, int vs) {
+        int vn = nodeList.size() + vs;
+        stampMatrix(vn, n1, coef);
+        stampMatrix(vn, n2, -coef);
+    }
+
+    // stamp independent voltage source #vs, from n1 to n2, amount v
+    void stampVoltageSource(int n1, int n2, int vs, double v) {
+        int vn = nodeList.size() + vs;
+        stampMatrix(vn, n1, -1);
+        stampMatrix(vn, n2, 1);
+        stampRightSide(vn, v);
+        stampMatrix(n1, vn, 1);
+        stampMatrix(n2, vn, -1);
+    }
+
+    // use this if the amount of voltage is going to be updated in doStep()
+    void stampVoltageSource(int n1, int n2, int vs) {
+        int vn = nodeList.size() + vs;
+        stampMatrix(vn, n1, -1);
+        stampMatrix(vn, n2, 1);
+        stampRightSide(vn);
+        stampMatrix(n1, vn, 1);
+        stampMatrix(n2, vn, -1);
+    }
+
+    void updateVoltageSource(int n1, int n2, int vs, double v) {
+        int vn = nodeList.size() + vs;
+        stampRightSide(vn, v);
+    }
+
+    void stampResistor(int n1, int n2, double r) {
+        double r0 = 1 / r;
+        if (Double.isNaN(r0) || Double.isInfinite(r0)) {
+            System.out.print("bad resistance " + r + " " + r0 + "\n");
+            int a = 0;
+            a /= a;
+        }
+        stampMatrix(n1, n1, r0);
+        stampMatrix(n2, n2, r0);
+        stampMatrix(n1, n2, -r0);
+        stampMatrix(n2, n1, -r0);
+    }
+
+    void stampConductance(int n1, int n2, double r0) {
+        stampMatrix(n1, n1, r0);
+        stampMatrix(n2, n2, r0);
+        stampMatrix(n1, n2, -r0);
+        stampMatrix(n2, n1, -r0);
+    }
+
+    // current from cn1 to cn2 is equal to voltage from vn1 to 2, divided by g
+    void stampVCCurrentSource(int cn1, int cn2, int vn1, int vn2, double g) {
+        stampMatrix(cn1, vn1, g);
+        stampMatrix(cn2, vn2, g);
+        stampMatrix(cn1, vn2, -g);
+        stampMatrix(cn2, vn1, -g);
+    }
+
+    void stampCurrentSource(int n1, int n2, double i) {
+        stampRightSide(n1, -i);
+        stampRightSide(n2, i);
+    }
+
+    // stamp a current source from n1 to n2 depending on current through vs
+    void stampCCCS(int n1, int n2, int vs, double gain) {
+        int vn = nodeList.size() + vs;
+        stampMatrix(n1, vn, gain);
+        stampMatrix(n2, vn, -gain);
+    }
+
+    // stamp value x in row i, column j, meaning that a voltage change
+    // of dv in node j will increase the current into node i by x dv.
+    // (Unless i or j is a voltage source node.)
+    void stampMatrix(int i, int j, double x) {
+        if (i > 0 && j > 0) {
+            if (circuitNeedsMap) {
+                int c = stampCol[j];
+                i = stampRow[i];
+                if (i < 0) {
+                    // a row simplified away; only restampCircuit()
+                    // stamps these
+                    return;
+                }
+                if (c < 0) {
+                    circuitRightSide[i] -= x * circuitRowInfo[j - 1].value;
+                    return;
+                }
+                j = c;
+            } else {
+                addFullStamp(i - 1, j - 1, x);
+                return;
+            }
+            if (circuitSparse != null) {
+                circuitSparse.add(i, j, x);
+                return;
+            }
+            circuitMatrix.add(i, j, x);
+        }
+    }
+
+    // where stampMatrix(i, j, x) puts x in this analysis, for elements
+    // that stamp the same entries on every iteration and look them up
+    // once: an index into the matrix values, -1 if it goes nowhere, or
+    // -2 - k for the k-th constant column handed out, which goes to the
+    // right side instead.  (findBlocks() keeps the blocks of a dense
+    // matrix from leaving out any entry a nonlinear element stamps.)
+    int getStampTarget(int i, int j) {
+        if (i <= 0 || j <= 0 || stampRow[i] < 0) {
+            return -1;
+        }
+        int r = stampRow[i];
+        int c = stampCol[j];
+        if (c >= 0) {
+            if (circuitSparse != null) {
+                return circuitSparse.slot(r, c);
+            }
+            return circuitMatrix.index(r, c);
+        }
+        if (constCount == constRows.length) {
+            constRows = Arrays.copyOf(constRows, constCount * 2);
+            constValues = Arrays.copyOf(constValues, constCount * 2);
+        }
+        constRows[constCount] = r;
+        constValues[constCount] = circuitRowInfo[j - 1].value;
+        return -2 - constCount++;
+    }
+
+    // fill targets[a * n + b] with the targets of the stamps between
+    // nodes[a] and nodes[b], for a and b from 0 to n - 1
+    void getStampTargets(int[] nodes, int n, int[] targets) {
+        int a, b;
+        for (a = 0; a != n; a++) {
+            for (b = 0; b != n; b++) {
+                targets[a * n + b] = getStampTarget(nodes[a], nodes[b]);
+            }
+        }
+    }
+
+    // stampMatrix() at a target from getStampTarget()
+    void stampTarget(int t, double x) {
+        if (t >= 0) {
+            double[] a = (circuitSparse != null) ? circuitSparse.values :
+                circuitMatrix.values;
+            a[t] += x;
+        } else if (t != -1) {
+            t = -2 - t;
+            circuitRightSide[constRows[t]] -= x * constValues[t];
+        }
+    }
+
+    // stamp value x on the right side of row i, representing an
+    // independent current source flowing into node i
+    void stampRightSide(int i, double x) {
+        if (i > 0) {
+            if (circuitNeedsMap) {
+                i = stampRow[i];
+                if (i < 0) {
+                    return;
+                }
+            } else {
+                i--;
+            }
+            circuitRightSide[i] += x;
+        }
+    }
+
+    // indicate that the value on the right side of row i changes in doStep()
+    void stampRightSide(int i) {
+        if (i > 0) {
+            circuitRowInfo[i - 1].rsChanges = true;
+        }
+    }
+
+    // indicate that the values on the left side of row i change in doStep()
+    void stampNonLinear(int i) {
+        if (i > 0) {
+            circuitRowInfo[i - 1].lsChanges = true;
+        }
+    }
+
+    public double getTime() {
+        return t;
+    }
+
+    public String getStopMessage() {
+        return stopMessage;
+    }
+
+    public double getTimeStep() {
+        return timeStep;
+    }
+
+    // set the time step; in adaptive mode, this is the step it starts
+    // from and adapts around
+    public void setTimeStep(double ts) {
+        timeStep = baseTimeStep = ts;
+        stepLevel = 0;
+        analyzeFlag = true;
+    }
+
+    // turn adaptive time steps on or off.  They're off by default,
+    // since the scopes and some elements assume the step stays put.
+    public void setAdaptiveTimeStep(boolean a) {
+        if (a == adaptiveTimeStep) {
+            return;
+        }
+        adaptiveTimeStep = a;
+        if (a) {
+            baseTimeStep = timeStep;
+        } else {
+            timeStep = baseTimeStep;
+        }
+        stepLevel = 0;
+        historyCount = 0;
+        analyzeFlag = true;
+    }
+
+    // turn event-driven logic on or off (see logicEvents)
+    public void setLogicEvents(boolean e) {
+        if (e == logicEvents) {
+            return;
+        }
+        logicEvents = e;
+        analyzeFlag = true;
+    }
+
+    // turn state-space mode on or off (see stateSpaceMode)
+    public void setStateSpace(boolean s) {
+        stateSpaceMode = s;
+        stateSpace = null;
+        noStateSpace = false;
+    }
+
+    // add an element to the circuit; the circuit is analyzed again
+    // before the next step
+    public void addElement(CircuitElm ce) {
+        ce.sim = this;
+        elmList.addElement(ce);
+        analyzeFlag = true;
+    }
+
+    // advance the simulation n time steps.  Returns false if it
+    // stopped (or there is nothing to simulate) before getting there.
+    public boolean step(int n) {
+        int i = 0;
+        while (i != n) {
+            int fast = 0;
+            if (i > 0) {
+                fast = runStateSpace(n - i - 1, Double.MAX_VALUE);
+            }
+            if (fast > 0) {
+                i += fast;
+                continue;
+            }
+            if (!step()) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    // advance the simulation until time tEnd.  Returns false if it
+    // stopped before getting there.
+    public boolean runUntil(double tEnd) {
+        boolean first = true;
+        while (t < tEnd) {
+            if (!first && runStateSpace(Integer.MAX_VALUE, tEnd) > 0) {
+                continue;
+            }
+            if (!step()) {
+                return false;
+            }
+            first = false;
+        }
+        return true;
+    }
+
+    // in state-space mode, run up to count steps with stateSpace, short
+    // of the one that gets to tEnd; returns how many it ran, or 0 if the
+    // circuit doesn't fit one.  Only called after a full step, so the
+    // elements' companion sources are all that's left of the last one.
+    int runStateSpace(int count, double tEnd) {
+        if (!stateSpaceMode || noStateSpace || count <= 0 || analyzeFlag ||
+            restampFlag) {
+            return 0;
+        }
+        if (stateSpace == null) {
+            if (!fitsStateSpace()) {
+                noStateSpace = true;
+                return 0;
+            }
+            stateSpace = new StateSpace(this);
+        }
+        return stateSpace.run(count, tEnd);
+    }
+
+    // true if the circuit is linear and time-invariant, but for what its
+    // sources stamp
+    boolean fitsStateSpace() {
+        if (circuitMatrix == null || circuitNonLinear || adaptiveTimeStep ||
+            logicQueue != null || stopMessage != null) {
+            return false;
+        }
+        int i;
+        for (i = 0; i != stepElms.length; i++) {
+            if (!stepElms[i].fitsStateSpace()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // advance the simulation one time step
+    boolean step() {
+        if (analyzeFlag) {
+            analyzeCircuit();
+            analyzeFlag = false;
+        } else if (restampFlag) {
+            reanalyzeCircuit();
+        }
+        if (circuitMatrix == null || elmList.size() == 0) {
+            circuitMatrix = null;
+            return false;
+        }
+        if (!adaptiveTimeStep || !canAdaptStep) {
+            return runStep();
+        }
+        // logicQueue keeps state of its own, so with it a step can't be
+        // taken again
+        boolean redo = (logicQueue == null);
+        if (redo) {
+            saveStep();
+        }
+        while (runStep()) {
+            if (adaptTimeStep(redo)) {
+                return true;
+            }
+            restoreStep();
+            setAdaptedStep();
+            if (circuitMatrix == null) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    // take one step of timeStep from t, with the circuit as it is
+    boolean runStep() {
+        int i, j, k, subiter;
+        CircuitElm[] elms = stepElms;
+        for (i = 0; i != elms.length; i++) {
+            elms[i].startIteration();
+        }
+        if (stateSpace != null && stateSpace.loadPending) {
+            stateSpace.load();
+        }
+        if (logicQueue != null) {
+            logicQueue.run();
+        }
+        final int subiterCount = 5000;
+        for (subiter = 0; subiter != subiterCount; subiter++) {
+            converged = true;
+            subIterations = subiter;
+            for (i = 0; i != circuitMatrixSize; i++) {
+                circuitRightSide[i] = origRightSide[i];
+            }
+            if (circuitNonLinear) {
+                if (circuitSparse != null) {
+                    circuitSparse.restoreOriginal();
+                } else {
+                    circuitMatrix.copy(origMatrix);
+                }
+            }
+            if (evaluator != null) {
+                evaluator.run();
+            }
+            for (i = 0; i != elms.length; i++) {
+                elms[i].doStep();
+            }
+            if (logicQueue != null) {
+                logicQueue.stampOutputs();
+            }
+            if (stopMessage != null) {
+                return false;
+            }
+            boolean printit = dumpMatrix;
+            dumpMatrix = false;
+            if (circuitSparse != null) {
+                for (i = 0; i != circuitSparse.count; i++) {
+                    double x = circuitSparse.values[i];
+                    if (Double.isNaN(x) || Double.isInfinite(x)) {
+                        stop("nan/infinite matrix!", null);
+                        return false;
+                    }
+                }
+            } else {
+                double[] a = circuitMatrix.values;
+                for (i = 0; i != circuitMatrix.count; i++) {
+                    double x = a[i];
+                    if (Double.isNaN(x) || Double.isInfinite(x)) {
+                        stop("nan/infinite matrix!", null);
+                        return false;
+                    }
+                }
+            }
+            if (printit) {
+                for (j = 0; j != circuitMatrixSize; j++) {
+                    for (i = 0; i != circuitMatrixSize; i++) {
+                        double x = (circuitSparse != null) ?
+                            circuitSparse.get(j, i) : circuitMatrix.get(j, i);
+                        System.out.print(x + ",");
+                    }
+                    System.out.print("  " + circuitRightSide[j] + "\n");
+                }
+                System.out.print("\n");
+            }
+            if (circuitNonLinear) {
+                if (converged && subiter > 0) {
+                    break;
+                }
+                if (!factorNonLinear()) {
+                    stop("Singular matrix!", null);
+                    return false;
+                }
+            }
+            solveCircuit();
+            int[] rows = solvedRows;
+            for (i = 0; i != rows.length; i++) {
+                j = rows[i];
+                RowInfo ri = circuitRowInfo[j];
+                double res = 0;
+                if (ri.type == RowInfo.ROW_CONST) {
+                    res = ri.value;
+                } else {
+                    res = circuitRightSide[ri.mapCol];
+                }
+                if (Double.isNaN(res)) {
+                    converged = false;
+                    break;
+                }
+                if (j < nodeList.size() - 1) {
+                    CircuitNode cn = getCircuitNode(j + 1);
+                    for (k = 0; k != cn.links.size(); k++) {
+                        CircuitNodeLink cnl = (CircuitNodeLink)
+                            cn.links.elementAt(k);
+                        cnl.elm.setNodeVoltage(cnl.num, res);
+                    }
+                } else {
+                    int ji = j - (nodeList.size() - 1);
+                    voltageSources[ji].setCurrent(ji, res);
+                }
+            }
+            if (!circuitNonLinear) {
+                break;
+            }
+        }
+        if (subiter == subiterCount) {
+            stop("Convergence failed!", null);
+            return false;
+        }
+        if (logicQueue != null) {
+            logicQueue.checkInputs();
+        }
+        calcWireCurrents();
+        t += timeStep;
+        return true;
+    }
+
+    // save where the circuit is before an adaptive step, and go back
+    // there to take it again
+    void saveStep() {
+        int i;
+        savedStep.clear();
+        savedStep.save(t);
+        if (switchStates == null || switchStates.length != stepElms.length) {
+            switchStates = new int[stepElms.length];
+        }
+        for (i = 0; i != stepElms.length; i++) {
+            stepElms[i].saveStep(savedStep);
+            switchStates[i] = stepElms[i].getSwitchState();
+        }
+    }
+
+    void restoreStep() {
+        int i;
+        savedStep.rewind();
+        t = savedStep.restore();
+        for (i = 0; i != stepElms.length; i++) {
+            stepElms[i].restoreStep(savedStep);
+        }
+    }
+
+    // check the step just taken and pick the next one.  The local
+    // truncation error of each state is estimated from the divided
+    // differences of its new value and its last few accepted ones.  If
+    // the worst one is over tolerance and redo is set, the step is
+    // rejected: stepLevel drops far enough to bring the error within
+    // tolerance, and false is returned, for the step to be taken again
+    // from the state saved before it.  So is a step longer than the
+    // circuit's own in which an element switched (see getSwitchState()),
+    // which is taken again with the circuit's own.  Otherwise it is accepted,
+    // and the step grows by one level at a time while all the errors are
+    // well under tolerance.  Steps are also cut short to land on the
+    // edges of the sources' waveforms, which are known in advance.
+    boolean adaptTimeStep(boolean redo) {
+        int i, k;
+        if (lastBreak) {
+            // values before the break tell nothing about those after it,
+            // and the circuit may take a few steps to react to it (logic
+            // chips only look at their inputs once per step), so go back
+            // to the circuit's own step for a while
+            historyCount = 0;
+            lastBreak = false;
+            stepLevel = Math.min(stepLevel, 0);
+        }
+        double[] th = timeHistory;
+        double[] x = stateHistory;
+        // the factor the step could change by
+        double ratio = 1e10;
+        boolean estimated = true;
+        for (i = 0; i != stateCount; i++) {
+            int h = i * 4;
+            double x0 = stateElms[i].getState(stateNums[i]);
+            int order = stateElms[i].getStateOrder();
+            if (historyCount < order + 1) {
+                estimated = false;
+                continue;
+            }
+            double d10 = (x0 - x[h]) / (t - th[0]);
+            double d21 = (x[h] - x[h + 1]) / (th[0] - th[1]);
+            double dd0 = (d10 - d21) / (t - th[1]);
+            double err;
+            if (order == 1) {
+                // backward euler: timeStep^2 x''/2
+                err = timeStep * timeStep * Math.abs(dd0);
+            } else {
+                // trapezoidal: timeStep^3 x'''/12
+                double d32 = (x[h + 1] - x[h + 2]) / (th[1] - th[2]);
+                double dd1 = (d21 - d32) / (th[0] - th[2]);
+                double ddd = (dd0 - dd1) / (t - th[2]);
+                err = timeStep * timeStep * timeStep * Math.abs(ddd) / 2;
+            }
+            double peak = Math.max(statePeaks[i], Math.abs(x0));
+            double tol = lteAbsTol + lteRelTol * peak;
+            if (err > 0) {
+                ratio = Math.min(ratio, Math.pow(tol / err, 1. / (order + 1)));
+            }
+        }
+        // newton having a hard time is a sign the step is too big, too
+        if (circuitNonLinear && subIterations > 100) {
+            ratio = Math.min(ratio, .5);
+        }
+        int level = stepLevel;
+        while (ratio < 1 && level > -maxStepLevel) {
+            level--;
+            ratio *= 2;
+        }
+        if (redo && timeStep > baseTimeStep && hasSwitched()) {
+            level = Math.min(level, 0);
+        }
+        if (level < stepLevel && redo) {
+            stepLevel = level;
+            return false;
+        }
+        // the step is accepted: it goes into the history
+        for (k = 3; k != 0; k--) {
+            th[k] = th[k - 1];
+        }
+        th[0] = t;
+        if (historyCount < 4) {
+            historyCount++;
+        }
+        for (i = 0; i != stateCount; i++) {
+            int h = i * 4;
+            for (k = 3; k != 0; k--) {
+                x[h + k] = x[h + k - 1];
+            }
+            x[h] = stateElms[i].getState(stateNums[i]);
+            statePeaks[i] = Math.max(statePeaks[i], Math.abs(x[h]));
+        }
+        if (level == stepLevel && estimated && ratio > 2.5 &&
+            level < maxStepLevel) {
+            level++;
+        }
+        stepLevel = level;
+        setAdaptedStep();
+        return true;
+    }
+
+    // true if an element's switch state changed in the step just taken
+    boolean hasSwitched() {
+        int i;
+        for (i = 0; i != stepElms.length; i++) {
+            if (stepElms[i].getSwitchState() != switchStates[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // set the time step for stepLevel, short of the next break in a
+    // waveform after t
+    void setAdaptedStep() {
+        int i;
+        double ts = Math.scalb(baseTimeStep, stepLevel);
+        double next = t + ts;
+        for (i = 0; i != breakElms.length; i++) {
+            double b = breakElms[i].getNextBreak(t);
+            if (b < next) {
+                next = b;
+                lastBreak = true;
+            }
+        }
+        if (lastBreak) {
+            // land just past the break, so the waveform has changed
+            ts = next - t + Math.scalb(baseTimeStep, -maxStepLevel);
+        }
+        if (ts != timeStep) {
+            timeStep = ts;
+            unkeyedChange = true;
+            restampCircuit();
+        }
+    }
+
+    // factors a matrix into upper and lower triangular matrices by
+    // gaussian elimination.  On entry, m is the n by n matrix to be
+    // factored.  ipvt[] returns an integer vector of pivot indices, used
+    // in the lu_solve() routine.  A block diagonal matrix is factored a
+    // block at a time, so it takes the sum of the cubes of the block
+    // sizes rather than the cube of n.
+    boolean lu_factor(DenseMatrix m, int n, int[] ipvt) {
+        int k;
+        for (k = 0; k != m.getBlockCount(); k++) {
+            if (!lu_factor_block(m, k, ipvt)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // factor block blk of m.  Its pivot indices go in ipvt from the
+    // block's first row on, and are counted from that row.
+    boolean lu_factor_block(DenseMatrix m, int blk, int[] ipvt) {
+        double[] a = m.values;
+        int n = m.getBlockSize(blk);
+        int p = m.getBlockStart(blk);
+        int o = m.getBlockOffset(blk);
+        int i, j, k;
+        // check that no row is all zeros (pivots are chosen by absolute
+        // value, so the rows are not scaled)
+        for (i = 0; i != n; i++) {
+            double largest = 0;
+            int row = o + i * n;
+            for (j = 0; j != n; j++) {
+                double x = Math.abs(a[row + j]);
+                if (x > largest) {
+                    largest = x;
+                }
+            }
+            // if all zeros, it's a singular matrix
+            if (largest == 0) {
+                return false;
+            }
+        }
+        // use Crout's method; loop through the columns
+        for (j = 0; j != n; j++) {
+            // calculate upper triangular elements for this column
+            for (i = 0; i != j; i++) {
+                int row = o + i * n;
+                double q = a[row + j];
+                for (k = 0; k != i; k++) {
+                    q -= a[row + k] * a[o + k * n + j];
+                }
+                a[row + j] = q;
+            }
+            // calculate lower triangular elements for this column
+            double largest = 0;
+            int largestRow = -1;
+            for (i = j; i != n; i++) {
+                int row = o + i * n;
+                double q = a[row + j];
+                for (k = 0; k != j; k++) {
+                    q -= a[row + k] * a[o + k * n + j];
+                }
+                a[row + j] = q;
+                double x = Math.abs(q);
+                if (x >= largest) {
+                    largest = x;
+                    largestRow = i;
+                }
+            }
+            // pivoting
+            if (j != largestRow) {
+                double x;
+                int lr = o + largestRow * n;
+                int jr = o + j * n;
+                for (k = 0; k != n; k++) {
+                    x = a[lr + k];
+                    a[lr + k] = a[jr + k];
+                    a[jr + k] = x;
+                }
+            }
+            // keep track of row interchanges
+            ipvt[p + j] = largestRow;
+            // avoid zeros
+            int jj = o + j * n + j;
+            if (a[jj] == 0.0) {
+                a[jj] = 1e-18;
+            }
+            if (j != n - 1) {
+                double mult = 1.0 / a[jj];
+                for (i = j + 1; i != n; i++) {
+                    a[o + i * n + j] *= mult;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Solves the set of n linear equations using a LU factorization
+    // previously performed by lu_factor.  On input, b[0..n-1] is the right
+    // hand side of the equations, and on output, contains the solution.
+    void lu_solve(DenseMatrix m, int n, int[] ipvt, double[] b) {
+        int k;
+        for (k = 0; k != m.getBlockCount(); k++) {
+            lu_solve_block(m, k, ipvt, b);
+        }
+    }
+
+    // solve for the part of b in block blk of m
+    void lu_solve_block(DenseMatrix m, int blk, int[] ipvt, double[] b) {
+        double[] a = m.values;
+        int n = m.getBlockSize(blk);
+        int p = m.getBlockStart(blk);
+        int o = m.getBlockOffset(blk);
+        int i;
+        // find first nonzero b element
+        for (i = 0; i != n; i++) {
+            int row = p + ipvt[p + i];
+            double swap = b[row];
+            b[row] = b[p + i];
+            b[p + i] = swap;
+            if (swap != 0) {
+                break;
+            }
+        }
+        if (i == n) {
+            // all zeros; so is the solution
+            return;
+        }
+        int bi = i++;
+        for (; i < n; i++) {
+            int row = p + ipvt[p + i];
+            int j;
+            double tot = b[row];
+            b[row] = b[p + i];
+            // forward substitution using the lower triangular matrix
+            int ir = o + i * n;
+            for (j = bi; j < i; j++) {
+                tot -= a[ir + j] * b[p + j];
+            }
+            b[p + i] = tot;
+        }
+        for (i = n - 1; i >= 0; i--) {
+            double tot = b[p + i];
+            // back-substitution using the upper triangular matrix
+            int ir = o + i * n;
+            int j;
+            for (j = i + 1; j != n; j++) {
+                tot -= a[ir + j] * b[p + j];
+            }
+            b[p + i] = tot / a[ir + i];
+        }
+    }
+
+    // group the nodes into connected islands, with node 0 in ground's
+    // island, and return the nodes that need tying to ground: the first
+    // external node of each island that ground doesn't reach
+    boolean[] findUnconnectedNodes() {
+        boolean[] unconnected = new boolean[nodeList.size()];
+        DisjointSets islands = new DisjointSets(nodeList.size());
+        int i, j, k;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            int posts = ce.getPostCount();
+            for (j = 0; j != posts; j++) {
+                if (ce.hasGroundConnection(j)) {
+                    islands.union(0, ce.getNode(j));
+                }
+                for (k = j + 1; k < posts; k++) {
+                    if (ce.getConnection(j, k)) {
+                        islands.union(ce.getNode(j), ce.getNode(k));
+                    }
+                }
+            }
+        }
+        for (i = 0; i != nodeList.size(); i++) {
+            if (!islands.connected(0, i) && !getCircuitNode(i).internal) {
+                unconnected[i] = true;
+                islands.union(0, i);
+            }
+        }
+        return unconnected;
+    }
+
+    // look for elements with no current path or loops with no
+    // resistance.  Returns false if the circuit can't be simulated.
+    boolean checkPaths() {
+        int i;
+        boolean[] voltageLoops = findVoltageLoops();
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            // look for inductors with no current path
+            if (ce instanceof InductorElm) {
+                FindPathInfo fpi = new FindPathInfo(FindPathInfo.INDUCT, ce,
+                                                    ce.getNode(1)
+                );
+                if (!fpi.findPath(ce.getNode(0))) {
+                    System.out.println(ce + " no path");
+                    ce.reset();
+                }
+            }
+            // look for current sources with no current path
+            if (ce instanceof CurrentElm) {
+                FindPathInfo fpi = new FindPathInfo(FindPathInfo.INDUCT, ce,
+                                                    ce.getNode(1)
+                );
+                if (!fpi.findPath(ce.getNode(0))) {
+                    stop("No path for current source!", ce);
+                    return false;
+                }
+            }
+            // look for voltage source loops
+            if ((ce instanceof VoltageElm && ce.getPostCount() == 2) ||
+                ce instanceof WireElm) {
+                if (voltageLoops[i]) {
+                    stop("Voltage source/wire loop with no resistance!", ce);
+                    return false;
+                }
+            }
+            // look for shorted caps, or caps w/ voltage but no R
+            if (ce instanceof CapacitorElm) {
+                FindPathInfo fpi = new FindPathInfo(FindPathInfo.SHORT, ce,
+                                                    ce.getNode(1)
+                );
+                if (fpi.findPath(ce.getNode(0))) {
+                    System.out.println(ce + " shorted");
+                    ce.reset();
+                } else {
+                    fpi = new FindPathInfo(
+                        FindPathInfo.CAP_V,
+                        ce,
+                        ce.getNode(1)
+                    );
+                    if (fpi.findPath(ce.getNode(0))) {
+                        stop("Capacitor loop with no resistance!", ce);
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // builds the node to element index that FindPathInfo searches
+    void buildNodeElms() {
+        int n = nodeList.size();
+        nodeElmStart = new int[n + 1];
+        int i, j, k;
+        int grounds = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            for (j = 0; j != ce.getPostCount(); j++) {
+                if (isFirstPost(ce, j)) {
+                    nodeElmStart[ce.getNode(j) + 1]++;
+                }
+                if (ce.hasGroundConnection(j)) {
+                    grounds++;
+                }
+            }
+        }
+        for (i = 0; i != n; i++) {
+            nodeElmStart[i + 1] += nodeElmStart[i];
+        }
+        nodeElms = new CircuitElm[nodeElmStart[n]];
+        nodeElmPosts = new int[nodeElmStart[n]];
+        groundElms = new CircuitElm[grounds];
+        groundPosts = new int[grounds];
+        int[] fill = new int[n];
+        grounds = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            for (j = 0; j != ce.getPostCount(); j++) {
+                if (isFirstPost(ce, j)) {
+                    int nn = ce.getNode(j);
+                    k = nodeElmStart[nn] + fill[nn]++;
+                    nodeElms[k] = ce;
+                    nodeElmPosts[k] = j;
+                }
+                if (ce.hasGroundConnection(j)) {
+                    groundElms[grounds] = ce;
+                    groundPosts[grounds++] = j;
+                }
+            }
+        }
+    }
+
+    // true if post j is the first of ce's posts on its node
+    static boolean isFirstPost(CircuitElm ce, int j) {
+        int n = ce.getNode(j);
+        for (int k = 0; k != j; k++) {
+            if (ce.getNode(k) == n) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // true for the elements findVoltageLoops() makes edges of
+    static boolean isLoopEdge(CircuitElm ce) {
+        if (ce instanceof WireElm) {
+            return !((WireElm) ce).merged;
+        }
+        return ce.isWire() || ce instanceof VoltageElm;
+    }
+
+    // finds the wires and 2-terminal voltage sources that are part of a
+    // loop made only of wires and voltage sources.  that is true of an
+    // element when its edge isn't a bridge of the graph those elements
+    // form, which one depth first search (Tarjan's) finds for all of
+    // them at once.  merged wires are no edge at all.  the result is
+    // indexed like elmList.
+    boolean[] findVoltageLoops() {
+        int n = nodeList.size();
+        int i, j, k;
+        int maxEdges = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (isLoopEdge(ce)) {
+                int p = ce.getPostCount();
+                maxEdges += p * (p + 1) / 2;
+            }
+        }
+        int[] ea = new int[maxEdges];
+        int[] eb = new int[maxEdges];
+        int[] elmEdge = new int[elmList.size()];
+        int[] adjStart = new int[n + 1];
+        int ec = 0;
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            elmEdge[i] = -1;
+            if (!isLoopEdge(ce)) {
+                continue;
+            }
+            int p = ce.getPostCount();
+            for (j = 0; j != p; j++) {
+                // the search may pass through ground
+                if (ce.hasGroundConnection(j)) {
+                    ea[ec] = 0;
+                    eb[ec++] = ce.getNode(j);
+                }
+                for (k = j + 1; k < p; k++) {
+                    if (ce.getConnection(j, k)) {
+                        if (j == 0 && k == 1) {
+                            elmEdge[i] = ec;
+                        }
+                        ea[ec] = ce.getNode(j);
+                        eb[ec++] = ce.getNode(k);
+                    }
+                }
+            }
+        }
+        for (i = 0; i != ec; i++) {
+            adjStart[ea[i] + 1]++;
+            adjStart[eb[i] + 1]++;
+        }
+        for (i = 0; i != n; i++) {
+            adjStart[i + 1] += adjStart[i];
+        }
+        int[] adj = new int[ec * 2];
+        int[] iter = new int[n];
+        for (i = 0; i != ec; i++) {
+            adj[adjStart[ea[i]] + iter[ea[i]]++] = i;
+            adj[adjStart[eb[i]] + iter[eb[i]]++] = i;
+        }
+        // iterative depth first search, so long chains of wires can't
+        // overflow the stack
+        int[] disc = new int[n];
+        int[] low = new int[n];
+        int[] stack = new int[n];
+        int[] parentEdge = new int[n];
+        boolean[] bridge = new boolean[ec];
+        int time = 0;
+        for (int s = 0; s != n; s++) {
+            if (disc[s] != 0) {
+                continue;
+            }
+            int sp = 0;
+            stack[sp++] = s;
+            parentEdge[s] = -1;
+            disc[s] = low[s] = ++time;
+            iter[s] = adjStart[s];
+            while (sp > 0) {
+                int v = stack[sp - 1];
+                if (iter[v] < adjStart[v + 1]) {
+                    int e = adj[iter[v]++];
+                    if (e == parentEdge[v]) {
+                        continue;
+                    }
+                    int w = (ea[e] == v) ? eb[e] : ea[e];
+                    if (disc[w] == 0) {
+                        parentEdge[w] = e;
+                        disc[w] = low[w] = ++time;
+                        iter[w] = adjStart[w];
+                        stack[sp++] = w;
+                    } else {
+                        low[v] = Math.min(low[v], disc[w]);
+                    }
+                    continue;
+                }
+                sp--;
+                int e = parentEdge[v];
+                if (e >= 0) {
+                    int p = (ea[e] == v) ? eb[e] : ea[e];
+                    low[p] = Math.min(low[p], low[v]);
+                    if (low[v] > disc[p]) {
+                        bridge[e] = true;
+                    }
+                }
+            }
+        }
+        boolean[] loops = new boolean[elmList.size()];
+        for (i = 0; i != elmList.size(); i++) {
+            CircuitElm ce = getElm(i);
+            if (!((ce instanceof VoltageElm && ce.getPostCount() == 2) ||
+                  ce instanceof WireElm) || !isLoopEdge(ce)) {
+                continue;
+            }
+            loops[i] = ce.getNode(0) == ce.getNode(1) ||
+                (elmEdge[i] >= 0 && !bridge[elmEdge[i]]);
+        }
+        return loops;
+    }
+
+    // looks for a path between two nodes, through the elements a check
+    // cares about, other than the element being checked.  the search is
+    // breadth first over the node to element index from buildNodeElms().
+    class FindPathInfo {
+        static final int INDUCT = 1;
+        static final int VOLTAGE = 2;
+        static final int SHORT = 3;
+        static final int CAP_V = 4;
+        boolean[] used;
+        int[] queue;
+        int head, tail;
+        int dest;
+        CircuitElm firstElm;
+        int type;
+
+        FindPathInfo(int t, CircuitElm e, int d) {
+            dest = d;
+            type = t;
+            firstElm = e;
+            used = new boolean[nodeList.size()];
+            queue = new int[nodeList.size()];
+        }
+
+        boolean findPath(int n1) {
+            return findPath(n1, -1);
+        }
+
+        // returns true if dest can be reached from n1 in at most depth
+        // steps (any number if depth is negative)
+        boolean findPath(int n1, int depth) {
+            if (n1 == dest) {
+                return true;
+            }
+            head = tail = 0;
+            used[n1] = true;
+            queue[tail++] = n1;
+            while (head != tail && depth-- != 0) {
+                // expand one level of the search
+                int end = tail;
+                while (head != end) {
+                    if (expand(queue[head++])) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        // queues the unvisited neighbors of n; returns true on reaching
+        // dest
+        boolean expand(int n) {
+            int i, j, k;
+            if (n == 0) {
+                // look for posts which have a ground connection;
+                // our path can go through ground
+                for (i = 0; i != groundElms.length; i++) {
+                    if (!skip(groundElms[i]) &&
+                        visit(groundElms[i].getNode(groundPosts[i]))) {
+                        return true;
+                    }
+                }
+            }
+            for (i = nodeElmStart[n]; i != nodeElmStart[n + 1]; i++) {
+                CircuitElm ce = nodeElms[i];
+                if (skip(ce)) {
+                    continue;
+                }
+                j = nodeElmPosts[i];
+                if (ce.hasGroundConnection(j) && visit(0)) {
+                    return true;
+                }
+                if (type == INDUCT && ce instanceof InductorElm) {
+                    double c = ce.getCurrent();
+                    if (j == 0) {
+                        c = -c;
+                    }
+                    if (Math.abs(c - firstElm.getCurrent()) > 1e-10) {
+                        continue;
+                    }
+                }
+                for (k = 0; k != ce.getPostCount(); k++) {
+                    if (j == k) {
+                        continue;
+                    }
+                    if (ce.getConnection(j, k) && visit(ce.getNode(k))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        boolean visit(int n) {
+            if (n == dest) {
+                return true;
+            }
+            if (!used[n]) {
+                used[n] = true;
+                queue[tail++] = n;
+            }
+            return false;
+        }
+
+        // true if the path can't go through ce
+        boolean skip(CircuitElm ce) {
+            if (ce == firstElm) {
+                return true;
+            }
+            if (type == INDUCT) {
+                return ce instanceof CurrentElm;
+            }
+            if (type == VOLTAGE) {
+                return !(ce.isWire() || ce instanceof VoltageElm);
+            }
+            if (type == SHORT) {
+                return !ce.isWire();
+            }
+            if (type == CAP_V) {
+                return !(ce.isWire() || ce instanceof CapacitorElm ||
+                    ce instanceof VoltageElm);
+            }
+            return false;
+        }
+    }
+}
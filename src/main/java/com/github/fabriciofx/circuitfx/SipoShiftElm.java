@@ -138,7 +138,23 @@ class SipoShiftElm extends ChipElm {
         }
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
     int getDumpType() {
         return 189;
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(data);
+        s.save(clockstate);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        data = (short) s.restoreInt();
+        clockstate = s.restoreBoolean();
+    }
 }
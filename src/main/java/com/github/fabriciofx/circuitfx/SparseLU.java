@@ -0,0 +1,402 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2021 Fabricio Barros Cabral
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * Sparse LU factorization (left-looking, Gilbert-Peierls) of a
+ * SparseMatrix, so that the cost of a solve grows with the number of
+ * nonzero entries instead of n^3.  Columns are taken in minimum degree
+ * order; rows are chosen by partial pivoting, preferring the diagonal
+ * when it is not much smaller than the largest candidate.
+ * The work is split in three phases: analyze() computes the column
+ * ordering from the pattern, factor() picks the pivots and finds the
+ * pattern of L and U, and refactor() only redoes the arithmetic, reusing
+ * the ordering, pivots and patterns as long as the matrix pattern doesn't
+ * change and the old pivots are still good.
+ * When analyze() is told which columns change between refactorizations,
+ * they are ordered last.  The leading columns of L and U are then the
+ * factorization of the constant block, which stays valid, and refactor()
+ * only redoes the trailing columns, that is, the LU of the Schur
+ * complement of that block.
+ */
+class SparseLU {
+    static final double PIVOT_TOLERANCE = 1e-3;
+    int size;
+    SparseMatrix matrix; // matrix the ordering and factors belong to
+    int[] colOrder;  // column k of L and U is column colOrder[k] of A
+    int ordered = -1; // pattern of the matrix colOrder was computed for
+    int factored = -1; // pattern of the matrix L and U were computed for
+    int fixed;       // leading columns of L and U that never change
+    int[] pivot;     // pivot[i] = position of row i in L and U
+    int[] lstart, lrows, ustart, urows;
+    double[] lvals, uvals;
+    double[] x;
+    int[] stack;
+    int[] mark;
+    int stamp;
+
+    // symbolic analysis: compute the column ordering for the pattern of a
+    void analyze(SparseMatrix a) {
+        analyze(a, null);
+    }
+
+    // same as analyze(a), but changing[j] tells whether the values in
+    // column j of a can change between refactorizations
+    void analyze(SparseMatrix a, boolean[] changing) {
+        int n = a.size;
+        if (n != size || mark == null) {
+            alloc(n, a.count);
+        }
+        a.compress();
+        colOrder = MinimumDegree.order(a);
+        matrix = a;
+        ordered = a.pattern;
+        factored = -1;
+        fixed = 0;
+        if (changing == null) {
+            return;
+        }
+        int j, k, c = 0;
+        for (j = 0; j != n; j++) {
+            if (changing[j]) {
+                c++;
+            }
+        }
+        // not worth it if most of the matrix changes anyway, since
+        // constraining the ordering causes more fill-in
+        if (c == 0 || c * 2 > n) {
+            return;
+        }
+        int[] order = new int[n];
+        int lead = 0, trail = n - c;
+        for (k = 0; k != n; k++) {
+            j = colOrder[k];
+            if (changing[j]) {
+                order[trail++] = j;
+            } else {
+                order[lead++] = j;
+            }
+        }
+        colOrder = order;
+        fixed = n - c;
+    }
+
+    // factors the matrix, choosing new pivots; returns false if it's
+    // singular
+    boolean factor(SparseMatrix a) {
+        int n = a.size;
+        if (a != matrix || ordered != a.pattern) {
+            analyze(a);
+        }
+        factored = -1;
+        // if a row is all zeros, it's a singular matrix
+        int s, i, k, p;
+        stamp++;
+        int nonzeroRows = 0;
+        for (s = 0; s != a.count; s++) {
+            if (a.values[s] != 0 && mark[a.rows[s]] != stamp) {
+                mark[a.rows[s]] = stamp;
+                nonzeroRows++;
+            }
+        }
+        if (nonzeroRows != n) {
+            return false;
+        }
+        Arrays.fill(pivot, -1);
+        int lnz = 0, unz = 0;
+        for (k = 0; k != n; k++) {
+            lstart[k] = lnz;
+            ustart[k] = unz;
+            if (lnz + n > lrows.length) {
+                lrows = Arrays.copyOf(lrows, 2 * lrows.length + n);
+                lvals = Arrays.copyOf(lvals, lrows.length);
+            }
+            if (unz + n > urows.length) {
+                urows = Arrays.copyOf(urows, 2 * urows.length + n);
+                uvals = Arrays.copyOf(uvals, urows.length);
+            }
+            int col = colOrder[k];
+            // x = L \ A(:,col)
+            int top = solveColumn(a, col);
+            int ipiv = -1;
+            double largest = -1;
+            for (p = top; p != n; p++) {
+                i = stack[p];
+                if (pivot[i] < 0) {
+                    double t = Math.abs(x[i]);
+                    if (t > largest) {
+                        largest = t;
+                        ipiv = i;
+                    }
+                } else {
+                    urows[unz] = pivot[i];
+                    uvals[unz++] = x[i];
+                }
+            }
+            if (ipiv == -1) {
+                // no candidate rows left in this column; take any row
+                for (i = 0; pivot[i] >= 0; i++) {
+                }
+                ipiv = i;
+            } else if (pivot[col] < 0 &&
+                Math.abs(x[col]) >= largest * PIVOT_TOLERANCE) {
+                ipiv = col;
+            }
+            double pv = x[ipiv];
+            // a column with nothing left to pivot on makes the matrix
+            // singular
+            if (pv == 0) {
+                for (p = top; p != n; p++) {
+                    x[stack[p]] = 0;
+                }
+                return false;
+            }
+            urows[unz] = k;
+            uvals[unz++] = pv;
+            pivot[ipiv] = k;
+            lrows[lnz] = ipiv;
+            lvals[lnz++] = 1;
+            for (p = top; p != n; p++) {
+                i = stack[p];
+                if (pivot[i] < 0) {
+                    lrows[lnz] = i;
+                    lvals[lnz++] = x[i] / pv;
+                }
+                x[i] = 0;
+            }
+        }
+        lstart[n] = lnz;
+        ustart[n] = unz;
+        // L's row indices are pivot positions from now on
+        for (p = 0; p != lnz; p++) {
+            lrows[p] = pivot[lrows[p]];
+        }
+        factored = a.pattern;
+        return true;
+    }
+
+    // factors the matrix reusing the pivots and the patterns of L and U
+    // from the last factor(), and the values of its first fixed columns;
+    // falls back to factor() if the pattern has changed or one of the old
+    // pivots has become too small
+    boolean refactor(SparseMatrix a) {
+        if (a != matrix || factored != a.pattern) {
+            return factor(a);
+        }
+        int n = size;
+        int k, p, q;
+        for (k = fixed; k != n; k++) {
+            int col = colOrder[k];
+            // scatter A(:,col) into x, indexed by pivot position
+            for (p = a.colStart[col]; p != a.colStart[col + 1]; p++) {
+                x[pivot[a.colRows[p]]] = a.values[a.colSlots[p]];
+            }
+            // the entries of U(:,k) are stored in an order in which they
+            // can be computed
+            int ud = ustart[k + 1] - 1;
+            for (p = ustart[k]; p != ud; p++) {
+                int j = urows[p];
+                double xj = x[j];
+                uvals[p] = xj;
+                x[j] = 0;
+                for (q = lstart[j] + 1; q != lstart[j + 1]; q++) {
+                    x[lrows[q]] -= lvals[q] * xj;
+                }
+            }
+            double pv = x[k];
+            x[k] = 0;
+            double largest = 0;
+            for (q = lstart[k] + 1; q != lstart[k + 1]; q++) {
+                double t = Math.abs(x[lrows[q]]);
+                if (t > largest) {
+                    largest = t;
+                }
+            }
+            if (pv == 0 || Math.abs(pv) < largest * PIVOT_TOLERANCE) {
+                for (q = lstart[k] + 1; q != lstart[k + 1]; q++) {
+                    x[lrows[q]] = 0;
+                }
+                return factor(a);
+            }
+            uvals[ud] = pv;
+            for (q = lstart[k] + 1; q != lstart[k + 1]; q++) {
+                lvals[q] = x[lrows[q]] / pv;
+                x[lrows[q]] = 0;
+            }
+        }
+        return true;
+    }
+
+    // make this a copy of the ordering and factors of s, reusing this
+    // one's storage where it's big enough.  Either can then be
+    // refactored without changing the other.
+    void copyFrom(SparseLU s) {
+        int n = s.size;
+        if (n != size || mark == null) {
+            alloc(n, 0);
+        }
+        matrix = s.matrix;
+        colOrder = s.colOrder;
+        ordered = s.ordered;
+        factored = s.factored;
+        fixed = s.fixed;
+        if (factored == -1) {
+            return;
+        }
+        int lnz = s.lstart[n], unz = s.ustart[n];
+        if (lrows.length < lnz) {
+            lrows = new int[lnz];
+            lvals = new double[lnz];
+        }
+        if (urows.length < unz) {
+            urows = new int[unz];
+            uvals = new double[unz];
+        }
+        System.arraycopy(s.pivot, 0, pivot, 0, n);
+        System.arraycopy(s.lstart, 0, lstart, 0, n + 1);
+        System.arraycopy(s.ustart, 0, ustart, 0, n + 1);
+        System.arraycopy(s.lrows, 0, lrows, 0, lnz);
+        System.arraycopy(s.lvals, 0, lvals, 0, lnz);
+        System.arraycopy(s.urows, 0, urows, 0, unz);
+        System.arraycopy(s.uvals, 0, uvals, 0, unz);
+    }
+
+    void alloc(int n, int nnz) {
+        size = n;
+        pivot = new int[n];
+        lstart = new int[n + 1];
+        ustart = new int[n + 1];
+        lrows = new int[2 * nnz + n];
+        lvals = new double[lrows.length];
+        urows = new int[2 * nnz + n];
+        uvals = new double[urows.length];
+        x = new double[n];
+        stack = new int[2 * n];
+        mark = new int[n];
+        ordered = -1;
+        factored = -1;
+    }
+
+    // solves L x = A(:,col) for the columns of L computed so far.  The
+    // nonzero pattern of x is left in stack[top..n-1], in topological
+    // order, and top is returned.
+    int solveColumn(SparseMatrix a, int col) {
+        int n = size;
+        int top = n;
+        int p;
+        stamp++;
+        for (p = a.colStart[col]; p != a.colStart[col + 1]; p++) {
+            int i = a.colRows[p];
+            if (mark[i] != stamp) {
+                top = reach(i, top);
+            }
+        }
+        for (p = a.colStart[col]; p != a.colStart[col + 1]; p++) {
+            x[a.colRows[p]] = a.values[a.colSlots[p]];
+        }
+        for (p = top; p != n; p++) {
+            int j = stack[p];
+            int jj = pivot[j];
+            if (jj < 0) {
+                continue;
+            }
+            double xj = x[j];
+            int q;
+            // skip the diagonal, which is 1
+            for (q = lstart[jj] + 1; q != lstart[jj + 1]; q++) {
+                x[lrows[q]] -= lvals[q] * xj;
+            }
+        }
+        return top;
+    }
+
+    // depth first search from row j through the graph of L, pushing the
+    // rows it finds onto stack[top..] in reverse postorder
+    int reach(int j, int top) {
+        int n = size;
+        int head = 0;
+        // stack[0..head] is the dfs stack, stack[n + k] is the position
+        // reached in the column of L of the k'th entry in it
+        stack[0] = j;
+        while (head >= 0) {
+            j = stack[head];
+            int jj = pivot[j];
+            if (mark[j] != stamp) {
+                mark[j] = stamp;
+                stack[n + head] = (jj < 0) ? 0 : lstart[jj] + 1;
+            }
+            boolean done = true;
+            int end = (jj < 0) ? 0 : lstart[jj + 1];
+            int p;
+            for (p = stack[n + head]; p < end; p++) {
+                int i = lrows[p];
+                if (mark[i] == stamp) {
+                    continue;
+                }
+                stack[n + head] = p + 1;
+                stack[++head] = i;
+                done = false;
+                break;
+            }
+            if (done) {
+                head--;
+                stack[--top] = j;
+            }
+        }
+        return top;
+    }
+
+    // solves A x = b using the factors; b is replaced by the solution
+    void solve(double[] b) {
+        int n = size;
+        int i, j, p;
+        for (i = 0; i != n; i++) {
+            x[pivot[i]] = b[i];
+        }
+        // forward substitution using the lower triangular matrix
+        for (j = 0; j != n; j++) {
+            double xj = x[j];
+            if (xj == 0) {
+                continue;
+            }
+            for (p = lstart[j] + 1; p != lstart[j + 1]; p++) {
+                x[lrows[p]] -= lvals[p] * xj;
+            }
+        }
+        // back-substitution using the upper triangular matrix
+        for (j = n - 1; j >= 0; j--) {
+            double xj = x[j] / uvals[ustart[j + 1] - 1];
+            x[j] = xj;
+            for (p = ustart[j]; p != ustart[j + 1] - 1; p++) {
+                x[urows[p]] -= uvals[p] * xj;
+            }
+        }
+        for (j = 0; j != n; j++) {
+            b[colOrder[j]] = x[j];
+            x[j] = 0;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2021 Fabricio Barros Cabral
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * Square sparse matrix used by the sparse solver.  Entries are kept in
+ * slots found through a hash on (row, col), so stamping is O(1), and a
+ * compressed column (CSC) view of the slots is rebuilt whenever the
+ * pattern changes.
+ */
+class SparseMatrix {
+    int size;
+    int count;           // number of slots in use
+    int[] rows, cols;    // row and column of each slot
+    double[] values;     // value of each slot
+    double[] origValues; // values saved by saveOriginal()
+    int origCount;
+    int[] table;         // hash of (row, col) -> slot + 1
+    int pattern;         // incremented whenever a slot is added
+    // compressed column view: slots of column j are
+    // colSlots[colStart[j]..colStart[j+1]-1], sorted by row
+    int[] colStart, colRows, colSlots;
+    int compressed = -1;
+
+    SparseMatrix(int n) {
+        size = n;
+        rows = new int[16];
+        cols = new int[16];
+        values = new double[16];
+        table = new int[64];
+    }
+
+    // build a sparse matrix from the nonzero entries of a dense one
+    SparseMatrix(DenseMatrix a) {
+        this(a.size);
+        int i, j;
+        for (i = 0; i != size; i++) {
+            for (j = 0; j != size; j++) {
+                double x = a.get(i, j);
+                if (x != 0) {
+                    add(i, j, x);
+                }
+            }
+        }
+    }
+
+    int hash(int r, int c) {
+        int h = r * 0x9E3779B1 + c * 0x85EBCA6B;
+        return (h ^ (h >>> 15)) & (table.length - 1);
+    }
+
+    // returns the slot for (r, c), or -1 if there is none
+    int find(int r, int c) {
+        int h = hash(r, c);
+        int s;
+        while ((s = table[h]) != 0) {
+            s--;
+            if (rows[s] == r && cols[s] == c) {
+                return s;
+            }
+            h = (h + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    // returns the slot for (r, c), adding it to the pattern if needed
+    int slot(int r, int c) {
+        int s = find(r, c);
+        if (s >= 0) {
+            return s;
+        }
+        if (count == rows.length) {
+            int len = count * 2;
+            rows = Arrays.copyOf(rows, len);
+            cols = Arrays.copyOf(cols, len);
+            values = Arrays.copyOf(values, len);
+        }
+        s = count++;
+        rows[s] = r;
+        cols[s] = c;
+        values[s] = 0;
+        pattern++;
+        if (count * 2 > table.length) {
+            rehash();
+        } else {
+            insert(s);
+        }
+        return s;
+    }
+
+    void insert(int s) {
+        int h = hash(rows[s], cols[s]);
+        while (table[h] != 0) {
+            h = (h + 1) & (table.length - 1);
+        }
+        table[h] = s + 1;
+    }
+
+    void rehash() {
+        table = new int[table.length * 2];
+        int s;
+        for (s = 0; s != count; s++) {
+            insert(s);
+        }
+    }
+
+    void add(int r, int c, double x) {
+        int s = slot(r, c);
+        values[s] += x;
+    }
+
+    double get(int r, int c) {
+        int s = find(r, c);
+        return (s < 0) ? 0 : values[s];
+    }
+
+    // remember the current values so they can be restored before each
+    // iteration (the sparse counterpart of origMatrix)
+    void saveOriginal() {
+        origValues = Arrays.copyOf(values, count);
+        origCount = count;
+    }
+
+    void restoreOriginal() {
+        System.arraycopy(origValues, 0, values, 0, origCount);
+        int s;
+        for (s = origCount; s < count; s++) {
+            values[s] = 0;
+        }
+    }
+
+    // (re)build the compressed column view if the pattern changed
+    void compress() {
+        if (compressed == pattern) {
+            return;
+        }
+        colStart = new int[size + 1];
+        colRows = new int[count];
+        colSlots = new int[count];
+        int s, j;
+        for (s = 0; s != count; s++) {
+            colStart[cols[s] + 1]++;
+        }
+        for (j = 0; j != size; j++) {
+            colStart[j + 1] += colStart[j];
+        }
+        // counting sort by row, then by column, keeps each column sorted
+        int[] byRow = new int[count];
+        int[] next = new int[size + 1];
+        for (s = 0; s != count; s++) {
+            next[rows[s] + 1]++;
+        }
+        for (j = 0; j != size; j++) {
+            next[j + 1] += next[j];
+        }
+        for (s = 0; s != count; s++) {
+            byRow[next[rows[s]]++] = s;
+        }
+        System.arraycopy(colStart, 0, next, 0, size);
+        int k;
+        for (k = 0; k != count; k++) {
+            s = byRow[k];
+            int p = next[cols[s]]++;
+            colRows[p] = rows[s];
+            colSlots[p] = s;
+        }
+        compressed = pattern;
+    }
+}
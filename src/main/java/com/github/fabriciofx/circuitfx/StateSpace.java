@@ -0,0 +1,328 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * The state-space form of a linear time-invariant circuit, which steps
+ * it without solving its matrix.  All a step of such a circuit carries
+ * over to the next is in the current sources of the companion models of
+ * its capacitors and inductors, and they are linear in the ones before
+ * and in the right side the sources stamp, so
+ *
+ *   x[k + 1] = A x[k] + B u[k] + c
+ *
+ * where x holds the companion sources and u what the sources add to the
+ * rows of the right side that change from step to step, which for most
+ * of those rows (the ones only the companion sources are on) is 0.  A,
+ * B and c are worked out once, by
+ * running the elements' own startIteration() and doStep() on unit
+ * values and solving the matrix for each, so they follow whichever
+ * integration each element uses.  A step is then a mat-vec of the size
+ * of x, plus what the sources do.  The elements' voltages and currents
+ * aren't updated along the way, so Simulator.step(int) and runUntil()
+ * leave the last step to a full one (see load()).
+ */
+class StateSpace {
+    Simulator sim;
+    // the elements with companion sources, and where each one's are in x
+    CircuitElm[] stateElms;
+    int[] stateStart;
+    // the other elements, run each step for what the sources stamp
+    CircuitElm[] sourceElms;
+    // rows of the simplified matrix that make up u
+    int[] inputRows;
+    int stateCount, inputCount;
+    // A, a row per state, and B, a column per input row
+    double[] a, b, c;
+    double[] x, nextX;
+    // set by run() for the next full step to take its companion sources
+    // from x
+    boolean loadPending;
+
+    StateSpace(Simulator s) {
+        sim = s;
+        int i;
+        CircuitElm[] elms = sim.stepElms;
+        int count = 0;
+        for (i = 0; i != elms.length; i++) {
+            if (elms[i].getCompanionCount() > 0) {
+                count++;
+            }
+        }
+        stateElms = new CircuitElm[count];
+        stateStart = new int[count + 1];
+        sourceElms = new CircuitElm[elms.length - count];
+        count = 0;
+        for (i = 0; i != elms.length; i++) {
+            CircuitElm ce = elms[i];
+            if (ce.getCompanionCount() > 0) {
+                stateElms[count] = ce;
+                stateStart[count + 1] = stateStart[count] +
+                    ce.getCompanionCount();
+                count++;
+            } else {
+                sourceElms[i - count] = ce;
+            }
+        }
+        stateCount = stateStart[count];
+        findInputRows();
+        x = new double[stateCount];
+        nextX = new double[stateCount];
+        buildMatrices();
+    }
+
+    // the rows whose right side is stamped in doStep()
+    void findInputRows() {
+        int i;
+        int size = sim.circuitMatrixSize;
+        boolean[] input = new boolean[size];
+        for (i = 0; i != sim.circuitMatrixFullSize; i++) {
+            if (!sim.circuitRowInfo[i].rsChanges) {
+                continue;
+            }
+            int row = sim.circuitNeedsMap ? sim.stampRow[i + 1] : i;
+            if (row >= 0) {
+                input[row] = true;
+            }
+        }
+        inputRows = new int[size];
+        for (i = 0; i != size; i++) {
+            if (input[i]) {
+                inputRows[inputCount++] = i;
+            }
+        }
+        inputRows = Arrays.copyOf(inputRows, inputCount);
+    }
+
+    // solve the matrix for the right side v (of the simplified matrix)
+    double[] solve(double[] v) {
+        double[] rs = sim.circuitRightSide;
+        System.arraycopy(v, 0, rs, 0, rs.length);
+        sim.solveCircuit();
+        return rs.clone();
+    }
+
+    // the voltage of node n in solution s, leaving out the constant
+    // rows unless withConst
+    double getVoltage(double[] s, int n, boolean withConst) {
+        if (n == 0) {
+            return 0;
+        }
+        RowInfo ri = sim.circuitRowInfo[n - 1];
+        if (ri.type == RowInfo.ROW_CONST) {
+            return withConst ? ri.value : 0;
+        }
+        return s[ri.mapCol];
+    }
+
+    // what startIteration() makes of companion sources cs and voltages vs
+    double[] probe(CircuitElm ce, double[] cs, double[] vs) {
+        int i;
+        for (i = 0; i != cs.length; i++) {
+            ce.setCompanion(i, cs[i]);
+        }
+        for (i = 0; i != vs.length; i++) {
+            ce.setNodeVoltage(i, vs[i]);
+        }
+        ce.startIteration();
+        double[] next = new double[cs.length];
+        for (i = 0; i != cs.length; i++) {
+            next[i] = ce.getCompanion(i);
+        }
+        return next;
+    }
+
+    void buildMatrices() {
+        int e, i, j, k, p;
+        int size = sim.circuitMatrixSize;
+        a = new double[stateCount * stateCount];
+        b = new double[stateCount * inputCount];
+        c = new double[stateCount];
+        // the solutions for a unit value of each companion source, of
+        // each input row, and for the right side without doStep()
+        double[][] stateSolutions = new double[stateCount][];
+        double[] v = new double[size];
+        for (e = 0; e != stateElms.length; e++) {
+            CircuitElm ce = stateElms[e];
+            int cc = ce.getCompanionCount();
+            double[] saved = new double[cc];
+            for (j = 0; j != cc; j++) {
+                saved[j] = ce.getCompanion(j);
+            }
+            for (j = 0; j != cc; j++) {
+                for (k = 0; k != cc; k++) {
+                    ce.setCompanion(k, (j == k) ? 1 : 0);
+                }
+                Arrays.fill(sim.circuitRightSide, 0);
+                ce.doStep();
+                stateSolutions[stateStart[e] + j] =
+                    solve(sim.circuitRightSide);
+            }
+            for (j = 0; j != cc; j++) {
+                ce.setCompanion(j, saved[j]);
+            }
+        }
+        double[][] inputSolutions = new double[inputCount][];
+        for (i = 0; i != inputCount; i++) {
+            Arrays.fill(v, 0);
+            v[inputRows[i]] = 1;
+            inputSolutions[i] = solve(v);
+        }
+        double[] constSolution = solve(sim.origRightSide);
+        // how each element's next companion sources depend on its
+        // current ones and on its voltages, which are in turn worked out
+        // from the solutions above
+        for (e = 0; e != stateElms.length; e++) {
+            CircuitElm ce = stateElms[e];
+            int cc = ce.getCompanionCount();
+            int nc = ce.getPostCount() + ce.getInternalNodeCount();
+            double[] savedCs = new double[cc];
+            double[] savedVs = new double[nc];
+            for (j = 0; j != cc; j++) {
+                savedCs[j] = ce.getCompanion(j);
+            }
+            for (p = 0; p != nc; p++) {
+                savedVs[p] = ce.volts[p];
+            }
+            double[] cs = new double[cc];
+            double[] vs = new double[nc];
+            double[] base = probe(ce, cs, vs);
+            int s0 = stateStart[e];
+            for (j = 0; j != cc; j++) {
+                c[s0 + j] = base[j];
+            }
+            for (k = 0; k != cc; k++) {
+                cs[k] = 1;
+                double[] next = probe(ce, cs, vs);
+                cs[k] = 0;
+                for (j = 0; j != cc; j++) {
+                    a[(s0 + j) * stateCount + s0 + k] += next[j] - base[j];
+                }
+            }
+            for (p = 0; p != nc; p++) {
+                vs[p] = 1;
+                double[] next = probe(ce, cs, vs);
+                vs[p] = 0;
+                int n = ce.getNode(p);
+                for (j = 0; j != cc; j++) {
+                    double beta = next[j] - base[j];
+                    if (beta == 0) {
+                        continue;
+                    }
+                    int row = s0 + j;
+                    for (k = 0; k != stateCount; k++) {
+                        a[row * stateCount + k] += beta *
+                            getVoltage(stateSolutions[k], n, false);
+                    }
+                    for (k = 0; k != inputCount; k++) {
+                        b[k * stateCount + row] += beta *
+                            getVoltage(inputSolutions[k], n, false);
+                    }
+                    c[row] += beta * getVoltage(constSolution, n, true);
+                }
+            }
+            probe(ce, savedCs, savedVs);
+            for (j = 0; j != cc; j++) {
+                ce.setCompanion(j, savedCs[j]);
+            }
+        }
+    }
+
+    // run up to count steps, stopping short of the one that would get
+    // to tEnd; returns how many it ran
+    int run(int count, double tEnd) {
+        int i, j, k;
+        CircuitElm[] srcs = sourceElms;
+        double[] rs = sim.circuitRightSide;
+        double[] orig = sim.origRightSide;
+        int[] rows = inputRows;
+        int sc = stateCount, ic = inputCount;
+        if (!loadPending) {
+            // the companion sources of the next step, from the last one
+            for (i = 0; i != stateElms.length; i++) {
+                CircuitElm ce = stateElms[i];
+                ce.startIteration();
+                for (j = stateStart[i]; j != stateStart[i + 1]; j++) {
+                    x[j] = ce.getCompanion(j - stateStart[i]);
+                }
+            }
+        }
+        int steps;
+        for (steps = 0; steps != count; steps++) {
+            if (!(sim.t + sim.timeStep < tEnd)) {
+                break;
+            }
+            for (i = 0; i != srcs.length; i++) {
+                srcs[i].startIteration();
+            }
+            for (i = 0; i != ic; i++) {
+                rs[rows[i]] = orig[rows[i]];
+            }
+            for (i = 0; i != srcs.length; i++) {
+                srcs[i].doStep();
+            }
+            double[] nx = nextX;
+            for (j = 0; j != sc; j++) {
+                double sum = c[j];
+                int row = j * sc;
+                for (k = 0; k != sc; k++) {
+                    sum += a[row + k] * x[k];
+                }
+                nx[j] = sum;
+            }
+            for (k = 0; k != ic; k++) {
+                double u = rs[rows[k]] - orig[rows[k]];
+                if (u == 0) {
+                    continue;
+                }
+                int col = k * sc;
+                for (j = 0; j != sc; j++) {
+                    nx[j] += b[col + j] * u;
+                }
+            }
+            nextX = x;
+            x = nx;
+            sim.t += sim.timeStep;
+        }
+        if (steps > 0) {
+            loadPending = true;
+        }
+        return steps;
+    }
+
+    // give the elements the companion sources run() got to, once the
+    // full step after it has called startIteration()
+    void load() {
+        int i, j;
+        loadPending = false;
+        for (i = 0; i != stateElms.length; i++) {
+            CircuitElm ce = stateElms[i];
+            for (j = stateStart[i]; j != stateStart[i + 1]; j++) {
+                ce.setCompanion(j - stateStart[i], x[j]);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+
+/**
+ * The values the elements of a circuit carry from one time step to the
+ * next, saved before a step so that it can be taken again with a
+ * smaller one (see Simulator.adaptTimeStep()).  Each element saves its
+ * values with the save methods, and reads them back in the same order
+ * with the restore methods.  The storage grows as needed and is then
+ * reused, so saving a step doesn't allocate.
+ */
+class StepState {
+    double[] values = new double[64];
+    // how many values are saved, and the next one to restore
+    int count, pos;
+
+    // start saving a new step
+    void clear() {
+        count = pos = 0;
+    }
+
+    // start restoring the saved step
+    void rewind() {
+        pos = 0;
+    }
+
+    void save(double x) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = x;
+    }
+
+    void save(boolean b) {
+        save(b ? 1 : 0);
+    }
+
+    void save(double[] x) {
+        int i;
+        for (i = 0; i != x.length; i++) {
+            save(x[i]);
+        }
+    }
+
+    double restore() {
+        return values[pos++];
+    }
+
+    boolean restoreBoolean() {
+        return values[pos++] != 0;
+    }
+
+    int restoreInt() {
+        return (int) values[pos++];
+    }
+
+    void restore(double[] x) {
+        int i;
+        for (i = 0; i != x.length; i++) {
+            x[i] = values[pos++];
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parameter sweep.
+ * Runs many variants of one circuit, each with some element parameters
+ * changed, and collects what its probes saw.  A parameter is the n'th
+ * value in an element's edit dialog (getEditInfo/setEditValue), and it
+ * can be stepped through a list of values (every combination of the
+ * stepped parameters is run) or scattered randomly within a tolerance
+ * for a Monte Carlo analysis.  The variants run on a ForkJoinPool.
+ *
+ *   java -cp circuitfx.jar com.github.fabriciofx.circuitfx.Sweep
+ *       [-t time] [-n steps] [-m runs] [-s seed] [-j threads]
+ *       [-o file.csv] -p param ... circuit.txt
+ *
+ * where param is elm.n=v1,v2,... to step through values, elm.n~5% for
+ * a uniform tolerance or elm.n~5%g for a gaussian one (the tolerance
+ * being three standard deviations, and values past it drawn again),
+ * elm being the element's position in the circuit file, counting from
+ * 0.
+ */
+public class Sweep {
+    // results are kept per probe
+    static final int STAT_MIN = 0;
+    static final int STAT_MAX = 1;
+    static final int STAT_FINAL = 2;
+    static final int STAT_COUNT = 3;
+    static final String[] STAT_NAMES = { "min", "max", "final" };
+
+    static class Param {
+        int elm, edit;
+        double[] values; // values to step through, or null
+        double tolerance; // relative tolerance, if values is null
+        boolean gaussian;
+        String name;
+    }
+
+    String text;
+    Vector<Param> params = new Vector<Param>();
+    double simTime = Double.MAX_VALUE;
+    int maxSteps = 10000;
+    int runs = 1;
+    long seed;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int probeCount;
+    String[] probeNames;
+    // one row per variant: the parameter values used, then STAT_COUNT
+    // numbers for each probe (NaN if the variant failed)
+    double[][] results;
+    boolean[] failed;
+    int failures;
+
+    public Sweep(String text) {
+        this.text = text;
+    }
+
+    // step parameter n of element elm through values
+    public void addGrid(int elm, int n, double[] values) {
+        Param p = new Param();
+        p.elm = elm;
+        p.edit = n;
+        p.values = values;
+        params.addElement(p);
+    }
+
+    // scatter parameter n of element elm within a relative tolerance,
+    // uniformly or as a gaussian with tolerance = 3 sigma, cut off at
+    // the tolerance
+    public void addTolerance(int elm, int n, double tol, boolean gaussian) {
+        Param p = new Param();
+        p.elm = elm;
+        p.edit = n;
+        p.tolerance = tol;
+        p.gaussian = gaussian;
+        params.addElement(p);
+    }
+
+    // number of combinations of the stepped parameters
+    int getGridCount() {
+        int i, n = 1;
+        for (i = 0; i != params.size(); i++) {
+            if (params.get(i).values != null) {
+                n *= params.get(i).values.length;
+            }
+        }
+        return n;
+    }
+
+    public int getVariantCount() {
+        return getGridCount() * runs;
+    }
+
+    // run every variant and fill in results
+    public void run() {
+        // parse once up front to check the parameters and name things
+        Simulator sim = new Simulator();
+        CircuitReader.read(sim, text);
+        int i;
+        for (i = 0; i != params.size(); i++) {
+            Param p = params.get(i);
+            CircuitElm ce = sim.getElm(p.elm);
+            EditInfo ei = (ce == null) ? null : ce.getEditInfo(p.edit);
+            if (ei == null || ei.checkbox != null || ei.choice != null) {
+                throw new IllegalArgumentException("element " + p.elm +
+                    " has no numeric parameter " + p.edit);
+            }
+            p.name = ce.getClass().getSimpleName() + p.elm + "." + ei.name;
+        }
+        Vector<CircuitElm> probes = BatchRunner.getProbes(sim);
+        probeCount = probes.size();
+        probeNames = new String[probeCount];
+        for (i = 0; i != probeCount; i++) {
+            CircuitElm ce = probes.get(i);
+            probeNames[i] = ce.getClass().getSimpleName() + "@" + ce.x +
+                ":" + ce.y;
+        }
+        results = new double[getVariantCount()][];
+        failed = new boolean[results.length];
+        failures = 0;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new SweepTask(0, results.length));
+        } finally {
+            pool.shutdown();
+        }
+        for (i = 0; i != results.length; i++) {
+            if (failed[i]) {
+                failures++;
+            }
+        }
+    }
+
+    // runs a range of variants, splitting it up until it's small enough
+    class SweepTask extends RecursiveAction {
+        int start, end;
+
+        SweepTask(int s, int e) {
+            start = s;
+            end = e;
+        }
+
+        protected void compute() {
+            if (end - start <= 4) {
+                int i;
+                for (i = start; i != end; i++) {
+                    results[i] = runVariant(i);
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new SweepTask(start, mid), new SweepTask(mid, end));
+        }
+    }
+
+    // simulate variant v.  The random numbers depend only on the seed
+    // and v, so a sweep gives the same results however it is split up.
+    double[] runVariant(int v) {
+        int pc = params.size();
+        double[] row = new double[pc + probeCount * STAT_COUNT];
+        Simulator sim = new Simulator();
+        Random rand = new Random(seed * 1000003 + v);
+        sim.random = new Random(rand.nextLong());
+        CircuitReader.read(sim, text);
+        int i, j;
+        int grid = v / runs;
+        for (i = 0; i != pc; i++) {
+            Param p = params.get(i);
+            CircuitElm ce = sim.getElm(p.elm);
+            EditInfo ei = ce.getEditInfo(p.edit);
+            if (p.values != null) {
+                ei.value = p.values[grid % p.values.length];
+                grid /= p.values.length;
+            } else {
+                double d;
+                if (p.gaussian) {
+                    // truncated at 3 sigma, so the value stays within
+                    // the tolerance (and can't come out zero or negative)
+                    do {
+                        d = rand.nextGaussian() / 3;
+                    } while (Math.abs(d) > 1);
+                } else {
+                    d = rand.nextDouble() * 2 - 1;
+                }
+                ei.value *= 1 + p.tolerance * d;
+            }
+            ce.setEditValue(p.edit, ei);
+            row[i] = ei.value;
+        }
+        Vector<CircuitElm> probes = BatchRunner.getProbes(sim);
+        for (i = 0; i != probeCount; i++) {
+            row[pc + i * STAT_COUNT + STAT_MIN] = Double.MAX_VALUE;
+            row[pc + i * STAT_COUNT + STAT_MAX] = -Double.MAX_VALUE;
+        }
+        int steps = 0;
+        try {
+            while (sim.t < simTime && steps < maxSteps && sim.step()) {
+                steps++;
+                for (i = 0; i != probeCount; i++) {
+                    double x = probes.get(i).getVoltageDiff();
+                    j = pc + i * STAT_COUNT;
+                    row[j + STAT_MIN] = Math.min(row[j + STAT_MIN], x);
+                    row[j + STAT_MAX] = Math.max(row[j + STAT_MAX], x);
+                    row[j + STAT_FINAL] = x;
+                }
+            }
+        } catch (RuntimeException e) {
+            sim.stopMessage = e.toString();
+        }
+        if (sim.stopMessage != null || steps == 0) {
+            failed[v] = true;
+            for (i = pc; i != row.length; i++) {
+                row[i] = Double.NaN;
+            }
+        }
+        return row;
+    }
+
+    // write the results, one line per variant
+    void writeResults(Writer w) throws IOException {
+        StringBuilder sb = new StringBuilder("variant");
+        int i, j;
+        for (i = 0; i != params.size(); i++) {
+            sb.append(',').append(params.get(i).name);
+        }
+        for (i = 0; i != probeCount; i++) {
+            for (j = 0; j != STAT_COUNT; j++) {
+                sb.append(',').append(probeNames[i]).append(' ')
+                    .append(STAT_NAMES[j]);
+            }
+        }
+        sb.append('\n');
+        w.write(sb.toString());
+        for (i = 0; i != results.length; i++) {
+            sb.setLength(0);
+            sb.append(i);
+            for (j = 0; j != results[i].length; j++) {
+                sb.append(',').append(results[i][j]);
+            }
+            sb.append('\n');
+            w.write(sb.toString());
+        }
+    }
+
+    // print the mean, standard deviation and range of each probe
+    // statistic over the variants that ran
+    void printSummary() {
+        int pc = params.size();
+        int i, j;
+        System.out.println(results.length + " variants, " + failures +
+            " failed");
+        for (i = 0; i != probeCount * STAT_COUNT; i++) {
+            double sum = 0, sum2 = 0;
+            double lo = Double.MAX_VALUE, hi = -Double.MAX_VALUE;
+            int n = 0;
+            for (j = 0; j != results.length; j++) {
+                double x = results[j][pc + i];
+                if (Double.isNaN(x)) {
+                    continue;
+                }
+                sum += x;
+                sum2 += x * x;
+                lo = Math.min(lo, x);
+                hi = Math.max(hi, x);
+                n++;
+            }
+            if (n == 0) {
+                continue;
+            }
+            double mean = sum / n;
+            double sd = Math.sqrt(Math.max(0, sum2 / n - mean * mean));
+            System.out.println(probeNames[i / STAT_COUNT] + " " +
+                STAT_NAMES[i % STAT_COUNT] + ": mean " + mean + " sd " + sd +
+                " range " + lo + " to " + hi);
+        }
+    }
+
+    public static void main(String[] args) {
+        Sweep sw = null;
+        String out = null;
+        try {
+            Vector<String> specs = new Vector<String>();
+            int i;
+            String file = null;
+            double simTime = Double.MAX_VALUE;
+            int maxSteps = 10000, runs = 1;
+            long seed = 0;
+            int threads = Runtime.getRuntime().availableProcessors();
+            for (i = 0; i != args.length; i++) {
+                String a = args[i];
+                if (a.startsWith("-") && i + 1 == args.length) {
+                    throw new IllegalArgumentException(
+                        "missing value for " + a);
+                }
+                if (a.equals("-t")) {
+                    simTime = Double.parseDouble(args[++i]);
+                } else if (a.equals("-n")) {
+                    maxSteps = Integer.parseInt(args[++i]);
+                } else if (a.equals("-m")) {
+                    runs = Integer.parseInt(args[++i]);
+                } else if (a.equals("-s")) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (a.equals("-j")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (a.equals("-o")) {
+                    out = args[++i];
+                } else if (a.equals("-p")) {
+                    specs.addElement(args[++i]);
+                } else if (a.startsWith("-") || file != null) {
+                    throw new IllegalArgumentException("unexpected " + a);
+                } else {
+                    file = a;
+                }
+            }
+            if (file == null) {
+                throw new IllegalArgumentException("no circuit file given");
+            }
+            if (runs < 1 || threads < 1) {
+                throw new IllegalArgumentException("bad run or thread count");
+            }
+            sw = new Sweep(new String(
+                Files.readAllBytes(new File(file).toPath()),
+                StandardCharsets.UTF_8));
+            sw.simTime = simTime;
+            sw.maxSteps = maxSteps;
+            sw.runs = runs;
+            sw.seed = seed;
+            sw.threads = threads;
+            for (i = 0; i != specs.size(); i++) {
+                sw.addParam(specs.get(i));
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: Sweep [-t time] [-n steps] " +
+                "[-m runs] [-s seed] [-j threads] [-o file.csv] " +
+                "-p param ... circuit.txt");
+            System.exit(2);
+        }
+        long t0 = System.currentTimeMillis();
+        try {
+            sw.run();
+            if (out != null) {
+                Writer w = new OutputStreamWriter(new FileOutputStream(out),
+                    StandardCharsets.UTF_8);
+                try {
+                    sw.writeResults(w);
+                } finally {
+                    w.close();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        sw.printSummary();
+        System.out.println((System.currentTimeMillis() - t0) + " ms");
+        System.exit(sw.failures == 0 ? 0 : 1);
+    }
+
+    // add a parameter given as elm.n=v1,v2,... or elm.n~tol%[g]
+    void addParam(String spec) {
+        int dot = spec.indexOf('.');
+        int op = Math.max(spec.indexOf('='), spec.indexOf('~'));
+        if (dot < 0 || op < dot) {
+            throw new IllegalArgumentException("bad parameter " + spec);
+        }
+        int elm = Integer.parseInt(spec.substring(0, dot));
+        int n = Integer.parseInt(spec.substring(dot + 1, op));
+        String v = spec.substring(op + 1);
+        if (spec.charAt(op) == '=') {
+            String[] vs = v.split(",");
+            double[] values = new double[vs.length];
+            int i;
+            for (i = 0; i != vs.length; i++) {
+                values[i] = Double.parseDouble(vs[i]);
+            }
+            addGrid(elm, n, values);
+            return;
+        }
+        boolean gaussian = v.endsWith("g");
+        if (gaussian) {
+            v = v.substring(0, v.length() - 1);
+        }
+        double tol = v.endsWith("%") ?
+            Double.parseDouble(v.substring(0, v.length() - 1)) / 100 :
+            Double.parseDouble(v);
+        addTolerance(elm, n, tol, gaussian);
+    }
+}
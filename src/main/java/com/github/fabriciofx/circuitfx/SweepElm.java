@@ -96,7 +96,7 @@ class SweepElm extends CircuitElm {
             tm = 2000 - tm;
         }
         double w = 1 + tm * .002;
-        if (!sim.stoppedCheck.getState()) {
+        if (!app.stoppedCheck.getState()) {
             w = 1 + 2 * (frequency - minF) / (maxF - minF);
         }
         for (i = -xl; i <= xl; i++) {
@@ -107,7 +107,7 @@ class SweepElm extends CircuitElm {
             ox = xc + i;
             oy = yy;
         }
-        if (sim.showValuesCheckItem.getState()) {
+        if (app.showValuesCheckItem.getState()) {
             String s = getShortUnitText(frequency, "Hz");
             if (dx == 0 || dy == 0) {
                 drawValues(g, s, circleSize);
@@ -115,7 +115,7 @@ class SweepElm extends CircuitElm {
         }
         drawPosts(g);
         curcount = updateDotCount(-current, curcount);
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, lead1, curcount);
         }
     }
@@ -125,6 +125,11 @@ class SweepElm extends CircuitElm {
     }
 
     void setParams() {
+        // without a simulator there's no time step yet; startIteration()
+        // sets the parameters up once there is one
+        if (sim == null) {
+            return;
+        }
         if (frequency < minF || frequency > maxF) {
             frequency = minF;
             freqTime = 0;
@@ -171,6 +176,16 @@ class SweepElm extends CircuitElm {
         }
     }
 
+    // the adaptive time step follows the output like a capacitor's
+    // voltage.  v lags a step behind, so give it the value for sim.t.
+    int getStateCount() {
+        return 1;
+    }
+
+    double getState(int n) {
+        return Math.sin(freqTime) * maxV;
+    }
+
     void doStep() {
         sim.updateVoltageSource(0, nodes[0], voltSource, v);
     }
@@ -179,6 +194,10 @@ class SweepElm extends CircuitElm {
         return volts[0];
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     int getVoltageSourceCount() {
         return 1;
     }
@@ -187,6 +206,28 @@ class SweepElm extends CircuitElm {
         return true;
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(freqTime);
+        s.save(frequency);
+        s.save(fadd);
+        s.save(fmul);
+        s.save(dir);
+        s.save(savedTimeStep);
+        s.save(v);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        freqTime = s.restore();
+        frequency = s.restore();
+        fadd = s.restore();
+        fmul = s.restore();
+        dir = s.restoreInt();
+        savedTimeStep = s.restore();
+        v = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "sweep " + (((flags & FLAG_LOG) == 0) ? "(linear)" : "(log)");
         arr[1] = "I = " + getCurrentDText(getCurrent());
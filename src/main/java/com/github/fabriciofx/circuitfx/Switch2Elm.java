@@ -111,17 +111,16 @@ class Switch2Elm extends SwitchElm {
     }
 
     void stamp() {
+        int vn = sim.nodeList.size() + voltSource;
+        sim.stampNonLinear(vn);
         if (position == 2) // in center?
         {
+            sim.stampMatrix(vn, vn, 1);
             return;
         }
         sim.stampVoltageSource(nodes[0], nodes[position + 1], voltSource, 0);
     }
 
-    int getVoltageSourceCount() {
-        return (position == 2) ? 0 : 1;
-    }
-
     void toggle() {
         super.toggle();
         if (link != 0) {
@@ -130,8 +129,9 @@ class Switch2Elm extends SwitchElm {
                 Object o = sim.elmList.elementAt(i);
                 if (o instanceof Switch2Elm) {
                     Switch2Elm s2 = (Switch2Elm) o;
-                    if (s2.link == link) {
+                    if (s2.link == link && s2 != this) {
                         s2.position = position;
+                        sim.elementChanged(s2);
                     }
                 }
             }
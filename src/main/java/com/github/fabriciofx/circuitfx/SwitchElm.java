@@ -104,14 +104,31 @@ class SwitchElm extends CircuitElm {
         }
     }
 
+    // the switch keeps its voltage source when it's open, and the
+    // source's row is left out of the matrix simplification, so toggling
+    // it only changes entries that stay in the matrix and the simulator
+    // can restamp instead of analyzing the circuit again
     void stamp() {
+        int vn = sim.nodeList.size() + voltSource;
+        sim.stampNonLinear(vn);
         if (position == 0) {
             sim.stampVoltageSource(nodes[0], nodes[1], voltSource, 0);
+        } else {
+            // open; no current
+            sim.stampMatrix(vn, vn, 1);
         }
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     int getVoltageSourceCount() {
-        return (position == 1) ? 0 : 1;
+        return 1;
+    }
+
+    int getMatrixState() {
+        return position;
     }
 
     void mouseUp() {
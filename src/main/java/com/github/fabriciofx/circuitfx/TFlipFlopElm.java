@@ -112,6 +112,23 @@ class TFlipFlopElm extends ChipElm {
         lastClock = pins[3].value;
     }
 
+    boolean isLogic() {
+        return true;
+    }
+
+    int getStateBits() {
+        return 4;
+    }
+
+    int getLogicState() {
+        return super.getLogicState() | (last_val ? 8 : 0);
+    }
+
+    void setLogicState(int s) {
+        super.setLogicState(s);
+        last_val = (s & 8) != 0;
+    }
+
     int getDumpType() {
         return 193;
     }
@@ -153,4 +170,14 @@ class TFlipFlopElm extends ChipElm {
         }
         super.setEditValue(n, ei);
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(last_val);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        last_val = s.restoreBoolean();
+    }
 }
@@ -242,6 +242,28 @@ class TappedTransformerElm extends CircuitElm {
         }
     }
 
+    int getStateCount() {
+        return 3;
+    }
+
+    double getState(int n) {
+        return current[n];
+    }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(current);
+        s.save(curSourceValue);
+        s.save(voltdiff);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        s.restore(current);
+        s.restore(curSourceValue);
+        s.restore(voltdiff);
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "transformer";
         arr[1] = "L = " + getUnitText(inductance, "H");
@@ -111,7 +111,7 @@ class TextElm extends GraphicElm {
         for (i = 0; i != lines.size(); i++) {
             String s = lines.elementAt(i);
             if ((flags & FLAG_CENTER) != 0) {
-                x = (sim.winSize.width - fm.stringWidth(s)) / 2;
+                x = (app.winSize.width - fm.stringWidth(s)) / 2;
             }
             g.drawString(s, x, cury);
             if ((flags & FLAG_BAR) != 0) {
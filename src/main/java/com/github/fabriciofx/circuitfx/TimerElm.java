@@ -74,6 +74,25 @@ class TimerElm extends ChipElm {
         return true;
     }
 
+    int getMatrixState() {
+        // the discharge resistor
+        return (!out && !setOut) ? 1 : 0;
+    }
+
+    // out and setOut as startIteration() will find them
+    int getSwitchState() {
+        boolean o = volts[N_OUT] > volts[N_VIN] / 2;
+        boolean so = false;
+        if (volts[N_CTL] / 2 > volts[N_TRIG]) {
+            so = o = true;
+        }
+        if (volts[N_THRES] > volts[N_CTL] ||
+            (hasReset() && volts[N_RST] < .7)) {
+            o = false;
+        }
+        return (o ? 1 : 0) | (so ? 2 : 0);
+    }
+
     boolean hasReset() {
         return (flags & FLAG_RESET) != 0;
     }
@@ -132,8 +151,25 @@ class TimerElm extends ChipElm {
         return 1;
     }
 
+    // the pins are not all ideal inputs and outputs
+    boolean knowsPostCurrents() {
+        return false;
+    }
+
     int getDumpType() {
         return 165;
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(out);
+        s.save(setOut);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        out = s.restoreBoolean();
+        setOut = s.restoreBoolean();
+    }
 }
 
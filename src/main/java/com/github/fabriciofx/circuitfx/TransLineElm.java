@@ -38,7 +38,8 @@ class TransLineElm extends CircuitElm {
 
     public TransLineElm(int xx, int yy) {
         super(xx, yy);
-        delay = 1000 * sim.timeStep;
+        // a thousand steps long, or 5ms with no simulator to ask
+        delay = 1000 * ((sim == null) ? 5e-6 : sim.timeStep);
         imped = 75;
         noDiagonal = true;
         reset();
@@ -76,10 +77,10 @@ class TransLineElm extends CircuitElm {
     }
 
     void drag(int xx, int yy) {
-        xx = sim.snapGrid(xx);
-        yy = sim.snapGrid(yy);
-        int w1 = max(sim.gridSize, abs(yy - y));
-        int w2 = max(sim.gridSize, abs(xx - x));
+        xx = snapGrid(xx);
+        yy = snapGrid(yy);
+        int w1 = max(gridSize(), abs(yy - y));
+        int w2 = max(gridSize(), abs(xx - x));
         if (w1 > w2) {
             xx = x;
             width = w2;
@@ -93,7 +94,9 @@ class TransLineElm extends CircuitElm {
     }
 
     void reset() {
-        if (sim.timeStep == 0) {
+        // the delay line depends on the time step, so it can't be made
+        // until the element is in a simulator; stamp() does it then
+        if (sim == null || sim.timeStep == 0) {
             return;
         }
         lenSteps = (int) (delay / sim.timeStep);
@@ -113,7 +116,7 @@ class TransLineElm extends CircuitElm {
         int ds = (dy == 0) ? sign(dx) : -sign(dy);
         Point p3 = interpPoint(point1, point2, 0, -width * ds);
         Point p4 = interpPoint(point1, point2, 1, -width * ds);
-        int sep = sim.gridSize / 2;
+        int sep = gridSize() / 2;
         Point p5 = interpPoint(point1, point2, 0, -(width / 2 - sep) * ds);
         Point p6 = interpPoint(point1, point2, 1, -(width / 2 - sep) * ds);
         Point p7 = interpPoint(point1, point2, 0, -(width / 2 + sep) * ds);
@@ -159,7 +162,7 @@ class TransLineElm extends CircuitElm {
         drawPosts(g);
         curCount1 = updateDotCount(-current1, curCount1);
         curCount2 = updateDotCount(current2, curCount2);
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, posts[0], inner[0], curCount1);
             drawDots(g, posts[2], inner[2], -curCount1);
             drawDots(g, posts[1], inner[1], -curCount2);
@@ -184,6 +187,9 @@ class TransLineElm extends CircuitElm {
     }
 
     void stamp() {
+        if (lenSteps == 0) {
+            reset();
+        }
         sim.stampVoltageSource(nodes[4], nodes[0], voltSource1);
         sim.stampVoltageSource(nodes[5], nodes[1], voltSource2);
         sim.stampResistor(nodes[2], nodes[4], imped);
@@ -242,7 +248,7 @@ class TransLineElm extends CircuitElm {
 
     void getInfo(String[] arr) {
         arr[0] = "transmission line";
-        arr[1] = getUnitText(imped, sim.ohmString);
+        arr[1] = getUnitText(imped, app.ohmString);
         arr[2] = "length = " + getUnitText(2.9979e8 * delay, "m");
         arr[3] = "delay = " + getUnitText(delay, "s");
     }
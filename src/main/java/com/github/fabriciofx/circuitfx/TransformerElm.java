@@ -69,8 +69,8 @@ class TransformerElm extends CircuitElm {
     }
 
     void drag(int xx, int yy) {
-        xx = sim.snapGrid(xx);
-        yy = sim.snapGrid(yy);
+        xx = snapGrid(xx);
+        yy = snapGrid(yy);
         width = max(32, abs(yy - y));
         if (xx == x) {
             yy = y;
@@ -225,6 +225,52 @@ class TransformerElm extends CircuitElm {
         current[1] = voltdiff1 * a3 + voltdiff2 * a4 + curSourceValue2;
     }
 
+    int getStateCount() {
+        return 2;
+    }
+
+    double getState(int n) {
+        return current[n];
+    }
+
+    int getStateOrder() {
+        return isTrapezoidal() ? 2 : 1;
+    }
+
+    boolean fitsStateSpace() {
+        return true;
+    }
+
+    int getCompanionCount() {
+        return 2;
+    }
+
+    double getCompanion(int n) {
+        return (n == 0) ? curSourceValue1 : curSourceValue2;
+    }
+
+    void setCompanion(int n, double x) {
+        if (n == 0) {
+            curSourceValue1 = x;
+        } else {
+            curSourceValue2 = x;
+        }
+    }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(current);
+        s.save(curSourceValue1);
+        s.save(curSourceValue2);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        s.restore(current);
+        curSourceValue1 = s.restore();
+        curSourceValue2 = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "transformer";
         arr[1] = "L = " + getUnitText(inductance, "H");
@@ -48,6 +48,16 @@ class TransistorElm extends CircuitElm {
     Point base;
     double vcrit;
     double lastvbc, lastvbe;
+    // the conductances of the linearization at lastvbc, lastvbe and the
+    // gmin it was stamped with; gee is 0 until there is one
+    double gee, gec, gce, gcc, lastgmin;
+    // where the stamps between the nodes go in the matrix (see
+    // Simulator.getStampTargets()), and the analysis that was for
+    int[] targets = new int[9];
+    int targetGeneration;
+    // set by evaluate() for the doStep() after it: whether it was run,
+    // and whether the voltages moved too much to have converged
+    boolean evaluated, unconverged;
 
     TransistorElm(int xx, int yy, boolean pnpflag) {
         super(xx, yy);
@@ -79,6 +89,8 @@ class TransistorElm extends CircuitElm {
         vcrit = vt * Math.log(vt / (Math.sqrt(2) * leakage));
         fgain = beta / (beta + 1);
         noDiagonal = true;
+        gee = 0;
+        evaluated = false;
     }
 
     boolean nonLinear() {
@@ -88,6 +100,7 @@ class TransistorElm extends CircuitElm {
     void reset() {
         volts[0] = volts[1] = volts[2] = 0;
         lastvbc = lastvbe = curcount_c = curcount_e = curcount_b = 0;
+        gee = 0;
     }
 
     int getDumpType() {
@@ -113,7 +126,7 @@ class TransistorElm extends CircuitElm {
         g.fillPolygon(arrowPoly);
         // draw base
         setVoltageColor(g, volts[0]);
-        if (sim.powerCheckItem.getState()) {
+        if (app.powerCheckItem.getState()) {
             g.setColor(Color.gray);
         }
         drawThickLine(g, point1, base);
@@ -128,7 +141,7 @@ class TransistorElm extends CircuitElm {
         setVoltageColor(g, volts[0]);
         setPowerColor(g, true);
         g.fillPolygon(rectPoly);
-        if ((needsHighlight() || sim.dragElm == this) && dy == 0) {
+        if ((needsHighlight() || app.dragElm == this) && dy == 0) {
             g.setColor(Color.white);
             g.setFont(unitsFont);
             int ds = sign(dx);
@@ -212,7 +225,7 @@ class TransistorElm extends CircuitElm {
             } else {
                 vnew = vt * Math.log(vnew / vt);
             }
-            sim.converged = false;
+            unconverged = true;
         }
         return (vnew);
     }
@@ -223,13 +236,27 @@ class TransistorElm extends CircuitElm {
         sim.stampNonLinear(nodes[2]);
     }
 
+    boolean canEvaluate() {
+        return true;
+    }
+
     void doStep() {
-        double vbc = volts[0] - volts[1]; // typically negative
-        double vbe = volts[0] - volts[2]; // typically positive
-        if (Math.abs(vbc - lastvbc) > .01 || // .01
-            Math.abs(vbe - lastvbe) > .01) {
+        if (!evaluated) {
+            evaluate();
+        }
+        evaluated = false;
+        if (unconverged) {
             sim.converged = false;
         }
+        stampLinearization();
+    }
+
+    void evaluate() {
+        evaluated = true;
+        double vbc = volts[0] - volts[1]; // typically negative
+        double vbe = volts[0] - volts[2]; // typically positive
+        unconverged = Math.abs(vbc - lastvbc) > .01 || // .01
+            Math.abs(vbe - lastvbe) > .01;
         gmin = 0;
         if (sim.subIterations > 100) {
             // if we have trouble converging, put a conductance in parallel
@@ -241,6 +268,14 @@ class TransistorElm extends CircuitElm {
                 gmin = .1;
             }
         }
+        // if the junction voltages have hardly moved, the last
+        // linearization is as good, so keep it instead of computing
+        // the exponentials
+        if (gee != 0 && gmin == lastgmin &&
+            Math.abs(vbc - lastvbc) < sim.bypassTolerance &&
+            Math.abs(vbe - lastvbe) < sim.bypassTolerance) {
+            return;
+        }
         vbc = pnp * limitStep(pnp * vbc, pnp * lastvbc);
         vbe = pnp * limitStep(pnp * vbe, pnp * lastvbe);
         lastvbc = vbc;
@@ -254,22 +289,33 @@ class TransistorElm extends CircuitElm {
         ie = pnp * leakage * (-(expbe - 1) + rgain * (expbc - 1));
         ic = pnp * leakage * (fgain * (expbe - 1) - (expbc - 1));
         ib = -(ie + ic);
-        double gee = -leakage * vdcoef * expbe;
-        double gec = rgain * leakage * vdcoef * expbc;
-        double gce = -gee * fgain;
-        double gcc = -gec * (1 / rgain);
+        gee = -leakage * vdcoef * expbe;
+        gec = rgain * leakage * vdcoef * expbc;
+        gce = -gee * fgain;
+        gcc = -gec * (1 / rgain);
+        lastgmin = gmin;
+    }
+
+    void stampLinearization() {
+        double vbc = lastvbc;
+        double vbe = lastvbe;
         // stamps from page 302 of Pillage.  Node 0 is the base,
         // node 1 the collector, node 2 the emitter.  Also stamp
         // minimum conductance (gmin) between b,e and b,c
-        sim.stampMatrix(nodes[0], nodes[0], -gee - gec - gce - gcc + gmin * 2);
-        sim.stampMatrix(nodes[0], nodes[1], gec + gcc - gmin);
-        sim.stampMatrix(nodes[0], nodes[2], gee + gce - gmin);
-        sim.stampMatrix(nodes[1], nodes[0], gce + gcc - gmin);
-        sim.stampMatrix(nodes[1], nodes[1], -gcc + gmin);
-        sim.stampMatrix(nodes[1], nodes[2], -gce);
-        sim.stampMatrix(nodes[2], nodes[0], gee + gec - gmin);
-        sim.stampMatrix(nodes[2], nodes[1], -gec);
-        sim.stampMatrix(nodes[2], nodes[2], -gee + gmin);
+        if (targetGeneration != sim.stampGeneration) {
+            targetGeneration = sim.stampGeneration;
+            sim.getStampTargets(nodes, 3, targets);
+        }
+        int[] t = targets;
+        sim.stampTarget(t[0], -gee - gec - gce - gcc + gmin * 2);
+        sim.stampTarget(t[1], gec + gcc - gmin);
+        sim.stampTarget(t[2], gee + gce - gmin);
+        sim.stampTarget(t[3], gce + gcc - gmin);
+        sim.stampTarget(t[4], -gcc + gmin);
+        sim.stampTarget(t[5], -gce);
+        sim.stampTarget(t[6], gee + gec - gmin);
+        sim.stampTarget(t[7], -gec);
+        sim.stampTarget(t[8], -gee + gmin);
         // we are solving for v(k+1), not delta v, so we use formula
         // 10.5.13, multiplying J by v(k)
         sim.stampRightSide(
@@ -280,6 +326,46 @@ class TransistorElm extends CircuitElm {
         sim.stampRightSide(nodes[2], -ie + gee * vbe + gec * vbc);
     }
 
+    double getCurrentIntoNode(int n) {
+        // ib, ic and ie flow into the base, collector and emitter
+        if (n == 0) {
+            return -ib;
+        }
+        return (n == 1) ? -ic : -ie;
+    }
+
+    boolean knowsPostCurrents() {
+        return true;
+    }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lastvbc);
+        s.save(lastvbe);
+        s.save(ic);
+        s.save(ie);
+        s.save(ib);
+        s.save(gee);
+        s.save(gec);
+        s.save(gce);
+        s.save(gcc);
+        s.save(lastgmin);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lastvbc = s.restore();
+        lastvbe = s.restore();
+        ic = s.restore();
+        ie = s.restore();
+        ib = s.restore();
+        gee = s.restore();
+        gec = s.restore();
+        gce = s.restore();
+        gcc = s.restore();
+        lastgmin = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "transistor (" + ((pnp == -1) ? "PNP)" : "NPN)") + " beta=" +
             showFormat.format(beta);
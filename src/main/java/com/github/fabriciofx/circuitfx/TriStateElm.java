@@ -111,6 +111,10 @@ class TriStateElm extends CircuitElm {
         return true;
     }
 
+    int getMatrixState() {
+        return open ? 1 : 0;
+    }
+
     void stamp() {
         sim.stampVoltageSource(0, nodes[3], voltSource);
         sim.stampNonLinear(nodes[3]);
@@ -130,15 +134,15 @@ class TriStateElm extends CircuitElm {
     }
 
     void drag(int xx, int yy) {
-        xx = sim.snapGrid(xx);
-        yy = sim.snapGrid(yy);
+        xx = snapGrid(xx);
+        yy = snapGrid(yy);
         if (abs(x - xx) < abs(y - yy)) {
             xx = x;
         } else {
             yy = y;
         }
         int q1 = abs(x - xx) + abs(y - yy);
-        int q2 = (q1 / 2) % sim.gridSize;
+        int q2 = (q1 / 2) % gridSize();
         if (q2 != 0) {
             return;
         }
@@ -163,6 +167,18 @@ class TriStateElm extends CircuitElm {
             (n == 1) ? point2 : (n == 2) ? point3 : point4;
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(open);
+        s.save(resistance);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        open = s.restoreBoolean();
+        resistance = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "tri-state buffer";
         arr[1] = open ? "open" : "closed";
@@ -86,7 +86,7 @@ class TriacElm extends CircuitElm {
     }
 
     void setup() {
-        diode = new Diode(sim);
+        diode = new Diode(this);
         diode.setup(.8, 0);
     }
 
@@ -132,8 +132,8 @@ class TriacElm extends CircuitElm {
         poly = createPolygon(pa[0], pa[1], lead2);
         gate = newPointArray(2);
         double leadlen = (dn - 16) / 2;
-        int gatelen = sim.gridSize;
-        gatelen += leadlen % sim.gridSize;
+        int gatelen = gridSize();
+        gatelen += leadlen % gridSize();
         if (leadlen < gatelen) {
             x2 = x;
             y2 = y;
@@ -145,7 +145,7 @@ class TriacElm extends CircuitElm {
             point2,
             gate[1],
             gatelen / leadlen,
-            sim.gridSize * 2 * dir
+            gridSize() * 2 * dir
         );
     }
 
@@ -167,7 +167,7 @@ class TriacElm extends CircuitElm {
         curcount_a = updateDotCount(ia, curcount_a);
         curcount_c = updateDotCount(ic, curcount_c);
         curcount_g = updateDotCount(ig, curcount_g);
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, point1, lead2, curcount_a);
             drawDots(g, point2, lead2, curcount_c);
             drawDots(g, gate[1], gate[0], curcount_g);
@@ -223,6 +223,28 @@ class TriacElm extends CircuitElm {
         sim.stampResistor(nodes[anode], nodes[inode], aresistance);
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        diode.saveStep(s);
+        s.save(lastvac);
+        s.save(lastvag);
+        s.save(aresistance);
+        s.save(ia);
+        s.save(ic);
+        s.save(ig);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        diode.restoreStep(s);
+        lastvac = s.restore();
+        lastvag = s.restore();
+        aresistance = s.restore();
+        ia = s.restore();
+        ic = s.restore();
+        ig = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "SCR";
         double vac = volts[anode] - volts[cnode];
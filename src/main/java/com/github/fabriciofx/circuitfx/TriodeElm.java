@@ -39,6 +39,7 @@ class TriodeElm extends CircuitElm {
     Point midcath;
     int circler;
     double lastv0, lastv1, lastv2;
+    double[] vs = new double[3]; // limited node voltages, used by doStep()
 
     public TriodeElm(int xx, int yy) {
         super(xx, yy);
@@ -135,7 +136,7 @@ class TriodeElm extends CircuitElm {
         curcountp = updateDotCount(currentp, curcountp);
         curcountc = updateDotCount(currentc, curcountc);
         curcountg = updateDotCount(currentg, curcountg);
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             drawDots(g, plate[0], midgrid, curcountp);
             drawDots(g, midgrid, midcath, curcountc);
             drawDots(g, midcath, cath[1], curcountc + 8);
@@ -158,7 +159,6 @@ class TriodeElm extends CircuitElm {
     }
 
     void doStep() {
-        double[] vs = new double[3];
         vs[0] = volts[0];
         vs[1] = volts[1];
         vs[2] = volts[2];
@@ -228,6 +228,26 @@ class TriodeElm extends CircuitElm {
         sim.stampNonLinear(nodes[2]);
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lastv0);
+        s.save(lastv1);
+        s.save(lastv2);
+        s.save(currentp);
+        s.save(currentg);
+        s.save(currentc);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lastv0 = s.restore();
+        lastv1 = s.restore();
+        lastv2 = s.restore();
+        currentp = s.restore();
+        currentg = s.restore();
+        currentc = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "triode";
         double vbc = volts[0] - volts[1];
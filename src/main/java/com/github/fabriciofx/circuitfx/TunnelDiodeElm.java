@@ -143,6 +143,16 @@ class TunnelDiodeElm extends CircuitElm {
             piv * Math.exp(voltdiff - pvv);
     }
 
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(lastvoltdiff);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        lastvoltdiff = s.restore();
+    }
+
     void getInfo(String[] arr) {
         arr[0] = "tunnel diode";
         arr[1] = "I = " + getCurrentText(getCurrent());
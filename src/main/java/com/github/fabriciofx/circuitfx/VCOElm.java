@@ -132,7 +132,24 @@ class VCOElm extends ChipElm {
         return 3;
     }
 
+    // the pins are not all ideal inputs and outputs
+    boolean knowsPostCurrents() {
+        return false;
+    }
+
     int getDumpType() {
         return 158;
     }
+
+    void saveStep(StepState s) {
+        super.saveStep(s);
+        s.save(cCurrent);
+        s.save(cDir);
+    }
+
+    void restoreStep(StepState s) {
+        super.restoreStep(s);
+        cCurrent = s.restore();
+        cDir = s.restoreInt();
+    }
 }
@@ -61,26 +61,33 @@ class VarRailElm extends RailElm {
 
     void createSlider() {
         waveform = WF_VAR;
-        sim.main.add(label = new Label(sliderText, Label.CENTER));
         int value = (int) ((frequency - bias) * 100 / (maxVoltage - bias));
-        sim.main.add(slider = new Scrollbar(
+        if (app == null) {
+            // no editor, so no slider; use the voltage it would give
+            frequency = value * (maxVoltage - bias) / 100. + bias;
+            return;
+        }
+        app.main.add(label = new Label(sliderText, Label.CENTER));
+        app.main.add(slider = new Scrollbar(
             Scrollbar.HORIZONTAL,
             value,
             1,
             0,
             101
         ));
-        sim.main.validate();
+        app.main.validate();
     }
 
     double getVoltage() {
-        frequency = slider.getValue() * (maxVoltage - bias) / 100. + bias;
+        if (slider != null) {
+            frequency = slider.getValue() * (maxVoltage - bias) / 100. + bias;
+        }
         return frequency;
     }
 
     void delete() {
-        sim.main.remove(label);
-        sim.main.remove(slider);
+        app.main.remove(label);
+        app.main.remove(slider);
     }
 
     public EditInfo getEditInfo(int n) {
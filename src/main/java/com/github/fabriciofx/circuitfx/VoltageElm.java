@@ -117,6 +117,54 @@ class VoltageElm extends CircuitElm {
         }
     }
 
+    // the waveform is watched by the adaptive time step like a
+    // capacitor's voltage, so it is followed closely enough
+    int getStateCount() {
+        return (waveform == WF_DC || waveform == WF_VAR) ? 0 : 1;
+    }
+
+    double getState(int n) {
+        return getVoltage();
+    }
+
+    // the next time after t at which the waveform jumps or has a corner,
+    // so the adaptive time step can stop there instead of stepping over
+    // it; Double.MAX_VALUE if there is none
+    double getNextBreak(double t) {
+        double c1, c2;
+        switch (waveform) {
+            case WF_SQUARE:
+                c1 = 0;
+                c2 = 2 * pi * dutyCycle;
+                break;
+            case WF_TRIANGLE:
+                c1 = 0;
+                c2 = pi;
+                break;
+            case WF_SAWTOOTH:
+                c1 = c2 = 0;
+                break;
+            case WF_PULSE:
+                c1 = 0;
+                c2 = 1;
+                break;
+            default:
+                return Double.MAX_VALUE;
+        }
+        double w = 2 * pi * (t - freqTimeZero) * frequency + phaseShift;
+        double wm = w % (2 * pi);
+        double d1 = c1 - wm, d2 = c2 - wm;
+        // make sure a break we're standing on isn't found again
+        double eps = 1e-9;
+        while (d1 <= eps) {
+            d1 += 2 * pi;
+        }
+        while (d2 <= eps) {
+            d2 += 2 * pi;
+        }
+        return t + Math.min(d1, d2) / (2 * pi * frequency);
+    }
+
     double getVoltage() {
         double w = 2 * pi * (sim.t - freqTimeZero) * frequency + phaseShift;
         switch (waveform) {
@@ -163,7 +211,7 @@ class VoltageElm extends CircuitElm {
             drawWaveform(g, ps1);
         }
         updateDotCount();
-        if (sim.dragElm != this) {
+        if (app.dragElm != this) {
             if (waveform == WF_DC) {
                 drawDots(g, point1, point2, curcount);
             } else {
@@ -233,7 +281,7 @@ class VoltageElm extends CircuitElm {
                 break;
             }
         }
-        if (sim.showValuesCheckItem.getState()) {
+        if (app.showValuesCheckItem.getState()) {
             String s = getShortUnitText(frequency, "Hz");
             if (dx == 0 || dy == 0) {
                 drawValues(g, s, circleSize);
@@ -241,6 +289,10 @@ class VoltageElm extends CircuitElm {
         }
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     int getVoltageSourceCount() {
         return 1;
     }
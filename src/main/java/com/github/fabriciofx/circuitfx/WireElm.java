@@ -30,6 +30,9 @@ import java.util.StringTokenizer;
 class WireElm extends CircuitElm {
     static final int FLAG_SHOWCURRENT = 1;
     static final int FLAG_SHOWVOLTAGE = 2;
+    // set when the simulator merged the nodes at the two ends instead
+    // of stamping a voltage source (see Simulator.mergeWires())
+    boolean merged;
 
     public WireElm(int xx, int yy) {
         super(xx, yy);
@@ -58,7 +61,9 @@ class WireElm extends CircuitElm {
     }
 
     void stamp() {
-        sim.stampVoltageSource(nodes[0], nodes[1], voltSource, 0);
+        if (!merged) {
+            sim.stampVoltageSource(nodes[0], nodes[1], voltSource, 0);
+        }
     }
 
     boolean mustShowCurrent() {
@@ -70,7 +75,7 @@ class WireElm extends CircuitElm {
     }
 
     int getVoltageSourceCount() {
-        return 1;
+        return merged ? 0 : 1;
     }
 
     void getInfo(String[] arr) {
@@ -87,6 +92,10 @@ class WireElm extends CircuitElm {
         return 0;
     }
 
+    boolean fitsStateSpace() {
+        return true;
+    }
+
     double getVoltageDiff() {
         return volts[0];
     }
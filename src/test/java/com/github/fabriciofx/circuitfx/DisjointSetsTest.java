@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.hamcrest.core.IsEqual;
+import org.junit.jupiter.api.Test;
+import org.llorllale.cactoos.matchers.Assertion;
+
+/**
+ * Test case for {@link DisjointSets}.
+ */
+final class DisjointSetsTest {
+    /**
+     * Elements in the sets.
+     */
+    private static final int SIZE = 500;
+
+    @Test
+    void groupsLikeRelabeling() {
+        final Random random = new Random(1);
+        final DisjointSets sets = new DisjointSets(DisjointSetsTest.SIZE);
+        final int[] label = new int[DisjointSetsTest.SIZE];
+        for (int elm = 0; elm < label.length; ++elm) {
+            label[elm] = elm;
+        }
+        int wrong = 0;
+        for (int pair = 0; pair < DisjointSetsTest.SIZE; ++pair) {
+            final int first = random.nextInt(DisjointSetsTest.SIZE);
+            final int second = random.nextInt(DisjointSetsTest.SIZE);
+            final int old = label[second];
+            if (sets.union(first, second) != (label[first] != old)) {
+                ++wrong;
+            }
+            for (int elm = 0; elm < label.length; ++elm) {
+                if (label[elm] == old) {
+                    label[elm] = label[first];
+                }
+            }
+            final int one = random.nextInt(DisjointSetsTest.SIZE);
+            final int other = random.nextInt(DisjointSetsTest.SIZE);
+            if (sets.connected(one, other) != (label[one] == label[other])) {
+                ++wrong;
+            }
+        }
+        new Assertion<>(
+            "must connect exactly what relabeling connects",
+            wrong,
+            new IsEqual<>(0)
+        ).affirm();
+    }
+
+    @Test
+    void findsSameRepresentativeInSet() {
+        final DisjointSets sets = new DisjointSets(6);
+        sets.union(0, 1);
+        sets.union(2, 3);
+        sets.union(1, 3);
+        sets.union(4, 5);
+        final int[] found = new int[6];
+        for (int elm = 0; elm < found.length; ++elm) {
+            found[elm] = sets.find(elm) == sets.find(0) ? 0 : 1;
+        }
+        new Assertion<>(
+            "must give the members of a set one representative",
+            Arrays.toString(found),
+            new IsEqual<>("[0, 0, 0, 0, 1, 1]")
+        ).affirm();
+    }
+}
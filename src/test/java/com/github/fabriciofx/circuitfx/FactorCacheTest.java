@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import org.hamcrest.core.IsEqual;
+import org.hamcrest.core.IsNot;
+import org.hamcrest.core.IsNull;
+import org.hamcrest.core.IsSame;
+import org.junit.jupiter.api.Test;
+import org.llorllale.cactoos.matchers.Assertion;
+
+/**
+ * Test case for {@link FactorCache}.
+ */
+final class FactorCacheTest {
+    @Test
+    void findsAddedEntry() {
+        final FactorCache cache = new FactorCache(2);
+        final FactorCache.Entry entry = cache.add(new int[] {1, 0});
+        new Assertion<>(
+            "must find the entry added for the same states",
+            cache.find(new int[] {1, 0}),
+            new IsSame<>(entry)
+        ).affirm();
+    }
+
+    @Test
+    void keepsKeyFromChanging() {
+        final FactorCache cache = new FactorCache(2);
+        final int[] key = {1, 0};
+        cache.add(key);
+        key[1] = 1;
+        new Assertion<>(
+            "must keep its own copy of the states",
+            cache.find(new int[] {1, 0}),
+            new IsNot<>(new IsNull<>())
+        ).affirm();
+    }
+
+    @Test
+    void dropsLeastRecentlyUsedEntry() {
+        final FactorCache cache = new FactorCache(2);
+        cache.add(new int[] {0});
+        cache.add(new int[] {1});
+        cache.find(new int[] {0});
+        cache.add(new int[] {2});
+        new Assertion<>(
+            "must drop the entry used longest ago",
+            new boolean[] {
+                cache.find(new int[] {0}) != null,
+                cache.find(new int[] {1}) != null,
+                cache.find(new int[] {2}) != null,
+            },
+            new IsEqual<>(new boolean[] {true, false, true})
+        ).affirm();
+    }
+}
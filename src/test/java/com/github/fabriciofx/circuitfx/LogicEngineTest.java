@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import org.hamcrest.core.IsEqual;
+import org.junit.jupiter.api.Test;
+import org.llorllale.cactoos.matchers.Assertion;
+
+/**
+ * Test case for {@link LogicEngine}.
+ */
+final class LogicEngineTest {
+    /**
+     * Clock cycles run through the counters, enough to wrap them twice.
+     */
+    private static final int CYCLES = 40;
+
+    /**
+     * The vectors whose clock runs, one bit in two.
+     */
+    private static final long CLOCKED = 0x5555555555555555L;
+
+    @Test
+    void matchesSimulatorOnFullAdder() throws Exception {
+        new Assertion<>(
+            "must give the full adder's truth table",
+            LogicEngineTest.tableErrors("196 96 96 128 96 0"),
+            new IsEqual<>(0)
+        ).affirm();
+    }
+
+    @Test
+    void matchesSimulatorOnMultiplexer() throws Exception {
+        new Assertion<>(
+            "must give the multiplexer's truth table",
+            LogicEngineTest.tableErrors("184 96 96 128 96 0"),
+            new IsEqual<>(0)
+        ).affirm();
+    }
+
+    @Test
+    void matchesSimulatorOnSevenSegmentDecoder() throws Exception {
+        new Assertion<>(
+            "must give the seven segment decoder's truth table",
+            LogicEngineTest.tableErrors("197 96 96 128 96 0"),
+            new IsEqual<>(0)
+        ).affirm();
+    }
+
+    @Test
+    void countsLikeSimulatorWithRippleCounter() throws Exception {
+        new Assertion<>(
+            "must count like the simulator with JK flip-flops",
+            LogicEngineTest.clocked(
+                LogicEngineTest.read("counter.txt")
+                    .replace(
+                        "R 80 256 32 256 1 2 200.0 2.5 2.5",
+                        "L 80 256 32 256 0 0 false 5.0 0.0"
+                    )
+                    .replace(
+                        "R 64 336 32 336 0 0 40.0 5.0 0.0",
+                        "L 64 336 32 336 0 1 false 5.0 0.0"
+                    )
+            ),
+            new IsEqual<>(16)
+        ).affirm();
+    }
+
+    @Test
+    void shiftsLikeSimulatorWithJohnsonCounter() throws Exception {
+        new Assertion<>(
+            "must shift like the simulator with D flip-flops",
+            LogicEngineTest.clocked(
+                LogicEngineTest.read("johnsonctr.txt").replace(
+                    "R 80 440 24 440 1 2 300.0 2.5 2.5 0.0 0.5",
+                    "L 80 440 24 440 0 0 false 5.0 0.0"
+                )
+            ),
+            new IsEqual<>(10)
+        ).affirm();
+    }
+
+    /**
+     * Outputs of a chip that differ between the truth table and the
+     * simulator, with a logic input or output on each of its posts.
+     * @param chip The chip, as a line of a circuit file
+     * @return The number of outputs that differ
+     */
+    private static int tableErrors(final String chip) {
+        final String alone = String.format("$ 1 5.0E-6 10 50 5.0\n%s\n", chip);
+        final Simulator sim = new Simulator();
+        CircuitReader.read(sim, alone);
+        final CircuitElm elm = sim.getElm(0);
+        final StringBuilder text = new StringBuilder(alone);
+        for (int post = 0; post < elm.getPostCount(); ++post) {
+            final int x = elm.getPost(post).x;
+            final int y = elm.getPost(post).y;
+            if (elm.getLogicSource(post) < 0) {
+                text.append(
+                    String.format(
+                        "L %d %d %d %d 0 0 false 5.0 0.0\n", x, y, x, y + 64
+                    )
+                );
+            } else {
+                text.append(
+                    String.format("M %d %d %d %d 0 2.5\n", x, y, x, y + 64)
+                );
+            }
+        }
+        final Simulator compiled = new Simulator();
+        CircuitReader.read(compiled, text.toString());
+        final LogicEngine engine = new LogicEngine(compiled);
+        return engine.check(
+            text.toString(),
+            engine.getTruthTable(),
+            engine.getLevelCount() * 2 + 10,
+            new PrintWriter(new StringWriter())
+        );
+    }
+
+    /**
+     * Runs a clocked circuit through the simulator and the engine, with
+     * its first logic input as the clock and the others high.  In the
+     * engine, only every other vector gets the clock, and the rest must
+     * stay as they started.
+     * @param text The circuit
+     * @return The number of output patterns the circuit went through, or
+     *  -1 if the engine and the simulator ever differ
+     */
+    private static int clocked(final String text) {
+        final Simulator compiled = new Simulator();
+        CircuitReader.read(compiled, text);
+        final LogicEngine engine = new LogicEngine(compiled);
+        final Simulator sim = new Simulator();
+        CircuitReader.read(sim, text);
+        final int steps =
+            (engine.getLevelCount() + engine.getClockedCount()) * 2 + 10;
+        final long[] in = new long[engine.getInputCount()];
+        final long[] out = new long[engine.getOutputCount()];
+        final long[] start = new long[out.length];
+        final Set<String> patterns = new HashSet<>();
+        int result = 0;
+        for (int half = 0; half < 2 * LogicEngineTest.CYCLES; ++half) {
+            for (int input = 0; input < in.length; ++input) {
+                final LogicInputElm elm =
+                    (LogicInputElm) sim.getElm(engine.inputElms[input]);
+                if (input == 0) {
+                    elm.position = half & 1;
+                    in[input] = elm.position * LogicEngineTest.CLOCKED;
+                } else {
+                    elm.position = 1;
+                    in[input] = -1;
+                }
+                sim.elementChanged(elm);
+            }
+            sim.step(steps);
+            engine.run(in, out, 1);
+            final StringBuilder pattern = new StringBuilder();
+            for (int output = 0; output < out.length; ++output) {
+                if (half == 0) {
+                    start[output] = out[output];
+                }
+                final boolean level =
+                    sim.getElm(engine.outputElms[output]).volts[0] > 2.5;
+                pattern.append(level ? '1' : '0');
+                if (level != ((out[output] & 1) != 0)
+                    || ((out[output] ^ start[output])
+                    & ~LogicEngineTest.CLOCKED) != 0) {
+                    result = -1;
+                }
+            }
+            patterns.add(pattern.toString());
+        }
+        if (result == 0) {
+            result = patterns.size();
+        }
+        return result;
+    }
+
+    /**
+     * Reads a bundled circuit.
+     * @param name The circuit, from the bundled ones
+     * @return Its text
+     * @throws Exception If the circuit can't be read
+     */
+    private static String read(final String name) throws Exception {
+        return new String(
+            Files.readAllBytes(
+                Paths.get(
+                    LogicEngineTest.class.getResource(
+                        String.format("/circuits/%s", name)
+                    ).toURI()
+                )
+            ),
+            StandardCharsets.UTF_8
+        );
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Random;
+import org.hamcrest.core.IsEqual;
+import org.hamcrest.number.IsCloseTo;
+import org.junit.jupiter.api.Test;
+import org.llorllale.cactoos.matchers.Assertion;
+
+/**
+ * Test case for {@link LowRankUpdate}.
+ */
+final class LowRankUpdateTest {
+    /**
+     * Rows changed from the base matrix.
+     */
+    private static final int RANK = 4;
+
+    /**
+     * Updates tried.
+     */
+    private static final int UPDATES = 20;
+
+    @Test
+    void solvesUpdatedDenseMatrixLikeDenseSolver() {
+        new Assertion<>(
+            "must solve the updated matrix like lu_solve, on dense factors",
+            LowRankUpdateTest.worst(false),
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void solvesUpdatedSparseMatrixLikeDenseSolver() {
+        new Assertion<>(
+            "must solve the updated matrix like lu_solve, on sparse factors",
+            LowRankUpdateTest.worst(true),
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void refusesUpdateToSingularMatrix() {
+        final Random random = new Random(3);
+        final DenseMatrix base = SparseLUTest.random(random);
+        final DenseMatrix changed = LowRankUpdateTest.copy(base);
+        final int size = base.size;
+        // the changed row repeats another one
+        System.arraycopy(
+            base.values, size, changed.values, 0, size
+        );
+        new Assertion<>(
+            "must refuse an update that makes the matrix singular",
+            LowRankUpdateTest.update(
+                LowRankUpdateTest.simulator(base, false), base, changed
+            ).init(),
+            new IsEqual<>(false)
+        ).affirm();
+    }
+
+    /**
+     * The largest difference between solving matrices with a few rows
+     * changed through an update of the base's factors, and solving them
+     * with lu_factor and lu_solve.
+     * @param sparse Whether the base is factored by SparseLU
+     * @return The difference, relative to the solution
+     */
+    private static double worst(final boolean sparse) {
+        final Random random = new Random(1);
+        double worst = 0;
+        for (int upd = 0; upd < LowRankUpdateTest.UPDATES; ++upd) {
+            final DenseMatrix base = SparseLUTest.random(random);
+            final DenseMatrix changed = LowRankUpdateTest.copy(base);
+            final int size = base.size;
+            for (int row = 0; row < LowRankUpdateTest.RANK; ++row) {
+                final int at = random.nextInt(size) * size;
+                for (int col = 0; col < size; ++col) {
+                    if (random.nextInt(5) == 0) {
+                        changed.values[at + col] +=
+                            random.nextDouble() * 2 - 1;
+                    }
+                }
+            }
+            final Simulator sim = LowRankUpdateTest.simulator(base, sparse);
+            final LowRankUpdate update =
+                LowRankUpdateTest.update(sim, base, changed);
+            new Assertion<>(
+                "must set up the update",
+                update.init(),
+                new IsEqual<>(true)
+            ).affirm();
+            final double[] rhs = SparseLUTest.vector(random);
+            final double[] sol = rhs.clone();
+            sim.solveBase(sol);
+            update.correct(sol);
+            worst = Math.max(
+                worst,
+                SparseLUTest.difference(
+                    sol, SparseLUTest.dense(changed, rhs)
+                )
+            );
+        }
+        return worst;
+    }
+
+    /**
+     * A simulator holding the factors of a base matrix, as
+     * factorCircuit() leaves them.
+     * @param base The matrix
+     * @param sparse Whether to factor it with SparseLU
+     * @return The simulator
+     */
+    private static Simulator simulator(final DenseMatrix base,
+        final boolean sparse) {
+        final Simulator sim = new Simulator();
+        sim.circuitMatrixSize = base.size;
+        if (sparse) {
+            sim.circuitSparse = new SparseMatrix(base);
+            sim.sparseLU = new SparseLU();
+            sim.sparseLU.factor(sim.circuitSparse);
+        } else {
+            sim.circuitMatrix = LowRankUpdateTest.copy(base);
+            sim.circuitPermute = new int[base.size];
+            sim.lu_factor(sim.circuitMatrix, base.size, sim.circuitPermute);
+        }
+        return sim;
+    }
+
+    /**
+     * The update from one matrix to another, row by row.
+     * @param sim The simulator with the factors of the first
+     * @param base The first matrix
+     * @param changed The second matrix
+     * @return The update
+     */
+    private static LowRankUpdate update(final Simulator sim,
+        final DenseMatrix base, final DenseMatrix changed) {
+        final int size = base.size;
+        final int[] rows = new int[size];
+        final int[] start = new int[size + 1];
+        final int[] cols = new int[size * size];
+        final double[] vals = new double[size * size];
+        int rank = 0;
+        int count = 0;
+        for (int row = 0; row < size; ++row) {
+            final int first = count;
+            for (int col = 0; col < size; ++col) {
+                final double diff = changed.get(row, col) - base.get(row, col);
+                if (diff != 0) {
+                    cols[count] = col;
+                    vals[count] = diff;
+                    ++count;
+                }
+            }
+            if (count != first) {
+                rows[rank] = row;
+                start[rank] = first;
+                ++rank;
+                start[rank] = count;
+            }
+        }
+        return new LowRankUpdate(sim, size, rank, rows, start, cols, vals);
+    }
+
+    /**
+     * A copy of a matrix.
+     * @param matrix The matrix
+     * @return The copy
+     */
+    private static DenseMatrix copy(final DenseMatrix matrix) {
+        final DenseMatrix copy = new DenseMatrix(matrix.size);
+        System.arraycopy(matrix.values, 0, copy.values, 0, matrix.count);
+        return copy;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.hamcrest.core.IsEqual;
+import org.junit.jupiter.api.Test;
+import org.llorllale.cactoos.matchers.Assertion;
+
+/**
+ * Test case for {@link NodeMap}.
+ */
+final class NodeMapTest {
+    /**
+     * Posts put in the map, far more than it starts with room for.
+     */
+    private static final int POSTS = 5000;
+
+    @Test
+    void findsNodesLikeHashMap() {
+        final Random random = new Random(1);
+        final NodeMap map = new NodeMap(4);
+        final Map<Long, Integer> expected = new HashMap<>(0);
+        for (int post = 0; post < NodeMapTest.POSTS; ++post) {
+            final int x = NodeMapTest.coordinate(random);
+            final int y = NodeMapTest.coordinate(random);
+            map.put(x, y, post);
+            expected.put(NodeMap.key(x, y), post);
+        }
+        int wrong = 0;
+        for (int post = 0; post < 2 * NodeMapTest.POSTS; ++post) {
+            final int x = NodeMapTest.coordinate(random);
+            final int y = NodeMapTest.coordinate(random);
+            if (map.get(x, y) != expected.getOrDefault(
+                NodeMap.key(x, y), NodeMap.EMPTY
+            )) {
+                ++wrong;
+            }
+        }
+        for (final Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            final long key = entry.getKey();
+            if (map.get((int) (key >> 32), (int) key) != entry.getValue()) {
+                ++wrong;
+            }
+        }
+        new Assertion<>(
+            "must find the node put at each location, and no other",
+            wrong,
+            new IsEqual<>(0)
+        ).affirm();
+    }
+
+    @Test
+    void replacesNodeAtSameLocation() {
+        final NodeMap map = new NodeMap(4);
+        map.put(-16, 32, 1);
+        map.put(-16, 32, 2);
+        new Assertion<>(
+            "must keep the last node put at a location",
+            map.get(-16, 32),
+            new IsEqual<>(2)
+        ).affirm();
+    }
+
+    @Test
+    void forgetsNodesWhenCleared() {
+        final NodeMap map = new NodeMap(4);
+        map.put(16, 32, 1);
+        map.clear();
+        new Assertion<>(
+            "must find nothing after clear()",
+            map.get(16, 32),
+            new IsEqual<>(NodeMap.EMPTY)
+        ).affirm();
+    }
+
+    /**
+     * A coordinate on a small grid around the origin, so locations come
+     * up again and some are negative.
+     * @param random Where it comes from
+     * @return The coordinate
+     */
+    private static int coordinate(final Random random) {
+        return (random.nextInt(200) - 100) * 8;
+    }
+}
@@ -0,0 +1,595 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import org.hamcrest.core.IsEqual;
+import org.hamcrest.number.IsCloseTo;
+import org.junit.jupiter.api.Test;
+import org.llorllale.cactoos.matchers.Assertion;
+
+/**
+ * Test case for {@link Simulator}.
+ */
+final class SimulatorTest {
+    /**
+     * Steps taken before measuring, so the circuit is analyzed, its
+     * scratch arrays are allocated and the step code is compiled.
+     */
+    private static final int WARMUP = 20000;
+
+    /**
+     * Steps measured.
+     */
+    private static final int STEPS = 1000;
+
+    /**
+     * Steps over which two ways of running a circuit are compared, a
+     * hundred at a time.
+     */
+    private static final int COMPARED = 3000;
+
+    /**
+     * Circuits run both ways: linear, nonlinear, switching and logic.
+     */
+    private static final String[] CIRCUITS = {
+        "lrc.txt", "mosfetamp.txt", "555square.txt", "cmosxor.txt",
+        "relayff.txt",
+    };
+
+    /**
+     * Bundled circuits whose elements switch between a few matrices.
+     */
+    private static final String[] PIECEWISE = {
+        "555square.txt", "cmosmsff.txt", "voltinvert.txt",
+        "spark-sawtooth.txt",
+    };
+
+    @Test
+    void stopsOnVoltageSourceLoop() {
+        new Assertion<>(
+            "must find two voltage sources in parallel",
+            SimulatorTest.stopMessage(
+                String.join(
+                    "\n",
+                    "v 0 0 0 64 0 0 40.0 5.0 0.0",
+                    "v 64 0 64 64 0 0 40.0 5.0 0.0",
+                    "w 0 0 64 0 0",
+                    "w 0 64 64 64 0"
+                )
+            ),
+            new IsEqual<>("Voltage source/wire loop with no resistance!")
+        ).affirm();
+    }
+
+    @Test
+    void stopsOnLongVoltageSourceLoop() {
+        final StringBuilder text = new StringBuilder(0);
+        for (int src = 0; src < 3000; ++src) {
+            text.append(
+                String.format(
+                    "v 0 %d 0 %d 0 0 40.0 0.001 0.0\n",
+                    src * 16, src * 16 + 16
+                )
+            );
+        }
+        text.append("w 0 48000 64 48000 0\n")
+            .append("w 64 48000 64 0 0\n")
+            .append("w 64 0 0 0 0\n");
+        new Assertion<>(
+            "must find a loop of thousands of voltage sources",
+            SimulatorTest.stopMessage(text.toString()),
+            new IsEqual<>("Voltage source/wire loop with no resistance!")
+        ).affirm();
+    }
+
+    @Test
+    void stopsOnCapacitorAcrossVoltageSource() {
+        new Assertion<>(
+            "must find a capacitor across a voltage source",
+            SimulatorTest.stopMessage(
+                String.join(
+                    "\n",
+                    "v 0 0 0 64 0 0 40.0 5.0 0.0",
+                    "c 64 0 64 64 0 1.0E-5 0.0",
+                    "w 0 0 64 0 0",
+                    "w 0 64 64 64 0"
+                )
+            ),
+            new IsEqual<>("Capacitor loop with no resistance!")
+        ).affirm();
+    }
+
+    @Test
+    void stopsOnCurrentSourceWithNoPath() {
+        new Assertion<>(
+            "must find a current source with nowhere to go",
+            SimulatorTest.stopMessage(
+                String.join(
+                    "\n",
+                    "i 0 0 0 64 0 0.01",
+                    "r 0 0 64 0 0 100.0",
+                    "g 0 64 0 96 0"
+                )
+            ),
+            new IsEqual<>("No path for current source!")
+        ).affirm();
+    }
+
+    @Test
+    void runsVoltageSourceLoopWithResistance() {
+        new Assertion<>(
+            "must run a voltage source across a resistor",
+            SimulatorTest.stopMessage(
+                String.join(
+                    "\n",
+                    "v 0 0 0 64 0 0 40.0 5.0 0.0",
+                    "r 64 0 64 64 0 100.0",
+                    "w 0 0 64 0 0",
+                    "w 0 64 64 64 0"
+                )
+            ),
+            new IsEqual<>("null")
+        ).affirm();
+    }
+
+    @Test
+    void followsRingingCircuitWithAdaptiveStep() throws Exception {
+        new Assertion<>(
+            "must follow the fixed step waveform with the adaptive step",
+            SimulatorTest.deviation("lrc.txt", 1e-3),
+            new IsCloseTo(0, 0.03)
+        ).affirm();
+    }
+
+    @Test
+    void followsRingingCircuitCloserWithTighterTolerance()
+        throws Exception {
+        new Assertion<>(
+            "must follow the fixed step waveform closer with a tighter "
+                + "tolerance",
+            SimulatorTest.deviation("lrc.txt", 1e-4),
+            new IsCloseTo(0, 0.01)
+        ).affirm();
+    }
+
+    @Test
+    void keepsTimerPeriodWithAdaptiveStep() throws Exception {
+        new Assertion<>(
+            "must keep the 555's period with the adaptive step",
+            SimulatorTest.period(
+                SimulatorTest.waveform("555square.txt", 1e-3, 0.05)
+            ) / SimulatorTest.period(
+                SimulatorTest.waveform("555square.txt", 0, 0.05)
+            ),
+            new IsCloseTo(1, 0.01)
+        ).affirm();
+    }
+
+    @Test
+    void stepsSwitchedCircuitsWithLowRankUpdateLikeRefactoring()
+        throws Exception {
+        new Assertion<>(
+            "must give the same voltages with low-rank updates",
+            SimulatorTest.difference(
+                new String[] {
+                    "inductkick-snub.txt", "resistors.txt",
+                    "currentsrcelm.txt",
+                },
+                sim -> sim.maxUpdateRank = 0,
+                sim -> sim.maxUpdateRank = 16,
+                SimulatorTest::toggle
+            ),
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void stepsPiecewiseLinearCircuitsWithCacheLikeWithout()
+        throws Exception {
+        new Assertion<>(
+            "must give the same voltages with cached factors",
+            SimulatorTest.difference(
+                SimulatorTest.PIECEWISE,
+                sim -> sim.maxCachedFactors = 0,
+                sim -> { }
+            ),
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void stepsPiecewiseLinearCircuitsWithSparseCacheLikeWithout()
+        throws Exception {
+        new Assertion<>(
+            "must give the same voltages with cached sparse factors",
+            SimulatorTest.difference(
+                SimulatorTest.PIECEWISE,
+                sim -> {
+                    sim.sparseSolver = true;
+                    sim.maxCachedFactors = 0;
+                },
+                sim -> sim.sparseSolver = true
+            ),
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void stepsCircuitsWithMergedWiresLikeWithWireSources()
+        throws Exception {
+        new Assertion<>(
+            "must give the same voltages with wires merged",
+            SimulatorTest.difference(
+                SimulatorTest.CIRCUITS,
+                sim -> sim.wireMerging = false,
+                sim -> { }
+            ),
+            new IsCloseTo(0, 1e-6)
+        ).affirm();
+    }
+
+    @Test
+    void findsCurrentsOfMergedWiresLikeWireSources() throws Exception {
+        double worst = 0;
+        for (final String name : SimulatorTest.CIRCUITS) {
+            // a bypassed transistor reports the current of its last
+            // linearization, which depends on the path the solver took
+            final Simulator one = SimulatorTest.load(name);
+            one.wireMerging = false;
+            one.bypassTolerance = 0;
+            final Simulator two = SimulatorTest.load(name);
+            two.bypassTolerance = 0;
+            one.step(SimulatorTest.COMPARED);
+            two.step(SimulatorTest.COMPARED);
+            double diff = 0;
+            double scale = 1e-6;
+            for (int elm = 0; elm < one.elmList.size(); ++elm) {
+                if (one.getElm(elm) instanceof WireElm) {
+                    final double cur = one.getElm(elm).getCurrent();
+                    diff = Math.max(
+                        diff, Math.abs(cur - two.getElm(elm).getCurrent())
+                    );
+                    scale = Math.max(scale, Math.abs(cur));
+                }
+            }
+            worst = Math.max(worst, diff / scale);
+        }
+        new Assertion<>(
+            "must give merged wires the currents of their sources",
+            worst,
+            new IsCloseTo(0, 1e-6)
+        ).affirm();
+    }
+
+    @Test
+    void stepsLogicCircuitsOnEventsLikeEveryIteration() throws Exception {
+        new Assertion<>(
+            "must give the same voltages running logic on events",
+            SimulatorTest.difference(
+                new String[] {
+                    "counter.txt", "johnsonctr.txt", "7segdecoder.txt",
+                    "deltasigma.txt", "dram.txt",
+                },
+                sim -> { },
+                sim -> sim.logicEvents = true
+            ),
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void stepsLinearCircuitsInStateSpaceLikeFullSteps() throws Exception {
+        new Assertion<>(
+            "must give the same voltages after state-space steps",
+            SimulatorTest.difference(
+                new String[] {
+                    "lrc.txt", "butter10lo.txt", "transformer.txt",
+                    "coupled3.txt", "crossover.txt",
+                },
+                sim -> { },
+                sim -> sim.setStateSpace(true)
+            ),
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void stepsCircuitsWithSparseSolverLikeDenseSolver() throws Exception {
+        new Assertion<>(
+            "must give the same voltages with the sparse solver",
+            SimulatorTest.difference(
+                SimulatorTest.CIRCUITS,
+                sim -> sim.sparseSolver = false,
+                sim -> sim.sparseSolver = true
+            ),
+            new IsCloseTo(0, 1e-6)
+        ).affirm();
+    }
+
+    @Test
+    void stepsNonLinearCircuitWithoutAllocatingOnDenseSolver()
+        throws Exception {
+        new Assertion<>(
+            "must not allocate while stepping with the dense solver",
+            SimulatorTest.allocated("mosfetamp.txt", false),
+            new IsEqual<>(0L)
+        ).affirm();
+    }
+
+    @Test
+    void stepsNonLinearCircuitWithoutAllocatingOnSparseSolver()
+        throws Exception {
+        new Assertion<>(
+            "must not allocate while stepping with the sparse solver",
+            SimulatorTest.allocated("mosfetamp.txt", true),
+            new IsEqual<>(0L)
+        ).affirm();
+    }
+
+    /**
+     * Bytes the current thread allocates over STEPS steps of a circuit,
+     * after warming it up.
+     * @param name The circuit, from the bundled ones
+     * @param sparse Whether to use the sparse solver
+     * @return The bytes allocated
+     * @throws Exception If the circuit can't be read
+     */
+    private static long allocated(final String name, final boolean sparse)
+        throws Exception {
+        final Simulator sim = SimulatorTest.load(name);
+        sim.sparseSolver = sparse;
+        for (int step = 0; step < SimulatorTest.WARMUP; ++step) {
+            sim.step();
+        }
+        final com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long before = bean.getThreadAllocatedBytes(thread);
+        for (int step = 0; step < SimulatorTest.STEPS; ++step) {
+            sim.step();
+        }
+        return bean.getThreadAllocatedBytes(thread) - before;
+    }
+
+    /**
+     * The largest difference in the voltages of the elements of some
+     * circuits between running them one way and another, every hundred
+     * steps, relative to the largest voltage of each circuit.
+     * @param names The circuits, from the bundled ones
+     * @param first Sets up the first way
+     * @param second Sets up the second way
+     * @return The difference
+     * @throws Exception If a circuit can't be read
+     */
+    private static double difference(final String[] names,
+        final Consumer<Simulator> first, final Consumer<Simulator> second)
+        throws Exception {
+        return SimulatorTest.difference(names, first, second, sim -> { });
+    }
+
+    /**
+     * The largest difference in the voltages of the elements of some
+     * circuits between running them one way and another, every hundred
+     * steps, relative to the largest voltage of each circuit.
+     * @param names The circuits, from the bundled ones
+     * @param first Sets up the first way
+     * @param second Sets up the second way
+     * @param each Done to both every hundred steps
+     * @return The difference
+     * @throws Exception If a circuit can't be read
+     */
+    private static double difference(final String[] names,
+        final Consumer<Simulator> first, final Consumer<Simulator> second,
+        final Consumer<Simulator> each) throws Exception {
+        double worst = 0;
+        for (final String name : names) {
+            final Simulator one = SimulatorTest.load(name);
+            first.accept(one);
+            final Simulator two = SimulatorTest.load(name);
+            second.accept(two);
+            double diff = 0;
+            double scale = 1e-3;
+            for (int step = 0; step < SimulatorTest.COMPARED; step += 100) {
+                each.accept(one);
+                each.accept(two);
+                one.step(100);
+                two.step(100);
+                for (int elm = 0; elm < one.elmList.size(); ++elm) {
+                    final double[] volts = one.getElm(elm).volts;
+                    for (int post = 0; post < volts.length; ++post) {
+                        diff = Math.max(
+                            diff,
+                            Math.abs(volts[post] - two.getElm(elm).volts[post])
+                        );
+                        scale = Math.max(scale, Math.abs(volts[post]));
+                    }
+                }
+            }
+            worst = Math.max(worst, diff / scale);
+        }
+        return worst;
+    }
+
+    /**
+     * Flips a circuit's first switch.
+     * @param sim The simulator with the circuit
+     */
+    private static void toggle(final Simulator sim) {
+        for (int elm = 0; elm < sim.elmList.size(); ++elm) {
+            if (sim.getElm(elm).getClass() == SwitchElm.class) {
+                ((SwitchElm) sim.getElm(elm)).toggle();
+                sim.elementChanged(sim.getElm(elm));
+                break;
+            }
+        }
+    }
+
+    /**
+     * Why a circuit can't be run, once it's analyzed.
+     * @param text The circuit's elements, one per line
+     * @return The simulator's stop message, or "null"
+     */
+    private static String stopMessage(final String text) {
+        final Simulator sim = new Simulator();
+        CircuitReader.read(
+            sim, String.format("$ 1 5.0E-6 10 50 5.0\n%s\n", text)
+        );
+        sim.step();
+        return String.valueOf(sim.stopMessage);
+    }
+
+    /**
+     * Reads a bundled circuit, with its noise sources seeded.
+     * @param name The circuit, from the bundled ones
+     * @return A simulator with the circuit
+     * @throws Exception If the circuit can't be read
+     */
+    private static Simulator load(final String name) throws Exception {
+        final Simulator sim = new Simulator();
+        sim.random = new Random(1);
+        CircuitReader.read(
+            sim,
+            new String(
+                Files.readAllBytes(
+                    Paths.get(
+                        SimulatorTest.class.getResource(
+                            String.format("/circuits/%s", name)
+                        ).toURI()
+                    )
+                ),
+                StandardCharsets.UTF_8
+            )
+        );
+        return sim;
+    }
+
+    /**
+     * The largest difference between the voltage of a circuit's first
+     * capacitor over 50 ms with the adaptive step and with a fixed one,
+     * relative to its largest value.
+     * @param name The circuit, from the bundled ones
+     * @param tolerance The relative tolerance of the adaptive step
+     * @return The difference
+     * @throws Exception If the circuit can't be read
+     */
+    private static double deviation(final String name,
+        final double tolerance) throws Exception {
+        final List<double[]> reference =
+            SimulatorTest.waveform(name, 0, 0.05);
+        double diff = 0;
+        double peak = 0;
+        int next = 1;
+        for (final double[] sample
+            : SimulatorTest.waveform(name, tolerance, 0.05)) {
+            while (next < reference.size() - 1
+                && reference.get(next)[0] < sample[0]) {
+                ++next;
+            }
+            final double[] before = reference.get(next - 1);
+            final double[] after = reference.get(next);
+            final double expected = before[1] + (after[1] - before[1])
+                * (sample[0] - before[0]) / (after[0] - before[0]);
+            diff = Math.max(diff, Math.abs(sample[1] - expected));
+            peak = Math.max(peak, Math.abs(expected));
+        }
+        return diff / peak;
+    }
+
+    /**
+     * The voltage of a circuit's first capacitor over time, at every
+     * step.  The fixed step is a sixteenth of the circuit's own, so it
+     * serves as a reference.
+     * @param name The circuit, from the bundled ones
+     * @param tolerance The relative tolerance of the adaptive step, or 0
+     *  for the fixed step
+     * @param end How long to run it
+     * @return The time and voltage of each step
+     * @throws Exception If the circuit can't be read
+     */
+    private static List<double[]> waveform(final String name,
+        final double tolerance, final double end) throws Exception {
+        final Simulator sim = SimulatorTest.load(name);
+        if (tolerance > 0) {
+            sim.setAdaptiveTimeStep(true);
+            sim.lteRelTol = tolerance;
+        } else {
+            sim.setTimeStep(sim.timeStep / 16);
+        }
+        CircuitElm cap = null;
+        for (int elm = 0; cap == null; ++elm) {
+            if (sim.getElm(elm) instanceof CapacitorElm) {
+                cap = sim.getElm(elm);
+            }
+        }
+        final List<double[]> samples = new ArrayList<>(0);
+        while (sim.t < end && sim.step()) {
+            samples.add(new double[] {sim.t, cap.getVoltageDiff()});
+        }
+        return samples;
+    }
+
+    /**
+     * The mean period of a waveform, from its rising crossings of the
+     * middle of its range, after the first quarter.
+     * @param samples The time and value of each sample
+     * @return The period
+     */
+    private static double period(final List<double[]> samples) {
+        final double start = samples.get(samples.size() - 1)[0] / 4;
+        double low = Double.MAX_VALUE;
+        double high = -Double.MAX_VALUE;
+        for (final double[] sample : samples) {
+            if (sample[0] > start) {
+                low = Math.min(low, sample[1]);
+                high = Math.max(high, sample[1]);
+            }
+        }
+        final double mid = (low + high) / 2;
+        double first = 0;
+        double last = 0;
+        int edges = 0;
+        for (int idx = 1; idx < samples.size(); ++idx) {
+            final double[] before = samples.get(idx - 1);
+            final double[] after = samples.get(idx);
+            if (before[0] > start && before[1] < mid && after[1] >= mid) {
+                last = before[0] + (mid - before[1])
+                    / (after[1] - before[1]) * (after[0] - before[0]);
+                if (edges == 0) {
+                    first = last;
+                }
+                ++edges;
+            }
+        }
+        return (last - first) / (edges - 1);
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2005-2020 Paul Falstad (Circuit Simulator)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.fabriciofx.circuitfx;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.hamcrest.core.IsEqual;
+import org.hamcrest.number.IsCloseTo;
+import org.junit.jupiter.api.Test;
+import org.llorllale.cactoos.matchers.Assertion;
+
+/**
+ * Test case for {@link SparseLU}.
+ */
+final class SparseLUTest {
+    /**
+     * Size of the matrices.
+     */
+    private static final int SIZE = 60;
+
+    /**
+     * Random matrices tried.
+     */
+    private static final int MATRICES = 20;
+
+    @Test
+    void solvesRandomMatricesLikeDenseSolver() {
+        final Random random = new Random(1);
+        double worst = 0;
+        for (int matrix = 0; matrix < SparseLUTest.MATRICES; ++matrix) {
+            final DenseMatrix dense = SparseLUTest.random(random);
+            final double[] rhs = SparseLUTest.vector(random);
+            worst = Math.max(
+                worst,
+                SparseLUTest.difference(
+                    SparseLUTest.sparse(dense, rhs),
+                    SparseLUTest.dense(dense, rhs)
+                )
+            );
+        }
+        new Assertion<>(
+            "must solve random matrices like lu_factor and lu_solve",
+            worst,
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void solvesNearlySingularMatricesLikeDenseSolver() {
+        final Random random = new Random(2);
+        double worst = 0;
+        for (int matrix = 0; matrix < SparseLUTest.MATRICES; ++matrix) {
+            final DenseMatrix dense = SparseLUTest.nearlySingular(random);
+            final double[] rhs = SparseLUTest.vector(random);
+            worst = Math.max(
+                worst,
+                SparseLUTest.difference(
+                    SparseLUTest.sparse(dense, rhs),
+                    SparseLUTest.dense(dense, rhs)
+                )
+            );
+        }
+        new Assertion<>(
+            "must solve nearly singular matrices close to lu_solve",
+            worst,
+            new IsCloseTo(0, 1e-3)
+        ).affirm();
+    }
+
+    @Test
+    void solvesNearlySingularMatricesBackwardStably() {
+        final Random random = new Random(2);
+        double worst = 0;
+        for (int matrix = 0; matrix < SparseLUTest.MATRICES; ++matrix) {
+            final DenseMatrix dense = SparseLUTest.nearlySingular(random);
+            final double[] rhs = SparseLUTest.vector(random);
+            final double[] sol = SparseLUTest.sparse(dense, rhs);
+            double norm = 0;
+            double size = 0;
+            for (int row = 0; row < SparseLUTest.SIZE; ++row) {
+                double sum = 0;
+                for (int col = 0; col < SparseLUTest.SIZE; ++col) {
+                    sum += Math.abs(dense.get(row, col));
+                }
+                norm = Math.max(norm, sum);
+                size = Math.max(size, Math.abs(sol[row]));
+            }
+            worst = Math.max(
+                worst,
+                SparseLUTest.residual(dense, sol, rhs) / (norm * size)
+            );
+        }
+        new Assertion<>(
+            "must leave a residual small next to the matrix and solution",
+            worst,
+            new IsCloseTo(0, 1e-12)
+        ).affirm();
+    }
+
+    @Test
+    void refactorsNewValuesLikeDenseSolver() {
+        final Random random = new Random(4);
+        final SparseMatrix matrix =
+            new SparseMatrix(SparseLUTest.random(random));
+        final SparseLU solver = new SparseLU();
+        solver.factor(matrix);
+        double worst = 0;
+        for (int matrices = 0; matrices < SparseLUTest.MATRICES; ++matrices) {
+            for (int slot = 0; slot < matrix.count; ++slot) {
+                matrix.values[slot] *= 0.5 + random.nextDouble();
+            }
+            solver.refactor(matrix);
+            final double[] rhs = SparseLUTest.vector(random);
+            final double[] sol = rhs.clone();
+            solver.solve(sol);
+            worst = Math.max(
+                worst,
+                SparseLUTest.difference(
+                    sol, SparseLUTest.dense(SparseLUTest.dense(matrix), rhs)
+                )
+            );
+        }
+        new Assertion<>(
+            "must solve like lu_solve after refactoring with new values",
+            worst,
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void refactorsChangingColumnsLikeDenseSolver() {
+        final Random random = new Random(5);
+        final SparseMatrix matrix =
+            new SparseMatrix(SparseLUTest.random(random));
+        final boolean[] changing = SparseLUTest.changing(random);
+        final SparseLU solver = new SparseLU();
+        solver.analyze(matrix, changing);
+        solver.factor(matrix);
+        double worst = 0;
+        for (int matrices = 0; matrices < SparseLUTest.MATRICES; ++matrices) {
+            for (int slot = 0; slot < matrix.count; ++slot) {
+                if (changing[matrix.cols[slot]]) {
+                    matrix.values[slot] *= 0.5 + random.nextDouble();
+                }
+            }
+            solver.refactor(matrix);
+            final double[] rhs = SparseLUTest.vector(random);
+            final double[] sol = rhs.clone();
+            solver.solve(sol);
+            worst = Math.max(
+                worst,
+                SparseLUTest.difference(
+                    sol, SparseLUTest.dense(SparseLUTest.dense(matrix), rhs)
+                )
+            );
+        }
+        new Assertion<>(
+            "must solve like lu_solve after refactoring changed columns",
+            worst,
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void ordersChangingColumnsLast() {
+        final Random random = new Random(6);
+        final SparseMatrix matrix =
+            new SparseMatrix(SparseLUTest.random(random));
+        final boolean[] changing = SparseLUTest.changing(random);
+        final SparseLU solver = new SparseLU();
+        solver.analyze(matrix, changing);
+        final boolean[] last = new boolean[SparseLUTest.SIZE];
+        for (int pos = solver.fixed; pos < SparseLUTest.SIZE; ++pos) {
+            last[solver.colOrder[pos]] = true;
+        }
+        new Assertion<>(
+            "must leave only the changing columns out of the fixed ones",
+            last,
+            new IsEqual<>(changing)
+        ).affirm();
+    }
+
+    @Test
+    void keepsCopiedFactorsWhenOriginalRefactors() {
+        final Random random = new Random(7);
+        final SparseMatrix matrix =
+            new SparseMatrix(SparseLUTest.random(random));
+        final DenseMatrix before = SparseLUTest.dense(matrix);
+        final SparseLU solver = new SparseLU();
+        solver.factor(matrix);
+        final SparseLU copy = new SparseLU();
+        copy.copyFrom(solver);
+        for (int slot = 0; slot < matrix.count; ++slot) {
+            matrix.values[slot] *= 0.5 + random.nextDouble();
+        }
+        solver.refactor(matrix);
+        final double[] rhs = SparseLUTest.vector(random);
+        final double[] sol = rhs.clone();
+        copy.solve(sol);
+        new Assertion<>(
+            "must solve the copied matrix after the original refactors",
+            SparseLUTest.difference(sol, SparseLUTest.dense(before, rhs)),
+            new IsCloseTo(0, 1e-9)
+        ).affirm();
+    }
+
+    @Test
+    void reportsMatrixWithEmptyColumnAsSingular() {
+        final SparseMatrix matrix = new SparseMatrix(3);
+        matrix.add(0, 0, 1);
+        matrix.add(0, 2, 1);
+        matrix.add(1, 2, 1);
+        matrix.add(2, 0, 1);
+        new Assertion<>(
+            "must report a column with nothing to pivot on",
+            new SparseLU().factor(matrix),
+            new IsEqual<>(false)
+        ).affirm();
+    }
+
+    @Test
+    void reportsMatrixWithEmptyRowAsSingular() {
+        final SparseMatrix matrix = new SparseMatrix(3);
+        matrix.add(0, 0, 1);
+        matrix.add(0, 1, 1);
+        matrix.add(2, 2, 1);
+        new Assertion<>(
+            "must report a row of zeros",
+            new SparseLU().factor(matrix),
+            new IsEqual<>(false)
+        ).affirm();
+    }
+
+    @Test
+    void ordersEveryColumnOnce() {
+        final int[] order = MinimumDegree.order(
+            new SparseMatrix(SparseLUTest.random(new Random(3)))
+        );
+        Arrays.sort(order);
+        final int[] all = new int[SparseLUTest.SIZE];
+        for (int col = 0; col < all.length; ++col) {
+            all[col] = col;
+        }
+        new Assertion<>(
+            "must order every column once",
+            order,
+            new IsEqual<>(all)
+        ).affirm();
+    }
+
+    /**
+     * A random sparse matrix, about a tenth full, with a zero diagonal
+     * in some rows, as the rows of voltage sources have.  Each row and
+     * column gets an entry on a random permutation, so it's nonsingular
+     * but has to be pivoted.
+     * @param random Where the values come from
+     * @return The matrix
+     */
+    static DenseMatrix random(final Random random) {
+        final int size = SparseLUTest.SIZE;
+        final DenseMatrix matrix = new DenseMatrix(size);
+        final int[] perm = new int[size];
+        for (int row = 0; row < size; ++row) {
+            perm[row] = row;
+        }
+        for (int row = size - 1; row > 0; --row) {
+            final int other = random.nextInt(row + 1);
+            final int swap = perm[row];
+            perm[row] = perm[other];
+            perm[other] = swap;
+        }
+        for (int row = 0; row < size; ++row) {
+            for (int col = 0; col < size; ++col) {
+                if (random.nextInt(10) == 0 && (row != col || row % 4 != 0)) {
+                    matrix.values[row * size + col] =
+                        random.nextDouble() * 2 - 1;
+                }
+            }
+            matrix.values[row * size + perm[row]] = 4 + random.nextDouble();
+        }
+        return matrix;
+    }
+
+    /**
+     * A random matrix whose last row all but repeats its first.
+     * @param random Where the values come from
+     * @return The matrix
+     */
+    static DenseMatrix nearlySingular(final Random random) {
+        final int size = SparseLUTest.SIZE;
+        final DenseMatrix matrix = SparseLUTest.random(random);
+        for (int col = 0; col < size; ++col) {
+            final double first = matrix.get(0, col);
+            matrix.values[(size - 1) * size + col] =
+                first + first * 1e-9 * random.nextDouble();
+        }
+        return matrix;
+    }
+
+    /**
+     * The dense matrix with the entries of a sparse one.
+     * @param matrix The sparse matrix
+     * @return The dense matrix
+     */
+    static DenseMatrix dense(final SparseMatrix matrix) {
+        final DenseMatrix dense = new DenseMatrix(matrix.size);
+        for (int slot = 0; slot < matrix.count; ++slot) {
+            dense.add(
+                matrix.rows[slot], matrix.cols[slot], matrix.values[slot]
+            );
+        }
+        return dense;
+    }
+
+    /**
+     * Columns that change between refactorizations, a sixth of them.
+     * @param random Where they come from
+     * @return Whether each column changes
+     */
+    static boolean[] changing(final Random random) {
+        final boolean[] cols = new boolean[SparseLUTest.SIZE];
+        for (int col = 0; col < cols.length; col += 6) {
+            cols[col + random.nextInt(6)] = true;
+        }
+        return cols;
+    }
+
+    /**
+     * A random vector.
+     * @param random Where the values come from
+     * @return The vector
+     */
+    static double[] vector(final Random random) {
+        final double[] vec = new double[SparseLUTest.SIZE];
+        for (int row = 0; row < vec.length; ++row) {
+            vec[row] = random.nextDouble() * 2 - 1;
+        }
+        return vec;
+    }
+
+    /**
+     * Solves a matrix with SparseLU.
+     * @param dense The matrix
+     * @param rhs The right hand side
+     * @return The solution
+     */
+    static double[] sparse(final DenseMatrix dense, final double[] rhs) {
+        final SparseLU solver = new SparseLU();
+        new Assertion<>(
+            "must factor the matrix",
+            solver.factor(new SparseMatrix(dense)),
+            new IsEqual<>(true)
+        ).affirm();
+        final double[] sol = rhs.clone();
+        solver.solve(sol);
+        return sol;
+    }
+
+    /**
+     * Solves a matrix with lu_factor and lu_solve.
+     * @param dense The matrix
+     * @param rhs The right hand side
+     * @return The solution
+     */
+    static double[] dense(final DenseMatrix dense, final double[] rhs) {
+        final DenseMatrix factors = new DenseMatrix(dense.size);
+        System.arraycopy(dense.values, 0, factors.values, 0, dense.count);
+        final int[] permute = new int[dense.size];
+        final Simulator sim = new Simulator();
+        sim.lu_factor(factors, dense.size, permute);
+        final double[] sol = rhs.clone();
+        sim.lu_solve(factors, dense.size, permute, sol);
+        return sol;
+    }
+
+    /**
+     * The largest difference between two vectors, relative to the
+     * largest entry of the second.
+     * @param first The first vector
+     * @param second The second vector
+     * @return The difference
+     */
+    static double difference(final double[] first, final double[] second) {
+        double diff = 0;
+        double scale = 0;
+        for (int row = 0; row < first.length; ++row) {
+            diff = Math.max(diff, Math.abs(first[row] - second[row]));
+            scale = Math.max(scale, Math.abs(second[row]));
+        }
+        return diff / scale;
+    }
+
+    /**
+     * The largest entry of A x - b.
+     * @param dense The matrix A
+     * @param sol The solution x
+     * @param rhs The right hand side b
+     * @return The residual
+     */
+    static double residual(final DenseMatrix dense, final double[] sol,
+        final double[] rhs) {
+        double res = 0;
+        for (int row = 0; row < dense.size; ++row) {
+            double sum = -rhs[row];
+            for (int col = 0; col < dense.size; ++col) {
+                sum += dense.get(row, col) * sol[col];
+            }
+            res = Math.max(res, Math.abs(sum));
+        }
+        return res;
+    }
+}